@@ -0,0 +1,59 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter: every delay doubles the previous one up to a maximum, and a
+ * random half of it is taken off so that pollers that started together drift apart.
+ * <p>
+ * Not thread-safe, each poller owns its own.
+ */
+class Backoff {
+  private final long minDelayMs;
+  private final long maxDelayMs;
+  private long delayMs = 0;
+
+  Backoff(long minDelayMs, long maxDelayMs) {
+    Preconditions.checkArgument(minDelayMs > 0, "minDelayMs must be positive: %s", minDelayMs);
+    Preconditions.checkArgument(maxDelayMs >= minDelayMs,
+        "maxDelayMs must be at least minDelayMs: %s < %s", maxDelayMs, minDelayMs);
+    this.minDelayMs = minDelayMs;
+    this.maxDelayMs = maxDelayMs;
+  }
+
+  /**
+   * Grows the delay and returns the time to wait before the next attempt.
+   */
+  long nextDelayMs() {
+    delayMs = delayMs == 0 ? minDelayMs : Math.min(maxDelayMs, delayMs * 2);
+    long half = delayMs / 2;
+    return delayMs - half + ThreadLocalRandom.current().nextLong(half + 1);
+  }
+
+  /**
+   * Goes back to no delay, the next delay being the minimum one.
+   */
+  void reset() {
+    delayMs = 0;
+  }
+
+  boolean isBackingOff() {
+    return delayMs != 0;
+  }
+}
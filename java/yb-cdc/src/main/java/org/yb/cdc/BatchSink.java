@@ -0,0 +1,40 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import org.yb.client.GetChangesResponse;
+import org.yb.client.YBTable;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Receives the changes of a stream one batch at a time, as returned by GetChanges.
+ * <p>
+ * A poller hands a tablet's batches over in order and waits for each to be acknowledged before
+ * the next, and only then advances the tablet's checkpoint. A sink should complete the future once
+ * the batch is durable on its side, and is free to do so asynchronously, grouping the batches of
+ * many tablets into a single write.
+ */
+public interface BatchSink extends Closeable {
+  /**
+   * Applies a batch of changes of a tablet.
+   * @param table the table of the tablet
+   * @param tabletId the tablet the changes are from
+   * @param batch the changes, which has at least one record
+   * @return a future completed once the batch is applied, or completed exceptionally if it can't
+   */
+  CompletableFuture<Void> apply(YBTable table, String tabletId, GetChangesResponse batch);
+}
@@ -0,0 +1,47 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Keeps the checkpoint of every tablet of a stream so that a restarted connector resumes where it
+ * left off instead of reading the whole retained log again.
+ * <p>
+ * Updates are cheap and only made durable by the next {@link #flush()}, which stores whatever
+ * changed since the previous one at once. An implementation may flush on its own schedule.
+ */
+public interface CheckpointStore extends Closeable {
+  /**
+   * @return the last checkpoint stored for the tablet, or null if there isn't any
+   */
+  Checkpoint get(String tabletId);
+
+  /**
+   * Records the checkpoint of a tablet, to be made durable by the next flush.
+   */
+  void update(String tabletId, Checkpoint checkpoint);
+
+  /**
+   * Makes every checkpoint recorded so far durable.
+   */
+  void flush() throws IOException;
+
+  /**
+   * @return how long the oldest checkpoint that isn't durable yet has been waiting, in millis
+   */
+  long getCheckpointLagMs();
+}
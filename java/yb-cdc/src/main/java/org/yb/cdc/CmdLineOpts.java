@@ -20,25 +20,69 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Logger;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class CmdLineOpts {
 
   private static final String DEFAULT_MASTER_ADDRS = "127.0.0.1:7100";
 
   private static final Logger LOG = Logger.getLogger(CmdLineOpts.class);
 
-  public String tableName;
+  // Tables to stream, as <namespace>.<table>, or none to stream every table of namespaceName.
+  public List<String> tableNames = new ArrayList<>();
+  public Map<String, Integer> tableWeights = new HashMap<>();
   public String namespaceName;
   public String masterAddrs = DEFAULT_MASTER_ADDRS;
   public String streamId = "";
+  public long maxIdleBackoffMs = Poller.DEFAULT_MAX_IDLE_BACKOFF_MS;
+  public int waitForChangesMs = 0;
+  public String checkpointDir = ".";
+  public long checkpointIntervalMs = 1000;
+  public String sink = "log";
+  public String sinkDir = ".";
+  public long sinkMaxFileBytes = 128L << 20;
+  public long sinkMaxFileAgeMs = 3600000;
+  public String sinkFormat = "protobuf";
+  public int maxPollsPerTServer = 16;
+  public long tabletRefreshIntervalMs = 30000;
+  public int metricsPort = -1;
 
   public static CmdLineOpts createFromArgs(String[] args) throws Exception {
     Options options = new Options();
 
     options.addOption("master_addrs", true, "List of YB master ips to contact");
     options.addOption("table_name", true,
-            "Table to get change capture from in format <namespace>.<table>");
+            "Comma separated tables to get change capture from in format " +
+            "<namespace>.<table>[:<weight>], the weight being the table's share of the polls");
+    options.addOption("namespace_name", true,
+            "Namespace to get change capture from every table of, instead of --table_name");
     options.addOption("stream_id", true,
             "Optional stream ID. Use this if you already have a CDC stream set up on the table");
+    options.addOption("max_polls_per_tserver", true,
+            "Maximum number of polls outstanding at once per tablet server");
+    options.addOption("tablet_refresh_interval_ms", true,
+            "How often to look for new tablets, and new tables of --namespace_name");
+    options.addOption("metrics_port", true,
+            "Port to serve the metrics at /metrics in the Prometheus format on, none by default");
+    options.addOption("max_idle_backoff_ms", true,
+            "Longest time to wait before polling a tablet that had no changes again");
+    options.addOption("wait_for_changes_ms", true,
+            "How long the tablet servers may hold a poll until there are changes, 0 to disable");
+    options.addOption("checkpoint_dir", true,
+            "Directory to keep the checkpoints of the stream in, to resume from after a restart");
+    options.addOption("checkpoint_interval_ms", true,
+            "How often to make the checkpoints durable");
+    options.addOption("sink", true, "Where to send the changes: log (default) or file");
+    options.addOption("sink_dir", true, "Directory to write the changes in, for the file sink");
+    options.addOption("sink_max_file_bytes", true,
+            "Size past which the file sink starts a new file");
+    options.addOption("sink_max_file_age_ms", true,
+            "Age past which the file sink starts a new file");
+    options.addOption("sink_format", true,
+            "How the file sink writes the records: protobuf (default) or compact rows");
 
     // Do the actual arg parsing.
     CommandLineParser parser = new BasicParser();
@@ -71,18 +115,87 @@ public class CmdLineOpts {
       LOG.info("Defaulting master_addrs to 127.0.0.1:7100");
     }
 
-    String[] fullTableName = getRequiredOptionValue(commandLine, "table_name").split("\\.");
-
-    if (fullTableName.length != 2) {
-      throw new Exception(String.format("Expected a namespace and table name for --table_name in" +
-                                        " format <namespace>.<table>"));
+    if (commandLine.hasOption("namespace_name")) {
+      if (commandLine.hasOption("table_name")) {
+        throw new Exception("Expected only one of --table_name and --namespace_name");
+      }
+      namespaceName = commandLine.getOptionValue("namespace_name");
+    } else {
+      for (String table : getRequiredOptionValue(commandLine, "table_name").split(",")) {
+        String[] tableAndWeight = table.trim().split(":");
+        String[] fullTableName = tableAndWeight[0].split("\\.");
+        if (fullTableName.length != 2 || tableAndWeight.length > 2) {
+          throw new Exception(String.format("Expected a namespace and table name for " +
+                                            "--table_name in format <namespace>.<table>"));
+        }
+        tableNames.add(tableAndWeight[0]);
+        if (tableAndWeight.length == 2) {
+          tableWeights.put(tableAndWeight[0], Integer.parseInt(tableAndWeight[1]));
+        }
+      }
     }
 
-    namespaceName = fullTableName[0];
-    tableName = fullTableName[1];
-
     if (commandLine.hasOption("stream_id")) {
       streamId = commandLine.getOptionValue("stream_id");
+      if (tableNames.size() != 1) {
+        throw new Exception("--stream_id can only be given along with a single --table_name");
+      }
+    }
+
+    if (commandLine.hasOption("max_polls_per_tserver")) {
+      maxPollsPerTServer = Integer.parseInt(commandLine.getOptionValue("max_polls_per_tserver"));
+    }
+
+    if (commandLine.hasOption("tablet_refresh_interval_ms")) {
+      tabletRefreshIntervalMs =
+          Long.parseLong(commandLine.getOptionValue("tablet_refresh_interval_ms"));
+    }
+
+    if (commandLine.hasOption("metrics_port")) {
+      metricsPort = Integer.parseInt(commandLine.getOptionValue("metrics_port"));
+    }
+
+    if (commandLine.hasOption("max_idle_backoff_ms")) {
+      maxIdleBackoffMs = Long.parseLong(commandLine.getOptionValue("max_idle_backoff_ms"));
+    }
+
+    if (commandLine.hasOption("wait_for_changes_ms")) {
+      waitForChangesMs = Integer.parseInt(commandLine.getOptionValue("wait_for_changes_ms"));
+    }
+
+    if (commandLine.hasOption("checkpoint_dir")) {
+      checkpointDir = commandLine.getOptionValue("checkpoint_dir");
+    }
+
+    if (commandLine.hasOption("checkpoint_interval_ms")) {
+      checkpointIntervalMs = Long.parseLong(commandLine.getOptionValue("checkpoint_interval_ms"));
+    }
+
+    if (commandLine.hasOption("sink")) {
+      sink = commandLine.getOptionValue("sink");
+      if (!sink.equals("log") && !sink.equals("file")) {
+        throw new Exception(String.format("Unknown sink %s, expected log or file", sink));
+      }
+    }
+
+    if (commandLine.hasOption("sink_dir")) {
+      sinkDir = commandLine.getOptionValue("sink_dir");
+    }
+
+    if (commandLine.hasOption("sink_max_file_bytes")) {
+      sinkMaxFileBytes = Long.parseLong(commandLine.getOptionValue("sink_max_file_bytes"));
+    }
+
+    if (commandLine.hasOption("sink_max_file_age_ms")) {
+      sinkMaxFileAgeMs = Long.parseLong(commandLine.getOptionValue("sink_max_file_age_ms"));
+    }
+
+    if (commandLine.hasOption("sink_format")) {
+      sinkFormat = commandLine.getOptionValue("sink_format");
+      if (!sinkFormat.equals("protobuf") && !sinkFormat.equals("compact")) {
+        throw new Exception(String.format("Unknown sink format %s, expected protobuf or compact",
+                                          sinkFormat));
+      }
     }
 
   }
@@ -0,0 +1,139 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import org.yb.client.AsyncYBClient;
+import org.yb.client.ClientMetrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics of a connector: those of every tablet it polls, of its checkpoint stores, poll
+ * scheduler and decode stage, and of its client. They are published with
+ * {@link ClientMetrics.Visitor}s, as the client's are, and summed up in a log line by
+ * {@link #summary()}.
+ */
+final class ConnectorMetrics {
+  private final AsyncYBClient client;
+  private final PollScheduler scheduler;
+
+  // Keyed by tablet id.
+  private final Map<String, TabletMetrics> tablets = new ConcurrentHashMap<>();
+  // Keyed by table name.
+  private final Map<String, MappedFileCheckpointStore> checkpointStores =
+      new ConcurrentHashMap<>();
+  // Null unless the sink decodes the records.
+  private volatile DecodeStage decodeStage;
+
+  // What the tablets polled before they were removed, guarded by this. The totals of the
+  // connector only ever grow, whichever tablets come and go.
+  private long removedNumRecords = 0;
+  private long removedNumBytes = 0;
+
+  // Where the previous summary left off, guarded by this.
+  private long lastSummaryNanos = System.nanoTime();
+  private long lastNumRecords = 0;
+  private long lastNumBytes = 0;
+
+  ConnectorMetrics(AsyncYBClient client, PollScheduler scheduler) {
+    this.client = client;
+    this.scheduler = scheduler;
+  }
+
+  synchronized void addTablet(String tabletId, TabletMetrics metrics) {
+    retire(tablets.put(tabletId, metrics));
+  }
+
+  synchronized void removeTablet(String tabletId) {
+    retire(tablets.remove(tabletId));
+  }
+
+  // Must be called with this synchronized.
+  private void retire(TabletMetrics metrics) {
+    if (metrics != null) {
+      removedNumRecords += metrics.getNumRecords();
+      removedNumBytes += metrics.getNumBytes();
+    }
+  }
+
+  void addCheckpointStore(String tableName, MappedFileCheckpointStore checkpointStore) {
+    checkpointStores.put(tableName, checkpointStore);
+  }
+
+  void setDecodeStage(DecodeStage decodeStage) {
+    this.decodeStage = decodeStage;
+  }
+
+  void visit(ClientMetrics.Visitor visitor) {
+    for (TabletMetrics metrics : tablets.values()) {
+      metrics.visit(visitor);
+    }
+    for (Map.Entry<String, MappedFileCheckpointStore> entry : checkpointStores.entrySet()) {
+      Map<String, String> labels = Collections.singletonMap("table", entry.getKey());
+      MappedFileCheckpointStore store = entry.getValue();
+      visitor.gauge("yb_cdc_checkpoint_lag_ms", labels, store.getCheckpointLagMs());
+      visitor.gauge("yb_cdc_checkpoint_last_flush_latency_micros", labels,
+                    store.getLastFlushLatencyMicros());
+      visitor.gauge("yb_cdc_checkpoint_max_flush_latency_micros", labels,
+                    store.getMaxFlushLatencyMicros());
+      visitor.counter("yb_cdc_checkpoint_flushes", labels, store.getNumFlushes());
+    }
+    Map<String, String> none = Collections.emptyMap();
+    visitor.gauge("yb_cdc_tablets", none, tablets.size());
+    visitor.gauge("yb_cdc_polls_waiting", none, scheduler.getNumWaiting());
+    DecodeStage decodeStage = this.decodeStage;
+    if (decodeStage != null) {
+      visitor.counter("yb_cdc_unknown_columns", none, decodeStage.getNumUnknownColumns());
+    }
+    client.getMetrics().visit(visitor);
+  }
+
+  /**
+   * @return a line summing up the throughput since the previous summary and the current lag
+   */
+  synchronized String summary() {
+    long now = System.nanoTime();
+    long numRecords = removedNumRecords;
+    long numBytes = removedNumBytes;
+    long maxLagMs = 0;
+    long numPendingOps = 0;
+    for (TabletMetrics metrics : tablets.values()) {
+      numRecords += metrics.getNumRecords();
+      numBytes += metrics.getNumBytes();
+      maxLagMs = Math.max(maxLagMs, metrics.getLagMs());
+      numPendingOps += metrics.getNumPendingOps();
+    }
+    long maxCheckpointLagMs = 0;
+    long maxFlushLatencyMicros = 0;
+    for (MappedFileCheckpointStore store : checkpointStores.values()) {
+      maxCheckpointLagMs = Math.max(maxCheckpointLagMs, store.getCheckpointLagMs());
+      maxFlushLatencyMicros = Math.max(maxFlushLatencyMicros, store.getMaxFlushLatencyMicros());
+    }
+    double seconds = Math.max(1, TimeUnit.NANOSECONDS.toMillis(now - lastSummaryNanos)) / 1000.0;
+    String summary = String.format(
+        "%d tablets, %.1f records/s, %.1f KB/s, max lag: %d ms, pending ops: %d, " +
+        "polls waiting for a tablet server: %d, checkpoint lag: %d ms, slowest flush: %d us",
+        tablets.size(), (numRecords - lastNumRecords) / seconds,
+        (numBytes - lastNumBytes) / 1024.0 / seconds, maxLagMs, numPendingOps,
+        scheduler.getNumWaiting(), maxCheckpointLagMs, maxFlushLatencyMicros);
+    lastSummaryNanos = now;
+    lastNumRecords = numRecords;
+    lastNumBytes = numBytes;
+    return summary;
+  }
+}
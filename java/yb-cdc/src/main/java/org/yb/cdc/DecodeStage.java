@@ -0,0 +1,134 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import com.google.protobuf.CodedOutputStream;
+import org.yb.Schema;
+import org.yb.client.YBTable;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes CDC records against the schema of their table into compact rows, described in
+ * {@link RowDecoder}, so that consumers don't have to look every column up again for every
+ * record. The decoder of a table is built from its schema the first time, cached, and built again
+ * when a newer version of the schema is passed in. Columns the cached schema doesn't know of are
+ * still written, by name, and counted.
+ * <p>
+ * The rows of a batch end up one after the other in a single buffer, which sinks can write or
+ * forward as is, along with the version of the schema the rows refer to.
+ */
+public class DecodeStage {
+  // Room for the fixed part of a row on top of its serialized record size, to start with.
+  private static final int ROW_OVERHEAD = 32;
+
+  // Keyed by table id.
+  private final Map<String, RowDecoder> decoders = new ConcurrentHashMap<>();
+
+  private final AtomicLong numUnknownColumns = new AtomicLong();
+
+  /**
+   * The rows decoded from the records of a batch.
+   */
+  public static final class Rows {
+    private final int schemaVersion;
+    private final ByteBuffer buffer;
+
+    Rows(int schemaVersion, ByteBuffer buffer) {
+      this.schemaVersion = schemaVersion;
+      this.buffer = buffer;
+    }
+
+    /**
+     * @return the version of the schema the column indexes of the rows refer to
+     */
+    public int getSchemaVersion() {
+      return schemaVersion;
+    }
+
+    /**
+     * @return a buffer with a row per record, between its position and its limit
+     */
+    public ByteBuffer getBuffer() {
+      return buffer;
+    }
+  }
+
+  /**
+   * Decodes records of a table.
+   */
+  public Rows decode(YBTable table, List<CdcService.CDCRecordPB> records) {
+    return decode(table.getTableId(), table.getSchema(), table.getSchemaVersion(), records);
+  }
+
+  /**
+   * Decodes records of a table.
+   * @param tableId the id of the table, which its decoder is cached by
+   * @param schema the schema of the table, only used when the decoder isn't cached or is older
+   * @param schemaVersion the version of the schema
+   */
+  public Rows decode(String tableId, Schema schema, int schemaVersion,
+                     List<CdcService.CDCRecordPB> records) {
+    RowDecoder decoder = getDecoder(tableId, schema, schemaVersion);
+
+    int capacity = 0;
+    for (CdcService.CDCRecordPB record : records) {
+      capacity += record.getSerializedSize() + ROW_OVERHEAD;
+    }
+    while (true) {
+      ByteBuffer out = ByteBuffer.allocate(capacity);
+      try {
+        for (CdcService.CDCRecordPB record : records) {
+          decoder.write(record, out);
+        }
+        out.flip();
+        return new Rows(decoder.getSchemaVersion(), out);
+      } catch (BufferOverflowException | CodedOutputStream.OutOfSpaceException e) {
+        // Fixed size values can take more room than their varint encoding.
+        capacity *= 2;
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to decode records of table " + tableId, e);
+      }
+    }
+  }
+
+  private RowDecoder getDecoder(String tableId, Schema schema, int schemaVersion) {
+    while (true) {
+      RowDecoder cached = decoders.get(tableId);
+      if (cached != null && cached.getSchemaVersion() >= schemaVersion) {
+        return cached;
+      }
+      RowDecoder decoder = new RowDecoder(schema, schemaVersion, numUnknownColumns);
+      if (cached == null ? decoders.putIfAbsent(tableId, decoder) == null :
+                           decoders.replace(tableId, cached, decoder)) {
+        return decoder;
+      }
+    }
+  }
+
+  /**
+   * @return the number of columns written by name since they weren't in the schema of their
+   *         decoder, e.g. because they were added to the table after it was opened
+   */
+  public long getNumUnknownColumns() {
+    return numUnknownColumns.get();
+  }
+}
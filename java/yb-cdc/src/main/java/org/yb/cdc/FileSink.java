@@ -0,0 +1,333 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.yb.client.GetChangesResponse;
+import org.yb.client.YBTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the batches of every tablet to local files, rolled over by size and age.
+ * <p>
+ * A single writer thread takes all the batches queued since its last write and writes them with
+ * one gathering write, without copying the records into a common buffer, then syncs the file once
+ * and acknowledges them all. The more tablets are busy, the more batches share a sync. The
+ * directory is synced too whenever a file is created, before any batch written to it is
+ * acknowledged.
+ * <p>
+ * Files are named {@code <prefix>-<creation time in millis>-<sequence number>.log} and hold
+ * batches, each prefixed with its length in bytes (int) and the CRC32 of those bytes (int), so that
+ * a reader can find where a batch ends and drop one torn by a crash. A batch is made of the table
+ * id and the tablet id, each as its length (int) and UTF-8 bytes, the version of the schema of the
+ * table (int, 0 if unknown), the checkpoint term and index (longs) and the number of records
+ * (int), followed by the records, each made of its length (int) and a serialized
+ * {@link CdcService.CDCRecordPB}. With a {@link DecodeStage}, the records are written as the
+ * compact rows it decodes them into instead, decoded by the threads applying the batches rather
+ * than by the writer, and the schema version is the one the rows refer to.
+ */
+public class FileSink implements BatchSink {
+  private static final Logger LOG = Logger.getLogger(FileSink.class);
+
+  private static final int MAX_BATCHES_PER_WRITE = 1024;
+  // The length and the checksum of a batch.
+  static final int BATCH_PREFIX_SIZE = 4 + 4;
+
+  private final File dir;
+  private final String prefix;
+  private final long maxFileBytes;
+  private final long maxFileAgeMs;
+  private final DecodeStage decodeStage;
+
+  private final BlockingQueue<PendingBatch> queue = new LinkedBlockingQueue<>();
+  private final Thread writer;
+  private volatile boolean closed = false;
+
+  // Only used by the writer thread.
+  private FileChannel channel;
+  private long fileBytes;
+  private long fileOpenedMs;
+  private long fileSequence = 0;
+
+  private final AtomicLong numBytesWritten = new AtomicLong();
+  private final AtomicLong numFiles = new AtomicLong();
+
+  private static final class PendingBatch {
+    final String tableId;
+    final String tabletId;
+    final int schemaVersion;
+    final GetChangesResponse batch;
+    // The records decoded into rows, if the sink decodes them.
+    final ByteBuffer rows;
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    PendingBatch(String tableId, String tabletId, int schemaVersion, GetChangesResponse batch,
+                 ByteBuffer rows) {
+      this.tableId = tableId;
+      this.tabletId = tabletId;
+      this.schemaVersion = schemaVersion;
+      this.batch = batch;
+      this.rows = rows;
+    }
+  }
+
+  /**
+   * @param dir the directory to write the files in
+   * @param prefix the prefix of the file names
+   * @param maxFileBytes the size past which a file is rolled over
+   * @param maxFileAgeMs the age past which a file is rolled over
+   */
+  public FileSink(File dir, String prefix, long maxFileBytes, long maxFileAgeMs) {
+    this(dir, prefix, maxFileBytes, maxFileAgeMs, null);
+  }
+
+  /**
+   * @param dir the directory to write the files in
+   * @param prefix the prefix of the file names
+   * @param maxFileBytes the size past which a file is rolled over
+   * @param maxFileAgeMs the age past which a file is rolled over
+   * @param decodeStage the stage to decode the records into rows with, or null to write them as
+   *                    protobufs
+   */
+  public FileSink(File dir, String prefix, long maxFileBytes, long maxFileAgeMs,
+                  DecodeStage decodeStage) {
+    Preconditions.checkArgument(maxFileBytes > 0, "maxFileBytes must be positive: %s",
+                                maxFileBytes);
+    Preconditions.checkArgument(maxFileAgeMs > 0, "maxFileAgeMs must be positive: %s",
+                                maxFileAgeMs);
+    this.dir = dir;
+    this.prefix = prefix;
+    this.maxFileBytes = maxFileBytes;
+    this.maxFileAgeMs = maxFileAgeMs;
+    this.decodeStage = decodeStage;
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeLoop();
+      }
+    }, "cdc-file-sink");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  @Override
+  public CompletableFuture<Void> apply(YBTable table, String tabletId, GetChangesResponse batch) {
+    PendingBatch pending;
+    if (decodeStage == null) {
+      pending = new PendingBatch(table.getTableId(), tabletId, table.getSchemaVersion(), batch,
+                                 null);
+    } else {
+      DecodeStage.Rows rows = decodeStage.decode(table, batch.getResp().getRecordsList());
+      pending = new PendingBatch(table.getTableId(), tabletId, rows.getSchemaVersion(), batch,
+                                 rows.getBuffer());
+    }
+    // Under the lock, so that nothing is queued once the writer may have seen the sink closed.
+    synchronized (this) {
+      if (closed) {
+        pending.future.completeExceptionally(new IOException("The file sink is closed"));
+        return pending.future;
+      }
+      queue.add(pending);
+    }
+    return pending.future;
+  }
+
+  private void writeLoop() {
+    List<PendingBatch> batches = new ArrayList<>();
+    while (!closed || !queue.isEmpty()) {
+      try {
+        PendingBatch first = queue.poll(Math.min(maxFileAgeMs, 1000), TimeUnit.MILLISECONDS);
+        if (first != null) {
+          batches.add(first);
+          queue.drainTo(batches, MAX_BATCHES_PER_WRITE - 1);
+          write(batches);
+          for (PendingBatch batch : batches) {
+            batch.future.complete(null);
+          }
+        }
+        maybeRollOver();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (Exception e) {
+        LOG.error("Failed to write to " + dir, e);
+        for (PendingBatch batch : batches) {
+          batch.future.completeExceptionally(e);
+        }
+        closeFile();
+      }
+      batches.clear();
+    }
+    closeFile();
+    for (PendingBatch batch = queue.poll(); batch != null; batch = queue.poll()) {
+      batch.future.completeExceptionally(new IOException("The file sink is closed"));
+    }
+  }
+
+  private void write(List<PendingBatch> batches) throws IOException {
+    List<ByteBuffer> buffers = new ArrayList<>();
+    for (PendingBatch pending : batches) {
+      ByteBuffer prefix = ByteBuffer.allocate(BATCH_PREFIX_SIZE);
+      buffers.add(prefix);
+      int first = buffers.size();
+      byte[] tableId = pending.tableId.getBytes(StandardCharsets.UTF_8);
+      byte[] tabletId = pending.tabletId.getBytes(StandardCharsets.UTF_8);
+      ByteBuffer header =
+          ByteBuffer.allocate(4 + tableId.length + 4 + tabletId.length + 4 + 8 + 8 + 4);
+      header.putInt(tableId.length);
+      header.put(tableId);
+      header.putInt(tabletId.length);
+      header.put(tabletId);
+      header.putInt(pending.schemaVersion);
+      header.putLong(pending.batch.getResp().getCheckpoint().getOpId().getTerm());
+      header.putLong(pending.batch.getResp().getCheckpoint().getOpId().getIndex());
+      header.putInt(pending.batch.getResp().getRecordsCount());
+      header.flip();
+      buffers.add(header);
+      if (pending.rows != null) {
+        buffers.add(pending.rows);
+      } else {
+        for (CdcService.CDCRecordPB record : pending.batch.getResp().getRecordsList()) {
+          ByteBuffer body = record.toByteString().asReadOnlyByteBuffer();
+          ByteBuffer length = ByteBuffer.allocate(4);
+          length.putInt(body.remaining());
+          length.flip();
+          buffers.add(length);
+          buffers.add(body);
+        }
+      }
+
+      CRC32 crc = new CRC32();
+      int batchBytes = 0;
+      for (int i = first; i < buffers.size(); i++) {
+        batchBytes += buffers.get(i).remaining();
+        crc.update(buffers.get(i).duplicate());
+      }
+      prefix.putInt(batchBytes);
+      prefix.putInt((int) crc.getValue());
+      prefix.flip();
+    }
+
+    if (channel == null) {
+      openFile();
+    }
+    ByteBuffer[] array = buffers.toArray(new ByteBuffer[buffers.size()]);
+    int offset = 0;
+    long written = 0;
+    while (offset < array.length) {
+      written += channel.write(array, offset, array.length - offset);
+      while (offset < array.length && !array[offset].hasRemaining()) {
+        offset++;
+      }
+    }
+    channel.force(false);
+    fileBytes += written;
+    numBytesWritten.addAndGet(written);
+  }
+
+  private void maybeRollOver() {
+    if (channel != null && (fileBytes >= maxFileBytes ||
+                            System.currentTimeMillis() - fileOpenedMs >= maxFileAgeMs)) {
+      closeFile();
+    }
+  }
+
+  private void openFile() throws IOException {
+    fileOpenedMs = System.currentTimeMillis();
+    File file = new File(dir, String.format("%s-%d-%06d.log", prefix, fileOpenedMs,
+                                            fileSequence++));
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                               StandardOpenOption.WRITE);
+    // Syncing the file doesn't sync its directory entry: without this, a crash could lose the
+    // whole file along with the batches acknowledged in it.
+    try {
+      syncDirectory();
+    } catch (IOException e) {
+      // Don't write to a file that may not survive a crash, the next batch opens another one.
+      closeFile();
+      throw e;
+    }
+    fileBytes = 0;
+    numFiles.incrementAndGet();
+    LOG.info("Writing changes to " + file);
+  }
+
+  /**
+   * Makes the creation of the current file durable.
+   */
+  private void syncDirectory() throws IOException {
+    try (FileChannel dirChannel = FileChannel.open(dir.getAbsoluteFile().toPath(),
+                                                   StandardOpenOption.READ)) {
+      dirChannel.force(true);
+    }
+  }
+
+  private void closeFile() {
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to close a file in " + dir, e);
+    }
+    channel = null;
+  }
+
+  /**
+   * @return the number of bytes written to all the files so far
+   */
+  public long getNumBytesWritten() {
+    return numBytesWritten.get();
+  }
+
+  /**
+   * @return the number of files written to so far
+   */
+  public long getNumFiles() {
+    return numFiles.get();
+  }
+
+  /**
+   * Writes the batches already queued and stops.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+    }
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while closing the file sink", e);
+    }
+  }
+}
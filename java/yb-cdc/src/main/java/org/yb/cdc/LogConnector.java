@@ -14,6 +14,7 @@
 package org.yb.cdc;
 
 import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.yb.client.YBTable;
 import org.yb.client.AsyncYBClient;
 import org.yb.client.YBClient;
@@ -21,34 +22,94 @@ import org.yb.client.ListTablesResponse;
 import org.yb.client.ListTabletServersResponse;
 import org.yb.client.LocatedTablet;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.*;
+import java.util.function.BiConsumer;
 import org.apache.log4j.Logger;
 import org.yb.master.Master;
 import org.yb.util.ServerInfo;
 
+/**
+ * Streams the changes of a set of tables, or of every table of a namespace, with a poller per
+ * tablet. All the pollers share a client, an executor and a {@link PollScheduler}. The tablets of
+ * the tables, and the tables of the namespace, are looked up again periodically so that new ones
+ * are picked up while running.
+ * <p>
+ * Each table has its own stream and checkpoint file. The stream created for a table is remembered
+ * in the checkpoint directory, so that a restarted connector resumes it.
+ * <p>
+ * A poller that can't go on, e.g. because the sink failed a batch, fails the whole connector:
+ * {@link #join()} throws its error.
+ */
 class LogConnector {
   private static final Logger LOG = Logger.getLogger(LogConnector.class);
 
   private static AsyncYBClient client;
   private static YBClient syncClient;
 
-  private ExecutorService executor;
+  private ScheduledExecutorService executor;
 
   private static final int DEFAULT_TIMEOUT = 30000;
   private static final int DEFAULT_NUM_THREADS = 8;
+  private static final long SUMMARY_INTERVAL_MS = 60000;
+  private static final String STREAMS_FILE = "streams";
 
-  private YBTable table;
+  List<HostAndPort> hps = new ArrayList<>();
 
-  private List<Poller> pollers = new ArrayList<>();
+  private BatchSink sink;
 
-  List<HostAndPort> hps = new ArrayList<>();
+  private PollScheduler scheduler;
+
+  private CmdLineOpts opts;
+
+  // The streams of the tables, keyed by table id.
+  private Properties streamIds = new Properties();
+
+  private ScheduledExecutorService checkpointFlusher;
+
+  private ConnectorMetrics metrics;
+
+  private MetricsServer metricsServer;
 
-  private OutputClient outputClient;
+  // Keyed by table id.
+  private final Map<String, TableStream> streams = new ConcurrentHashMap<>();
 
-  private String streamId;
+  // Completed with the error of the first poller that fails.
+  private final CompletableFuture<Void> failure = new CompletableFuture<>();
+
+  private final BiConsumer<Poller, Throwable> pollerFailureHandler =
+      new BiConsumer<Poller, Throwable>() {
+        @Override
+        public void accept(Poller poller, Throwable t) {
+          failure.completeExceptionally(t);
+        }
+      };
+
+  private static final class TableStream {
+    final YBTable table;
+    final String streamId;
+    final MappedFileCheckpointStore checkpointStore;
+    // Keyed by tablet id, only used by refresh().
+    final Map<String, Poller> pollers = new HashMap<>();
+
+    TableStream(YBTable table, String streamId, MappedFileCheckpointStore checkpointStore) {
+      this.table = table;
+      this.streamId = streamId;
+      this.checkpointStore = checkpointStore;
+    }
+  }
 
   public LogConnector(CmdLineOpts opts) throws Exception {
     LOG.info("Creating new YB client...");
@@ -60,52 +121,188 @@ class LogConnector {
 
     syncClient = new YBClient(client);
 
-    executor = Executors.newFixedThreadPool(DEFAULT_NUM_THREADS);
+    executor = Executors.newScheduledThreadPool(DEFAULT_NUM_THREADS);
+    checkpointFlusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("cdc-checkpoint-flusher").setDaemon(true).build());
+    scheduler = new PollScheduler(opts.maxPollsPerTServer);
 
-    String tableId = null;
-    ListTablesResponse tablesResp = syncClient.getTablesList();
-    for (Master.ListTablesResponsePB.TableInfo tableInfo : tablesResp.getTableInfoList()) {
-      if (tableInfo.getName().equals(opts.tableName) &&
-          tableInfo.getNamespace().getName().equals(opts.namespaceName)) {
-        tableId =  tableInfo.getId().toStringUtf8();
+    ListTabletServersResponse serversResp = syncClient.listTabletServers();
+    for (ServerInfo serverInfo : serversResp.getTabletServersList()) {
+      hps.add(HostAndPort.fromParts(serverInfo.getHost(), serverInfo.getPort()));
+    }
+
+    DecodeStage decodeStage = null;
+    if (opts.sink.equals("file")) {
+      if (opts.sinkFormat.equals("compact")) {
+        decodeStage = new DecodeStage();
+      }
+      sink = new FileSink(new File(opts.sinkDir), "changes", opts.sinkMaxFileBytes,
+                          opts.sinkMaxFileAgeMs, decodeStage);
+    } else {
+      sink = new OutputClientSink(new LogClient());
+    }
+
+    new File(opts.checkpointDir).mkdirs();
+    File streamsFile = new File(opts.checkpointDir, STREAMS_FILE);
+    if (streamsFile.exists()) {
+      try (InputStream in = new FileInputStream(streamsFile)) {
+        streamIds.load(in);
       }
     }
 
-    if (tableId == null) {
-      LOG.error(String.format("Could not find a table with name %s.%s",
-                              opts.namespaceName, opts.tableName));
+    metrics = new ConnectorMetrics(client, scheduler);
+    metrics.setDecodeStage(decodeStage);
+    if (opts.metricsPort >= 0) {
+      metricsServer = new MetricsServer(opts.metricsPort, metrics);
+    }
+
+    this.opts = opts;
+  }
+
+  public void run() throws Exception {
+    refresh();
+
+    if (!opts.tableNames.isEmpty() && streams.size() < opts.tableNames.size()) {
+      LOG.error(String.format("Could not find all the tables of %s", opts.tableNames));
       System.exit(0);
     }
 
-    table = syncClient.openTableByUUID(tableId);
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          refresh();
+        } catch (Exception e) {
+          LOG.warn("Failed to look for new tablets", e);
+        }
+      }
+    }, opts.tabletRefreshIntervalMs, opts.tabletRefreshIntervalMs, TimeUnit.MILLISECONDS);
 
-    ListTabletServersResponse serversResp = syncClient.listTabletServers();
-    for (ServerInfo serverInfo : serversResp.getTabletServersList()) {
-      hps.add(HostAndPort.fromParts(serverInfo.getHost(), serverInfo.getPort()));
+    executor.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        LOG.info(metrics.summary());
+      }
+    }, SUMMARY_INTERVAL_MS, SUMMARY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits for the connector to fail, it streams until then.
+   * @throws Exception the error that stopped a poller
+   */
+  public void join() throws Exception {
+    try {
+      failure.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : e;
     }
+  }
 
-    outputClient = new LogClient();
+  /**
+   * Starts streaming the tables we don't stream yet, and polling their new tablets.
+   */
+  private synchronized void refresh() throws Exception {
+    ListTablesResponse tablesResp = syncClient.getTablesList();
+    for (Master.ListTablesResponsePB.TableInfo tableInfo : tablesResp.getTableInfoList()) {
+      String namespaceName = tableInfo.getNamespace().getName();
+      String fullTableName = namespaceName + "." + tableInfo.getName();
+      boolean wanted = opts.tableNames.isEmpty() ?
+          namespaceName.equals(opts.namespaceName) &&
+              tableInfo.getRelationType() == Master.RelationType.USER_TABLE_RELATION :
+          opts.tableNames.contains(fullTableName);
+      String tableId = tableInfo.getId().toStringUtf8();
+      if (wanted && !streams.containsKey(tableId)) {
+        addTable(tableId, fullTableName);
+      }
+    }
 
-    streamId = opts.streamId;
+    for (TableStream stream : streams.values()) {
+      refreshTablets(stream);
+    }
   }
 
-  public void run() throws Exception {
-    Random rand = new Random();
+  private void addTable(String tableId, String fullTableName) throws Exception {
+    YBTable table = syncClient.openTableByUUID(tableId);
 
-    HostAndPort hp = hps.get(rand.nextInt(hps.size()));
-    if (streamId.isEmpty()) {
-      streamId = syncClient.createCDCStream(hp, table.getTableId()).getStreamId();
-      LOG.info(String.format("Created new stream with id %s", streamId));
+    String streamId = streamIds.getProperty(tableId);
+    if (!opts.streamId.isEmpty()) {
+      streamId = opts.streamId;
+    } else if (streamId == null) {
+      Random rand = new Random();
+      HostAndPort hp = hps.get(rand.nextInt(hps.size()));
+      streamId = syncClient.createCDCStream(hp, tableId).getStreamId();
+      LOG.info(String.format("Created new stream with id %s for table %s",
+                             streamId, fullTableName));
+      streamIds.setProperty(tableId, streamId);
+      try (OutputStream out =
+               new FileOutputStream(new File(opts.checkpointDir, STREAMS_FILE))) {
+        streamIds.store(out, "CDC streams by table id");
+      }
+    }
+
+    Integer weight = opts.tableWeights.get(fullTableName);
+    if (weight != null) {
+      scheduler.setWeight(tableId, weight);
     }
 
-    List<LocatedTablet> tabletLocations = table.getTabletsLocations(DEFAULT_TIMEOUT);
+    File checkpointFile = new File(opts.checkpointDir, streamId + ".checkpoints");
+    MappedFileCheckpointStore checkpointStore = new MappedFileCheckpointStore(
+        checkpointFile, opts.checkpointIntervalMs, checkpointFlusher);
+    LOG.info(String.format("Streaming table %s with stream %s", fullTableName, streamId));
+    metrics.addCheckpointStore(fullTableName, checkpointStore);
+    streams.put(tableId, new TableStream(table, streamId, checkpointStore));
+  }
 
+  private void refreshTablets(TableStream stream) throws Exception {
+    List<LocatedTablet> tabletLocations = stream.table.getTabletsLocations(DEFAULT_TIMEOUT);
+
+    Set<String> tabletIds = new HashSet<>();
     for (LocatedTablet tablet : tabletLocations) {
       String tabletId = new String(tablet.getTabletId());
+      tabletIds.add(tabletId);
+      LocatedTablet.Replica leader = tablet.getLeaderReplica();
+      String serverUuid = leader == null ? "" : leader.getTsUuid();
+
+      Poller poller = stream.pollers.get(tabletId);
+      if (poller != null) {
+        poller.setServerUuid(serverUuid);
+        continue;
+      }
       LOG.info(String.format("Polling for new tablet %s", tabletId));
-      Poller poller = new Poller(outputClient, hps, table, streamId, tabletId, executor, client);
-      pollers.add(poller);
+      poller = new Poller(sink, stream.checkpointStore, stream.table, stream.streamId, tabletId,
+                          tablet.getPartition().getPartitionKeyStart(), serverUuid, executor,
+                          client, scheduler, Poller.DEFAULT_MAX_PENDING_BATCHES,
+                          opts.maxIdleBackoffMs, opts.waitForChangesMs,
+                          pollerFailureHandler);
+      stream.pollers.put(tabletId, poller);
+      metrics.addTablet(tabletId, poller.getMetrics());
       poller.poll();
     }
+
+    for (Iterator<Poller> it = stream.pollers.values().iterator(); it.hasNext(); ) {
+      Poller poller = it.next();
+      if (!tabletIds.contains(poller.getTabletId())) {
+        LOG.info(String.format("Stopped polling tablet %s, which is gone", poller.getTabletId()));
+        poller.stop();
+        metrics.removeTablet(poller.getTabletId());
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Stops polling and makes the checkpoints of everything applied so far durable.
+   */
+  public void close() throws IOException {
+    if (metricsServer != null) {
+      metricsServer.close();
+    }
+    executor.shutdownNow();
+    sink.close();
+    for (TableStream stream : streams.values()) {
+      stream.checkpointStore.close();
+    }
+    checkpointFlusher.shutdown();
   }
 }
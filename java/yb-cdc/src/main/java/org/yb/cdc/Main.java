@@ -15,11 +15,24 @@ public class Main {
   }
 
   public void run() {
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        try {
+          connector.close();
+        } catch (Exception e) {
+          LOG.error("Failed to close the connector: ", e);
+        }
+      }
+    });
     try {
       connector.run();
+      connector.join();
     } catch (Exception e) {
+      // Exits from here rather than from the thread that hit the error, which the shutdown hook
+      // may have to wait for.
       LOG.error("Application ran into error: ", e);
-      System.exit(0);
+      System.exit(1);
     }
   }
 
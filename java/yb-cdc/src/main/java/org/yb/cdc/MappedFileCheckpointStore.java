@@ -0,0 +1,304 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A checkpoint store in a local append-only file, mapped in memory.
+ * <p>
+ * Every flush appends a record for each tablet whose checkpoint changed since the previous one and
+ * then syncs the file once, so a single fsync covers all the tablets of the interval. Flushes run
+ * every {@code flushIntervalMs} in the background. On open, the file is read back and the last
+ * record of each tablet wins; a torn record at the end, from a crash in the middle of a flush, is
+ * detected by its checksum and dropped. Once the file is full it is compacted into a new one with
+ * a single record per tablet, which replaces it atomically. The directory is synced after the
+ * rename so that the new file survives a crash.
+ * <p>
+ * The file starts with a magic number, then holds records made of the tablet id length (int), the
+ * tablet id in UTF-8, the term and index (longs), and the CRC32 of all of these (int).
+ */
+public class MappedFileCheckpointStore implements CheckpointStore {
+  private static final Logger LOG = Logger.getLogger(MappedFileCheckpointStore.class);
+
+  private static final int MAGIC = 0x5942434b;  // "YBCK"
+  static final int MIN_CAPACITY = 1 << 20;
+  private static final int MAX_TABLET_ID_LENGTH = 1024;
+  // Length, term, index and checksum.
+  private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 4;
+
+  private final File file;
+
+  // The latest checkpoint of every tablet, durable or not.
+  private final Map<String, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+  // The checkpoints updated since the last flush.
+  private final Map<String, Checkpoint> dirty = new ConcurrentHashMap<>();
+  // When the oldest of the dirty checkpoints was updated, 0 if there isn't any.
+  private final AtomicLong oldestDirtyNanos = new AtomicLong();
+
+  private final ScheduledExecutorService flusher;
+  private final boolean ownsFlusher;
+  private final ScheduledFuture<?> flushTask;
+
+  // Guarded by this.
+  private FileChannel channel;
+  private MappedByteBuffer buffer;
+  private boolean closed = false;
+
+  private final AtomicLong numFlushes = new AtomicLong();
+  private volatile long lastFlushLatencyMicros = 0;
+  private volatile long maxFlushLatencyMicros = 0;
+
+  /**
+   * Opens the store, reading the checkpoints already in the file if it exists.
+   * @param file the file to keep the checkpoints in
+   * @param flushIntervalMs how often to flush the updated checkpoints
+   */
+  public MappedFileCheckpointStore(File file, long flushIntervalMs) throws IOException {
+    this(file, flushIntervalMs, null);
+  }
+
+  /**
+   * Opens the store, reading the checkpoints already in the file if it exists.
+   * @param file the file to keep the checkpoints in
+   * @param flushIntervalMs how often to flush the updated checkpoints
+   * @param flusher the executor to flush on, shared with other stores, or null to have one
+   */
+  public MappedFileCheckpointStore(File file, long flushIntervalMs,
+                                   ScheduledExecutorService flusher) throws IOException {
+    Preconditions.checkArgument(flushIntervalMs > 0,
+        "flushIntervalMs must be positive: %s", flushIntervalMs);
+    this.file = file;
+    final boolean created = !file.exists();
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                               StandardOpenOption.READ, StandardOpenOption.WRITE);
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                         Math.max(MIN_CAPACITY, channel.size()));
+    load();
+    if (created) {
+      buffer.force();
+      syncDirectory();
+    }
+    LOG.info(String.format("Loaded %d checkpoints from %s", checkpoints.size(), file));
+
+    ownsFlusher = flusher == null;
+    if (ownsFlusher) {
+      flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("cdc-checkpoint-flusher").setDaemon(true).build());
+    }
+    this.flusher = flusher;
+    flushTask = flusher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (Exception e) {
+          LOG.error(String.format("Failed to flush checkpoints to %s", file), e);
+        }
+      }
+    }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Reads the records of the file, leaving the buffer positioned after the last valid one.
+   */
+  private void load() throws IOException {
+    if (buffer.getInt(0) != MAGIC) {
+      if (channel.size() > MIN_CAPACITY || buffer.getInt(0) != 0) {
+        throw new IOException(file + " is not a checkpoint file");
+      }
+      buffer.putInt(0, MAGIC);
+    }
+    buffer.position(4);
+    CRC32 crc = new CRC32();
+    while (buffer.remaining() >= RECORD_OVERHEAD) {
+      int start = buffer.position();
+      int length = buffer.getInt();
+      if (length <= 0 || length > MAX_TABLET_ID_LENGTH ||
+          buffer.remaining() < length + RECORD_OVERHEAD - 4) {
+        buffer.position(start);
+        break;
+      }
+      byte[] tabletId = new byte[length];
+      buffer.get(tabletId);
+      long term = buffer.getLong();
+      long index = buffer.getLong();
+      int end = buffer.position();
+      int checksum = buffer.getInt();
+      crc.reset();
+      for (int i = start; i < end; i++) {
+        crc.update(buffer.get(i));
+      }
+      if ((int) crc.getValue() != checksum) {
+        LOG.warn(String.format("Dropping a torn checkpoint record at offset %d of %s",
+                               start, file));
+        buffer.position(start);
+        break;
+      }
+      checkpoints.put(new String(tabletId, StandardCharsets.UTF_8), new Checkpoint(term, index));
+    }
+  }
+
+  @Override
+  public Checkpoint get(String tabletId) {
+    return checkpoints.get(tabletId);
+  }
+
+  @Override
+  public void update(String tabletId, Checkpoint checkpoint) {
+    Preconditions.checkArgument(
+        tabletId.getBytes(StandardCharsets.UTF_8).length <= MAX_TABLET_ID_LENGTH,
+        "Tablet id is too long: %s", tabletId);
+    checkpoints.put(tabletId, checkpoint);
+    dirty.put(tabletId, checkpoint);
+    oldestDirtyNanos.compareAndSet(0, System.nanoTime());
+  }
+
+  @Override
+  public synchronized void flush() throws IOException {
+    if (closed || dirty.isEmpty()) {
+      return;
+    }
+    long start = System.nanoTime();
+    oldestDirtyNanos.set(0);
+    for (Map.Entry<String, Checkpoint> entry : dirty.entrySet()) {
+      append(entry.getKey(), entry.getValue());
+      // A checkpoint updated meanwhile stays dirty for the next flush.
+      dirty.remove(entry.getKey(), entry.getValue());
+    }
+    buffer.force();
+    long latencyMicros = (System.nanoTime() - start) / 1000;
+    lastFlushLatencyMicros = latencyMicros;
+    if (latencyMicros > maxFlushLatencyMicros) {
+      maxFlushLatencyMicros = latencyMicros;
+    }
+    numFlushes.incrementAndGet();
+  }
+
+  private void append(String tabletId, Checkpoint checkpoint) throws IOException {
+    byte[] id = tabletId.getBytes(StandardCharsets.UTF_8);
+    if (buffer.remaining() < id.length + RECORD_OVERHEAD) {
+      compact();
+    }
+    int start = buffer.position();
+    buffer.putInt(id.length);
+    buffer.put(id);
+    buffer.putLong(checkpoint.getTerm());
+    buffer.putLong(checkpoint.getIndex());
+    CRC32 crc = new CRC32();
+    for (int i = start; i < buffer.position(); i++) {
+      crc.update(buffer.get(i));
+    }
+    buffer.putInt((int) crc.getValue());
+  }
+
+  /**
+   * Rewrites the file with the latest checkpoint of every tablet, with room to spare.
+   */
+  private void compact() throws IOException {
+    long liveBytes = 4;
+    for (String tabletId : checkpoints.keySet()) {
+      liveBytes += tabletId.getBytes(StandardCharsets.UTF_8).length + RECORD_OVERHEAD;
+    }
+    long capacity = MIN_CAPACITY;
+    while (capacity < 2 * liveBytes) {
+      capacity *= 2;
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    Files.deleteIfExists(tmp.toPath());
+    FileChannel newChannel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE_NEW,
+                                              StandardOpenOption.READ, StandardOpenOption.WRITE);
+    buffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    buffer.putInt(MAGIC);
+    for (Map.Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+      append(entry.getKey(), entry.getValue());
+    }
+    buffer.force();
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    syncDirectory();
+    channel.close();
+    channel = newChannel;
+    LOG.info(String.format("Compacted %d checkpoints into %s", checkpoints.size(), file));
+  }
+
+  /**
+   * Makes the creation or the replacement of the file durable.
+   */
+  private void syncDirectory() throws IOException {
+    try (FileChannel dir = FileChannel.open(file.getAbsoluteFile().getParentFile().toPath(),
+                                            StandardOpenOption.READ)) {
+      dir.force(true);
+    }
+  }
+
+  @Override
+  public long getCheckpointLagMs() {
+    long oldest = oldestDirtyNanos.get();
+    return oldest == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+  }
+
+  /**
+   * @return the number of flushes that wrote some checkpoints
+   */
+  public long getNumFlushes() {
+    return numFlushes.get();
+  }
+
+  /**
+   * @return how long the last flush took, fsync included, in micros
+   */
+  public long getLastFlushLatencyMicros() {
+    return lastFlushLatencyMicros;
+  }
+
+  /**
+   * @return how long the slowest flush took, fsync included, in micros
+   */
+  public long getMaxFlushLatencyMicros() {
+    return maxFlushLatencyMicros;
+  }
+
+  @Override
+  public void close() throws IOException {
+    flushTask.cancel(false);
+    if (ownsFlusher) {
+      flusher.shutdown();
+    }
+    flush();
+    synchronized (this) {
+      closed = true;
+      channel.close();
+    }
+  }
+}
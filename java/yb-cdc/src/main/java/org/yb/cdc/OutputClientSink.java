@@ -0,0 +1,49 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import org.yb.client.GetChangesResponse;
+import org.yb.client.YBTable;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Applies batches through an {@link OutputClient}, one record at a time, on the calling thread.
+ */
+public class OutputClientSink implements BatchSink {
+  private final OutputClient outputClient;
+
+  public OutputClientSink(OutputClient outputClient) {
+    this.outputClient = outputClient;
+  }
+
+  @Override
+  public CompletableFuture<Void> apply(YBTable table, String tabletId, GetChangesResponse batch) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    try {
+      for (CdcService.CDCRecordPB record : batch.getResp().getRecordsList()) {
+        outputClient.applyChange(table, record);
+      }
+      future.complete(null);
+    } catch (Exception e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,158 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides when the pollers of all the tablets get to send their GetChanges.
+ * <p>
+ * At most {@code maxPollsPerServer} GetChanges are outstanding per tablet server, the leader of
+ * the tablets. The pollers ready beyond that wait in a queue per server, and whenever a poll
+ * completes the next one is picked with smooth weighted round-robin across tables, each table
+ * getting a share of the polls proportional to its weight, and in turn across the tablets of a
+ * table. A tablet has at most one poll outstanding, so a hot tablet goes back to the end of its
+ * table's queue and can't starve the others. Pollers stopped while they waited are dropped
+ * instead of getting a poll.
+ */
+class PollScheduler {
+  private final int maxPollsPerServer;
+
+  private final Map<String, Integer> tableWeights = new ConcurrentHashMap<>();
+
+  // Keyed by tablet server uuid, guarded by this.
+  private final Map<String, ServerQueue> servers = new HashMap<>();
+  private int numWaiting = 0;
+
+  private static final class TableQueue {
+    final int weight;
+    final ArrayDeque<Poller> ready = new ArrayDeque<>();
+    int current = 0;
+
+    TableQueue(int weight) {
+      this.weight = weight;
+    }
+  }
+
+  private static final class ServerQueue {
+    int numInflight = 0;
+    // Only the tables with pollers waiting, keyed by table id.
+    final Map<String, TableQueue> tables = new LinkedHashMap<>();
+
+    Poller next() {
+      TableQueue best = null;
+      int totalWeight = 0;
+      for (TableQueue table : tables.values()) {
+        table.current += table.weight;
+        totalWeight += table.weight;
+        if (best == null || table.current > best.current) {
+          best = table;
+        }
+      }
+      if (best == null) {
+        return null;
+      }
+      best.current -= totalWeight;
+      Poller poller = best.ready.poll();
+      if (best.ready.isEmpty()) {
+        tables.values().remove(best);
+      }
+      return poller;
+    }
+  }
+
+  PollScheduler(int maxPollsPerServer) {
+    Preconditions.checkArgument(maxPollsPerServer > 0,
+        "maxPollsPerServer must be positive: %s", maxPollsPerServer);
+    this.maxPollsPerServer = maxPollsPerServer;
+  }
+
+  /**
+   * Sets the weight of a table, 1 by default.
+   */
+  void setWeight(String tableId, int weight) {
+    Preconditions.checkArgument(weight > 0, "weight must be positive: %s", weight);
+    tableWeights.put(tableId, weight);
+  }
+
+  /**
+   * Lets a poller send its GetChanges now if its tablet server has room for it, or queues it.
+   */
+  void ready(Poller poller) {
+    if (poller.isStopped()) {
+      return;
+    }
+    String server = poller.getServerUuid();
+    synchronized (this) {
+      ServerQueue queue = servers.get(server);
+      if (queue == null) {
+        queue = new ServerQueue();
+        servers.put(server, queue);
+      }
+      if (queue.numInflight >= maxPollsPerServer) {
+        String tableId = poller.getTable().getTableId();
+        TableQueue table = queue.tables.get(tableId);
+        if (table == null) {
+          Integer weight = tableWeights.get(tableId);
+          table = new TableQueue(weight == null ? 1 : weight);
+          queue.tables.put(tableId, table);
+        }
+        table.ready.add(poller);
+        numWaiting++;
+        return;
+      }
+      queue.numInflight++;
+    }
+    poller.fetch(server);
+  }
+
+  /**
+   * Tells that a GetChanges sent to the given server completed, letting the next poller go.
+   */
+  void done(String server) {
+    Poller next;
+    synchronized (this) {
+      ServerQueue queue = servers.get(server);
+      queue.numInflight--;
+      do {
+        next = queue.next();
+        if (next != null) {
+          numWaiting--;
+        }
+      } while (next != null && next.isStopped());
+      if (next != null) {
+        queue.numInflight++;
+      } else if (queue.numInflight == 0) {
+        servers.remove(server);
+      }
+    }
+    if (next != null) {
+      next.fetch(server);
+    }
+  }
+
+  /**
+   * @return the number of pollers waiting for their tablet server to have room
+   */
+  synchronized int getNumWaiting() {
+    return numWaiting;
+  }
+}
@@ -19,93 +19,392 @@ import org.yb.client.AsyncYBClient;
 import org.yb.client.GetChangesResponse;
 import org.yb.client.YBTable;
 
-import java.util.Random;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.List;
-
-import com.google.common.net.HostAndPort;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
+/**
+ * Polls the changes of one tablet and applies them in order.
+ * <p>
+ * Fetching and applying overlap: as soon as a batch arrives the next one is fetched from the
+ * checkpoint it returned, while the batch waits in a small queue to be applied. The queue is
+ * bounded so that a slow output client stops the fetching instead of buffering the whole tablet.
+ * <p>
+ * An idle tablet is polled less and less often, up to the maximum idle backoff, and goes back to
+ * full speed as soon as a batch has changes. If the tablet server holds requests until there are
+ * changes (see {@code waitForChangesMs}) and it did, the next poll is sent right away instead.
+ * Failed polls are retried with their own backoff. When to send a poll is up to the
+ * {@link PollScheduler} shared by all the pollers.
+ * <p>
+ * Batches are handed over to the sink one at a time, and the checkpoint of a batch only goes to
+ * the checkpoint store once the sink acknowledged it. Polling resumes from the stored checkpoint,
+ * if any.
+ * <p>
+ * If the sink fails a batch, or the tablet server rejects the request, the poller stops without
+ * moving its checkpoint and reports the error to its failure handler.
+ */
 public class Poller {
   private static final Logger LOG = Logger.getLogger(Poller.class);
 
+  static final int DEFAULT_MAX_PENDING_BATCHES = 2;
+  static final long MIN_IDLE_BACKOFF_MS = 10;
+  static final long DEFAULT_MAX_IDLE_BACKOFF_MS = 1000;
+  static final long MIN_ERROR_BACKOFF_MS = 100;
+  static final long MAX_ERROR_BACKOFF_MS = 10000;
+
+  // The checkpoint to fetch the next batch from.
   private long term;
   private long index;
+  // The checkpoint of the last applied batch.
+  private volatile long appliedTerm;
+  private volatile long appliedIndex;
   private String streamId;
   private String tabletId;
-  private ExecutorService executor;
+  private byte[] partitionKey;
+  private ScheduledExecutorService executor;
   private YBTable table;
   private AsyncYBClient client;
-  private List<HostAndPort> hps;
-  private OutputClient outputClient;
+  private BatchSink sink;
+  private CheckpointStore checkpointStore;
+  private PollScheduler scheduler;
+  private final int maxPendingBatches;
+  private final int waitForChangesMs;
+  private final TabletMetrics metrics;
+  private final BiConsumer<Poller, Throwable> failureHandler;
+
+  // The leader of the tablet, as far as we know.
+  private volatile String serverUuid;
+  // The server the scheduler counts the current poll against.
+  private volatile String pollServerUuid;
+  private volatile boolean stopped = false;
+
+  // Only used by whoever handles the response of the current poll.
+  private final Backoff idleBackoff;
+  private final Backoff errorBackoff;
 
-  public Poller(OutputClient outputClient, List<HostAndPort> hps, YBTable table, String streamId,
-                String tabletId, ExecutorService executor, AsyncYBClient client) {
+  // Batches fetched but not applied yet, guarded by this.
+  private final Queue<GetChangesResponse> pendingBatches = new ArrayDeque<>();
+  private boolean fetching = false;
+  private boolean applying = false;
+  // The next poll isn't sent before then, even if the applier makes room in the queue earlier.
+  private long nextPollNanos = System.nanoTime();
+
+  public Poller(BatchSink sink, CheckpointStore checkpointStore, YBTable table,
+                String streamId, String tabletId, byte[] partitionKey, String serverUuid,
+                ScheduledExecutorService executor, AsyncYBClient client, PollScheduler scheduler,
+                int maxPendingBatches, long maxIdleBackoffMs, int waitForChangesMs,
+                BiConsumer<Poller, Throwable> failureHandler) {
     this.streamId = streamId;
     this.tabletId = tabletId;
-    this.term = 0;
-    this.index = 0;
+    this.partitionKey = partitionKey;
+    Checkpoint checkpoint = checkpointStore.get(tabletId);
+    if (checkpoint != null) {
+      LOG.info(String.format("Resuming tablet %s from checkpoint %s", tabletId, checkpoint));
+      this.term = checkpoint.getTerm();
+      this.index = checkpoint.getIndex();
+    } else {
+      this.term = 0;
+      this.index = 0;
+    }
+    this.appliedTerm = term;
+    this.appliedIndex = index;
+    this.checkpointStore = checkpointStore;
     this.executor = executor;
     this.client = client;
     this.table = table;
-    this.hps = hps;
-    this.outputClient = outputClient;
+    this.sink = sink;
+    this.serverUuid = serverUuid;
+    this.scheduler = scheduler;
+    this.metrics = new TabletMetrics(table.getKeyspace() + "." + table.getName(), tabletId);
+    this.maxPendingBatches = maxPendingBatches;
+    this.waitForChangesMs = waitForChangesMs;
+    this.failureHandler = failureHandler;
+    this.idleBackoff =
+        new Backoff(MIN_IDLE_BACKOFF_MS, Math.max(MIN_IDLE_BACKOFF_MS, maxIdleBackoffMs));
+    this.errorBackoff = new Backoff(MIN_ERROR_BACKOFF_MS, MAX_ERROR_BACKOFF_MS);
   }
 
   public Void poll() {
+    return pollAfter(0);
+  }
+
+  private Void pollAfter(long delayMs) {
+    final long waitMs;
+    synchronized (this) {
+      waitMs = claimPoll(delayMs);
+    }
+    sendPollAfter(waitMs);
+    return null;
+  }
+
+  /**
+   * Claims the next fetch, if there isn't one on its way already and there's room for its batch.
+   * Must be called with this synchronized, in the same critical section as whatever ended the
+   * previous fetch so that nobody else claims it without waiting.
+   * @param delayMs how long to wait at least before sending the poll
+   * @return how long to wait before sending the poll, negative if it was not claimed
+   */
+  private long claimPoll(long delayMs) {
+    final long now = System.nanoTime();
+    final long notBefore = now + TimeUnit.MILLISECONDS.toNanos(delayMs);
+    if (notBefore - nextPollNanos > 0) {
+      nextPollNanos = notBefore;
+    }
+    if (stopped || fetching || pendingBatches.size() >= maxPendingBatches) {
+      // Either a fetch is already on its way, or the applier will start the next one once it
+      // makes room in the queue.
+      return -1;
+    }
+    fetching = true;
+    return TimeUnit.NANOSECONDS.toMillis(Math.max(0, nextPollNanos - now));
+  }
+
+  private void sendPollAfter(long delayMs) {
+    if (delayMs < 0) {
+      return;
+    }
+    if (delayMs > 0) {
+      executor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          scheduler.ready(Poller.this);
+        }
+      }, delayMs, TimeUnit.MILLISECONDS);
+    } else {
+      scheduler.ready(this);
+    }
+  }
+
+  /**
+   * Sends the poll, once the scheduler lets it go.
+   * @param server the server the scheduler counts it against
+   */
+  void fetch(String server) {
+    if (stopped) {
+      // Stopped since the scheduler picked us, let the next poller have the slot.
+      scheduler.done(server);
+      return;
+    }
+    pollServerUuid = server;
     executor.submit(new Callable<Void>() {
       @Override
       public Void call() throws Exception {
         return doPoll();
       }
     });
-    return null;
   }
 
   private Void doPoll() {
-    Random rand = new Random();
-    HostAndPort hp = hps.get(rand.nextInt(hps.size()));
+    final long fromTerm;
+    final long fromIndex;
+    synchronized (this) {
+      fromTerm = term;
+      fromIndex = index;
+    }
+    final long startNanos = System.nanoTime();
+    // Not addCallback(...).addErrback(...): the errback would also get whatever the callback
+    // throws, and tell the scheduler a second time that the poll is done.
+    client.getChanges(table, streamId, tabletId, partitionKey, fromTerm, fromIndex,
+                      waitForChangesMs)
+        .addCallbacks(new Callback<Void, GetChangesResponse>() {
+          @Override
+          public Void call(GetChangesResponse getChangesResponse) throws Exception {
+            scheduler.done(pollServerUuid);
+            metrics.recordPoll(System.nanoTime() - startNanos, getChangesResponse);
+            try {
+              return handlePoll(getChangesResponse);
+            } catch (RuntimeException e) {
+              // E.g. the executor was shut down, the poller can't go on.
+              fail(e);
+              return null;
+            }
+          }
+        }, new Callback<Void, Exception>() {
+          @Override
+          public Void call(Exception e) throws Exception {
+            scheduler.done(pollServerUuid);
+            metrics.recordPollError(System.nanoTime() - startNanos);
+            LOG.warn(String.format("Failed to get changes for tablet %s", tabletId), e);
+            return retryPoll();
+          }
+        });
+    return null;
+  }
 
-    client.getChanges(hp, table, streamId, tabletId, term, index,
-                      new Callback<Void, GetChangesResponse>() {
-      @Override
-      public Void call(GetChangesResponse getChangesResponse) throws Exception {
-        return handlePoll(getChangesResponse);
+  private Void handlePoll(GetChangesResponse getChangesResponse) {
+    // Handle the poll
+    if (getChangesResponse.getResp().hasError()) {
+      if (getChangesResponse.getResp().getError().getCode() ==
+              CdcService.CDCErrorPB.Code.INVALID_REQUEST) {
+        fail(new IllegalStateException(String.format(
+            "Invalid request for tablet %s: %s", tabletId,
+            getChangesResponse.getResp().getError().getStatus().getMessage())));
+        return null;
       }
-    });
+      return retryPoll();
+    }
+    errorBackoff.reset();
+
+    long delayMs = 0;
+    if (getChangesResponse.getResp().getRecordsCount() > 0) {
+      idleBackoff.reset();
+    } else if (waitForChangesMs == 0 ||
+               getChangesResponse.getElapsedMillis() < waitForChangesMs / 2) {
+      // The server didn't wait for changes, so we do.
+      delayMs = idleBackoff.nextDelayMs();
+    }
+
+    final long waitMs;
+    synchronized (this) {
+      pendingBatches.add(getChangesResponse);
+      this.term = getChangesResponse.getResp().getCheckpoint().getOpId().getTerm();
+      this.index = getChangesResponse.getResp().getCheckpoint().getOpId().getIndex();
+      fetching = false;
+      waitMs = claimPoll(delayMs);
+    }
+    sendPollAfter(waitMs);
+    return apply();
+  }
+
+  private Void retryPoll() {
+    final long delayMs = errorBackoff.nextDelayMs();
+    final long waitMs;
+    synchronized (this) {
+      fetching = false;
+      waitMs = claimPoll(delayMs);
+    }
+    sendPollAfter(waitMs);
     return null;
   }
 
-  private Void handlePoll(GetChangesResponse getChangesResponse) {
+  private Void apply() {
+    synchronized (this) {
+      if (applying || pendingBatches.isEmpty()) {
+        return null;
+      }
+      applying = true;
+    }
+    submitApply();
+    return null;
+  }
+
+  private void submitApply() {
     executor.submit(new Callable<Void>() {
       @Override
       public Void call() throws Exception {
-        return doHandlePoll(getChangesResponse);
+        return doApply();
       }
     });
-    return null;
   }
 
-  private Void doHandlePoll(GetChangesResponse getChangesResponse) throws Exception {
-    // Handle the poll
-    if (getChangesResponse.getResp().hasError()) {
-      if (getChangesResponse.getResp().getError().getCode() ==
-              CdcService.CDCErrorPB.Code.INVALID_REQUEST) {
-        LOG.error("Invalid Request");
-        System.exit(0);
+  /**
+   * Hands the pending batches over to the sink in order, one at a time.
+   */
+  private Void doApply() {
+    while (true) {
+      final GetChangesResponse batch;
+      synchronized (this) {
+        batch = pendingBatches.poll();
+        if (batch == null) {
+          applying = false;
+          return null;
+        }
+      }
+      // There's room in the queue again.
+      poll();
+      if (batch.getResp().getRecordsCount() == 0) {
+        // Nothing for the sink, only the checkpoint moves.
+        onApplied(batch, 0);
+        continue;
       }
-      return poll();
-    }
 
-    for (org.yb.cdc.CdcService.CDCRecordPB record : getChangesResponse.getResp().getRecordsList()) {
-      outputClient.applyChange(table, record);
+      final long startNanos = System.nanoTime();
+      CompletableFuture<Void> applied;
+      try {
+        applied = sink.apply(table, tabletId, batch);
+      } catch (Exception e) {
+        applied = new CompletableFuture<>();
+        applied.completeExceptionally(e);
+      }
+      applied.whenComplete(new BiConsumer<Void, Throwable>() {
+        @Override
+        public void accept(Void ignored, Throwable t) {
+          if (t != null) {
+            // The batch isn't checkpointed, it'll be fetched again once restarted.
+            fail(t);
+            return;
+          }
+          onApplied(batch, System.nanoTime() - startNanos);
+          // On the executor, rather than on whatever thread the sink completed the batch.
+          submitApply();
+        }
+      });
+      return null;
     }
+  }
 
-    this.term = getChangesResponse.getResp().getCheckpoint().getOpId().getTerm();
-    this.index = getChangesResponse.getResp().getCheckpoint().getOpId().getIndex();
+  private void onApplied(GetChangesResponse batch, long latencyNanos) {
+    metrics.recordApplied(latencyNanos, batch);
+    appliedTerm = batch.getResp().getCheckpoint().getOpId().getTerm();
+    appliedIndex = batch.getResp().getCheckpoint().getOpId().getIndex();
+    checkpointStore.update(tabletId, new Checkpoint(appliedTerm, appliedIndex));
+  }
+
+  /**
+   * Stops polling and applying for good, and reports the error.
+   */
+  private void fail(Throwable t) {
+    LOG.error(String.format("Stopped streaming tablet %s", tabletId), t);
+    stopped = true;
+    failureHandler.accept(this, t);
+  }
+
+  /**
+   * Stops polling, letting the batches already fetched be applied.
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  boolean isStopped() {
+    return stopped;
+  }
+
+  public String getTabletId() {
+    return tabletId;
+  }
 
-    return poll();
+  public YBTable getTable() {
+    return table;
   }
 
+  TabletMetrics getMetrics() {
+    return metrics;
+  }
+
+  String getServerUuid() {
+    return serverUuid;
+  }
+
+  void setServerUuid(String serverUuid) {
+    this.serverUuid = serverUuid;
+  }
+
+  /**
+   * @return the term of the last batch of changes that was applied
+   */
+  public long getAppliedTerm() {
+    return appliedTerm;
+  }
+
+  /**
+   * @return the index of the last batch of changes that was applied
+   */
+  public long getAppliedIndex() {
+    return appliedIndex;
+  }
 }
@@ -0,0 +1,119 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import org.yb.client.ClientMetrics;
+import org.yb.client.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the metrics it visits in the Prometheus text exposition format. The samples of a metric
+ * are grouped under a single TYPE line whatever the order they are visited in.
+ */
+final class PrometheusWriter implements ClientMetrics.Visitor {
+  // The upper bounds of the histogram buckets, in micros.
+  private static final long[] BUCKET_BOUNDS_MICROS = {
+      100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+      1000000, 2500000, 5000000, 10000000, 30000000
+  };
+
+  private final Map<String, StringBuilder> families = new LinkedHashMap<>();
+
+  private StringBuilder family(String name, String type) {
+    StringBuilder family = families.get(name);
+    if (family == null) {
+      family = new StringBuilder();
+      family.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+      families.put(name, family);
+    }
+    return family;
+  }
+
+  private static void appendSample(StringBuilder out, String name, Map<String, String> labels,
+                                   String extraLabel, String extraValue, String value) {
+    out.append(name);
+    if (!labels.isEmpty() || extraLabel != null) {
+      out.append('{');
+      boolean first = true;
+      for (Map.Entry<String, String> label : labels.entrySet()) {
+        if (!first) {
+          out.append(',');
+        }
+        first = false;
+        appendLabel(out, label.getKey(), label.getValue());
+      }
+      if (extraLabel != null) {
+        if (!first) {
+          out.append(',');
+        }
+        appendLabel(out, extraLabel, extraValue);
+      }
+      out.append('}');
+    }
+    out.append(' ').append(value).append('\n');
+  }
+
+  private static void appendLabel(StringBuilder out, String name, String value) {
+    out.append(name).append("=\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' || c == '"') {
+        out.append('\\').append(c);
+      } else if (c == '\n') {
+        out.append("\\n");
+      } else {
+        out.append(c);
+      }
+    }
+    out.append('"');
+  }
+
+  @Override
+  public void counter(String name, Map<String, String> labels, long value) {
+    appendSample(family(name, "counter"), name, labels, null, null, Long.toString(value));
+  }
+
+  @Override
+  public void gauge(String name, Map<String, String> labels, double value) {
+    appendSample(family(name, "gauge"), name, labels, null, null, Double.toString(value));
+  }
+
+  @Override
+  public void histogram(String name, Map<String, String> labels,
+                        LatencyHistogram.Snapshot snapshot) {
+    StringBuilder family = family(name, "histogram");
+    for (long bound : BUCKET_BOUNDS_MICROS) {
+      appendSample(family, name + "_bucket", labels, "le", Long.toString(bound),
+                   Long.toString(snapshot.getCountAtOrBelow(bound)));
+    }
+    appendSample(family, name + "_bucket", labels, "le", "+Inf",
+                 Long.toString(snapshot.getCount()));
+    appendSample(family, name + "_sum", labels, null, null,
+                 Long.toString(snapshot.getSumMicros()));
+    appendSample(family, name + "_count", labels, null, null,
+                 Long.toString(snapshot.getCount()));
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder out = new StringBuilder();
+    for (StringBuilder family : families.values()) {
+      out.append(family);
+    }
+    return out.toString();
+  }
+}
@@ -0,0 +1,232 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import org.yb.ColumnSchema;
+import org.yb.Common.DataType;
+import org.yb.Common.QLValuePB;
+import org.yb.QLType;
+import org.yb.Schema;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts the CDC records of a table into compact rows, with everything it needs about every
+ * column looked up once from the table's schema.
+ * <p>
+ * A row is made of its length in bytes, not counting the length itself (int), the hybrid time of
+ * the change (long), the operation (byte, a {@link CdcService.CDCRecordPB.OperationType} number),
+ * the number of columns (short), then for each column its index in the schema (short), its flags
+ * (byte) and, unless it is null, its value. The indexes refer to the schema the decoder was built
+ * from, whose version sinks record with the rows.
+ * <p>
+ * Values of fixed size types are written as is, in big endian: 1 byte for int8 and bool, 2 for
+ * int16, 4 for int32, uint32, float and date, 8 for int64, uint64, double, timestamp and time.
+ * Other values are written as their length (int) followed by their bytes: UTF-8 for strings, the
+ * protobuf value bytes for binary, decimal, varint, inet, uuid, timeuuid and jsonb. Collections
+ * and values that don't match the schema are written as their length (int) and a serialized
+ * {@link QLValuePB}, with the {@link #FLAG_RAW} flag.
+ * <p>
+ * Columns missing from the schema, e.g. added to the table after the decoder was built, are kept:
+ * their index is {@link #UNKNOWN_COLUMN_INDEX}, they have the {@link #FLAG_NAMED} flag and their
+ * name, as its length (int) and UTF-8 bytes, comes before their value, which is written raw.
+ * <p>
+ * Writing a row allocates nothing per column, except for the values written raw.
+ */
+final class RowDecoder {
+  /** The column is part of the primary key. */
+  static final byte FLAG_KEY = 1;
+  /** The column is null, no value follows. */
+  static final byte FLAG_NULL = 2;
+  /** The value is a serialized QLValuePB. */
+  static final byte FLAG_RAW = 4;
+  /** The column isn't in the schema, its name comes first. */
+  static final byte FLAG_NAMED = 8;
+
+  /** The index of the columns that aren't in the schema. */
+  static final short UNKNOWN_COLUMN_INDEX = -1;
+
+  private static final class Column {
+    final short index;
+    final DataType type;
+    final QLValuePB.ValueCase valueCase;
+
+    Column(short index, DataType type, QLValuePB.ValueCase valueCase) {
+      this.index = index;
+      this.type = type;
+      this.valueCase = valueCase;
+    }
+  }
+
+  // Keyed by column name, as found in the records.
+  private final Map<ByteString, Column> columns = new HashMap<>();
+  private final int schemaVersion;
+
+  private final AtomicLong numUnknownColumns;
+
+  /**
+   * @param schema the schema of the table
+   * @param schemaVersion the version of that schema
+   * @param numUnknownColumns counts the columns written by name, which aren't in the schema
+   */
+  RowDecoder(Schema schema, int schemaVersion, AtomicLong numUnknownColumns) {
+    this.schemaVersion = schemaVersion;
+    this.numUnknownColumns = numUnknownColumns;
+    List<ColumnSchema> columnSchemas = schema.getColumns();
+    for (int i = 0; i < columnSchemas.size(); i++) {
+      ColumnSchema column = columnSchemas.get(i);
+      QLType qlType = column.getQLType() != null ?
+          column.getQLType() : QLType.fromType(column.getType());
+      DataType type = qlType.getMain();
+      columns.put(ByteString.copyFromUtf8(column.getName()),
+                  new Column((short) i, type, valueCaseOf(type)));
+    }
+  }
+
+  /**
+   * @return the case of the values of the given type, or VALUE_NOT_SET for those written raw
+   */
+  private static QLValuePB.ValueCase valueCaseOf(DataType type) {
+    switch (type) {
+      case INT8: return QLValuePB.ValueCase.INT8_VALUE;
+      case INT16: return QLValuePB.ValueCase.INT16_VALUE;
+      case INT32: return QLValuePB.ValueCase.INT32_VALUE;
+      case INT64: return QLValuePB.ValueCase.INT64_VALUE;
+      case UINT32: return QLValuePB.ValueCase.UINT32_VALUE;
+      case UINT64: return QLValuePB.ValueCase.UINT64_VALUE;
+      case FLOAT: return QLValuePB.ValueCase.FLOAT_VALUE;
+      case DOUBLE: return QLValuePB.ValueCase.DOUBLE_VALUE;
+      case BOOL: return QLValuePB.ValueCase.BOOL_VALUE;
+      case TIMESTAMP: return QLValuePB.ValueCase.TIMESTAMP_VALUE;
+      case DATE: return QLValuePB.ValueCase.DATE_VALUE;
+      case TIME: return QLValuePB.ValueCase.TIME_VALUE;
+      case STRING: return QLValuePB.ValueCase.STRING_VALUE;
+      case BINARY: return QLValuePB.ValueCase.BINARY_VALUE;
+      case DECIMAL: return QLValuePB.ValueCase.DECIMAL_VALUE;
+      case VARINT: return QLValuePB.ValueCase.VARINT_VALUE;
+      case INET: return QLValuePB.ValueCase.INETADDRESS_VALUE;
+      case UUID: return QLValuePB.ValueCase.UUID_VALUE;
+      case TIMEUUID: return QLValuePB.ValueCase.TIMEUUID_VALUE;
+      case JSONB: return QLValuePB.ValueCase.JSONB_VALUE;
+      default: return QLValuePB.ValueCase.VALUE_NOT_SET;
+    }
+  }
+
+  /**
+   * Writes a record as a row at the position of the buffer, and moves the position past it.
+   * @throws java.nio.BufferOverflowException if the row doesn't fit in the buffer
+   */
+  void write(CdcService.CDCRecordPB record, ByteBuffer out) throws IOException {
+    int start = out.position();
+    out.putInt(0);  // The length, once we know it.
+    out.putLong(record.getTime());
+    out.put((byte) record.getOperation().getNumber());
+    int numColumnsPosition = out.position();
+    out.putShort((short) 0);
+    int numColumns = 0;
+    for (int i = 0; i < record.getKeyCount(); i++) {
+      numColumns += writeColumn(record.getKey(i), FLAG_KEY, out);
+    }
+    for (int i = 0; i < record.getChangesCount(); i++) {
+      numColumns += writeColumn(record.getChanges(i), (byte) 0, out);
+    }
+    out.putShort(numColumnsPosition, (short) numColumns);
+    out.putInt(start, out.position() - start - 4);
+  }
+
+  /**
+   * @return the number of columns written, always 1
+   */
+  private int writeColumn(CdcService.KeyValuePairPB pair, byte flags, ByteBuffer out)
+      throws IOException {
+    Column column = columns.get(pair.getKey());
+    QLValuePB value = pair.getValue();
+    QLValuePB.ValueCase valueCase = value.getValueCase();
+    if (column == null) {
+      numUnknownColumns.incrementAndGet();
+      out.putShort(UNKNOWN_COLUMN_INDEX);
+      if (valueCase == QLValuePB.ValueCase.VALUE_NOT_SET) {
+        out.put((byte) (flags | FLAG_NAMED | FLAG_NULL));
+        putBytes(pair.getKey(), out);
+      } else {
+        out.put((byte) (flags | FLAG_NAMED | FLAG_RAW));
+        putBytes(pair.getKey(), out);
+        putRaw(value, out);
+      }
+      return 1;
+    }
+    out.putShort(column.index);
+    if (valueCase == QLValuePB.ValueCase.VALUE_NOT_SET) {
+      out.put((byte) (flags | FLAG_NULL));
+      return 1;
+    }
+    if (valueCase != column.valueCase) {
+      out.put((byte) (flags | FLAG_RAW));
+      putRaw(value, out);
+      return 1;
+    }
+    out.put(flags);
+    switch (column.type) {
+      case INT8: out.put((byte) value.getInt8Value()); break;
+      case BOOL: out.put(value.getBoolValue() ? (byte) 1 : (byte) 0); break;
+      case INT16: out.putShort((short) value.getInt16Value()); break;
+      case INT32: out.putInt(value.getInt32Value()); break;
+      case UINT32: out.putInt(value.getUint32Value()); break;
+      case FLOAT: out.putFloat(value.getFloatValue()); break;
+      case DATE: out.putInt(value.getDateValue()); break;
+      case INT64: out.putLong(value.getInt64Value()); break;
+      case UINT64: out.putLong(value.getUint64Value()); break;
+      case DOUBLE: out.putDouble(value.getDoubleValue()); break;
+      case TIMESTAMP: out.putLong(value.getTimestampValue()); break;
+      case TIME: out.putLong(value.getTimeValue()); break;
+      case STRING: putBytes(value.getStringValueBytes(), out); break;
+      case BINARY: putBytes(value.getBinaryValue(), out); break;
+      case DECIMAL: putBytes(value.getDecimalValue(), out); break;
+      case VARINT: putBytes(value.getVarintValue(), out); break;
+      case INET: putBytes(value.getInetaddressValue(), out); break;
+      case UUID: putBytes(value.getUuidValue(), out); break;
+      case TIMEUUID: putBytes(value.getTimeuuidValue(), out); break;
+      case JSONB: putBytes(value.getJsonbValue(), out); break;
+      default: throw new IllegalStateException("Unexpected type " + column.type);
+    }
+    return 1;
+  }
+
+  private static void putBytes(ByteString bytes, ByteBuffer out) {
+    out.putInt(bytes.size());
+    bytes.copyTo(out);
+  }
+
+  private static void putRaw(QLValuePB value, ByteBuffer out) throws IOException {
+    out.putInt(value.getSerializedSize());
+    CodedOutputStream raw = CodedOutputStream.newInstance(out);
+    value.writeTo(raw);
+    raw.flush();
+  }
+
+  /**
+   * @return the version of the schema the column indexes refer to
+   */
+  int getSchemaVersion() {
+    return schemaVersion;
+  }
+}
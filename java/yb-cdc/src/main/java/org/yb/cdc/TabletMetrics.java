@@ -0,0 +1,141 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import com.google.common.collect.ImmutableMap;
+import org.yb.client.ClientMetrics;
+import org.yb.client.GetChangesResponse;
+import org.yb.client.LatencyHistogram;
+import org.yb.util.HybridTimeUtil;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of the poller of one tablet: what it fetched and applied, how long that took, and
+ * how far behind the tablet it is.
+ * <p>
+ * The lag is the time since the commit of the last change applied, or zero once a poll found no
+ * more changes and everything before it was applied. The pending ops are the ops fetched but not
+ * applied yet.
+ */
+final class TabletMetrics {
+  private final Map<String, String> labels;
+
+  private final AtomicLong numPolls = new AtomicLong();
+  private final AtomicLong numEmptyPolls = new AtomicLong();
+  private final AtomicLong numPollErrors = new AtomicLong();
+  private final AtomicLong numRecords = new AtomicLong();
+  private final AtomicLong numBytes = new AtomicLong();
+  private final AtomicLong numRecordsApplied = new AtomicLong();
+  private final LatencyHistogram getChangesLatency = new LatencyHistogram();
+  private final LatencyHistogram applyLatency = new LatencyHistogram();
+
+  private volatile long fetchedIndex = 0;
+  private volatile long appliedIndex = 0;
+  // In micros since the epoch, 0 when unknown.
+  private volatile long lastAppliedCommitMicros = 0;
+  private volatile long caughtUpMicros = 0;
+
+  TabletMetrics(String tableName, String tabletId) {
+    this.labels = ImmutableMap.of("table", tableName, "tablet", tabletId);
+  }
+
+  void recordPoll(long latencyNanos, GetChangesResponse response) {
+    getChangesLatency.record(latencyNanos);
+    numPolls.incrementAndGet();
+    if (response.getResp().hasError()) {
+      numPollErrors.incrementAndGet();
+      return;
+    }
+    int records = response.getResp().getRecordsCount();
+    if (records == 0) {
+      numEmptyPolls.incrementAndGet();
+    } else {
+      long bytes = 0;
+      for (CdcService.CDCRecordPB record : response.getResp().getRecordsList()) {
+        bytes += record.getSerializedSize();
+      }
+      numRecords.addAndGet(records);
+      numBytes.addAndGet(bytes);
+    }
+    fetchedIndex = response.getResp().getCheckpoint().getOpId().getIndex();
+  }
+
+  void recordPollError(long latencyNanos) {
+    getChangesLatency.record(latencyNanos);
+    numPolls.incrementAndGet();
+    numPollErrors.incrementAndGet();
+  }
+
+  /**
+   * Records a batch that was applied, every batch before it being applied already.
+   * @param latencyNanos how long the sink took, 0 for an empty batch
+   */
+  void recordApplied(long latencyNanos, GetChangesResponse batch) {
+    int records = batch.getResp().getRecordsCount();
+    if (records == 0) {
+      caughtUpMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    } else {
+      applyLatency.record(latencyNanos);
+      numRecordsApplied.addAndGet(records);
+      long commitTime = batch.getResp().getRecords(records - 1).getTime();
+      lastAppliedCommitMicros = commitTime >>> HybridTimeUtil.hybridTimeNumBitsToShift;
+    }
+    appliedIndex = batch.getResp().getCheckpoint().getOpId().getIndex();
+  }
+
+  long getNumRecords() {
+    return numRecords.get();
+  }
+
+  long getNumBytes() {
+    return numBytes.get();
+  }
+
+  /**
+   * @return the lag in millis, or -1 if nothing was applied yet
+   */
+  long getLagMs() {
+    long appliedMicros = Math.max(lastAppliedCommitMicros, caughtUpMicros);
+    if (appliedMicros == 0) {
+      return -1;
+    }
+    long nowMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    return Math.max(0, TimeUnit.MICROSECONDS.toMillis(nowMicros - appliedMicros));
+  }
+
+  long getNumPendingOps() {
+    return Math.max(0, fetchedIndex - appliedIndex);
+  }
+
+  void visit(ClientMetrics.Visitor visitor) {
+    visitor.counter("yb_cdc_polls", labels, numPolls.get());
+    visitor.counter("yb_cdc_empty_polls", labels, numEmptyPolls.get());
+    visitor.counter("yb_cdc_poll_errors", labels, numPollErrors.get());
+    visitor.counter("yb_cdc_records_fetched", labels, numRecords.get());
+    visitor.counter("yb_cdc_bytes_fetched", labels, numBytes.get());
+    visitor.counter("yb_cdc_records_applied", labels, numRecordsApplied.get());
+    visitor.histogram("yb_cdc_get_changes_latency_micros", labels,
+                      getChangesLatency.snapshot());
+    visitor.histogram("yb_cdc_apply_latency_micros", labels, applyLatency.snapshot());
+    long lagMs = getLagMs();
+    if (lagMs >= 0) {
+      visitor.gauge("yb_cdc_lag_ms", labels, lagMs);
+    }
+    visitor.gauge("yb_cdc_pending_ops", labels, getNumPendingOps());
+  }
+}
@@ -0,0 +1,140 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import com.google.protobuf.ByteString;
+import org.yb.ColumnSchema;
+import org.yb.Common.QLValuePB;
+import org.yb.QLType;
+import org.yb.Schema;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how fast {@link DecodeStage} turns CDC records into rows, next to the usual way of
+ * consuming them: looking each column up in the schema by name and reading its value into an
+ * object. The records are made up, for a table with a key and a few columns of common types.
+ * <p>
+ * It lives with the tests so that it isn't shipped with the connector. Usage, with the test
+ * classpath: {@code DecodeBenchmark [records per batch] [seconds per run]}.
+ */
+public class DecodeBenchmark {
+  private static final String TABLE_ID = "benchmark";
+
+  public static void main(String[] args) {
+    int batchSize = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    List<ColumnSchema> columns = new ArrayList<>();
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("id", QLType.INT64).hashKey(true).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("name", QLType.STRING).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("count", QLType.INT32).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("price", QLType.DOUBLE).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("updated", QLType.TIMESTAMP).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("active", QLType.BOOL).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("payload", QLType.BINARY).build());
+    Schema schema = new Schema(columns);
+
+    List<CdcService.CDCRecordPB> records = new ArrayList<>();
+    Random random = new Random(0);
+    for (int i = 0; i < batchSize; i++) {
+      byte[] payload = new byte[64];
+      random.nextBytes(payload);
+      records.add(CdcService.CDCRecordPB.newBuilder()
+          .setTime(System.currentTimeMillis() * 1000 << 12)
+          .setOperation(CdcService.CDCRecordPB.OperationType.WRITE)
+          .addKey(pair("id", QLValuePB.newBuilder().setInt64Value(i)))
+          .addChanges(pair("name", QLValuePB.newBuilder().setStringValue("name-" + i)))
+          .addChanges(pair("count", QLValuePB.newBuilder().setInt32Value(random.nextInt())))
+          .addChanges(pair("price", QLValuePB.newBuilder().setDoubleValue(random.nextDouble())))
+          .addChanges(pair("updated", QLValuePB.newBuilder().setTimestampValue(i)))
+          .addChanges(pair("active", QLValuePB.newBuilder().setBoolValue(i % 2 == 0)))
+          .addChanges(pair("payload",
+                           QLValuePB.newBuilder().setBinaryValue(ByteString.copyFrom(payload))))
+          .build());
+    }
+    long protobufBytes = 0;
+    for (CdcService.CDCRecordPB record : records) {
+      protobufBytes += record.getSerializedSize();
+    }
+
+    DecodeStage stage = new DecodeStage();
+    ByteBuffer rows = stage.decode(TABLE_ID, schema, 0, records).getBuffer();
+    System.out.println(String.format("%d records per batch, %d bytes as protobufs, %d as rows",
+                                     batchSize, protobufBytes, rows.remaining()));
+
+    // Twice each, the first run warming up.
+    for (int run = 0; run < 2; run++) {
+      report("decode stage", batchSize, seconds, new Runnable() {
+        @Override
+        public void run() {
+          stage.decode(TABLE_ID, schema, 0, records);
+        }
+      });
+      report("schema lookups", batchSize, seconds, new Runnable() {
+        @Override
+        public void run() {
+          lookUpColumns(schema, records);
+        }
+      });
+    }
+  }
+
+  private static CdcService.KeyValuePairPB pair(String column, QLValuePB.Builder value) {
+    return CdcService.KeyValuePairPB.newBuilder()
+        .setKey(ByteString.copyFromUtf8(column)).setValue(value).build();
+  }
+
+  // Keeps the results alive, so that the JIT doesn't optimize the work away.
+  private static volatile int sink;
+
+  private static void lookUpColumns(Schema schema, List<CdcService.CDCRecordPB> records) {
+    int hash = 0;
+    for (CdcService.CDCRecordPB record : records) {
+      List<Object> values = new ArrayList<>();
+      for (CdcService.KeyValuePairPB pair : record.getChangesList()) {
+        ColumnSchema column = schema.getColumn(pair.getKey().toStringUtf8());
+        QLValuePB value = pair.getValue();
+        switch (column.getQLType().getMain()) {
+          case INT32: values.add(value.getInt32Value()); break;
+          case INT64: values.add(value.getInt64Value()); break;
+          case DOUBLE: values.add(value.getDoubleValue()); break;
+          case TIMESTAMP: values.add(value.getTimestampValue()); break;
+          case BOOL: values.add(value.getBoolValue()); break;
+          case STRING: values.add(value.getStringValue()); break;
+          default: values.add(value.getBinaryValue().toByteArray()); break;
+        }
+      }
+      hash += values.size();
+    }
+    sink = hash;
+  }
+
+  private static void report(String name, int batchSize, int seconds, Runnable decodeBatch) {
+    long deadline = System.nanoTime() + seconds * 1000000000L;
+    long batches = 0;
+    long start = System.nanoTime();
+    while (System.nanoTime() < deadline) {
+      decodeBatch.run();
+      batches++;
+    }
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    System.out.println(String.format("%-15s %12.0f records/s", name,
+                                     batches * batchSize / elapsed));
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestBackoff {
+
+  private static final int NUM_SAMPLES = 1000;
+
+  /**
+   * Checks that the next delays are between half and all of the expected delay.
+   */
+  private static void checkDelay(Backoff backoff, long expectedMs) {
+    long delayMs = backoff.nextDelayMs();
+    assertTrue(delayMs + " < half of " + expectedMs, delayMs >= expectedMs - expectedMs / 2);
+    assertTrue(delayMs + " > " + expectedMs, delayMs <= expectedMs);
+  }
+
+  @Test
+  public void testDoublesUpToMax() {
+    Backoff backoff = new Backoff(10, 100);
+    assertFalse(backoff.isBackingOff());
+    checkDelay(backoff, 10);
+    assertTrue(backoff.isBackingOff());
+    checkDelay(backoff, 20);
+    checkDelay(backoff, 40);
+    checkDelay(backoff, 80);
+    checkDelay(backoff, 100);
+    checkDelay(backoff, 100);
+  }
+
+  @Test
+  public void testReset() {
+    Backoff backoff = new Backoff(10, 1000);
+    for (int i = 0; i < 5; i++) {
+      backoff.nextDelayMs();
+    }
+    backoff.reset();
+    assertFalse(backoff.isBackingOff());
+    checkDelay(backoff, 10);
+    checkDelay(backoff, 20);
+  }
+
+  @Test
+  public void testJitterSpreadsDelays() {
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int i = 0; i < NUM_SAMPLES; i++) {
+      Backoff backoff = new Backoff(100, 100);
+      long delayMs = backoff.nextDelayMs();
+      min = Math.min(min, delayMs);
+      max = Math.max(max, delayMs);
+    }
+    // Pollers backing off together don't all wake up at once.
+    assertLessThan(min, 60L);
+    assertGreaterThan(max, 90L);
+  }
+
+  @Test
+  public void testMinDelayOfOne() {
+    Backoff backoff = new Backoff(1, 1);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(1, backoff.nextDelayMs());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNonPositiveMinDelay() {
+    new Backoff(0, 10);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxBelowMin() {
+    new Backoff(10, 5);
+  }
+}
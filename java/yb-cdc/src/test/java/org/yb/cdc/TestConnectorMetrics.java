@@ -0,0 +1,57 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.client.CdcTestUtil;
+import org.yb.Opid.OpIdPB;
+
+@RunWith(value=YBTestRunner.class)
+public class TestConnectorMetrics {
+
+  private static TabletMetrics newTabletMetrics(String tabletId, int numRecords) {
+    CdcService.GetChangesResponsePB.Builder resp = CdcService.GetChangesResponsePB.newBuilder()
+        .setCheckpoint(CdcService.CDCCheckpointPB.newBuilder()
+            .setOpId(OpIdPB.newBuilder().setTerm(1).setIndex(numRecords)));
+    for (int i = 0; i < numRecords; i++) {
+      resp.addRecords(CdcService.CDCRecordPB.newBuilder()
+          .setOperation(CdcService.CDCRecordPB.OperationType.WRITE));
+    }
+    TabletMetrics metrics = new TabletMetrics("table", tabletId);
+    metrics.recordPoll(1000, CdcTestUtil.newGetChangesResponse("ts", resp.build()));
+    return metrics;
+  }
+
+  @Test
+  public void testSummaryKeepsRemovedTablets() {
+    ConnectorMetrics metrics = new ConnectorMetrics(null, new PollScheduler(1));
+    metrics.addTablet("t1", newTabletMetrics("t1", 10));
+    metrics.addTablet("t2", newTabletMetrics("t2", 10));
+    assertTrue(metrics.summary().startsWith("2 tablets, "));
+
+    // What the removed tablet polled still counts, nothing was polled since the last summary.
+    metrics.removeTablet("t1");
+    String summary = metrics.summary();
+    assertTrue(summary, summary.startsWith("1 tablets, 0.0 records/s, 0.0 KB/s, "));
+
+    // Same when a tablet's poller is replaced.
+    metrics.addTablet("t2", newTabletMetrics("t2", 0));
+    summary = metrics.summary();
+    assertTrue(summary, summary.startsWith("1 tablets, 0.0 records/s, 0.0 KB/s, "));
+  }
+}
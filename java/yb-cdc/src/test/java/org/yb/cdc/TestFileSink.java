@@ -0,0 +1,288 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.google.protobuf.ByteString;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.client.CdcTestUtil;
+import org.yb.client.GetChangesResponse;
+import org.yb.client.YBTable;
+import org.yb.Common;
+import org.yb.Opid.OpIdPB;
+
+@RunWith(value=YBTestRunner.class)
+public class TestFileSink {
+
+  private static final long TIMEOUT_MS = 10000;
+  private static final long MAX_FILE_BYTES = 1 << 30;
+  private static final long MAX_FILE_AGE_MS = 3600 * 1000;
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final YBTable table = CdcTestUtil.newTable("table", "table-id", null, 3);
+  private FileSink sink;
+
+  @After
+  public void tearDown() throws Exception {
+    if (sink != null) {
+      sink.close();
+    }
+  }
+
+  /**
+   * A batch of a file, as read back.
+   */
+  private static final class Batch {
+    String tableId;
+    String tabletId;
+    int schemaVersion;
+    long term;
+    long index;
+    List<CdcService.CDCRecordPB> records = new ArrayList<>();
+  }
+
+  private static CdcService.CDCRecordPB record(String key, long time) {
+    return CdcService.CDCRecordPB.newBuilder()
+        .setTime(time)
+        .setOperation(CdcService.CDCRecordPB.OperationType.WRITE)
+        .addKey(CdcService.KeyValuePairPB.newBuilder()
+            .setKey(ByteString.copyFromUtf8("k"))
+            .setValue(Common.QLValuePB.newBuilder().setStringValue(key)))
+        .build();
+  }
+
+  private static GetChangesResponse batch(long term, long index,
+                                          CdcService.CDCRecordPB... records) {
+    return CdcTestUtil.newGetChangesResponse("ts", CdcService.GetChangesResponsePB.newBuilder()
+        .addAllRecords(Arrays.asList(records))
+        .setCheckpoint(CdcService.CDCCheckpointPB.newBuilder()
+            .setOpId(OpIdPB.newBuilder().setTerm(term).setIndex(index)))
+        .build());
+  }
+
+  private static void await(CompletableFuture<Void> future) throws Exception {
+    future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  private File[] files() {
+    File[] files = tmp.getRoot().listFiles();
+    Arrays.sort(files);
+    return files;
+  }
+
+  private static String readString(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getInt()];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads the batches of a file, up to the first one that is torn or corrupted.
+   */
+  private static List<Batch> readBatches(File file) throws IOException {
+    ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+    List<Batch> batches = new ArrayList<>();
+    while (buf.remaining() >= FileSink.BATCH_PREFIX_SIZE) {
+      int length = buf.getInt();
+      int checksum = buf.getInt();
+      if (length > buf.remaining()) {
+        break;
+      }
+      CRC32 crc = new CRC32();
+      crc.update(buf.array(), buf.position(), length);
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+      ByteBuffer body = buf.slice();
+      body.limit(length);
+      buf.position(buf.position() + length);
+
+      Batch batch = new Batch();
+      batch.tableId = readString(body);
+      batch.tabletId = readString(body);
+      batch.schemaVersion = body.getInt();
+      batch.term = body.getLong();
+      batch.index = body.getLong();
+      int numRecords = body.getInt();
+      for (int i = 0; i < numRecords; i++) {
+        byte[] record = new byte[body.getInt()];
+        body.get(record);
+        batch.records.add(CdcService.CDCRecordPB.parseFrom(record));
+      }
+      assertFalse(body.hasRemaining());
+      batches.add(batch);
+    }
+    return batches;
+  }
+
+  @Test
+  public void testFormat() throws Exception {
+    sink = new FileSink(tmp.getRoot(), "changes", MAX_FILE_BYTES, MAX_FILE_AGE_MS);
+    CdcService.CDCRecordPB first = record("a", 1);
+    CdcService.CDCRecordPB second = record("b", 2);
+    CdcService.CDCRecordPB third = record("c", 3);
+    await(sink.apply(table, "tablet-1", batch(1, 10, first, second)));
+    await(sink.apply(table, "tablet-2", batch(2, 20, third)));
+    sink.close();
+
+    File[] files = files();
+    assertEquals(1, files.length);
+    assertTrue(files[0].getName().startsWith("changes-"));
+    assertTrue(files[0].getName().endsWith("-000000.log"));
+    assertEquals(files[0].length(), sink.getNumBytesWritten());
+
+    List<Batch> batches = readBatches(files[0]);
+    assertEquals(2, batches.size());
+    assertEquals("table-id", batches.get(0).tableId);
+    assertEquals("tablet-1", batches.get(0).tabletId);
+    assertEquals(3, batches.get(0).schemaVersion);
+    assertEquals(1, batches.get(0).term);
+    assertEquals(10, batches.get(0).index);
+    assertEquals(Arrays.asList(first, second), batches.get(0).records);
+    assertEquals("tablet-2", batches.get(1).tabletId);
+    assertEquals(2, batches.get(1).term);
+    assertEquals(20, batches.get(1).index);
+    assertEquals(Arrays.asList(third), batches.get(1).records);
+  }
+
+  @Test
+  public void testCorruptedBatchDetected() throws Exception {
+    sink = new FileSink(tmp.getRoot(), "changes", MAX_FILE_BYTES, MAX_FILE_AGE_MS);
+    await(sink.apply(table, "tablet-1", batch(1, 10, record("a", 1))));
+    final long firstBatchBytes = sink.getNumBytesWritten();
+    await(sink.apply(table, "tablet-1", batch(1, 11, record("b", 2))));
+    sink.close();
+
+    File file = files()[0];
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      long offset = file.length() - 1;
+      raf.seek(offset);
+      int b = raf.read();
+      raf.seek(offset);
+      raf.write(b ^ 1);
+    }
+    List<Batch> batches = readBatches(file);
+    assertEquals(1, batches.size());
+    assertEquals(10, batches.get(0).index);
+
+    // A torn batch is detected by its length.
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(firstBatchBytes + FileSink.BATCH_PREFIX_SIZE + 1);
+    }
+    assertEquals(1, readBatches(file).size());
+  }
+
+  @Test
+  public void testRollOverBySize() throws Exception {
+    // Every write goes past the size, so every batch gets a file of its own.
+    sink = new FileSink(tmp.getRoot(), "changes", 1, MAX_FILE_AGE_MS);
+    for (int i = 0; i < 3; i++) {
+      await(sink.apply(table, "tablet-1", batch(1, i, record("a", i))));
+    }
+    sink.close();
+
+    File[] files = files();
+    assertEquals(3, files.length);
+    assertEquals(3, sink.getNumFiles());
+    for (int i = 0; i < 3; i++) {
+      assertTrue(files[i].getName().endsWith(String.format("-%06d.log", i)));
+      List<Batch> batches = readBatches(files[i]);
+      assertEquals(1, batches.size());
+      assertEquals(i, batches.get(0).index);
+    }
+  }
+
+  @Test
+  public void testRollOverByAge() throws Exception {
+    final long maxAgeMs = 100;
+    sink = new FileSink(tmp.getRoot(), "changes", MAX_FILE_BYTES, maxAgeMs);
+    await(sink.apply(table, "tablet-1", batch(1, 1, record("a", 1))));
+    await(sink.apply(table, "tablet-1", batch(1, 2, record("b", 2))));
+    // The file is rolled over even if nothing is written meanwhile.
+    Thread.sleep(5 * maxAgeMs);
+    await(sink.apply(table, "tablet-1", batch(1, 3, record("c", 3))));
+    sink.close();
+
+    File[] files = files();
+    assertEquals(2, files.length);
+    assertEquals(2, readBatches(files[0]).size());
+    List<Batch> batches = readBatches(files[1]);
+    assertEquals(1, batches.size());
+    assertEquals(3, batches.get(0).index);
+  }
+
+  @Test
+  public void testQueuedBatchesWrittenOnClose() throws Exception {
+    sink = new FileSink(tmp.getRoot(), "changes", MAX_FILE_BYTES, MAX_FILE_AGE_MS);
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      futures.add(sink.apply(table, "tablet-1", batch(1, i, record("a", i))));
+    }
+    sink.close();
+    for (CompletableFuture<Void> future : futures) {
+      assertTrue(future.isDone());
+      assertFalse(future.isCompletedExceptionally());
+    }
+    assertEquals(100, readBatches(files()[0]).size());
+  }
+
+  @Test
+  public void testApplyAfterCloseFails() throws Exception {
+    sink = new FileSink(tmp.getRoot(), "changes", MAX_FILE_BYTES, MAX_FILE_AGE_MS);
+    sink.close();
+    CompletableFuture<Void> future = sink.apply(table, "tablet-1", batch(1, 1, record("a", 1)));
+    try {
+      await(future);
+      fail("The batch was applied to a closed sink");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    assertEquals(0, files().length);
+  }
+
+  @Test
+  public void testWriteFailureFailsBatches() throws Exception {
+    sink = new FileSink(new File(tmp.getRoot(), "missing"), "changes", MAX_FILE_BYTES,
+                        MAX_FILE_AGE_MS);
+    CompletableFuture<Void> future = sink.apply(table, "tablet-1", batch(1, 1, record("a", 1)));
+    try {
+      await(future);
+      fail("The batch was applied without a directory to write to");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+}
@@ -0,0 +1,200 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.base.Strings;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestMappedFileCheckpointStore {
+
+  // Long enough for the background flush not to run during a test.
+  private static final long FLUSH_INTERVAL_MS = 3600 * 1000;
+  // Length, term, index and checksum.
+  private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 4;
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = new File(tmp.getRoot(), "stream.checkpoints");
+  }
+
+  private MappedFileCheckpointStore open() throws IOException {
+    return new MappedFileCheckpointStore(file, FLUSH_INTERVAL_MS);
+  }
+
+  private static int recordSize(String tabletId) {
+    return tabletId.getBytes(StandardCharsets.UTF_8).length + RECORD_OVERHEAD;
+  }
+
+  /**
+   * Stores a checkpoint for each of the tablets, one flush each so that their records are in
+   * order.
+   * @return the offset of the end of the last record
+   */
+  private int storeInOrder(String... tabletIds) throws IOException {
+    int end = 4;
+    try (MappedFileCheckpointStore store = open()) {
+      for (int i = 0; i < tabletIds.length; i++) {
+        store.update(tabletIds[i], new Checkpoint(1, i + 1));
+        store.flush();
+        end += recordSize(tabletIds[i]);
+      }
+    }
+    return end;
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    try (MappedFileCheckpointStore store = open()) {
+      assertNull(store.get("tablet-a"));
+      store.update("tablet-a", new Checkpoint(1, 10));
+      store.update("tablet-b", new Checkpoint(2, 20));
+      store.flush();
+      assertEquals(0, store.getCheckpointLagMs());
+      store.update("tablet-a", new Checkpoint(1, 11));
+      assertEquals(new Checkpoint(1, 11), store.get("tablet-a"));
+      // Not flushed yet, close() takes care of it.
+      store.update("tablet-c", new Checkpoint(3, 30));
+      assertEquals(1, store.getNumFlushes());
+    }
+    try (MappedFileCheckpointStore store = open()) {
+      assertEquals(new Checkpoint(1, 11), store.get("tablet-a"));
+      assertEquals(new Checkpoint(2, 20), store.get("tablet-b"));
+      assertEquals(new Checkpoint(3, 30), store.get("tablet-c"));
+      assertNull(store.get("tablet-d"));
+    }
+  }
+
+  @Test
+  public void testTruncatedTail() throws Exception {
+    int end = storeInOrder("tablet-a", "tablet-b", "tablet-c");
+    // A crash in the middle of writing the last record.
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(end - 5);
+    }
+    try (MappedFileCheckpointStore store = open()) {
+      assertEquals(new Checkpoint(1, 1), store.get("tablet-a"));
+      assertEquals(new Checkpoint(1, 2), store.get("tablet-b"));
+      assertNull(store.get("tablet-c"));
+      // The torn record is overwritten by the next one.
+      store.update("tablet-c", new Checkpoint(4, 40));
+    }
+    try (MappedFileCheckpointStore store = open()) {
+      assertEquals(new Checkpoint(1, 2), store.get("tablet-b"));
+      assertEquals(new Checkpoint(4, 40), store.get("tablet-c"));
+    }
+  }
+
+  @Test
+  public void testCorruptedTail() throws Exception {
+    int end = storeInOrder("tablet-a", "tablet-b", "tablet-c");
+    // Flip a bit of the index of the last record, its checksum doesn't match anymore.
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(end - 5);
+      int b = raf.read();
+      raf.seek(end - 5);
+      raf.write(b ^ 1);
+    }
+    try (MappedFileCheckpointStore store = open()) {
+      assertEquals(new Checkpoint(1, 1), store.get("tablet-a"));
+      assertEquals(new Checkpoint(1, 2), store.get("tablet-b"));
+      assertNull(store.get("tablet-c"));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotACheckpointFile() throws Exception {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.writeInt(42);
+    }
+    open();
+  }
+
+  @Test
+  public void testCompactionPastMinCapacity() throws Exception {
+    // Enough tablets for their live records to take more than half of the minimal file.
+    final int numTablets = 600;
+    final String prefix = Strings.repeat("x", 990);
+    String[] tabletIds = new String[numTablets];
+    for (int i = 0; i < numTablets; i++) {
+      tabletIds[i] = prefix + String.format("%010d", i);
+    }
+    assertGreaterThan(2 * numTablets * recordSize(tabletIds[0]),
+                      MappedFileCheckpointStore.MIN_CAPACITY);
+
+    try (MappedFileCheckpointStore store = open()) {
+      assertEquals(MappedFileCheckpointStore.MIN_CAPACITY, file.length());
+      for (int round = 1; round <= 3; round++) {
+        for (String tabletId : tabletIds) {
+          store.update(tabletId, new Checkpoint(round, round * 10));
+        }
+        store.flush();
+      }
+      // The second round didn't fit, the file was rewritten twice as big.
+      assertEquals(2L * MappedFileCheckpointStore.MIN_CAPACITY, file.length());
+      assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    try (MappedFileCheckpointStore store = open()) {
+      for (String tabletId : tabletIds) {
+        assertEquals(new Checkpoint(3, 30), store.get(tabletId));
+      }
+      store.update(tabletIds[0], new Checkpoint(4, 40));
+    }
+    try (MappedFileCheckpointStore store = open()) {
+      assertEquals(new Checkpoint(4, 40), store.get(tabletIds[0]));
+      assertEquals(new Checkpoint(3, 30), store.get(tabletIds[numTablets - 1]));
+    }
+  }
+
+  @Test
+  public void testRepeatedCompaction() throws Exception {
+    // Few tablets updated many times fill the file with stale records, compaction drops them.
+    final int numTablets = 100;
+    final int numRounds = 400;
+    try (MappedFileCheckpointStore store = open()) {
+      for (int round = 1; round <= numRounds; round++) {
+        for (int i = 0; i < numTablets; i++) {
+          store.update("tablet-" + i, new Checkpoint(1, round));
+        }
+        store.flush();
+      }
+      assertGreaterThan((long) numRounds * numTablets * recordSize("tablet-00"),
+                        (long) MappedFileCheckpointStore.MIN_CAPACITY);
+      assertEquals(MappedFileCheckpointStore.MIN_CAPACITY, file.length());
+    }
+    try (MappedFileCheckpointStore store = open()) {
+      for (int i = 0; i < numTablets; i++) {
+        assertEquals(new Checkpoint(1, numRounds), store.get("tablet-" + i));
+      }
+    }
+  }
+}
@@ -0,0 +1,179 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.client.CdcTestUtil;
+import org.yb.client.YBTable;
+
+@RunWith(value=YBTestRunner.class)
+public class TestPollScheduler {
+
+  private static final CheckpointStore NO_CHECKPOINTS = new CheckpointStore() {
+    @Override
+    public Checkpoint get(String tabletId) {
+      return null;
+    }
+
+    @Override
+    public void update(String tabletId, Checkpoint checkpoint) {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public long getCheckpointLagMs() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  // The pollers the scheduler let go, in order.
+  private final List<Poller> fetched = new ArrayList<>();
+
+  /**
+   * A poller that only records when the scheduler lets it go.
+   */
+  private final class FakePoller extends Poller {
+    FakePoller(YBTable table, String tabletId, String serverUuid) {
+      super(null, NO_CHECKPOINTS, table, "stream", tabletId, null, serverUuid, null, null, null,
+            Poller.DEFAULT_MAX_PENDING_BATCHES, Poller.DEFAULT_MAX_IDLE_BACKOFF_MS, 0, null);
+    }
+
+    @Override
+    void fetch(String server) {
+      assertEquals(getServerUuid(), server);
+      fetched.add(this);
+    }
+  }
+
+  private List<Poller> newPollers(YBTable table, int count, String serverUuid) {
+    List<Poller> pollers = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      pollers.add(new FakePoller(table, table.getTableId() + "-tablet-" + i, serverUuid));
+    }
+    return pollers;
+  }
+
+  @Test
+  public void testMaxPollsPerServer() {
+    PollScheduler scheduler = new PollScheduler(2);
+    YBTable table = CdcTestUtil.newTable("table", "table-id", null);
+    List<Poller> onA = newPollers(table, 5, "a");
+    Poller onB = new FakePoller(table, "tablet-b", "b");
+    for (Poller poller : onA) {
+      scheduler.ready(poller);
+    }
+    scheduler.ready(onB);
+    // Two polls for server a, the others wait, while server b has room.
+    assertEquals(3, fetched.size());
+    assertEquals(onA.subList(0, 2), fetched.subList(0, 2));
+    assertSame(onB, fetched.get(2));
+    assertEquals(3, scheduler.getNumWaiting());
+
+    // Every completed poll lets the next poller of the same server go.
+    scheduler.done("b");
+    assertEquals(3, fetched.size());
+    for (int i = 2; i < 5; i++) {
+      scheduler.done("a");
+      assertSame(onA.get(i), fetched.get(fetched.size() - 1));
+    }
+    assertEquals(0, scheduler.getNumWaiting());
+  }
+
+  @Test
+  public void testWeightShares() {
+    PollScheduler scheduler = new PollScheduler(1);
+    YBTable heavy = CdcTestUtil.newTable("heavy", "heavy-id", null);
+    YBTable light = CdcTestUtil.newTable("light", "light-id", null);
+    scheduler.setWeight(heavy.getTableId(), 3);
+    List<Poller> pollers = new ArrayList<>();
+    pollers.addAll(newPollers(heavy, 4, "a"));
+    pollers.addAll(newPollers(light, 4, "a"));
+    for (Poller poller : pollers) {
+      scheduler.ready(poller);
+    }
+    // The first poller got the only slot, the others wait for it.
+    assertEquals(1, fetched.size());
+
+    // Every tablet always has changes: it's ready again as soon as its poll completes.
+    Map<YBTable, Integer> polls = new HashMap<>();
+    for (int i = 0; i < 40; i++) {
+      Poller done = fetched.get(fetched.size() - 1);
+      scheduler.ready(done);
+      scheduler.done("a");
+      Poller next = fetched.get(fetched.size() - 1);
+      Integer count = polls.get(next.getTable());
+      polls.put(next.getTable(), count == null ? 1 : count + 1);
+    }
+    assertEquals(30, (int) polls.get(heavy));
+    assertEquals(10, (int) polls.get(light));
+  }
+
+  @Test
+  public void testHotTabletDoesNotStarveColdOnes() {
+    PollScheduler scheduler = new PollScheduler(1);
+    YBTable table = CdcTestUtil.newTable("table", "table-id", null);
+    Poller hot = new FakePoller(table, "hot", "a");
+    scheduler.ready(hot);
+    List<Poller> cold = newPollers(table, 3, "a");
+    for (Poller poller : cold) {
+      scheduler.ready(poller);
+    }
+    // The hot tablet has changes again as soon as its poll completes, it goes after the others.
+    scheduler.ready(hot);
+    for (int i = 0; i < cold.size(); i++) {
+      scheduler.done("a");
+      assertSame(cold.get(i), fetched.get(fetched.size() - 1));
+    }
+    scheduler.done("a");
+    assertSame(hot, fetched.get(fetched.size() - 1));
+  }
+
+  @Test
+  public void testStoppedPollersAreSkipped() {
+    PollScheduler scheduler = new PollScheduler(1);
+    YBTable table = CdcTestUtil.newTable("table", "table-id", null);
+    List<Poller> pollers = newPollers(table, 3, "a");
+    for (Poller poller : pollers) {
+      scheduler.ready(poller);
+    }
+    assertEquals(2, scheduler.getNumWaiting());
+    // The tablet of the second poller went away while it waited.
+    pollers.get(1).stop();
+    scheduler.done("a");
+    assertSame(pollers.get(2), fetched.get(fetched.size() - 1));
+    assertEquals(2, fetched.size());
+    assertEquals(0, scheduler.getNumWaiting());
+
+    // A stopped poller doesn't take a slot either.
+    scheduler.ready(pollers.get(1));
+    scheduler.done("a");
+    assertEquals(2, fetched.size());
+  }
+}
@@ -0,0 +1,290 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.yb.AssertionWrappers.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import com.google.protobuf.ByteString;
+import com.stumbleupon.async.Deferred;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.yb.YBTestRunner;
+import org.yb.client.AsyncYBClient;
+import org.yb.client.CdcTestUtil;
+import org.yb.client.GetChangesResponse;
+import org.yb.client.YBTable;
+import org.yb.Common;
+import org.yb.Opid.OpIdPB;
+
+@RunWith(value=YBTestRunner.class)
+public class TestPoller {
+
+  private static final long TIMEOUT_MS = 10000;
+  private static final String SERVER = "ts";
+
+  private final YBTable table = CdcTestUtil.newTable("table", "table-id", null);
+  private ScheduledExecutorService executor;
+  private AsyncYBClient client;
+
+  /**
+   * A GetChanges sent by the poller, waiting for the test to answer it.
+   */
+  private static final class Poll {
+    final long term;
+    final long index;
+    final Deferred<GetChangesResponse> response = new Deferred<>();
+
+    Poll(long term, long index) {
+      this.term = term;
+      this.index = index;
+    }
+  }
+
+  private final BlockingQueue<Poll> polls = new LinkedBlockingQueue<>();
+
+  /**
+   * A batch handed over to the sink, acknowledged when the test completes it.
+   */
+  private static final class Applied {
+    final GetChangesResponse batch;
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    Applied(GetChangesResponse batch) {
+      this.batch = batch;
+    }
+
+    long getIndex() {
+      return batch.getResp().getCheckpoint().getOpId().getIndex();
+    }
+  }
+
+  private final BlockingQueue<Applied> applied = new LinkedBlockingQueue<>();
+  private volatile boolean acknowledgeBatches = true;
+
+  private final BatchSink sink = new BatchSink() {
+    @Override
+    public CompletableFuture<Void> apply(YBTable table, String tabletId,
+                                         GetChangesResponse batch) {
+      Applied batchApplied = new Applied(batch);
+      if (acknowledgeBatches) {
+        batchApplied.done.complete(null);
+      }
+      applied.add(batchApplied);
+      return batchApplied.done;
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  private final Map<String, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+
+  private final CheckpointStore checkpointStore = new CheckpointStore() {
+    @Override
+    public Checkpoint get(String tabletId) {
+      return checkpoints.get(tabletId);
+    }
+
+    @Override
+    public void update(String tabletId, Checkpoint checkpoint) {
+      checkpoints.put(tabletId, checkpoint);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public long getCheckpointLagMs() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+  @Before
+  public void setUp() throws Exception {
+    executor = Executors.newScheduledThreadPool(2);
+    client = mock(AsyncYBClient.class);
+    when(client.getChanges(any(YBTable.class), anyString(), anyString(), (byte[]) any(),
+                           anyLong(), anyLong(), anyInt()))
+        .thenAnswer(new Answer<Deferred<GetChangesResponse>>() {
+          @Override
+          public Deferred<GetChangesResponse> answer(InvocationOnMock invocation) {
+            Object[] args = invocation.getArguments();
+            Poll poll = new Poll((Long) args[4], (Long) args[5]);
+            polls.add(poll);
+            return poll.response;
+          }
+        });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+  }
+
+  private Poller newPoller(int maxPendingBatches) {
+    return new Poller(sink, checkpointStore, table, "stream", "tablet", null, SERVER, executor,
+                      client, new PollScheduler(1), maxPendingBatches,
+                      Poller.DEFAULT_MAX_IDLE_BACKOFF_MS, 0,
+                      new BiConsumer<Poller, Throwable>() {
+                        @Override
+                        public void accept(Poller poller, Throwable t) {
+                          failures.add(t);
+                        }
+                      });
+  }
+
+  private Poll nextPoll() throws Exception {
+    Poll poll = polls.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNotNull(poll);
+    return poll;
+  }
+
+  private Applied nextApplied() throws Exception {
+    Applied batch = applied.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNotNull(batch);
+    return batch;
+  }
+
+  /**
+   * Answers a poll with one record, and the given index as the checkpoint.
+   */
+  private static void answer(Poll poll, long index) {
+    CdcService.GetChangesResponsePB resp = CdcService.GetChangesResponsePB.newBuilder()
+        .addRecords(CdcService.CDCRecordPB.newBuilder()
+            .setOperation(CdcService.CDCRecordPB.OperationType.WRITE)
+            .addKey(CdcService.KeyValuePairPB.newBuilder()
+                .setKey(ByteString.copyFromUtf8("key"))
+                .setValue(Common.QLValuePB.newBuilder().setInt64Value(index))))
+        .setCheckpoint(CdcService.CDCCheckpointPB.newBuilder()
+            .setOpId(OpIdPB.newBuilder().setTerm(1).setIndex(index)))
+        .build();
+    poll.response.callback(CdcTestUtil.newGetChangesResponse(SERVER, resp));
+  }
+
+  private void waitForCheckpoint(long index) throws Exception {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (checkpoints.get("tablet") == null || checkpoints.get("tablet").getIndex() < index) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testBatchesAreAppliedInOrder() throws Exception {
+    Poller poller = newPoller(Poller.DEFAULT_MAX_PENDING_BATCHES);
+    poller.poll();
+    for (long index = 1; index <= 5; index++) {
+      Poll poll = nextPoll();
+      // Each poll starts from the checkpoint of the batch before it.
+      assertEquals(index - 1, poll.index);
+      answer(poll, index);
+    }
+    waitForCheckpoint(5);
+    for (long index = 1; index <= 5; index++) {
+      assertEquals(index, nextApplied().getIndex());
+    }
+    assertEquals(5, poller.getAppliedIndex());
+    assertTrue(failures.isEmpty());
+  }
+
+  @Test
+  public void testFetchOverlapsApply() throws Exception {
+    acknowledgeBatches = false;
+    newPoller(Poller.DEFAULT_MAX_PENDING_BATCHES).poll();
+    answer(nextPoll(), 1);
+    Applied first = nextApplied();
+    // The next batch is fetched while the sink still holds the first one.
+    Poll second = nextPoll();
+    assertEquals(1, second.index);
+    assertNull(checkpoints.get("tablet"));
+
+    first.done.complete(null);
+    waitForCheckpoint(1);
+    answer(second, 2);
+    nextApplied().done.complete(null);
+    waitForCheckpoint(2);
+  }
+
+  @Test
+  public void testPendingBatchesAreBounded() throws Exception {
+    acknowledgeBatches = false;
+    newPoller(2).poll();
+    answer(nextPoll(), 1);
+    Applied first = nextApplied();
+    // Two more batches fill the queue while the sink holds the first one.
+    answer(nextPoll(), 2);
+    answer(nextPoll(), 3);
+    assertNull(polls.poll(200, TimeUnit.MILLISECONDS));
+    // The sink only gets the next batch once it acknowledged the previous one.
+    assertTrue(applied.isEmpty());
+
+    first.done.complete(null);
+    Applied second = nextApplied();
+    assertEquals(2, second.getIndex());
+    // There's room in the queue again.
+    assertEquals(3, nextPoll().index);
+    second.done.complete(null);
+    assertEquals(3, nextApplied().getIndex());
+  }
+
+  @Test
+  public void testFailsOnceWhenTheNextPollCannotBeSent() throws Exception {
+    newPoller(Poller.DEFAULT_MAX_PENDING_BATCHES).poll();
+    Poll poll = nextPoll();
+    executor.shutdownNow();
+    // Handling the answer throws when sending the next poll, which the poller can't survive.
+    answer(poll, 1);
+    // The answer may be handled by the poller's thread, if it came before the poller waited.
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (failures.isEmpty()) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    Thread.sleep(100);
+    assertEquals(1, failures.size());
+    assertTrue(failures.get(0) instanceof RejectedExecutionException);
+  }
+}
@@ -0,0 +1,86 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.client.LatencyHistogram;
+
+@RunWith(value=YBTestRunner.class)
+public class TestPrometheusWriter {
+
+  @Test
+  public void testSamplesAreGroupedByMetric() {
+    PrometheusWriter writer = new PrometheusWriter();
+    writer.counter("yb_polls", ImmutableMap.of("tablet", "t1"), 1);
+    writer.gauge("yb_lag_ms", Collections.<String, String>emptyMap(), 2);
+    writer.counter("yb_polls", ImmutableMap.of("tablet", "t2"), 3);
+    assertEquals(
+        "# TYPE yb_polls counter\n" +
+        "yb_polls{tablet=\"t1\"} 1\n" +
+        "yb_polls{tablet=\"t2\"} 3\n" +
+        "# TYPE yb_lag_ms gauge\n" +
+        "yb_lag_ms 2.0\n",
+        writer.toString());
+  }
+
+  @Test
+  public void testHistogramBucketsAreCumulative() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long micros : new long[] { 50, 400, 400, 2000, 60000000 }) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+    PrometheusWriter writer = new PrometheusWriter();
+    writer.histogram("yb_latency_micros", ImmutableMap.of("table", "t"), histogram.snapshot());
+    String out = writer.toString();
+    assertTrue(out.startsWith("# TYPE yb_latency_micros histogram\n"));
+    assertTrue(out.contains("yb_latency_micros_bucket{table=\"t\",le=\"100\"} 1\n"));
+    assertTrue(out.contains("yb_latency_micros_bucket{table=\"t\",le=\"250\"} 1\n"));
+    assertTrue(out.contains("yb_latency_micros_bucket{table=\"t\",le=\"500\"} 3\n"));
+    assertTrue(out.contains("yb_latency_micros_bucket{table=\"t\",le=\"1000\"} 3\n"));
+    assertTrue(out.contains("yb_latency_micros_bucket{table=\"t\",le=\"2500\"} 4\n"));
+    // Above the last bound, only counted by +Inf.
+    assertTrue(out.contains("yb_latency_micros_bucket{table=\"t\",le=\"30000000\"} 4\n"));
+    assertTrue(out.contains("yb_latency_micros_bucket{table=\"t\",le=\"+Inf\"} 5\n"));
+    assertTrue(out.contains("yb_latency_micros_count{table=\"t\"} 5\n"));
+    assertTrue(out.contains("yb_latency_micros_sum{table=\"t\"} "));
+
+    // Every bucket counts the ones before it.
+    long previous = 0;
+    for (String line : out.split("\n")) {
+      if (line.startsWith("yb_latency_micros_bucket")) {
+        long count = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+        assertTrue(line, count >= previous);
+        previous = count;
+      }
+    }
+  }
+
+  @Test
+  public void testLabelValuesAreEscaped() {
+    PrometheusWriter writer = new PrometheusWriter();
+    writer.counter("yb_polls", ImmutableMap.of("table", "a\"b\\c\nd"), 1);
+    assertEquals(
+        "# TYPE yb_polls counter\n" +
+        "yb_polls{table=\"a\\\"b\\\\c\\nd\"} 1\n",
+        writer.toString());
+  }
+}
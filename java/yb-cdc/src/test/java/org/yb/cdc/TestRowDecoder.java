@@ -0,0 +1,324 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.*;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.ColumnSchema;
+import org.yb.Common;
+import org.yb.Common.DataType;
+import org.yb.Common.QLValuePB;
+import org.yb.QLType;
+import org.yb.Schema;
+import org.yb.YBTestRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+@RunWith(value=YBTestRunner.class)
+public class TestRowDecoder {
+
+  // UINT32 and UINT64 columns can't be described by the Java client's schemas.
+  private static final DataType[] TYPES = {
+      DataType.INT8, DataType.INT16, DataType.INT32, DataType.INT64, DataType.FLOAT,
+      DataType.DOUBLE, DataType.BOOL, DataType.TIMESTAMP, DataType.DATE, DataType.TIME,
+      DataType.STRING, DataType.BINARY, DataType.DECIMAL, DataType.VARINT, DataType.INET,
+      DataType.UUID, DataType.TIMEUUID, DataType.JSONB
+  };
+
+  private final AtomicLong numUnknownColumns = new AtomicLong();
+
+  private static QLType type(DataType dataType) {
+    return QLType.createFromQLTypePB(Common.QLTypePB.newBuilder().setMain(dataType).build());
+  }
+
+  private static String columnName(DataType dataType) {
+    return dataType.name().toLowerCase();
+  }
+
+  /**
+   * @return a schema with a key and a column of every type, then the given columns
+   */
+  private static Schema schema(ColumnSchema... extraColumns) {
+    List<ColumnSchema> columns = new ArrayList<>();
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("k", QLType.INT64).hashKey(true).build());
+    for (DataType dataType : TYPES) {
+      columns.add(new ColumnSchema.ColumnSchemaBuilder(columnName(dataType), type(dataType))
+          .build());
+    }
+    columns.addAll(Arrays.asList(extraColumns));
+    return new Schema(columns);
+  }
+
+  private static CdcService.KeyValuePairPB pair(String column, QLValuePB.Builder value) {
+    return CdcService.KeyValuePairPB.newBuilder()
+        .setKey(ByteString.copyFromUtf8(column)).setValue(value).build();
+  }
+
+  private static CdcService.CDCRecordPB.Builder record(long key) {
+    return CdcService.CDCRecordPB.newBuilder()
+        .setTime(1234567890L << 12)
+        .setOperation(CdcService.CDCRecordPB.OperationType.WRITE)
+        .addKey(pair("k", QLValuePB.newBuilder().setInt64Value(key)));
+  }
+
+  private static ByteString bytes(String s) {
+    return ByteString.copyFromUtf8(s);
+  }
+
+  private static ByteString readBytes(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getInt()];
+    buf.get(bytes);
+    return ByteString.copyFrom(bytes);
+  }
+
+  private static QLValuePB readValue(DataType dataType, ByteBuffer buf) {
+    QLValuePB.Builder value = QLValuePB.newBuilder();
+    switch (dataType) {
+      case INT8: return value.setInt8Value(buf.get()).build();
+      case BOOL: return value.setBoolValue(buf.get() != 0).build();
+      case INT16: return value.setInt16Value(buf.getShort()).build();
+      case INT32: return value.setInt32Value(buf.getInt()).build();
+      case FLOAT: return value.setFloatValue(buf.getFloat()).build();
+      case DATE: return value.setDateValue(buf.getInt()).build();
+      case INT64: return value.setInt64Value(buf.getLong()).build();
+      case DOUBLE: return value.setDoubleValue(buf.getDouble()).build();
+      case TIMESTAMP: return value.setTimestampValue(buf.getLong()).build();
+      case TIME: return value.setTimeValue(buf.getLong()).build();
+      case STRING: return value.setStringValueBytes(readBytes(buf)).build();
+      case BINARY: return value.setBinaryValue(readBytes(buf)).build();
+      case DECIMAL: return value.setDecimalValue(readBytes(buf)).build();
+      case VARINT: return value.setVarintValue(readBytes(buf)).build();
+      case INET: return value.setInetaddressValue(readBytes(buf)).build();
+      case UUID: return value.setUuidValue(readBytes(buf)).build();
+      case TIMEUUID: return value.setTimeuuidValue(readBytes(buf)).build();
+      case JSONB: return value.setJsonbValue(readBytes(buf)).build();
+      default: throw new IllegalArgumentException("Unexpected type " + dataType);
+    }
+  }
+
+  /**
+   * Reads a row back into the record it was decoded from.
+   * @param flags collects the flags of the columns
+   */
+  private static CdcService.CDCRecordPB readRow(Schema schema, ByteBuffer buf, List<Byte> flags)
+      throws Exception {
+    int length = buf.getInt();
+    int end = buf.position() + length;
+    CdcService.CDCRecordPB.Builder record = CdcService.CDCRecordPB.newBuilder()
+        .setTime(buf.getLong())
+        .setOperation(CdcService.CDCRecordPB.OperationType.valueOf(buf.get()));
+    int numColumns = buf.getShort();
+    for (int i = 0; i < numColumns; i++) {
+      short index = buf.getShort();
+      byte columnFlags = buf.get();
+      flags.add(columnFlags);
+      ByteString name;
+      DataType dataType = null;
+      if ((columnFlags & RowDecoder.FLAG_NAMED) != 0) {
+        assertEquals(RowDecoder.UNKNOWN_COLUMN_INDEX, index);
+        name = readBytes(buf);
+      } else {
+        ColumnSchema column = schema.getColumnByIndex(index);
+        name = ByteString.copyFromUtf8(column.getName());
+        dataType = column.getQLType().getMain();
+      }
+      QLValuePB value;
+      if ((columnFlags & RowDecoder.FLAG_NULL) != 0) {
+        value = QLValuePB.getDefaultInstance();
+      } else if ((columnFlags & RowDecoder.FLAG_RAW) != 0) {
+        value = QLValuePB.parseFrom(readBytes(buf));
+      } else {
+        value = readValue(dataType, buf);
+      }
+      CdcService.KeyValuePairPB pair = CdcService.KeyValuePairPB.newBuilder()
+          .setKey(name).setValue(value).build();
+      if ((columnFlags & RowDecoder.FLAG_KEY) != 0) {
+        record.addKey(pair);
+      } else {
+        record.addChanges(pair);
+      }
+    }
+    assertEquals(end, buf.position());
+    return record.build();
+  }
+
+  /**
+   * Decodes the records and reads them back.
+   */
+  private List<CdcService.CDCRecordPB> roundTrip(Schema schema, List<Byte> flags,
+                                                 CdcService.CDCRecordPB... records)
+      throws Exception {
+    RowDecoder decoder = new RowDecoder(schema, 1, numUnknownColumns);
+    ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+    for (CdcService.CDCRecordPB record : records) {
+      decoder.write(record, buf);
+    }
+    buf.flip();
+    List<CdcService.CDCRecordPB> decoded = new ArrayList<>();
+    while (buf.hasRemaining()) {
+      decoded.add(readRow(schema, buf, flags));
+    }
+    return decoded;
+  }
+
+  @Test
+  public void testEveryType() throws Exception {
+    Schema schema = schema();
+    CdcService.CDCRecordPB first = record(1)
+        .addChanges(pair("int8", QLValuePB.newBuilder().setInt8Value(-128)))
+        .addChanges(pair("int16", QLValuePB.newBuilder().setInt16Value(-32768)))
+        .addChanges(pair("int32", QLValuePB.newBuilder().setInt32Value(Integer.MIN_VALUE)))
+        .addChanges(pair("int64", QLValuePB.newBuilder().setInt64Value(Long.MAX_VALUE)))
+        .addChanges(pair("float", QLValuePB.newBuilder().setFloatValue(-1.5f)))
+        .addChanges(pair("double", QLValuePB.newBuilder().setDoubleValue(Math.PI)))
+        .addChanges(pair("bool", QLValuePB.newBuilder().setBoolValue(true)))
+        .addChanges(pair("timestamp", QLValuePB.newBuilder().setTimestampValue(1500000000000L)))
+        .addChanges(pair("date", QLValuePB.newBuilder().setDateValue(0x80000000 + 17000)))
+        .addChanges(pair("time", QLValuePB.newBuilder().setTimeValue(3600L * 1000000000L)))
+        .addChanges(pair("string", QLValuePB.newBuilder().setStringValue("héllo ☺")))
+        .addChanges(pair("binary", QLValuePB.newBuilder().setBinaryValue(
+            ByteString.copyFrom(new byte[] { 0, -1, 127, -128 }))))
+        .addChanges(pair("decimal", QLValuePB.newBuilder().setDecimalValue(bytes("decimal"))))
+        .addChanges(pair("varint", QLValuePB.newBuilder().setVarintValue(bytes("varint"))))
+        .addChanges(pair("inet", QLValuePB.newBuilder().setInetaddressValue(
+            ByteString.copyFrom(new byte[] { 127, 0, 0, 1 }))))
+        .addChanges(pair("uuid", QLValuePB.newBuilder().setUuidValue(bytes("0123456789abcdef"))))
+        .addChanges(pair("timeuuid",
+                         QLValuePB.newBuilder().setTimeuuidValue(bytes("fedcba9876543210"))))
+        .addChanges(pair("jsonb", QLValuePB.newBuilder().setJsonbValue(bytes("{\"a\":1}"))))
+        .build();
+    // Empty values and the other end of the ranges.
+    CdcService.CDCRecordPB second = record(2)
+        .setOperation(CdcService.CDCRecordPB.OperationType.DELETE)
+        .addChanges(pair("int8", QLValuePB.newBuilder().setInt8Value(127)))
+        .addChanges(pair("int16", QLValuePB.newBuilder().setInt16Value(32767)))
+        .addChanges(pair("int64", QLValuePB.newBuilder().setInt64Value(Long.MIN_VALUE)))
+        .addChanges(pair("double", QLValuePB.newBuilder().setDoubleValue(Double.NaN)))
+        .addChanges(pair("bool", QLValuePB.newBuilder().setBoolValue(false)))
+        .addChanges(pair("string", QLValuePB.newBuilder().setStringValue("")))
+        .addChanges(pair("binary", QLValuePB.newBuilder().setBinaryValue(ByteString.EMPTY)))
+        .build();
+
+    List<Byte> flags = new ArrayList<>();
+    assertEquals(Arrays.asList(first, second), roundTrip(schema, flags, first, second));
+    assertEquals(RowDecoder.FLAG_KEY, (byte) flags.get(0));
+    for (byte columnFlags : flags.subList(1, TYPES.length + 1)) {
+      assertEquals(0, columnFlags);
+    }
+    assertEquals(0, numUnknownColumns.get());
+  }
+
+  @Test
+  public void testNullAndRawValues() throws Exception {
+    Schema schema = schema(new ColumnSchema.ColumnSchemaBuilder(
+        "list", QLType.createListType(QLType.INT32)).build());
+    QLValuePB.Builder list = QLValuePB.newBuilder().setListValue(Common.QLSeqValuePB.newBuilder()
+        .addElems(QLValuePB.newBuilder().setInt32Value(1))
+        .addElems(QLValuePB.newBuilder().setInt32Value(2)));
+    CdcService.CDCRecordPB record = record(1)
+        .addChanges(pair("string", QLValuePB.newBuilder()))
+        // A value that doesn't match the type of its column.
+        .addChanges(pair("int32", QLValuePB.newBuilder().setStringValue("not an int")))
+        .addChanges(pair("list", list))
+        .build();
+
+    List<Byte> flags = new ArrayList<>();
+    assertEquals(Collections.singletonList(record), roundTrip(schema, flags, record));
+    assertEquals(Arrays.asList(RowDecoder.FLAG_KEY, RowDecoder.FLAG_NULL, RowDecoder.FLAG_RAW,
+                               RowDecoder.FLAG_RAW),
+                 flags);
+    assertEquals(0, numUnknownColumns.get());
+  }
+
+  @Test
+  public void testUnknownColumns() throws Exception {
+    Schema schema = schema();
+    CdcService.CDCRecordPB record = record(1)
+        .addChanges(pair("added", QLValuePB.newBuilder().setInt32Value(42)))
+        .addChanges(pair("int32", QLValuePB.newBuilder().setInt32Value(7)))
+        .addChanges(pair("also added", QLValuePB.newBuilder()))
+        .build();
+
+    List<Byte> flags = new ArrayList<>();
+    assertEquals(Collections.singletonList(record), roundTrip(schema, flags, record));
+    assertEquals(Arrays.asList(RowDecoder.FLAG_KEY,
+                               (byte) (RowDecoder.FLAG_NAMED | RowDecoder.FLAG_RAW),
+                               (byte) 0,
+                               (byte) (RowDecoder.FLAG_NAMED | RowDecoder.FLAG_NULL)),
+                 flags);
+    assertEquals(2, numUnknownColumns.get());
+  }
+
+  @Test
+  public void testDecodeStageFollowsSchemaVersion() throws Exception {
+    Schema oldSchema = schema();
+    Schema newSchema = schema(
+        new ColumnSchema.ColumnSchemaBuilder("added", QLType.INT32).build());
+    List<CdcService.CDCRecordPB> records = Collections.singletonList(record(1)
+        .addChanges(pair("added", QLValuePB.newBuilder().setInt32Value(42)))
+        .build());
+    DecodeStage stage = new DecodeStage();
+
+    DecodeStage.Rows rows = stage.decode("table-id", oldSchema, 1, records);
+    assertEquals(1, rows.getSchemaVersion());
+    List<Byte> flags = new ArrayList<>();
+    assertEquals(records.get(0), readRow(oldSchema, rows.getBuffer(), flags));
+    assertEquals((byte) (RowDecoder.FLAG_NAMED | RowDecoder.FLAG_RAW), (byte) flags.get(1));
+    assertEquals(1, stage.getNumUnknownColumns());
+
+    // The table was altered and opened again.
+    rows = stage.decode("table-id", newSchema, 2, records);
+    assertEquals(2, rows.getSchemaVersion());
+    flags.clear();
+    assertEquals(records.get(0), readRow(newSchema, rows.getBuffer(), flags));
+    assertEquals(0, (byte) flags.get(1));
+    assertEquals(1, stage.getNumUnknownColumns());
+
+    // A table opened before then doesn't bring the older decoder back.
+    rows = stage.decode("table-id", oldSchema, 1, records);
+    assertEquals(2, rows.getSchemaVersion());
+  }
+
+  @Test
+  public void testRowsLargerThanRecords() throws Exception {
+    // Zeros take a byte as varints, but 8 bytes as rows.
+    List<ColumnSchema> columns = new ArrayList<>();
+    CdcService.CDCRecordPB.Builder builder = CdcService.CDCRecordPB.newBuilder()
+        .setTime(0)
+        .setOperation(CdcService.CDCRecordPB.OperationType.WRITE);
+    for (int i = 0; i < 100; i++) {
+      String name = Integer.toString(i);
+      columns.add(new ColumnSchema.ColumnSchemaBuilder(name, QLType.INT64).hashKey(i == 0)
+          .build());
+      builder.addChanges(pair(name, QLValuePB.newBuilder().setInt64Value(0)));
+    }
+    Schema schema = new Schema(columns);
+    CdcService.CDCRecordPB record = builder.build();
+
+    DecodeStage.Rows rows =
+        new DecodeStage().decode("table-id", schema, 1, Collections.singletonList(record));
+    assertTrue(rows.getBuffer().remaining() > record.getSerializedSize());
+    assertEquals(record, readRow(schema, rows.getBuffer(), new ArrayList<Byte>()));
+    assertFalse(rows.getBuffer().hasRemaining());
+  }
+}
@@ -0,0 +1,90 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.client.CdcTestUtil;
+import org.yb.client.GetChangesResponse;
+import org.yb.util.HybridTimeUtil;
+import org.yb.Opid.OpIdPB;
+
+@RunWith(value=YBTestRunner.class)
+public class TestTabletMetrics {
+
+  /**
+   * A batch of records committed at the given time, up to the given index.
+   */
+  private static GetChangesResponse batch(long index, int numRecords, long commitMicros) {
+    CdcService.GetChangesResponsePB.Builder resp = CdcService.GetChangesResponsePB.newBuilder()
+        .setCheckpoint(CdcService.CDCCheckpointPB.newBuilder()
+            .setOpId(OpIdPB.newBuilder().setTerm(1).setIndex(index)));
+    for (int i = 0; i < numRecords; i++) {
+      resp.addRecords(CdcService.CDCRecordPB.newBuilder()
+          .setOperation(CdcService.CDCRecordPB.OperationType.WRITE)
+          .setTime(commitMicros << HybridTimeUtil.hybridTimeNumBitsToShift));
+    }
+    return CdcTestUtil.newGetChangesResponse("ts", resp.build());
+  }
+
+  private static long nowMicros() {
+    return TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+  }
+
+  @Test
+  public void testPendingOps() {
+    TabletMetrics metrics = new TabletMetrics("table", "tablet");
+    assertEquals(0, metrics.getNumPendingOps());
+    GetChangesResponse first = batch(10, 2, nowMicros());
+    metrics.recordPoll(1000, first);
+    assertEquals(10, metrics.getNumPendingOps());
+    GetChangesResponse second = batch(15, 1, nowMicros());
+    metrics.recordPoll(1000, second);
+    assertEquals(15, metrics.getNumPendingOps());
+
+    metrics.recordApplied(1000, first);
+    assertEquals(5, metrics.getNumPendingOps());
+    metrics.recordApplied(1000, second);
+    assertEquals(0, metrics.getNumPendingOps());
+    assertEquals(3, metrics.getNumRecords());
+  }
+
+  @Test
+  public void testLag() {
+    TabletMetrics metrics = new TabletMetrics("table", "tablet");
+    // Unknown until something is applied.
+    assertEquals(-1, metrics.getLagMs());
+    PrometheusWriter writer = new PrometheusWriter();
+    metrics.visit(writer);
+    assertFalse(writer.toString().contains("yb_cdc_lag_ms"));
+
+    // The time since the commit of the last change applied.
+    long lagMs = 5000;
+    metrics.recordApplied(1000, batch(10, 3, nowMicros() - TimeUnit.MILLISECONDS.toMicros(lagMs)));
+    assertTrue(metrics.getLagMs() >= lagMs);
+    assertTrue(metrics.getLagMs() < lagMs + 1000);
+
+    // None once a poll found no more changes.
+    metrics.recordApplied(0, batch(10, 0, 0));
+    assertTrue(metrics.getLagMs() < 1000);
+    writer = new PrometheusWriter();
+    metrics.visit(writer);
+    assertTrue(writer.toString().contains("# TYPE yb_cdc_lag_ms gauge\n"));
+  }
+}
@@ -0,0 +1,50 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import org.yb.Common.TableType;
+import org.yb.Schema;
+import org.yb.cdc.CdcService;
+
+/**
+ * Builds the client objects that the tests of the CDC connector need, whose constructors are
+ * package-private.
+ */
+public class CdcTestUtil {
+  private CdcTestUtil() {
+  }
+
+  /**
+   * @return a table that isn't bound to any client
+   */
+  public static YBTable newTable(String name, String tableId, Schema schema) {
+    return new YBTable(null, name, tableId, schema, null);
+  }
+
+  /**
+   * @return a table at the given schema version that isn't bound to any client
+   */
+  public static YBTable newTable(String name, String tableId, Schema schema, int schemaVersion) {
+    return new YBTable(null, name, tableId, schema, null, TableType.YQL_TABLE_TYPE, null,
+                       schemaVersion);
+  }
+
+  /**
+   * @return a GetChanges response as if the given tablet server sent it
+   */
+  public static GetChangesResponse newGetChangesResponse(String tsUuid,
+                                                         CdcService.GetChangesResponsePB resp) {
+    return new GetChangesResponse(0, tsUuid, resp);
+  }
+}
@@ -51,8 +51,12 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.Message;
 import com.stumbleupon.async.Callback;
 import com.stumbleupon.async.Deferred;
+import com.stumbleupon.async.DeferredGroupException;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
 import org.yb.Common;
 import org.yb.Common.YQLDatabase;
 import org.yb.Schema;
@@ -100,18 +104,23 @@ import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
@@ -167,19 +176,21 @@ public class AsyncYBClient implements AutoCloseable {
 
   /**
    * This map and the next 2 maps contain the same data, but indexed
-   * differently. There is no consistency guarantee across the maps.
-   * They are not updated all at the same time atomically.  This map
-   * is always the first to be updated, because that's the map from
-   * which all the lookups are done in the fast-path of the requests
-   * that need to locate a tablet. The second map to be updated is
-   * tablet2client, because it comes second in the fast-path
-   * of every requests that need to locate a tablet. The third map
-   * is only used to handle TabletServer disconnections gracefully.
+   * differently. This map holds an immutable {@link TabletLocationIndex}
+   * per table, which is what all the lookups in the fast-path of the
+   * requests that need to locate a tablet read without any locking.
+   * <p>
+   * Updates build a new snapshot and publish it while holding the monitor
+   * of this map, after having updated tablet2client and client2tablets, so
+   * that a tablet visible in this map is always known to the other two and
+   * a tablet dropped from this map is removed from the other two as well.
+   * The third map is only used to handle TabletServer disconnections
+   * gracefully.
    *
    * This map is keyed by table ID.
    */
-  private final ConcurrentHashMap<String, ConcurrentSkipListMap<byte[],
-      RemoteTablet>> tabletsCache = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, TabletLocationIndex> tabletsCache =
+      new ConcurrentHashMap<>();
 
   /**
    * Maps a tablet ID to the RemoteTablet that knows where all the replicas are served.
@@ -222,6 +233,70 @@ public class AsyncYBClient implements AutoCloseable {
   private final HashMap<String, TabletClient> ip2client =
       new HashMap<String, TabletClient>();
 
+  /**
+   * When more than one connection per server is used, maps the client in
+   * ip2client, which is the one the tablet caches know the server by, to all
+   * the connections to that server. The extra connections are opened lazily
+   * and never show up in the other maps, errors received on them are handled
+   * as if they came from the client in ip2client. They're closed when that
+   * client gets disconnected.
+   */
+  private final ConcurrentHashMap<TabletClient, ServerConnections> client2stripes =
+      new ConcurrentHashMap<>();
+
+  private final int connectionsPerServer;
+
+  // Allocates the buffers requests are serialized into.
+  private final ChannelBufferFactory requestBufferFactory;
+
+  // Write coalescing settings, a max batch size of 0 means it's disabled.
+  private final long writeCoalescingWindowMs;
+  private final int writeCoalescingMaxBytes;
+
+  private final AtomicLong numWriteBatches = new AtomicLong();
+  private final AtomicLong numCoalescedWrites = new AtomicLong();
+  private final AtomicLong totalWriteFlushLatencyNanos = new AtomicLong();
+
+  private final ConnectionSelectionPolicy connectionSelectionPolicy;
+
+  // Adaptive limit of the RPCs in flight to each server, disabled if concurrencyLimitMax is 0.
+  private final int concurrencyLimitInitial;
+  private final int concurrencyLimitMax;
+  private final int concurrencyLimitMaxQueued;
+  private final AtomicLong numRpcsRejectedByConcurrencyLimit = new AtomicLong();
+
+  // Schemas of the tables recently opened, null if disabled.
+  private final TableMetadataCache tableMetadataCache;
+
+  // Read-only master RPCs still waiting for an answer after this quantile of their usual latency
+  // are sent a second time, disabled if 0.
+  private final double masterHedgeQuantile;
+  private final long masterHedgeMinDelayMs;
+  private final AtomicLong numHedgeableMasterReads = new AtomicLong();
+  private final AtomicLong numMasterHedges = new AtomicLong();
+  private final AtomicLong numMasterHedgeWins = new AtomicLong();
+
+  // How many latencies of a master RPC we need before trusting their quantile for hedging.
+  private static final int MIN_HEDGE_LATENCY_SAMPLES = 100;
+
+  // Health of the servers we talk to, keyed by uuid. Only used if ejectionFailureThreshold > 0.
+  private final ConcurrentHashMap<String, ServerHealth> serverHealth = new ConcurrentHashMap<>();
+  private final int ejectionFailureThreshold;
+  private final long baseEjectionMs;
+  private final AtomicLong numServerEjections = new AtomicLong();
+
+  // A server ejected again right after a probe stays out up to this many times baseEjectionMs.
+  private static final int MAX_EJECTION_RATIO = 16;
+
+  // An answer this many times slower than the usual latency of its method on the server counts
+  // as a failure...
+  private static final int LATENCY_OUTLIER_RATIO = 10;
+  // ... as long as it's this slow, so that a fast server isn't ejected over a hiccup.
+  private static final long MIN_LATENCY_OUTLIER_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+  // Used to pick the next connection with ConnectionSelectionPolicy.ROUND_ROBIN.
+  private final AtomicInteger nextStripe = new AtomicInteger();
+
   // Since the masters also go through TabletClient, we need to treat them as if they were a normal
   // table. We'll use the following fake table name to identify places where we need special
   // handling.
@@ -229,7 +304,12 @@ public class AsyncYBClient implements AutoCloseable {
   final YBTable masterTable;
   private final List<HostAndPort> masterAddresses;
 
-  private final HashedWheelTimer timer = new HashedWheelTimer(20, MILLISECONDS);
+  private final HashedWheelTimer timer;
+
+  // Whether the channel factory and timer were created by this client, in which case it releases
+  // them on shutdown, or were shared with other clients by the user.
+  private final boolean ownsChannelFactory;
+  private final boolean ownsTimer;
 
   /**
    * Timestamp required for HybridTime external consistency through timestamp
@@ -252,7 +332,43 @@ public class AsyncYBClient implements AutoCloseable {
    */
   private final Semaphore masterLookups = new Semaphore(50);
 
-  private final Random sleepRandomizer = new Random();
+  /**
+   * Master lookups in flight, keyed by table and then by the partition key they start at. Each
+   * table's map is guarded by itself, and removed once it has no lookup left in flight.
+   * @see #locateTablet
+   */
+  private final ConcurrentHashMap<String, TreeMap<byte[], MasterLookup>> inflightMasterLookups =
+      new ConcurrentHashMap<>();
+
+  private final AtomicLong numMasterLookups = new AtomicLong();
+  private final AtomicLong numCoalescedMasterLookups = new AtomicLong();
+
+  // How many tablet locations the master returns when asked for no particular number.
+  private static final int MASTER_DEFAULT_RETURNED_LOCATIONS = 10;
+  // How many leading bytes of partition keys are used to estimate how far apart keys are.
+  private static final int KEY_POSITION_BYTES = 4;
+
+  /**
+   * The last known leader master, null if unknown. Set every time the masters are asked who the
+   * leader is, cleared when the leader refuses an RPC or steps down.
+   * @see #getMasterLeader
+   */
+  private volatile MasterLeader masterLeader;
+  private final AtomicLong numMasterLeaderRefreshes = new AtomicLong();
+
+  // How many tablet locations to ask the master for on every lookup, 0 for the master's default.
+  private final int tabletLocationsPrefetchCount;
+
+  private final RetryPolicy retryPolicy;
+
+  // Limits how many retries this client does, null if unlimited.
+  private final RetryBudget retryBudget;
+
+  // Number of retries, indexed by RetryReason ordinal.
+  private final AtomicLongArray numRetries = new AtomicLongArray(RetryReason.values().length);
+  private final AtomicLong numRetriesRejectedByBudget = new AtomicLong();
+
+  private final ClientMetrics metrics = new ClientMetrics(this);
 
   private final long defaultOperationTimeoutMs;
 
@@ -262,10 +378,20 @@ public class AsyncYBClient implements AutoCloseable {
 
   private final String certFile;
 
+  // Placement of this client, used to find the closest replica. Null if unknown.
+  private final Common.CloudInfoPB clientPlacement;
+
+  // Number of RPCs that could have been served by a follower, by the replica they were sent to.
+  private final AtomicLong numLeaderReads = new AtomicLong();
+  private final AtomicLong numFollowerReads = new AtomicLong();
+
   private volatile boolean closed;
 
   private AsyncYBClient(AsyncYBClientBuilder b) {
-    this.channelFactory = b.createChannelFactory();
+    this.ownsChannelFactory = b.channelFactory == null;
+    this.channelFactory = ownsChannelFactory ? b.createChannelFactory() : b.channelFactory;
+    this.ownsTimer = b.timer == null;
+    this.timer = ownsTimer ? new HashedWheelTimer(20, MILLISECONDS) : b.timer;
     this.masterAddresses = b.masterAddresses;
     this.masterTable = new YBTable(this, MASTER_TABLE_NAME_PLACEHOLDER,
         MASTER_TABLE_NAME_PLACEHOLDER, null, null);
@@ -273,6 +399,26 @@ public class AsyncYBClient implements AutoCloseable {
     this.defaultAdminOperationTimeoutMs = b.defaultAdminOperationTimeoutMs;
     this.certFile = b.certFile;
     this.defaultSocketReadTimeoutMs = b.defaultSocketReadTimeoutMs;
+    this.clientPlacement = b.clientPlacement;
+    this.tabletLocationsPrefetchCount = b.tabletLocationsPrefetchCount;
+    this.retryPolicy = b.retryPolicy;
+    this.connectionsPerServer = b.connectionsPerServer;
+    this.writeCoalescingWindowMs = b.writeCoalescingWindowMs;
+    this.writeCoalescingMaxBytes = b.writeCoalescingMaxBytes;
+    this.requestBufferFactory = b.directRequestBuffers ?
+        new DirectChannelBufferFactory() : HeapChannelBufferFactory.getInstance();
+    this.connectionSelectionPolicy = b.connectionSelectionPolicy;
+    this.retryBudget = b.retryBudgetPerSecond > 0 ?
+        new RetryBudget(b.retryBudgetPerSecond, b.retryBudgetBurst) : null;
+    this.concurrencyLimitInitial = b.concurrencyLimitInitial;
+    this.concurrencyLimitMax = b.concurrencyLimitMax;
+    this.concurrencyLimitMaxQueued = b.concurrencyLimitMaxQueued;
+    this.tableMetadataCache = b.tableMetadataCacheSize > 0 ?
+        new TableMetadataCache(b.tableMetadataCacheSize, b.tableMetadataCacheTtlMs) : null;
+    this.masterHedgeQuantile = b.masterHedgeQuantile;
+    this.masterHedgeMinDelayMs = b.masterHedgeMinDelayMs;
+    this.ejectionFailureThreshold = b.ejectionFailureThreshold;
+    this.baseEjectionMs = b.baseEjectionMs;
   }
 
   /**
@@ -376,16 +522,69 @@ public class AsyncYBClient implements AutoCloseable {
   public Deferred<Void> getChanges(
           HostAndPort hp, YBTable table, String streamId, String tabletId, long term,
           long index, Callback<Void, GetChangesResponse> cb) {
+    GetChangesRequest rpc = new GetChangesRequest(table, streamId, tabletId, term, index);
+    return sendToServer(hp, rpc).addCallback(cb);
+  }
+
+  /**
+   * Get changes for a given tablet and stream from the tablet's leader, which is looked up in the
+   * tablet location cache. The RPC follows the leader when it moves and is retried on the new one.
+   * @param table the table to get changes for.
+   * @param streamId the stream to get changes for.
+   * @param tabletId the tablet to get changes for.
+   * @param partitionKey a partition key of the tablet, usually its start key.
+   * @param term the leader term to start getting changes for.
+   * @param index the log index to start get changes for.
+   * @return a deferred object for the response from server.
+   */
+  public Deferred<GetChangesResponse> getChanges(
+          YBTable table, String streamId, String tabletId, byte[] partitionKey, long term,
+          long index) {
+    return getChanges(table, streamId, tabletId, partitionKey, term, index, 0);
+  }
+
+  /**
+   * Get changes for a given tablet and stream from the tablet's leader, letting the leader hold
+   * the request until there are changes to return or the wait is over. The wait should be well
+   * under the socket read timeout, since nothing is read from the connection meanwhile.
+   * @param table the table to get changes for.
+   * @param streamId the stream to get changes for.
+   * @param tabletId the tablet to get changes for.
+   * @param partitionKey a partition key of the tablet, usually its start key.
+   * @param term the leader term to start getting changes for.
+   * @param index the log index to start get changes for.
+   * @param waitForChangesMs how long the leader may wait for changes, zero to return right away.
+   * @return a deferred object for the response from server.
+   */
+  public Deferred<GetChangesResponse> getChanges(
+          YBTable table, String streamId, String tabletId, byte[] partitionKey, long term,
+          long index, int waitForChangesMs) {
+    checkIsClosed();
+    GetChangesRequest rpc = new GetChangesRequest(
+        table, streamId, tabletId, partitionKey, term, index, waitForChangesMs);
+    // The time the server holds the request doesn't count against the usual timeout.
+    rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs + waitForChangesMs);
+    // Only the leader has the changes.
+    rpc.setReplicaSelectionPolicy(ReplicaSelectionPolicy.LEADER_ONLY);
+    return sendRpcToTablet(rpc);
+  }
+
+  /**
+   * Sends an RPC straight to a server, with the default admin operation timeout.
+   * @param hp host port of the server
+   * @param rpc the RPC to send, which can be cancelled while the returned deferred is pending
+   * @return a deferred object for the response from server
+   */
+  <R> Deferred<R> sendToServer(HostAndPort hp, YRpc<R> rpc) {
     checkIsClosed();
     TabletClient client = newSimpleClient(hp);
     if (client == null) {
       throw new IllegalStateException("Could not create a client to " + hp.toString());
     }
-    GetChangesRequest rpc = new GetChangesRequest(table, streamId, tabletId, term, index);
     rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
-    Deferred<GetChangesResponse> d = rpc.getDeferred();
+    Deferred<R> d = rpc.getDeferred();
     client.sendRpc(rpc);
-    return d.addCallback(cb);
+    return d;
   }
 
   /**
@@ -491,7 +690,7 @@ public class AsyncYBClient implements AutoCloseable {
     checkIsClosed();
     DeleteTableRequest delete = new DeleteTableRequest(this.masterTable, name, keyspace);
     delete.setTimeoutMillis(defaultAdminOperationTimeoutMs);
-    return sendRpcToTablet(delete);
+    return invalidateTableMetadataAfter(sendRpcToTablet(delete), keyspace, name);
   }
 
   /**
@@ -509,7 +708,7 @@ public class AsyncYBClient implements AutoCloseable {
     checkIsClosed();
     AlterTableRequest alter = new AlterTableRequest(this.masterTable, name, ato, keyspace);
     alter.setTimeoutMillis(defaultAdminOperationTimeoutMs);
-    return sendRpcToTablet(alter);
+    return invalidateTableMetadataAfter(sendRpcToTablet(alter), keyspace, name);
   }
 
   /**
@@ -519,12 +718,64 @@ public class AsyncYBClient implements AutoCloseable {
    * @param name the table's name, if the table was renamed then that name must be checked against
    * @return a deferred object to track the progress of the isAlterTableDone command
    */
-  public Deferred<IsAlterTableDoneResponse> isAlterTableDone(String keyspace, String name)
+  public Deferred<IsAlterTableDoneResponse> isAlterTableDone(final String keyspace,
+                                                             final String name)
       throws Exception {
     checkIsClosed();
     IsAlterTableDoneRequest request = new IsAlterTableDoneRequest(this.masterTable, name, keyspace);
     request.setTimeoutMillis(defaultAdminOperationTimeoutMs);
-    return sendRpcToTablet(request);
+    Deferred<IsAlterTableDoneResponse> d = sendRpcToTablet(request);
+    if (tableMetadataCache != null) {
+      d.addCallback(new Callback<IsAlterTableDoneResponse, IsAlterTableDoneResponse>() {
+        @Override
+        public IsAlterTableDoneResponse call(IsAlterTableDoneResponse resp) {
+          if (resp.isDone()) {
+            // Whatever was cached before the alter completed has the old schema.
+            tableMetadataCache.invalidateByName(keyspace, name);
+          }
+          return resp;
+        }
+
+        @Override
+        public String toString() {
+          return "invalidate table metadata when alter table is done";
+        }
+      });
+    }
+    return d;
+  }
+
+  /**
+   * Drops the cached schema of a table once the given RPC, which changes the table, completes.
+   */
+  private <R> Deferred<R> invalidateTableMetadataAfter(Deferred<R> d, final String keyspace,
+                                                       final String name) {
+    if (tableMetadataCache == null) {
+      return d;
+    }
+    tableMetadataCache.invalidateByName(keyspace, name);
+    return d.addBoth(new Callback<R, R>() {
+      @Override
+      public R call(R arg) {
+        tableMetadataCache.invalidateByName(keyspace, name);
+        return arg;
+      }
+
+      @Override
+      public String toString() {
+        return "invalidate table metadata";
+      }
+    });
+  }
+
+  /**
+   * Drops the cached schema of a table, e.g. after a tablet server reported that the schema we
+   * used doesn't match its own.
+   */
+  void invalidateTableMetadata(YBTable table) {
+    if (tableMetadataCache != null && table != null && table.getTableId() != null) {
+      tableMetadataCache.invalidateById(table.getTableId());
+    }
   }
 
   /**
@@ -533,9 +784,12 @@ public class AsyncYBClient implements AutoCloseable {
    */
   public Deferred<ListTabletServersResponse> listTabletServers() {
     checkIsClosed();
-    ListTabletServersRequest rpc = new ListTabletServersRequest(this.masterTable);
-    rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
-    return sendRpcToTablet(rpc);
+    return sendMasterRead(new MasterRead<ListTabletServersResponse>() {
+      @Override
+      YRpc<ListTabletServersResponse> newRpc() {
+        return new ListTabletServersRequest(masterTable);
+      }
+    });
   }
 
   /**
@@ -544,9 +798,12 @@ public class AsyncYBClient implements AutoCloseable {
    */
   public Deferred<ListMastersResponse> listMasters() {
     checkIsClosed();
-    ListMastersRequest rpc = new ListMastersRequest(this.masterTable);
-    rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
-    return sendRpcToTablet(rpc);
+    return sendMasterRead(new MasterRead<ListMastersResponse>() {
+      @Override
+      YRpc<ListMastersResponse> newRpc() {
+        return new ListMastersRequest(masterTable);
+      }
+    });
   }
 
   /**
@@ -555,9 +812,12 @@ public class AsyncYBClient implements AutoCloseable {
    */
   public Deferred<GetMasterClusterConfigResponse> getMasterClusterConfig() {
     checkIsClosed();
-    GetMasterClusterConfigRequest rpc = new GetMasterClusterConfigRequest(this.masterTable);
-    rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
-    return sendRpcToTablet(rpc);
+    return sendMasterRead(new MasterRead<GetMasterClusterConfigResponse>() {
+      @Override
+      YRpc<GetMasterClusterConfigResponse> newRpc() {
+        return new GetMasterClusterConfigRequest(masterTable);
+      }
+    });
   }
 
   /**
@@ -668,6 +928,7 @@ public class AsyncYBClient implements AutoCloseable {
    */
   protected void updateMasterAdresses(String host, int port, boolean isAdd) {
     checkIsClosed();
+    masterLeader = null;
     if (isAdd) {
       masterAddresses.add(HostAndPort.fromParts(host, port));
     } else {
@@ -692,7 +953,48 @@ public class AsyncYBClient implements AutoCloseable {
 
     LeaderStepDownRequest rpc = new LeaderStepDownRequest(this.masterTable, leaderUuid, tabletId);
     rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
-    return sendRpcToTablet(rpc);
+    Deferred<LeaderStepDownResponse> d = sendRpcToTablet(rpc);
+    // Whatever the outcome, the leader we know about may not be the leader anymore.
+    d.addBoth(new Callback<LeaderStepDownResponse, LeaderStepDownResponse>() {
+      @Override
+      public LeaderStepDownResponse call(LeaderStepDownResponse resp) {
+        masterLeader = null;
+        return resp;
+      }
+
+      @Override
+      public String toString() {
+        return "forget master leader after step down";
+      }
+    });
+    return d;
+  }
+
+  /**
+   * Get the leader master. The leader is cached: unless it is unknown or 'refresh' is set, this
+   * doesn't send any RPC. Otherwise all the masters are asked at once who the leader is.
+   * @param refresh if true, ask the masters even if the leader is known
+   * @return a deferred object that yields the leader master, or a
+   *         {@link NoLeaderMasterFoundException} if none of the masters is the leader
+   */
+  Deferred<MasterLeader> getMasterLeader(boolean refresh) {
+    checkIsClosed();
+    MasterLeader leader = masterLeader;
+    if (leader != null && !refresh) {
+      return Deferred.fromResult(leader);
+    }
+    return getMasterTableLocationsPB().addCallback(
+        new Callback<MasterLeader, Master.GetTableLocationsResponsePB>() {
+          @Override
+          public MasterLeader call(Master.GetTableLocationsResponsePB resp) {
+            return MasterLeader.fromLocations(resp);
+          }
+
+          @Override
+          public String toString() {
+            return "get master leader";
+          }
+        });
   }
 
   /**
@@ -799,10 +1101,19 @@ public class AsyncYBClient implements AutoCloseable {
    * @param name the name of the table to get a schema of.
    * @return a deferred object that yields the schema of the specified table
    */
-  Deferred<GetTableSchemaResponse> getTableSchema(String keyspace, String name) {
-    GetTableSchemaRequest rpc = new GetTableSchemaRequest(this.masterTable, name, null, keyspace);
-    rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
-    return sendRpcToTablet(rpc);
+  Deferred<GetTableSchemaResponse> getTableSchema(final String keyspace, final String name) {
+    if (tableMetadataCache != null) {
+      GetTableSchemaResponse cached = tableMetadataCache.getByName(keyspace, name);
+      if (cached != null) {
+        return Deferred.fromResult(cached);
+      }
+    }
+    return cacheTableSchema(sendMasterRead(new MasterRead<GetTableSchemaResponse>() {
+      @Override
+      YRpc<GetTableSchemaResponse> newRpc() {
+        return new GetTableSchemaRequest(masterTable, name, null, keyspace);
+      }
+    }), keyspace, name);
   }
 
   /**
@@ -811,9 +1122,38 @@ public class AsyncYBClient implements AutoCloseable {
    * @return a deferred object that yields the schema of the specified table
    */
   Deferred<GetTableSchemaResponse> getTableSchemaByUUID(final String tableUUID) {
-    GetTableSchemaRequest rpc = new GetTableSchemaRequest(this.masterTable, null, tableUUID);
-    rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
-    return sendRpcToTablet(rpc);
+    if (tableMetadataCache != null) {
+      GetTableSchemaResponse cached = tableMetadataCache.getById(tableUUID);
+      if (cached != null) {
+        return Deferred.fromResult(cached);
+      }
+    }
+    return cacheTableSchema(sendMasterRead(new MasterRead<GetTableSchemaResponse>() {
+      @Override
+      YRpc<GetTableSchemaResponse> newRpc() {
+        return new GetTableSchemaRequest(masterTable, null, tableUUID);
+      }
+    }), null, null);
+  }
+
+  private Deferred<GetTableSchemaResponse> cacheTableSchema(Deferred<GetTableSchemaResponse> d,
+                                                            final String keyspace,
+                                                            final String name) {
+    if (tableMetadataCache == null) {
+      return d;
+    }
+    return d.addCallback(new Callback<GetTableSchemaResponse, GetTableSchemaResponse>() {
+      @Override
+      public GetTableSchemaResponse call(GetTableSchemaResponse resp) {
+        tableMetadataCache.put(keyspace, name, resp);
+        return resp;
+      }
+
+      @Override
+      public String toString() {
+        return "cache table schema";
+      }
+    });
   }
 
   /**
@@ -843,11 +1183,154 @@ public class AsyncYBClient implements AutoCloseable {
    * @return a deferred that yields the list of table names
    */
   public Deferred<ListTablesResponse> getTablesList(
-      String nameFilter, boolean excludeSystemTables, String namespace) {
-    ListTablesRequest rpc = new ListTablesRequest(
-      this.masterTable, nameFilter, excludeSystemTables, namespace);
+      final String nameFilter, final boolean excludeSystemTables, final String namespace) {
+    return sendMasterRead(new MasterRead<ListTablesResponse>() {
+      @Override
+      YRpc<ListTablesResponse> newRpc() {
+        return new ListTablesRequest(masterTable, nameFilter, excludeSystemTables, namespace);
+      }
+    });
+  }
+
+  /**
+   * Builds a read-only master RPC. Called again for every hedge, since an RPC object can only be
+   * in flight once.
+   */
+  @VisibleForTesting
+  abstract static class MasterRead<R> {
+    abstract YRpc<R> newRpc();
+  }
+
+  /**
+   * Sends a read-only master RPC with the default admin timeout, hedging it if enabled.
+   * @see AsyncYBClientBuilder#hedgeMasterReads(double, long)
+   */
+  @VisibleForTesting
+  <R> Deferred<R> sendMasterRead(MasterRead<R> read) {
+    final YRpc<R> rpc = read.newRpc();
     rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
-    return sendRpcToTablet(rpc);
+    if (masterHedgeQuantile <= 0) {
+      return sendRpcToTablet(rpc);
+    }
+    numHedgeableMasterReads.incrementAndGet();
+    return new HedgedMasterRead<R>(read, rpc).send(getHedgeDelayMs(rpc));
+  }
+
+  /**
+   * @return how long to wait for an answer to the given RPC before hedging it
+   */
+  private long getHedgeDelayMs(YRpc<?> rpc) {
+    long delayMs = masterHedgeMinDelayMs;
+    LatencyHistogram latencies = metrics.getLatencyHistogram(rpc.serviceName(), rpc.method());
+    if (latencies != null && latencies.getCount() >= MIN_HEDGE_LATENCY_SAMPLES) {
+      long quantileMs = MILLISECONDS.convert(
+          latencies.snapshot().getValueAtQuantile(masterHedgeQuantile), TimeUnit.MICROSECONDS);
+      delayMs = Math.max(delayMs, quantileMs);
+    }
+    return delayMs;
+  }
+
+  /**
+   * A read-only master RPC that is sent a second time if the first one is slow to answer. The
+   * master followers don't serve these reads, so both go to the leader, the second one on
+   * whichever connection the connection selection policy picks, which is why hedging needs more
+   * than one connection per server. The first successful answer is
+   * used and the other RPC is cancelled. Errors are only returned once both RPCs failed.
+   */
+  private final class HedgedMasterRead<R> {
+    private final MasterRead<R> read;
+    private final Deferred<R> result = new Deferred<R>();
+
+    @GuardedBy("this")
+    private final YRpc<R> primary;
+    @GuardedBy("this")
+    private YRpc<R> hedge;
+    @GuardedBy("this")
+    private Timeout hedgeTimer;
+    @GuardedBy("this")
+    private int outstanding = 1;
+    @GuardedBy("this")
+    private boolean done = false;
+
+    HedgedMasterRead(MasterRead<R> read, YRpc<R> primary) {
+      this.read = read;
+      this.primary = primary;
+    }
+
+    Deferred<R> send(long hedgeDelayMs) {
+      final Timeout timer = newTimeout(new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+          sendHedge();
+        }
+      }, hedgeDelayMs);
+      synchronized (this) {
+        hedgeTimer = timer;
+      }
+      sendRpcToTablet(primary).addBoth(new Completion(primary));
+      return result;
+    }
+
+    private void sendHedge() {
+      final YRpc<R> rpc = read.newRpc();
+      synchronized (this) {
+        if (done || primary.deadlineTracker.timedOut()) {
+          return;
+        }
+        // The hedge doesn't get more time than the RPC it stands in for.
+        rpc.setTimeoutMillis(primary.deadlineTracker.getMillisBeforeDeadline());
+        hedge = rpc;
+        outstanding++;
+      }
+      numMasterHedges.incrementAndGet();
+      sendRpcToTablet(rpc).addBoth(new Completion(rpc));
+    }
+
+    private void complete(YRpc<R> from, Object arg) {
+      final YRpc<R> loser;
+      final Timeout timer;
+      final boolean hedgeWon;
+      synchronized (this) {
+        outstanding--;
+        if (done || (arg instanceof Exception && outstanding > 0)) {
+          // Already answered, or the other RPC may still succeed.
+          return;
+        }
+        done = true;
+        hedgeWon = from == hedge;
+        loser = hedgeWon ? primary : hedge;
+        timer = hedgeTimer;
+      }
+      if (timer != null) {
+        timer.cancel();
+      }
+      if (loser != null) {
+        loser.cancel();
+      }
+      if (hedgeWon && !(arg instanceof Exception)) {
+        numMasterHedgeWins.incrementAndGet();
+      }
+      result.callback(arg);
+    }
+
+    private final class Completion implements Callback<Void, R> {
+      private final YRpc<R> rpc;
+
+      Completion(YRpc<R> rpc) {
+        this.rpc = rpc;
+      }
+
+      @Override
+      public Void call(R arg) {
+        complete(rpc, arg);
+        return null;
+      }
+
+      @Override
+      public String toString() {
+        return "complete hedged master read";
+      }
+    }
   }
 
   /**
@@ -909,7 +1392,8 @@ public class AsyncYBClient implements AutoCloseable {
             response.getSchema(),
             response.getPartitionSchema(),
             response.getTableType(),
-            response.getNamespace());
+            response.getNamespace(),
+            response.getSchemaVersion());
         return helper.attemptOpen(response.isCreateTableDone(), table, name);
       }
     });
@@ -936,7 +1420,8 @@ public class AsyncYBClient implements AutoCloseable {
             response.getSchema(),
             response.getPartitionSchema(),
             response.getTableType(),
-            response.getNamespace());
+            response.getNamespace(),
+            response.getSchemaVersion());
         return helper.attemptOpen(response.isCreateTableDone(), table, tableUUID);
       }
     });
@@ -1066,55 +1551,290 @@ public class AsyncYBClient implements AutoCloseable {
     return defaultSocketReadTimeoutMs;
   }
 
-  <R> Deferred<R> sendRpcToTablet(final YRpc<R> request) {
-    if (cannotRetryRequest(request)) {
-      return tooManyAttemptsOrTimeout(request, null);
-    }
-    request.attempt++;
-    final String tableId = request.getTable().getTableId();
-    byte[] partitionKey = null;
-    if (request instanceof YRpc.HasKey) {
-       partitionKey = ((YRpc.HasKey)request).partitionKey();
-    }
-    final RemoteTablet tablet = getTablet(tableId, partitionKey);
+  ChannelBufferFactory getRequestBufferFactory() {
+    return requestBufferFactory;
+  }
 
-    // Set the propagated timestamp so that the next time we send a message to
-    // the server the message includes the last propagated timestamp.
-    long lastPropagatedTs = getLastPropagatedTimestamp();
-    if (lastPropagatedTs != NO_TIMESTAMP) {
-      request.setPropagatedTimestamp(lastPropagatedTs);
-    }
+  long getWriteCoalescingWindowMs() {
+    return writeCoalescingWindowMs;
+  }
 
-    if (tablet != null) {
-      TabletClient tabletClient = clientFor(tablet);
-      if (tabletClient != null) {
-        request.setTablet(tablet);
-        final Deferred<R> d = request.getDeferred();
-        tabletClient.sendRpc(request);
-        return d;
-      }
-    }
+  int getWriteCoalescingMaxBytes() {
+    return writeCoalescingMaxBytes;
+  }
 
-    // Right after creating a table a request will fall into locateTablet since we don't know yet
-    // if the table is ready or not. If discoverTablets() didn't get any tablets back,
-    // then on retry we'll fall into the following block. It will sleep, then call the master to
-    // see if the table was created. We'll spin like this until the table is created and then
-    // we'll try to locate the tablet again.
-    if (tablesNotServed.contains(tableId)) {
-      return delayedIsCreateTableDone(request.getTable(), request,
-          new RetryRpcCB<R, Master.IsCreateTableDoneResponsePB>(request),
-          getDelayedIsCreateTableDoneErrback(request));
-    }
-    Callback<Deferred<R>, Master.GetTableLocationsResponsePB> cb = new RetryRpcCB<>(request);
-    Callback<Deferred<R>, Exception> eb = new RetryRpcErrback<>(request);
-    Deferred<Master.GetTableLocationsResponsePB> returnedD =
-        locateTablet(request.getTable(), partitionKey);
-    return AsyncUtil.addCallbacksDeferring(returnedD, cb, eb);
+  int getConcurrencyLimitInitial() {
+    return concurrencyLimitInitial;
+  }
+
+  int getConcurrencyLimitMax() {
+    return concurrencyLimitMax;
+  }
+
+  int getConcurrencyLimitMaxQueued() {
+    return concurrencyLimitMaxQueued;
+  }
+
+  void recordConcurrencyLimitRejection() {
+    numRpcsRejectedByConcurrencyLimit.incrementAndGet();
+  }
+
+  void recordWriteBatch(int numRpcs, long flushLatencyNanos) {
+    numWriteBatches.incrementAndGet();
+    numCoalescedWrites.addAndGet(numRpcs);
+    totalWriteFlushLatencyNanos.addAndGet(flushLatencyNanos);
   }
 
   /**
-   * Callback used to retry a RPC after another query finished, like looking up where that RPC
-   * should go.
+   * Get the number of batched writes done with write coalescing enabled.
+   * @return a number of writes
+   */
+  public long getNumWriteBatches() {
+    return numWriteBatches.get();
+  }
+
+  /**
+   * Get the number of RPCs written in batches with write coalescing enabled. Divided by the
+   * number of batches, this gives the average batch size.
+   * @return a number of RPCs
+   */
+  public long getNumCoalescedWrites() {
+    return numCoalescedWrites.get();
+  }
+
+  /**
+   * Get the total time RPCs waited in a batch before it was flushed, counted from the first RPC
+   * of each batch. Divided by the number of batches, this gives the average flush latency.
+   * @return a time in nanoseconds
+   */
+  public long getTotalWriteFlushLatencyNanos() {
+    return totalWriteFlushLatencyNanos.get();
+  }
+
+  /**
+   * Get the number of RPCs allowed to go to a follower that were sent to the tablet leader.
+   * @return a number of RPCs
+   */
+  public long getNumLeaderReads() {
+    return numLeaderReads.get();
+  }
+
+  /**
+   * Get the number of RPCs allowed to go to a follower that were sent to a follower.
+   * @return a number of RPCs
+   */
+  public long getNumFollowerReads() {
+    return numFollowerReads.get();
+  }
+
+  /**
+   * Get the number of tablet location lookups sent to the master.
+   * @return a number of lookups
+   */
+  public long getNumMasterLookups() {
+    return numMasterLookups.get();
+  }
+
+  /**
+   * Get the number of tablet location lookups that were served by a lookup already in flight,
+   * without sending their own.
+   * @return a number of lookups
+   */
+  public long getNumCoalescedMasterLookups() {
+    return numCoalescedMasterLookups.get();
+  }
+
+  /**
+   * Get the number of times all the masters were asked who the leader is.
+   * @return a number of refreshes
+   */
+  public long getNumMasterLeaderRefreshes() {
+    return numMasterLeaderRefreshes.get();
+  }
+
+  /**
+   * Get the number of RPCs failed with a {@link PleaseThrottleException} because too many RPCs
+   * were already in flight or waiting for the same server.
+   * @return a number of RPCs
+   * @see AsyncYBClientBuilder#adaptiveConcurrencyLimit(int, int, int)
+   */
+  public long getNumRpcsRejectedByConcurrencyLimit() {
+    return numRpcsRejectedByConcurrencyLimit.get();
+  }
+
+  /**
+   * Get the number of RPCs waiting for the concurrency limit of their server, over all servers.
+   * @return a number of RPCs, 0 if the concurrency is not limited
+   */
+  public int getNumRpcsQueuedByConcurrencyLimit() {
+    int queued = 0;
+    for (TabletClient client : getTabletClients()) {
+      queued += client.getNumQueuedRpcs();
+    }
+    return queued;
+  }
+
+  /**
+   * Get the current concurrency limit of every server this client is connected to.
+   * @return the limits keyed by server uuid, empty if the concurrency is not limited
+   */
+  public Map<String, Integer> getConcurrencyLimits() {
+    Map<String, Integer> limits = new HashMap<String, Integer>();
+    if (concurrencyLimitMax > 0) {
+      for (TabletClient client : getTabletClients()) {
+        limits.put(client.getUuid(), client.getConcurrencyLimit());
+      }
+    }
+    return limits;
+  }
+
+  /**
+   * @return the primary connection to every server
+   */
+  private List<TabletClient> getTabletClients() {
+    synchronized (ip2client) {
+      return new ArrayList<TabletClient>(ip2client.values());
+    }
+  }
+
+  /**
+   * @return the primary connection to every server, keyed by "ip:port"
+   */
+  Map<String, TabletClient> getTabletClientsByAddress() {
+    synchronized (ip2client) {
+      return new HashMap<String, TabletClient>(ip2client);
+    }
+  }
+
+  /**
+   * Get the metrics of this client, which can be exported to a metrics registry.
+   * @return the metrics, recorded for as long as this client lives
+   */
+  public ClientMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Get the number of table schemas found in the table metadata cache.
+   * @return a number of lookups, 0 if the cache is disabled
+   * @see AsyncYBClientBuilder#tableMetadataCache(int, long)
+   */
+  public long getNumTableMetadataCacheHits() {
+    return tableMetadataCache == null ? 0 : tableMetadataCache.getNumHits();
+  }
+
+  /**
+   * Get the number of table schemas that had to be fetched from the master because they weren't
+   * in the table metadata cache.
+   * @return a number of lookups, 0 if the cache is disabled
+   */
+  public long getNumTableMetadataCacheMisses() {
+    return tableMetadataCache == null ? 0 : tableMetadataCache.getNumMisses();
+  }
+
+  /**
+   * Get the number of RPC retries done for the given reason.
+   * @param reason why the RPCs were retried
+   * @return a number of retries
+   */
+  public long getNumRetries(RetryReason reason) {
+    return numRetries.get(reason.ordinal());
+  }
+
+  /**
+   * Get the number of RPCs that failed instead of being retried because the retry budget of
+   * this client was exhausted.
+   * @return a number of RPCs
+   */
+  public long getNumRetriesRejectedByBudget() {
+    return numRetriesRejectedByBudget.get();
+  }
+
+  /**
+   * Get the number of read-only master RPCs sent with hedging enabled.
+   * @return a number of RPCs, 0 if hedging is disabled
+   * @see AsyncYBClientBuilder#hedgeMasterReads(double, long)
+   */
+  public long getNumHedgeableMasterReads() {
+    return numHedgeableMasterReads.get();
+  }
+
+  /**
+   * Get the number of read-only master RPCs that were sent a second time because the first one
+   * was slow to answer. Divided by {@link #getNumHedgeableMasterReads()}, this gives the hedge
+   * rate.
+   * @return a number of RPCs
+   */
+  public long getNumMasterHedges() {
+    return numMasterHedges.get();
+  }
+
+  /**
+   * Get the number of hedged master RPCs for which the second RPC answered first.
+   * @return a number of RPCs
+   */
+  public long getNumMasterHedgeWins() {
+    return numMasterHedgeWins.get();
+  }
+
+  <R> Deferred<R> sendRpcToTablet(final YRpc<R> request) {
+    if (cannotRetryRequest(request)) {
+      return tooManyAttemptsOrTimeout(request, null);
+    }
+    request.attempt++;
+    final String tableId = request.getTable().getTableId();
+    byte[] partitionKey = null;
+    if (request instanceof YRpc.HasKey) {
+       partitionKey = ((YRpc.HasKey)request).partitionKey();
+    }
+    final RemoteTablet tablet = getTablet(tableId, partitionKey);
+    metrics.recordTabletCacheLookup(tablet != null);
+
+    // Set the propagated timestamp so that the next time we send a message to
+    // the server the message includes the last propagated timestamp.
+    long lastPropagatedTs = getLastPropagatedTimestamp();
+    if (lastPropagatedTs != NO_TIMESTAMP) {
+      request.setPropagatedTimestamp(lastPropagatedTs);
+    }
+
+    if (tablet != null) {
+      final ReplicaSelectionPolicy policy = replicaSelectionPolicyFor(request);
+      TabletClient tabletClient = clientFor(tablet, policy);
+      if (tabletClient != null) {
+        if (policy != ReplicaSelectionPolicy.LEADER_ONLY) {
+          if (tablet.isLeader(tabletClient)) {
+            numLeaderReads.incrementAndGet();
+          } else {
+            numFollowerReads.incrementAndGet();
+          }
+        }
+        request.setTablet(tablet);
+        final Deferred<R> d = request.getDeferred();
+        stripeFor(tabletClient).sendRpc(request);
+        return d;
+      }
+    }
+
+    // Right after creating a table a request will fall into locateTablet since we don't know yet
+    // if the table is ready or not. If discoverTablets() didn't get any tablets back,
+    // then on retry we'll fall into the following block. It will sleep, then call the master to
+    // see if the table was created. We'll spin like this until the table is created and then
+    // we'll try to locate the tablet again.
+    if (tablesNotServed.contains(tableId)) {
+      return delayedIsCreateTableDone(request.getTable(), request,
+          new RetryRpcCB<R, Master.IsCreateTableDoneResponsePB>(request),
+          getDelayedIsCreateTableDoneErrback(request));
+    }
+    Callback<Deferred<R>, Master.GetTableLocationsResponsePB> cb = new RetryRpcCB<>(request);
+    Callback<Deferred<R>, Exception> eb = new RetryRpcErrback<>(request);
+    Deferred<Master.GetTableLocationsResponsePB> returnedD =
+        locateTablet(request.getTable(), partitionKey);
+    return AsyncUtil.addCallbacksDeferring(returnedD, cb, eb);
+  }
+
+  /**
+   * Callback used to retry a RPC after another query finished, like looking up where that RPC
+   * should go.
    * <p>
    * Use {@code AsyncUtil.addCallbacksDeferring} to add this as the callback and
    * {@link AsyncYBClient.RetryRpcErrback} as the "errback" to the {@code Deferred}
@@ -1162,7 +1882,8 @@ public class AsyncYBClient implements AutoCloseable {
         // TODO: Handle the situation when multiple in-flight RPCs are queued waiting
         // for the leader master to be determine (either after a failure or at initialization
         // time). This could re-use some of the existing piping in place for non-master tablets.
-        delayedSendRpcToTablet(request, (NoLeaderMasterFoundException) arg, null);
+        delayedSendRpcToTablet(request, RetryReason.NO_LEADER_MASTER,
+                               (NoLeaderMasterFoundException) arg, null);
         return d;
       }
       // Pass all other exceptions through.
@@ -1237,13 +1958,16 @@ public class AsyncYBClient implements AutoCloseable {
         d.addCallbacks(retryCB, errback);
       }
     }
-    long sleepTime = getSleepTimeForRpc(rpc);
+    long sleepTime = getSleepTimeForRpc(rpc, RetryReason.TABLE_NOT_SERVED);
     if (rpc.deadlineTracker.wouldSleepingTimeout(sleepTime)) {
       return tooManyAttemptsOrTimeout(rpc, null);
     }
 
-    newTimeout(new RetryTimer(), sleepTime);
-    return rpc.getDeferred();
+    final Deferred<R> d = rpc.getDeferred();
+    if (tryAcquireRetry(rpc, RetryReason.TABLE_NOT_SERVED, null)) {
+      rpc.setRetryTimer(newTimeout(new RetryTimer(), sleepTime));
+    }
+    return d;
   }
 
   private final class ReleaseMasterLookupPermit<T> implements Callback<T, T> {
@@ -1282,7 +2006,7 @@ public class AsyncYBClient implements AutoCloseable {
   }
 
 
-  long getSleepTimeForRpc(YRpc<?> rpc) {
+  long getSleepTimeForRpc(YRpc<?> rpc, RetryReason reason) {
     byte attemptCount = rpc.attempt;
     assert (attemptCount > 0);
     if (attemptCount == 0) {
@@ -1290,10 +2014,11 @@ public class AsyncYBClient implements AutoCloseable {
           new Exception("Exception created to collect stack trace"));
       attemptCount = 1;
     }
-    // TODO backoffs? Sleep in increments of 500 ms, plus some random time up to 50
-    long sleepTime = (attemptCount * SLEEP_TIME) + sleepRandomizer.nextInt(50);
+    long sleepTime = retryPolicy.getRetryDelayMs(reason, attemptCount, rpc.retryDelayMs);
+    rpc.retryDelayMs = sleepTime;
     if (LOG.isDebugEnabled()) {
-      LOG.debug("Going to sleep for " + sleepTime + " at retry " + rpc.attempt);
+      LOG.debug("Going to sleep for " + sleepTime + " at retry " + rpc.attempt +
+                " because of " + reason);
     }
     return sleepTime;
   }
@@ -1307,28 +2032,63 @@ public class AsyncYBClient implements AutoCloseable {
    */
   @VisibleForTesting
   List<TabletClient> getTableClients() {
+    List<TabletClient> clients;
     synchronized (ip2client) {
-      return new ArrayList<TabletClient>(ip2client.values());
+      clients = new ArrayList<TabletClient>(ip2client.values());
     }
+    for (ServerConnections connections : client2stripes.values()) {
+      clients.addAll(connections.getStripes());
+    }
+    return clients;
   }
 
   /**
-   * This method first clears tabletsCache and then tablet2client without any regards for
-   * calls to {@link #discoverTablets}. Call only when AsyncYBClient is in a steady state.
+   * This method clears tabletsCache, tablet2client and client2tablets for the given table.
    * @param tableId table for which we remove all the RemoteTablet entries
    */
   @VisibleForTesting
   void emptyTabletsCacheForTable(String tableId) {
-    tabletsCache.remove(tableId);
-    Set<Map.Entry<Slice, RemoteTablet>> tablets = tablet2client.entrySet();
-    for (Map.Entry<Slice, RemoteTablet> entry : tablets) {
-      if (entry.getValue().getTableId().equals(tableId)) {
-        tablets.remove(entry);
+    synchronized (tabletsCache) {
+      TabletLocationIndex tablets = tabletsCache.remove(tableId);
+      if (tablets == null) {
+        return;
+      }
+      for (RemoteTablet tablet : tablets.getTablets()) {
+        tablet2client.remove(tablet.getTabletId(), tablet);
+        unregisterTablet(tablet);
+      }
+    }
+  }
+
+  /**
+   * Removes the given tablet from the lists of tablets of the clients serving it.
+   */
+  private void unregisterTablet(RemoteTablet tablet) {
+    TabletClient[] servers;
+    synchronized (tablet.tabletServers) {
+      servers = tablet.tabletServers.toArray(new TabletClient[tablet.tabletServers.size()]);
+    }
+    for (TabletClient server : servers) {
+      ArrayList<RemoteTablet> tablets = client2tablets.get(server);
+      if (tablets == null) {
+        continue;
+      }
+      synchronized (tablets) {
+        // RemoteTablet.equals() only compares partitions, remove this exact instance.
+        for (Iterator<RemoteTablet> it = tablets.iterator(); it.hasNext();) {
+          if (it.next() == tablet) {
+            it.remove();
+          }
+        }
       }
     }
   }
 
   TabletClient clientFor(RemoteTablet tablet) {
+    return clientFor(tablet, ReplicaSelectionPolicy.LEADER_ONLY);
+  }
+
+  TabletClient clientFor(RemoteTablet tablet, ReplicaSelectionPolicy policy) {
     if (tablet == null) {
       return null;
     }
@@ -1342,12 +2102,34 @@ public class AsyncYBClient implements AutoCloseable {
         // we couldn't resolve its IP. We'll just send the client back so it retries and probably
         // dies after too many attempts.
         return null;
-      } else {
-        // TODO we currently always hit the leader, we probably don't need to except for writes
-        // and some reads.
-        return tablet.tabletServers.get(tablet.leaderIndex);
       }
+      switch (policy) {
+        case CLOSEST_REPLICA:
+          return tablet.getClosestReplica(clientPlacement);
+        case LOWEST_LATENCY:
+          return tablet.getLowestLatencyReplica();
+        default:
+          return tablet.tabletServers.get(tablet.leaderIndex);
+      }
+    }
+  }
+
+  /**
+   * Returns the replica selection policy to use for the given RPC. RPCs going to the master are
+   * always sent to the leader. Other RPCs go to the leader too, unless they set a policy
+   * themselves through {@link YRpc#setReplicaSelectionPolicy}: only the caller knows whether an
+   * RPC can be served by a follower.
+   */
+  @VisibleForTesting
+  ReplicaSelectionPolicy replicaSelectionPolicyFor(YRpc<?> rpc) {
+    if (isMasterTable(rpc.getTable().getTableId())) {
+      return ReplicaSelectionPolicy.LEADER_ONLY;
+    }
+    ReplicaSelectionPolicy policy = rpc.getReplicaSelectionPolicy();
+    if (policy != null) {
+      return policy;
     }
+    return ReplicaSelectionPolicy.LEADER_ONLY;
   }
 
   /**
@@ -1359,7 +2141,7 @@ public class AsyncYBClient implements AutoCloseable {
    * already.
    */
   static boolean cannotRetryRequest(final YRpc<?> rpc) {
-    return rpc.deadlineTracker.timedOut() || rpc.attempt >= rpc.maxAttempts;
+    return rpc.isCancelled() || rpc.deadlineTracker.timedOut() || rpc.attempt >= rpc.maxAttempts;
   }
 
   /**
@@ -1384,11 +2166,176 @@ public class AsyncYBClient implements AutoCloseable {
 
   /**
    * Sends a getTableLocations RPC to the master to find the table's tablets.
+   * <p>
+   * The lookup also asks for the tablets that follow the one we're looking for, so a lookup in
+   * flight likely locates the keys shortly past the one it started at. A lookup for a key within
+   * the expected reach of one in flight, see {@link #lookupLikelyReaches}, waits for it instead of
+   * going to the master, and only looks the key up itself if the tablet still isn't known after
+   * that. Concurrent lookups starting at the same key share a single master RPC.
    * @param table table to lookup
    * @param partitionKey can be null, if not we'll find the exact tablet that contains it
    * @return Deferred to track the progress
    */
-  Deferred<Master.GetTableLocationsResponsePB> locateTablet(YBTable table, byte[] partitionKey) {
+  Deferred<Master.GetTableLocationsResponsePB> locateTablet(final YBTable table,
+                                                            final byte[] partitionKey) {
+    final String tableId = table.getTableId();
+    // If we already know the tablet, but not where its leader is, every key in that tablet leads
+    // to the same lookup.
+    RemoteTablet knownTablet = getTablet(tableId, partitionKey);
+    final byte[] lookupKey = knownTablet != null ?
+        knownTablet.getPartition().getPartitionKeyStart() :
+        (partitionKey == null ? EMPTY_ARRAY : partitionKey);
+    final Map.Entry<byte[], MasterLookup> covering;
+    final TreeMap<byte[], MasterLookup> lookups = inflightMasterLookups.get(tableId);
+    if (lookups == null) {
+      covering = null;
+    } else {
+      synchronized (lookups) {
+        covering = lookups.floorEntry(lookupKey);
+      }
+    }
+    if (covering == null || Bytes.equals(covering.getKey(), lookupKey) ||
+        !lookupLikelyReaches(tableId, covering.getKey(), lookupKey)) {
+      // Coalesced by lookUpFrom if one starting at the same key is in flight.
+      return lookUpFrom(table, lookupKey);
+    }
+    final Deferred<Master.GetTableLocationsResponsePB> result = new Deferred<>();
+    covering.getValue().addWaiter().addCallbacks(
+        new Callback<Void, Master.GetTableLocationsResponsePB>() {
+          @Override
+          public Void call(Master.GetTableLocationsResponsePB resp) {
+            RemoteTablet tablet = getTablet(tableId, partitionKey);
+            if (tablet != null && clientFor(tablet) != null) {
+              numCoalescedMasterLookups.incrementAndGet();
+              result.callback(resp);
+            } else {
+              // The lookup stopped short of our key.
+              lookUpFrom(table, lookupKey).chain(result);
+            }
+            return null;
+          }
+
+          @Override
+          public String toString() {
+            return "check the coalesced master lookup";
+          }
+        },
+        new Callback<Void, Exception>() {
+          @Override
+          public Void call(Exception e) {
+            lookUpFrom(table, lookupKey).chain(result);
+            return null;
+          }
+
+          @Override
+          public String toString() {
+            return "retry the coalesced master lookup";
+          }
+        });
+    return result;
+  }
+
+  /**
+   * @return the number of tables with master lookups in flight
+   */
+  @VisibleForTesting
+  int getNumTablesLookedUp() {
+    return inflightMasterLookups.size();
+  }
+
+  /**
+   * Tells whether a master lookup starting at the given key likely returns the tablet holding
+   * another key. The lookup returns a number of tablets, which are assumed to be as wide on
+   * average as the tablets of the table we already know. Without any, nothing is assumed.
+   */
+  private boolean lookupLikelyReaches(String tableId, byte[] lookupStart, byte[] partitionKey) {
+    final TabletLocationIndex tablets = tabletsCache.get(tableId);
+    if (tablets == null || tablets.isEmpty()) {
+      return false;
+    }
+    long knownWidth = 0;
+    for (RemoteTablet tablet : tablets.getTablets()) {
+      knownWidth += keyPosition(tablet.getPartition().getPartitionKeyEnd(), true) -
+                    keyPosition(tablet.getPartition().getPartitionKeyStart(), false);
+    }
+    final int numReturned = tabletLocationsPrefetchCount > 0 ?
+        tabletLocationsPrefetchCount : MASTER_DEFAULT_RETURNED_LOCATIONS;
+    final long reach = knownWidth / tablets.size() * numReturned;
+    return keyPosition(partitionKey, false) - keyPosition(lookupStart, false) < reach;
+  }
+
+  /**
+   * @return the position of a partition key in the key space, from its leading bytes
+   * @param end true if the key is the end of a partition, where empty means the end of the table
+   */
+  private static long keyPosition(byte[] key, boolean end) {
+    if (end && key.length == 0) {
+      return 1L << (8 * KEY_POSITION_BYTES);
+    }
+    long position = 0;
+    for (int i = 0; i < KEY_POSITION_BYTES; i++) {
+      position = (position << 8) | (i < key.length ? key[i] & 0xff : 0);
+    }
+    return position;
+  }
+
+  /**
+   * Looks up the tablets starting at the given key, unless a lookup starting there is already in
+   * flight.
+   */
+  private Deferred<Master.GetTableLocationsResponsePB> lookUpFrom(YBTable table,
+                                                                  final byte[] lookupKey) {
+    final String tableId = table.getTableId();
+    final MasterLookup lookup = new MasterLookup();
+    TreeMap<byte[], MasterLookup> lookups;
+    while (true) {
+      lookups = inflightMasterLookups.get(tableId);
+      if (lookups == null) {
+        lookups = new TreeMap<>(Bytes.MEMCMP);
+        lookups.put(lookupKey, lookup);
+        if (inflightMasterLookups.putIfAbsent(tableId, lookups) == null) {
+          break;
+        }
+        continue;
+      }
+      synchronized (lookups) {
+        if (inflightMasterLookups.get(tableId) != lookups) {
+          // Emptied and removed meanwhile.
+          continue;
+        }
+        MasterLookup inflight = lookups.get(lookupKey);
+        if (inflight != null) {
+          numCoalescedMasterLookups.incrementAndGet();
+          return inflight.addWaiter();
+        }
+        lookups.put(lookupKey, lookup);
+        break;
+      }
+    }
+    final TreeMap<byte[], MasterLookup> tableLookups = lookups;
+    final Deferred<Master.GetTableLocationsResponsePB> result = lookup.addWaiter();
+    final class CompleteMasterLookupCB<T> implements Callback<T, T> {
+      public T call(final T arg) {
+        synchronized (tableLookups) {
+          tableLookups.remove(lookupKey, lookup);
+          if (tableLookups.isEmpty()) {
+            inflightMasterLookups.remove(tableId, tableLookups);
+          }
+        }
+        lookup.complete(arg);
+        return arg;
+      }
+      public String toString() {
+        return "complete master lookup";
+      }
+    }
+    locateTabletFromMaster(table, lookupKey).addBoth(
+        new CompleteMasterLookupCB<Master.GetTableLocationsResponsePB>());
+    return result;
+  }
+
+  private Deferred<Master.GetTableLocationsResponsePB> locateTabletFromMaster(
+      YBTable table, byte[] partitionKey) {
     final boolean has_permit = acquireMasterLookupPermit();
     String tableId = table.getTableId();
     if (!has_permit) {
@@ -1400,8 +2347,11 @@ public class AsyncYBClient implements AutoCloseable {
         return Deferred.fromResult(null);  // Looks like no lookup needed.
       }
     }
+    numMasterLookups.incrementAndGet();
+    // Don't bound the end of the range so that the master also returns the following tablets.
     GetTableLocationsRequest rpc =
-        new GetTableLocationsRequest(masterTable, partitionKey, partitionKey, tableId);
+        new GetTableLocationsRequest(masterTable, partitionKey, null, tableId);
+    rpc.setMaxReturnedLocations(tabletLocationsPrefetchCount);
     rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
     final Deferred<Master.GetTableLocationsResponsePB> d;
 
@@ -1420,30 +2370,157 @@ public class AsyncYBClient implements AutoCloseable {
   }
 
   /**
-   * Update the master config: send RPCs to all config members, use the returned data to
-   * fill a {@link Master.GetTabletLocationsResponsePB} object.
-   * @return An initialized Deferred object to hold the response.
+   * A master lookup in flight, which hands its outcome to all the callers waiting on it.
    */
-  Deferred<Master.GetTableLocationsResponsePB> getMasterTableLocationsPB() {
-    final Deferred<Master.GetTableLocationsResponsePB> responseD =
-        new Deferred<Master.GetTableLocationsResponsePB>();
-    final GetMasterRegistrationReceived received =
-        new GetMasterRegistrationReceived(masterAddresses, responseD);
-    for (HostAndPort hostAndPort : masterAddresses) {
-      Deferred<GetMasterRegistrationResponse> d;
-      // Note: we need to create a client for that host first, as there's a
-      // chicken and egg problem: since there is no source of truth beyond
-      // the master, the only way to get information about a master host is
-      // by making an RPC to that host.
-      TabletClient clientForHostAndPort = newMasterClient(hostAndPort);
-      if (clientForHostAndPort == null) {
-        String message = "Couldn't resolve this master's address " + hostAndPort.toString();
-        LOG.warn(message);
-        d = Deferred.fromError(new NonRecoverableException(message));
-      } else {
-        d = getMasterRegistration(clientForHostAndPort);
+  private static final class MasterLookup {
+    @GuardedBy("this")
+    private final List<Deferred<Master.GetTableLocationsResponsePB>> waiters = new ArrayList<>();
+    @GuardedBy("this")
+    private boolean done = false;
+    @GuardedBy("this")
+    private Object result;
+
+    Deferred<Master.GetTableLocationsResponsePB> addWaiter() {
+      final Deferred<Master.GetTableLocationsResponsePB> d = new Deferred<>();
+      final Object doneResult;
+      synchronized (this) {
+        if (!done) {
+          waiters.add(d);
+          return d;
+        }
+        doneResult = result;
       }
-      d.addCallbacks(received.callbackForNode(hostAndPort), received.errbackForNode(hostAndPort));
+      d.callback(doneResult);
+      return d;
+    }
+
+    /**
+     * @param result null once the locations were cached, or the Exception the lookup failed with
+     */
+    void complete(Object result) {
+      List<Deferred<Master.GetTableLocationsResponsePB>> toNotify;
+      synchronized (this) {
+        done = true;
+        this.result = result;
+        toNotify = new ArrayList<>(waiters);
+        waiters.clear();
+      }
+      for (Deferred<Master.GetTableLocationsResponsePB> d : toNotify) {
+        d.callback(result);
+      }
+    }
+  }
+
+  /**
+   * Forgets the cached leader master if it was on the other end of a lost connection, or if we
+   * can't tell. The leader's host is compared to the host string and to the IP of the remote
+   * address, neither of which resolves host names on the I/O thread.
+   */
+  private void forgetMasterLeaderAt(SocketAddress remote) {
+    MasterLeader leader = masterLeader;
+    if (leader != null && (!(remote instanceof InetSocketAddress) ||
+        isAddressOf((InetSocketAddress) remote, leader.getHostAndPort()))) {
+      masterLeader = null;
+    }
+  }
+
+  @VisibleForTesting
+  static boolean isAddressOf(InetSocketAddress address, HostAndPort hostAndPort) {
+    if (address.getPort() != hostAndPort.getPort()) {
+      return false;
+    }
+    final String host = hostAndPort.getHost();
+    return host.equals(address.getHostString()) ||
+        (address.getAddress() != null && host.equals(address.getAddress().getHostAddress()));
+  }
+
+  /**
+   * The uuid and address of the leader master.
+   */
+  static final class MasterLeader {
+    private final String uuid;
+    private final HostAndPort hostAndPort;
+
+    MasterLeader(String uuid, HostAndPort hostAndPort) {
+      this.uuid = uuid;
+      this.hostAndPort = hostAndPort;
+    }
+
+    String getUuid() {
+      return uuid;
+    }
+
+    HostAndPort getHostAndPort() {
+      return hostAndPort;
+    }
+
+    /**
+     * @param resp the master table locations built by {@link GetMasterRegistrationReceived}
+     */
+    static MasterLeader fromLocations(Master.GetTableLocationsResponsePB resp) {
+      Master.TSInfoPB tsInfo = resp.getTabletLocations(0).getReplicas(0).getTsInfo();
+      Common.HostPortPB addr = tsInfo.getPrivateRpcAddresses(0);
+      return new MasterLeader(tsInfo.getPermanentUuid().toStringUtf8(),
+                              HostAndPort.fromParts(addr.getHost(), addr.getPort()));
+    }
+
+    @Override
+    public String toString() {
+      return uuid + "@" + hostAndPort;
+    }
+  }
+
+  /**
+   * Update the master config: send RPCs to all config members, use the returned data to
+   * fill a {@link Master.GetTabletLocationsResponsePB} object.
+   * @return An initialized Deferred object to hold the response.
+   */
+  Deferred<Master.GetTableLocationsResponsePB> getMasterTableLocationsPB() {
+    final Deferred<Master.GetTableLocationsResponsePB> responseD =
+        new Deferred<Master.GetTableLocationsResponsePB>();
+    numMasterLeaderRefreshes.incrementAndGet();
+    responseD.addCallbacks(
+        new Callback<Master.GetTableLocationsResponsePB, Master.GetTableLocationsResponsePB>() {
+          @Override
+          public Master.GetTableLocationsResponsePB call(Master.GetTableLocationsResponsePB resp) {
+            masterLeader = MasterLeader.fromLocations(resp);
+            return resp;
+          }
+
+          @Override
+          public String toString() {
+            return "cache master leader";
+          }
+        },
+        new Callback<Exception, Exception>() {
+          @Override
+          public Exception call(Exception e) {
+            masterLeader = null;
+            return e;
+          }
+
+          @Override
+          public String toString() {
+            return "forget master leader";
+          }
+        });
+    final GetMasterRegistrationReceived received =
+        new GetMasterRegistrationReceived(masterAddresses, responseD);
+    for (HostAndPort hostAndPort : masterAddresses) {
+      Deferred<GetMasterRegistrationResponse> d;
+      // Note: we need to create a client for that host first, as there's a
+      // chicken and egg problem: since there is no source of truth beyond
+      // the master, the only way to get information about a master host is
+      // by making an RPC to that host.
+      TabletClient clientForHostAndPort = newMasterClient(hostAndPort);
+      if (clientForHostAndPort == null) {
+        String message = "Couldn't resolve this master's address " + hostAndPort.toString();
+        LOG.warn(message);
+        d = Deferred.fromError(new NonRecoverableException(message));
+      } else {
+        d = getMasterRegistration(clientForHostAndPort);
+      }
+      d.addCallbacks(received.callbackForNode(hostAndPort), received.errbackForNode(hostAndPort));
     }
     return responseD;
   }
@@ -1485,7 +2562,7 @@ public class AsyncYBClient implements AutoCloseable {
           public Deferred<List<LocatedTablet>> call(GetTableLocationsResponsePB response) {
             // Table doesn't exist or is being created.
             if (response.getTabletLocationsCount() == 0) {
-              Deferred.fromResult(ret);
+              return Deferred.fromResult(ret);
             }
             byte[] lastEndPartition = startPartitionKey;
             for (Master.TabletLocationsPB tabletPb : response.getTabletLocationsList()) {
@@ -1534,30 +2611,206 @@ public class AsyncYBClient implements AutoCloseable {
     return loopLocateTable(tableId, startPartitionKey, endPartitionKey, ret, deadlineTracker);
   }
 
+  /**
+   * Get all the tablets for a given table by splitting its hash space into ranges that are
+   * located in parallel. Only hash partitioned tables can be split this way, for other tables
+   * this is the same as {@link #locateTable(String, byte[], byte[], long)}.
+   * @param tableId the table to locate tablets from
+   * @param partitionSchema the partition schema of the table
+   * @param numRanges how many ranges to split the hash space into
+   * @param maxConcurrency how many ranges can be located at the same time
+   * @param deadline max time spent in milliseconds for the deferred result of this method to
+   *         get called back, if deadline is reached, the deferred result will get erred back
+   * @return a deferred object that yields a list of the tablets in the table, sorted by
+   *         partition start key
+   */
+  Deferred<List<LocatedTablet>> locateTableInParallel(final String tableId,
+                                                      PartitionSchema partitionSchema,
+                                                      int numRanges,
+                                                      int maxConcurrency,
+                                                      long deadline) {
+    Preconditions.checkArgument(numRanges > 0, "numRanges must be positive");
+    Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be positive");
+    if (!partitionSchema.isHashPartitioned() || numRanges == 1) {
+      return locateTable(tableId, null, null, deadline);
+    }
+    numRanges = Math.min(numRanges, PartitionSchema.HASH_PARTITION_KEY_SPACE);
+    maxConcurrency = Math.min(maxConcurrency, numRanges);
+
+    final int[] boundaries = hashRangeBoundaries(numRanges);
+    final DeadlineTracker deadlineTracker = new DeadlineTracker();
+    deadlineTracker.setDeadline(deadline);
+    // Each chain locates the ranges j, j + maxConcurrency, j + 2 * maxConcurrency... one after the
+    // other, so at most maxConcurrency ranges are being located at any time.
+    List<Deferred<List<LocatedTablet>>> chains =
+        new ArrayList<Deferred<List<LocatedTablet>>>(maxConcurrency);
+    for (int j = 0; j < maxConcurrency; j++) {
+      chains.add(locateRanges(tableId, boundaries, j, maxConcurrency,
+                              new ArrayList<LocatedTablet>(), deadlineTracker));
+    }
+    return Deferred.group(chains).addCallbacks(
+        new Callback<List<LocatedTablet>, ArrayList<List<LocatedTablet>>>() {
+          @Override
+          public List<LocatedTablet> call(ArrayList<List<LocatedTablet>> results)
+              throws Exception {
+            return mergeLocatedRanges(results);
+          }
+        },
+        new Callback<Exception, Exception>() {
+          @Override
+          public Exception call(Exception e) {
+            // Surface the error of the first failed range rather than the group wrapper.
+            if (e instanceof DeferredGroupException && e.getCause() instanceof Exception) {
+              return (Exception) e.getCause();
+            }
+            return e;
+          }
+        });
+  }
+
+  /**
+   * Splits the hash space into ranges of about the same size.
+   * @return the boundaries of the ranges, range i covers the hash codes in
+   *         [boundaries[i], boundaries[i + 1])
+   */
+  @VisibleForTesting
+  static int[] hashRangeBoundaries(int numRanges) {
+    final int[] boundaries = new int[numRanges + 1];
+    for (int i = 0; i <= numRanges; i++) {
+      boundaries[i] = (int) ((long) PartitionSchema.HASH_PARTITION_KEY_SPACE * i / numRanges);
+    }
+    return boundaries;
+  }
+
+  /**
+   * Locates the range at the given index, then the ranges every 'step' ranges after it.
+   */
+  private Deferred<List<LocatedTablet>> locateRanges(final String tableId,
+                                                     final int[] boundaries,
+                                                     final int range,
+                                                     final int step,
+                                                     final List<LocatedTablet> ret,
+                                                     final DeadlineTracker deadlineTracker) {
+    final int numRanges = boundaries.length - 1;
+    if (range >= numRanges) {
+      return Deferred.fromResult(ret);
+    }
+    byte[] start = range == 0 ? null : PartitionSchema.encodeHashPartitionKey(boundaries[range]);
+    // The end key of loopLocateTable is inclusive.
+    byte[] end = range == numRanges - 1 ?
+        null : PartitionSchema.encodeHashPartitionKey(boundaries[range + 1] - 1);
+    return loopLocateTable(tableId, start, end, ret, deadlineTracker).addCallbackDeferring(
+        new Callback<Deferred<List<LocatedTablet>>, List<LocatedTablet>>() {
+          @Override
+          public Deferred<List<LocatedTablet>> call(List<LocatedTablet> located) {
+            return locateRanges(tableId, boundaries, range + step, step, ret, deadlineTracker);
+          }
+        });
+  }
+
+  /**
+   * Merges the tablets located for each range. Tablets spanning several ranges are returned for
+   * each of them, so they are deduplicated, then we check that the result covers the table
+   * without holes or overlaps.
+   */
+  @VisibleForTesting
+  static List<LocatedTablet> mergeLocatedRanges(List<List<LocatedTablet>> results) {
+    Map<Slice, LocatedTablet> tabletsById = new HashMap<Slice, LocatedTablet>();
+    for (List<LocatedTablet> result : results) {
+      for (LocatedTablet tablet : result) {
+        tabletsById.put(new Slice(tablet.getTabletId()), tablet);
+      }
+    }
+    List<LocatedTablet> merged = new ArrayList<LocatedTablet>(tabletsById.values());
+    Collections.sort(merged, new Comparator<LocatedTablet>() {
+      @Override
+      public int compare(LocatedTablet a, LocatedTablet b) {
+        return Bytes.memcmp(a.getPartition().getPartitionKeyStart(),
+                            b.getPartition().getPartitionKeyStart());
+      }
+    });
+    byte[] lastEndPartition = EMPTY_ARRAY;
+    for (LocatedTablet tablet : merged) {
+      Partition partition = tablet.getPartition();
+      if (!Bytes.equals(partition.getPartitionKeyStart(), lastEndPartition)) {
+        throw new IllegalStateException(
+            "Server returned inconsistent tablets: start partition key '"
+                + Bytes.pretty(partition.getPartitionKeyStart()) + "' followed "
+                + "end partition key '" + Bytes.pretty(lastEndPartition) + "'");
+      }
+      lastEndPartition = partition.getPartitionKeyEnd();
+    }
+    return merged;
+  }
+
   /**
    * We're handling a tablet server that's telling us it doesn't have the tablet we're asking for.
    * We're in the context of decode() meaning we need to either callback or retry later.
    */
   <R> void handleTabletNotFound(final YRpc<R> rpc, YBException ex, TabletClient server) {
-    invalidateTabletCache(rpc.getTablet(), server);
-    handleRetryableError(rpc, ex, server);
+    // Losing one of the striped connections doesn't mean we lost the server, we'll know when the
+    // primary connection goes away.
+    if (!(server.isStripe() && ex instanceof ConnectionResetException)) {
+      invalidateTabletCache(rpc.getTablet(), server.getPrimary());
+    }
+    RetryReason reason = ex instanceof ConnectionResetException ?
+        RetryReason.CONNECTION_LOST : RetryReason.TABLET_NOT_FOUND;
+    handleRetryableError(rpc, reason, ex, server);
   }
 
   /**
    * A tablet server is letting us know that it isn't the specified tablet's leader in response
    * a RPC, so we need to demote it and retry.
    */
-  <R> void handleNotLeader(final YRpc<R> rpc, YBException ex, TabletClient server) {
+  <R> void handleNotLeader(final YRpc<R> rpc, YBException ex, TabletClient stripe) {
+    final TabletClient server = stripe.getPrimary();
+    if (rpc.getTable() == masterTable) {
+      masterLeader = null;
+    }
+    if (!rpc.getTablet().isLeader(server)) {
+      // A follower refused to serve this RPC, only the leader will be able to.
+      rpc.setReplicaSelectionPolicy(ReplicaSelectionPolicy.LEADER_ONLY);
+    }
     rpc.getTablet().demoteLeader(server);
-    handleRetryableError(rpc, ex, server);
+    if (!rpc.isRetrySameServer() && rpc.getTablet().hasLeaderOtherThan(server)) {
+      // Another replica was promoted, it may well be the new leader so there is no point in
+      // waiting. Once every replica was tried the leader is unknown and we go back to sleeping
+      // while the master is asked where the leader is.
+      if (cannotRetryRequest(rpc)) {
+        tooManyAttemptsOrTimeout(rpc, ex);
+        return;
+      }
+      if (!tryAcquireRetry(rpc, RetryReason.NOT_THE_LEADER, ex)) {
+        return;
+      }
+      sendRpcToTablet(rpc);
+      return;
+    }
+    handleRetryableError(rpc, RetryReason.NOT_THE_LEADER, ex, server);
+  }
+
+  <R> void handleRetryableError(final YRpc<R> rpc, RetryReason reason, YBException ex,
+                                TabletClient server) {
+    delayedSendRpcToTablet(rpc, reason, ex, server.getPrimary());
   }
 
-  <R> void handleRetryableError(final YRpc<R> rpc, YBException ex, TabletClient server) {
-    // TODO we don't always need to sleep, maybe another replica can serve this RPC.
-    delayedSendRpcToTablet(rpc, ex, server);
+  /**
+   * Counts a retry of the RPC and takes it out of the retry budget. If the budget is exhausted,
+   * the RPC is failed.
+   * @return true if the RPC can be retried
+   */
+  private <R> boolean tryAcquireRetry(final YRpc<R> rpc, RetryReason reason, YBException ex) {
+    if (retryBudget != null && !retryBudget.tryAcquire()) {
+      numRetriesRejectedByBudget.incrementAndGet();
+      rpc.errback(new NonRecoverableException("Retry budget exhausted: " + rpc, ex));
+      return false;
+    }
+    numRetries.incrementAndGet(reason.ordinal());
+    return true;
   }
 
-  private <R> void delayedSendRpcToTablet(final YRpc<R> rpc, YBException ex, TabletClient server) {
+  private <R> void delayedSendRpcToTablet(final YRpc<R> rpc, RetryReason reason, YBException ex,
+                                          TabletClient server) {
     // Here we simply retry the RPC later. We might be doing this along with a lot of other RPCs
     // in parallel. Asynchbase does some hacking with a "probe" RPC while putting the other ones
     // on hold but we won't be doing this for the moment. Regions in HBase can move a lot,
@@ -1572,13 +2825,16 @@ public class AsyncYBClient implements AutoCloseable {
       }
     }
 
-    long sleepTime = getSleepTimeForRpc(rpc);
+    long sleepTime = getSleepTimeForRpc(rpc, reason);
     if (cannotRetryRequest(rpc) || rpc.deadlineTracker.wouldSleepingTimeout(sleepTime)) {
       tooManyAttemptsOrTimeout(rpc, ex);
       // Don't let it retry.
       return;
     }
-    newTimeout(new RetryTimer(), sleepTime);
+    if (!tryAcquireRetry(rpc, reason, ex)) {
+      return;
+    }
+    rpc.setRetryTimer(newTimeout(new RetryTimer(), sleepTime));
   }
 
   /**
@@ -1644,152 +2900,451 @@ public class AsyncYBClient implements AutoCloseable {
       tablesNotServed.add(tableId);
       return;
     }
-    // Doing a get first instead of putIfAbsent to avoid creating unnecessary CSLMs because in
-    // the most common case the table should already be present
-    ConcurrentSkipListMap<byte[], RemoteTablet> tablets = tabletsCache.get(tableId);
+    List<RemoteTablet> discovered = new ArrayList<>();
+    for (Master.TabletLocationsPB tabletPb : response.getTabletLocationsList()) {
+      // Early creating the tablet so that it parses out the pb
+      RemoteTablet rt = createTabletFromPb(tableId, tabletPb);
+
+      // If we already know about this one, just refresh the locations
+      RemoteTablet currentTablet = tablet2client.get(rt.tabletId);
+      if (currentTablet != null) {
+        currentTablet.refreshServers(tabletPb);
+        continue;
+      }
+
+      // Resolving the replicas can block, so do it before taking the lock to publish the tablet.
+      rt.refreshServers(tabletPb);
+      discovered.add(rt);
+    }
+    if (!discovered.isEmpty()) {
+      addTabletsToCache(tableId, tableName, discovered);
+    }
+  }
+
+  /**
+   * Makes the given tablets visible in tabletsCache and tablet2client, replacing any tablet of the
+   * same table they overlap with.
+   */
+  private void addTabletsToCache(String tableId, String tableName, List<RemoteTablet> discovered) {
+    List<RemoteTablet> added = new ArrayList<>(discovered.size());
+    List<RemoteTablet> losers = new ArrayList<>();
+    List<RemoteTablet> dropped = new ArrayList<>();
+    synchronized (tabletsCache) {
+      for (RemoteTablet rt : discovered) {
+        if (tablet2client.putIfAbsent(rt.tabletId, rt) != null) {
+          // Someone beat us to it.
+          losers.add(rt);
+          continue;
+        }
+        added.add(rt);
+      }
+      TabletLocationIndex tablets = tabletsCache.get(tableId);
+      if (tablets == null) {
+        tablets = TabletLocationIndex.EMPTY;
+      }
+      // This is making these tablets available.
+      tabletsCache.put(tableId, tablets.withTablets(added, dropped));
+      for (RemoteTablet rt : dropped) {
+        tablet2client.remove(rt.tabletId, rt);
+      }
+    }
+    for (RemoteTablet rt : added) {
+      LOG.info("Discovered tablet {} for table {} with partition {}",
+               rt.getTabletIdAsString(), tableName, rt.getPartition());
+    }
+    for (RemoteTablet rt : losers) {
+      unregisterTablet(rt);
+    }
+    for (RemoteTablet rt : dropped) {
+      LOG.info("Dropped tablet {} for table {} with partition {}",
+               rt.getTabletIdAsString(), tableName, rt.getPartition());
+      unregisterTablet(rt);
+    }
+  }
+
+  RemoteTablet createTabletFromPb(String tableId, Master.TabletLocationsPB tabletPb) {
+    Partition partition = ProtobufHelper.pbToPartition(tabletPb.getPartition());
+    Slice tabletId = new Slice(tabletPb.getTabletId().toByteArray());
+    return new RemoteTablet(tableId, tabletId, partition);
+  }
+
+  /**
+   * Gives the tablet's ID for the table ID and partition key.
+   * In the future there will be multiple tablets and this method will find the right one.
+   * @param tableId table to find the tablet for
+   * @return a tablet ID as a slice or null if not found
+   */
+  RemoteTablet getTablet(String tableId, byte[] partitionKey) {
+    TabletLocationIndex tablets = tabletsCache.get(tableId);
+
     if (tablets == null) {
-      tablets = new ConcurrentSkipListMap<>(Bytes.MEMCMP);
-      ConcurrentSkipListMap<byte[], RemoteTablet> oldTablets = tabletsCache.putIfAbsent
-          (tableId, tablets);
-      if (oldTablets != null) {
-        tablets = oldTablets;
+      return null;
+    }
+
+    // We currently only have one master tablet.
+    if (isMasterTable(tableId)) {
+      return tablets.first();
+    }
+
+    return tablets.lookup(partitionKey);
+  }
+
+  /**
+   * Retrieve the master registration (see {@link GetMasterRegistrationResponse}
+   * for a replica.
+   * @param masterClient An initialized client for the master replica.
+   * @return A Deferred object for the master replica's current registration.
+   */
+  Deferred<GetMasterRegistrationResponse> getMasterRegistration(TabletClient masterClient) {
+    GetMasterRegistrationRequest rpc = new GetMasterRegistrationRequest(masterTable);
+    rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
+    // We don't want retries for this RPC to go to different servers, since we are interested in
+    // the master registration of a specific master server.
+    rpc.setRetrySameServer(true);
+    Deferred<GetMasterRegistrationResponse> d = rpc.getDeferred();
+    rpc.attempt++;
+    masterClient.sendRpc(rpc);
+    return d;
+  }
+
+  /**
+   * If a live client already exists for the specified master server, returns that client;
+   * otherwise, creates a new client for the specified master server.
+   * @param masterHostPort The RPC host and port for the master server.
+   * @return A live and initialized client for the specified master server.
+   */
+  TabletClient newMasterClient(HostAndPort masterHostPort) {
+    String ip = getIP(masterHostPort.getHost());
+    if (ip == null) {
+      return null;
+    }
+    // We should pass a UUID here but we have a chicken and egg problem, we first need to
+    // communicate with the masters to find out about them, and that's what we're trying to do.
+    // The UUID is used for logging, so instead we're passing the "master table name" followed by
+    // host and port which is enough to identify the node we're connecting to.
+    return newClient(MASTER_TABLE_NAME_PLACEHOLDER + " - " + masterHostPort.toString(),
+        ip, masterHostPort.getPort());
+  }
+
+  // TODO: this is a hack around the current ip2client cache framework that relies on uuids. We
+  // should ideally have something like the Proxy in c++, but until then, we need a way to create
+  // clients that are not explicitly bound to tablets, but tservers/masters for admin-style ops.
+  TabletClient newSimpleClient(final HostAndPort hp) {
+    String uuid = "fakeUUID -> " + hp.toString();
+    return newClient(uuid, hp.getHost(), hp.getPort());
+  }
+
+  TabletClient newClient(String uuid, final String host, final int port) {
+    final String hostport = host + ':' + port;
+    TabletClient client;
+    SocketChannel chan;
+    synchronized (ip2client) {
+      client = ip2client.get(hostport);
+      if (client != null && client.isAlive()) {
+        return client;
+      }
+      final TabletClientPipeline pipeline = new TabletClientPipeline();
+      client = pipeline.init(uuid);
+      chan = channelFactory.newChannel(pipeline);
+      ip2client.put(hostport, client);  // This is guaranteed to return null.
+    }
+    this.client2tablets.put(client, new ArrayList<RemoteTablet>());
+    final ServerHealth health = healthOf(uuid);
+    if (health != null) {
+      health.setAddress(HostAndPort.fromParts(host, port));
+    }
+    if (connectionsPerServer > 1) {
+      client2stripes.put(client, new ServerConnections(client, uuid, host, port,
+                                                       connectionsPerServer));
+    }
+    connect(chan, host, port);
+    return client;
+  }
+
+  /**
+   * @return the health of the given server, null if unhealthy servers aren't ejected
+   */
+  private ServerHealth healthOf(String uuid) {
+    if (ejectionFailureThreshold == 0) {
+      return null;
+    }
+    ServerHealth health = serverHealth.get(uuid);
+    if (health == null) {
+      health = new ServerHealth(ejectionFailureThreshold, baseEjectionMs,
+                                MAX_EJECTION_RATIO * baseEjectionMs);
+      ServerHealth existing = serverHealth.putIfAbsent(uuid, health);
+      if (existing != null) {
+        health = existing;
       }
     }
+    return health;
+  }
 
-    for (Master.TabletLocationsPB tabletPb : response.getTabletLocationsList()) {
-      // Early creating the tablet so that it parses out the pb
-      RemoteTablet rt = createTabletFromPb(tableId, tabletPb);
-      Slice tabletId = rt.tabletId;
+  /**
+   * @return true if RPCs that can pick their replica should avoid the given server
+   */
+  boolean isEjected(TabletClient server) {
+    if (ejectionFailureThreshold == 0) {
+      return false;
+    }
+    final ServerHealth health = serverHealth.get(server.getUuid());
+    return health != null && health.isEjected();
+  }
+
+  /**
+   * Records that a server answered an RPC, a failure if it took way longer than the method
+   * usually takes on that server.
+   * @param server the primary connection to the server
+   * @param method the name of the method of the RPC
+   * @param latencyNanos how long the server took to answer, negative if that isn't a sample of
+   *                     its latency, e.g. for a long poll the server held on purpose
+   */
+  void recordServerResponse(TabletClient server, String method, long latencyNanos) {
+    final ServerHealth health = healthOf(server.getUuid());
+    if (health == null) {
+      return;
+    }
+    if (latencyNanos < 0) {
+      health.recordSuccess();
+      return;
+    }
+    final long usualLatencyNanos = health.recordLatency(method, latencyNanos);
+    if (usualLatencyNanos > 0 && latencyNanos > MIN_LATENCY_OUTLIER_NANOS &&
+        latencyNanos > LATENCY_OUTLIER_RATIO * usualLatencyNanos) {
+      recordServerFailure(server.getUuid(), health);
+    } else {
+      health.recordSuccess();
+    }
+  }
+
+  /**
+   * Records that a server didn't answer, e.g. its connection was reset while RPCs were in
+   * flight. Called once per reset, not once per RPC.
+   * @param server the primary connection to the server
+   */
+  void recordServerFailure(TabletClient server) {
+    final ServerHealth health = healthOf(server.getUuid());
+    if (health != null && !closed) {
+      recordServerFailure(server.getUuid(), health);
+    }
+  }
+
+  private void recordServerFailure(final String uuid, final ServerHealth health) {
+    if (!health.recordFailure(System.currentTimeMillis())) {
+      return;
+    }
+    numServerEjections.incrementAndGet();
+    LOG.warn("Ejecting unhealthy server " + uuid + " for " + health.getEjectionMs() + "ms");
+    // The tablets it leads try another replica, they come back to it if it's still the leader.
+    for (TabletClient client : getTabletClients()) {
+      if (!client.getUuid().equals(uuid)) {
+        continue;
+      }
+      final ArrayList<RemoteTablet> tablets = client2tablets.get(client);
+      if (tablets == null) {
+        continue;
+      }
+      final List<RemoteTablet> led;
+      synchronized (tablets) {
+        led = new ArrayList<RemoteTablet>(tablets);
+      }
+      for (RemoteTablet tablet : led) {
+        tablet.demoteLeader(client);
+      }
+    }
+    newTimeout(new TimerTask() {
+      @Override
+      public void run(Timeout timeout) {
+        probeServer(uuid, health);
+      }
+    }, health.getEjectionMs());
+  }
+
+  /**
+   * Pings an ejected server once its ejection time is over, it's used again if it answers.
+   */
+  private void probeServer(final String uuid, final ServerHealth health) {
+    final HostAndPort address = health.getAddress();
+    if (closed || address == null || !health.tryStartProbe(System.currentTimeMillis())) {
+      return;
+    }
+    final TabletClient client = newClient(uuid, address.getHost(), address.getPort());
+    final PingRequest ping = new PingRequest();
+    ping.setTimeoutMillis(baseEjectionMs);
+    ping.attempt++;
+    ping.getDeferred().addCallbacks(new Callback<Void, PingResponse>() {
+      @Override
+      public Void call(PingResponse response) {
+        health.recordSuccess();
+        LOG.info("Server " + uuid + " answered its probe, using it again");
+        return null;
+      }
 
-      // If we already know about this one, just refresh the locations
-      RemoteTablet currentTablet = tablet2client.get(tabletId);
-      if (currentTablet != null) {
-        currentTablet.refreshServers(tabletPb);
-        continue;
+      @Override
+      public String toString() {
+        return "reinstate server";
+      }
+    }, new Callback<Void, Exception>() {
+      @Override
+      public Void call(Exception e) {
+        recordServerFailure(uuid, health);
+        return null;
       }
 
-      // Putting it here first doesn't make it visible because tabletsCache is always looked up
-      // first.
-      RemoteTablet oldRt = tablet2client.putIfAbsent(tabletId, rt);
-      if (oldRt != null) {
-        // someone beat us to it
-        continue;
+      @Override
+      public String toString() {
+        return "eject server again";
       }
-      LOG.info("Discovered tablet {} for table {} with partition {}",
-               tabletId.toString(Charset.defaultCharset()), tableName, rt.getPartition());
-      rt.refreshServers(tabletPb);
-      // This is making this tablet available
-      // Even if two clients were racing in this method they are putting the same RemoteTablet
-      // with the same start key in the CSLM in the end
-      tablets.put(rt.getPartition().getPartitionKeyStart(), rt);
-    }
+    });
+    client.sendRpc(ping);
   }
 
-  RemoteTablet createTabletFromPb(String tableId, Master.TabletLocationsPB tabletPb) {
-    Partition partition = ProtobufHelper.pbToPartition(tabletPb.getPartition());
-    Slice tabletId = new Slice(tabletPb.getTabletId().toByteArray());
-    return new RemoteTablet(tableId, tabletId, partition);
+  /**
+   * Get the number of times a server was ejected because it stopped answering RPCs.
+   * @return a number of ejections, 0 if unhealthy servers aren't ejected
+   * @see AsyncYBClientBuilder#ejectUnhealthyServers(int, long)
+   */
+  public long getNumServerEjections() {
+    return numServerEjections.get();
   }
 
   /**
-   * Gives the tablet's ID for the table ID and partition key.
-   * In the future there will be multiple tablets and this method will find the right one.
-   * @param tableId table to find the tablet for
-   * @return a tablet ID as a slice or null if not found
+   * Get the servers currently ejected because they stopped answering RPCs.
+   * @return the uuids of the servers, empty if unhealthy servers aren't ejected
    */
-  RemoteTablet getTablet(String tableId, byte[] partitionKey) {
-    ConcurrentSkipListMap<byte[], RemoteTablet> tablets = tabletsCache.get(tableId);
-
-    if (tablets == null) {
-      return null;
+  public Set<String> getEjectedServers() {
+    Set<String> ejected = new HashSet<String>();
+    for (Map.Entry<String, ServerHealth> entry : serverHealth.entrySet()) {
+      if (entry.getValue().isEjected()) {
+        ejected.add(entry.getKey());
+      }
     }
+    return ejected;
+  }
 
-    // We currently only have one master tablet.
-    if (isMasterTable(tableId)) {
-      if (tablets.firstEntry() == null) {
-        return null;
+  /**
+   * Picks the connection to send an RPC to the server of the given client on.
+   * @param client the client the tablet caches know the server by
+   * @return one of the connections to the server, possibly a new one
+   */
+  private TabletClient stripeFor(TabletClient client) {
+    if (connectionsPerServer == 1) {
+      return client;
+    }
+    final ServerConnections connections = client2stripes.get(client);
+    if (connections == null) {
+      return client;
+    }
+    int index = 0;
+    if (connectionSelectionPolicy == ConnectionSelectionPolicy.ROUND_ROBIN) {
+      index = (nextStripe.getAndIncrement() & Integer.MAX_VALUE) % connectionsPerServer;
+    } else {
+      int fewestInflight = Integer.MAX_VALUE;
+      for (int i = 0; i < connectionsPerServer; i++) {
+        TabletClient stripe = connections.clients.get(i);
+        // A connection we haven't opened yet doesn't have any RPC in flight.
+        int inflight = stripe == null ? 0 : stripe.getNumInflightRpcs();
+        if (inflight < fewestInflight) {
+          fewestInflight = inflight;
+          index = i;
+        }
       }
-      return tablets.firstEntry().getValue();
     }
-
-    Map.Entry<byte[], RemoteTablet> tabletPair = tablets.floorEntry(partitionKey);
-
-    if (tabletPair == null) {
-      return null;
+    TabletClient stripe = connections.clients.get(index);
+    if (index == 0 || (stripe != null && stripe.isAlive())) {
+      return stripe;
     }
+    return newStripe(connections, index, stripe);
+  }
 
-    Partition partition = tabletPair.getValue().getPartition();
-
-    // If the partition is not the end partition, but it doesn't include the key
-    // we are looking for, then we have not yet found the correct tablet.
-    if (!partition.isEndPartition()
-        && Bytes.memcmp(partitionKey, partition.getPartitionKeyEnd()) >= 0) {
-      return null;
+  /**
+   * Opens a new connection in the given slot, unless another thread beat us to it.
+   */
+  private TabletClient newStripe(ServerConnections connections, int index, TabletClient dead) {
+    final TabletClientPipeline pipeline = new TabletClientPipeline();
+    final TabletClient stripe = pipeline.init(connections.uuid, connections.primary);
+    if (!connections.clients.compareAndSet(index, dead, stripe)) {
+      TabletClient current = connections.clients.get(index);
+      return current != null ? current : connections.primary;
     }
-
-    return tabletPair.getValue();
+    connect(channelFactory.newChannel(pipeline), connections.host, connections.port);
+    if (connections.closed) {
+      // The primary connection went away while we were opening this one, closeStripes() may not
+      // have seen it.
+      stripe.disconnect();
+    }
+    return stripe;
   }
 
   /**
-   * Retrieve the master registration (see {@link GetMasterRegistrationResponse}
-   * for a replica.
-   * @param masterClient An initialized client for the master replica.
-   * @return A Deferred object for the master replica's current registration.
+   * Forgets about a striped connection that was disconnected, the next RPC picking its slot
+   * opens a new one.
    */
-  Deferred<GetMasterRegistrationResponse> getMasterRegistration(TabletClient masterClient) {
-    GetMasterRegistrationRequest rpc = new GetMasterRegistrationRequest(masterTable);
-    rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
-    // We don't want retries for this RPC to go to different servers, since we are interested in
-    // the master registration of a specific master server.
-    rpc.setRetrySameServer(true);
-    Deferred<GetMasterRegistrationResponse> d = rpc.getDeferred();
-    rpc.attempt++;
-    masterClient.sendRpc(rpc);
-    return d;
+  private void removeStripe(TabletClient stripe) {
+    final ServerConnections connections = client2stripes.get(stripe.getPrimary());
+    if (connections == null) {
+      return;
+    }
+    for (int i = 1; i < connections.clients.length(); i++) {
+      connections.clients.compareAndSet(i, stripe, null);
+    }
   }
 
   /**
-   * If a live client already exists for the specified master server, returns that client;
-   * otherwise, creates a new client for the specified master server.
-   * @param masterHostPort The RPC host and port for the master server.
-   * @return A live and initialized client for the specified master server.
+   * Closes the striped connections of a client that was disconnected. Their RPCs in flight are
+   * retried, probably on another server.
    */
-  TabletClient newMasterClient(HostAndPort masterHostPort) {
-    String ip = getIP(masterHostPort.getHost());
-    if (ip == null) {
-      return null;
+  private void closeStripes(TabletClient client) {
+    final ServerConnections connections = client2stripes.remove(client);
+    if (connections == null) {
+      return;
+    }
+    connections.closed = true;
+    for (int i = 1; i < connections.clients.length(); i++) {
+      TabletClient stripe = connections.clients.getAndSet(i, null);
+      if (stripe != null) {
+        stripe.disconnect();
+      }
     }
-    // We should pass a UUID here but we have a chicken and egg problem, we first need to
-    // communicate with the masters to find out about them, and that's what we're trying to do.
-    // The UUID is used for logging, so instead we're passing the "master table name" followed by
-    // host and port which is enough to identify the node we're connecting to.
-    return newClient(MASTER_TABLE_NAME_PLACEHOLDER + " - " + masterHostPort.toString(),
-        ip, masterHostPort.getPort());
   }
 
-  // TODO: this is a hack around the current ip2client cache framework that relies on uuids. We
-  // should ideally have something like the Proxy in c++, but until then, we need a way to create
-  // clients that are not explicitly bound to tablets, but tservers/masters for admin-style ops.
-  TabletClient newSimpleClient(final HostAndPort hp) {
-    String uuid = "fakeUUID -> " + hp.toString();
-    return newClient(uuid, hp.getHost(), hp.getPort());
-  }
+  /**
+   * All the connections to a server, the first one being the one the tablet caches know the
+   * server by.
+   */
+  private static final class ServerConnections {
+    final TabletClient primary;
+    final String uuid;
+    final String host;
+    final int port;
+    final AtomicReferenceArray<TabletClient> clients;
+    volatile boolean closed;
+
+    ServerConnections(TabletClient primary, String uuid, String host, int port, int size) {
+      this.primary = primary;
+      this.uuid = uuid;
+      this.host = host;
+      this.port = port;
+      this.clients = new AtomicReferenceArray<TabletClient>(size);
+      this.clients.set(0, primary);
+    }
 
-  TabletClient newClient(String uuid, final String host, final int port) {
-    final String hostport = host + ':' + port;
-    TabletClient client;
-    SocketChannel chan;
-    synchronized (ip2client) {
-      client = ip2client.get(hostport);
-      if (client != null && client.isAlive()) {
-        return client;
+    /**
+     * @return the extra connections currently open, without the primary one
+     */
+    List<TabletClient> getStripes() {
+      List<TabletClient> stripes = new ArrayList<TabletClient>(clients.length() - 1);
+      for (int i = 1; i < clients.length(); i++) {
+        TabletClient stripe = clients.get(i);
+        if (stripe != null) {
+          stripes.add(stripe);
+        }
       }
-      final TabletClientPipeline pipeline = new TabletClientPipeline();
-      client = pipeline.init(uuid);
-      chan = channelFactory.newChannel(pipeline);
-      ip2client.put(hostport, client);  // This is guaranteed to return null.
+      return stripes;
     }
-    this.client2tablets.put(client, new ArrayList<RemoteTablet>());
+  }
+
+  private void connect(SocketChannel chan, String host, int port) {
     final SocketChannelConfig config = chan.getConfig();
     config.setConnectTimeoutMillis(5000);
     config.setTcpNoDelay(true);
@@ -1798,7 +3353,6 @@ public class AsyncYBClient implements AutoCloseable {
     // TCP_KEEPIDLE.  And of course the default timeout is >2h. Sigh.
     config.setKeepAlive(true);
     chan.connect(new InetSocketAddress(host, port));  // Won't block.
-    return client;
   }
 
   /**
@@ -1853,8 +3407,12 @@ public class AsyncYBClient implements AutoCloseable {
     final class ReleaseResourcesCB implements Callback<ArrayList<Void>, ArrayList<Void>> {
       public ArrayList<Void> call(final ArrayList<Void> arg) {
         LOG.debug("Releasing all remaining resources");
-        timer.stop();
-        new ShutdownThread().start();
+        if (ownsTimer) {
+          timer.stop();
+        }
+        if (ownsChannelFactory) {
+          new ShutdownThread().start();
+        }
         return arg;
       }
       public String toString() {
@@ -1890,6 +3448,11 @@ public class AsyncYBClient implements AutoCloseable {
     for (TabletClient ts : ip2client_copy.values()) {
       deferreds.add(ts.shutdown());
     }
+    for (ServerConnections connections : client2stripes.values()) {
+      for (TabletClient stripe : connections.getStripes()) {
+        deferreds.add(stripe.shutdown());
+      }
+    }
     final int size = deferreds.size();
     return Deferred.group(deferreds).addCallback(
         new Callback<ArrayList<Void>, ArrayList<Void>>() {
@@ -2053,7 +3616,15 @@ public class AsyncYBClient implements AutoCloseable {
     private boolean disconnected = false;
 
     TabletClient init(String uuid) {
-      final TabletClient client = new TabletClient(AsyncYBClient.this, uuid);
+      return init(uuid, null);
+    }
+
+    /**
+     * @param primary the client the tablet caches know the server by if this is one of its
+     *                striped connections, else null
+     */
+    TabletClient init(String uuid, TabletClient primary) {
+      final TabletClient client = new TabletClient(AsyncYBClient.this, uuid, primary);
       if (certFile != null) {
         SslHandler sslHandler = this.createSslHandler(certFile);
         if (sslHandler != null) {
@@ -2146,6 +3717,11 @@ public class AsyncYBClient implements AutoCloseable {
       disconnected = true;  // So we don't clean up the same client twice.
       try {
         final TabletClient client = super.get(TabletClient.class);
+        if (client.isStripe()) {
+          // Striped connections aren't in the caches.
+          removeStripe(client);
+          return;
+        }
         SocketAddress remote = super.getChannel().getRemoteAddress();
         // At this point Netty gives us no easy way to access the
         // SocketAddress of the peer we tried to connect to. This
@@ -2159,6 +3735,8 @@ public class AsyncYBClient implements AutoCloseable {
         synchronized (client) {
           removeClientFromCache(client, remote);
         }
+        closeStripes(client);
+        forgetMasterLeaderAt(remote);
       } catch (Exception e) {
         log.error("Uncaught exception when handling a disconnection of " + getChannel(), e);
       }
@@ -2214,15 +3792,20 @@ public class AsyncYBClient implements AutoCloseable {
     return port;
   }
 
-  void newTimeout(final TimerTask task, final long timeout_ms) {
+  /**
+   * Schedules a task on the client's timer.
+   * @return the handle to cancel the task with, null if it couldn't be scheduled
+   */
+  Timeout newTimeout(final TimerTask task, final long timeout_ms) {
     try {
-      timer.newTimeout(task, timeout_ms, MILLISECONDS);
+      return timer.newTimeout(task, timeout_ms, MILLISECONDS);
     } catch (IllegalStateException e) {
       // This can happen if the timer fires just before shutdown()
       // is called from another thread, and due to how threads get
       // scheduled we tried to call newTimeout() after timer.stop().
       LOG.warn("Failed to schedule timer."
           + "  Ignore this if we're shutting down.", e);
+      return null;
     }
   }
 
@@ -2259,6 +3842,9 @@ public class AsyncYBClient implements AutoCloseable {
     private final String tableId;
     private final Slice tabletId;
     private final ArrayList<TabletClient> tabletServers = new ArrayList<TabletClient>();
+    // Placement of each of the tabletServers, guarded by tabletServers.
+    private final HashMap<TabletClient, Common.CloudInfoPB> placements =
+        new HashMap<TabletClient, Common.CloudInfoPB>();
     private final Partition partition;
     private int leaderIndex = NO_LEADER_INDEX;
 
@@ -2272,6 +3858,7 @@ public class AsyncYBClient implements AutoCloseable {
 
       synchronized (tabletServers) { // TODO not a fat lock with IP resolving in it
         tabletServers.clear();
+        placements.clear();
         leaderIndex = NO_LEADER_INDEX;
         List<UnknownHostException> lookupExceptions =
             new ArrayList<>(tabletLocations.getReplicasCount());
@@ -2292,7 +3879,8 @@ public class AsyncYBClient implements AutoCloseable {
           // based on some kind of policy. For now just use the first always.
           try {
             addTabletClient(uuid, addresses.get(0).getHost(), addresses.get(0).getPort(),
-                replica.getRole().equals(Metadata.RaftPeerPB.Role.LEADER));
+                replica.getRole().equals(Metadata.RaftPeerPB.Role.LEADER),
+                replica.getTsInfo().getCloudInfo());
           } catch (UnknownHostException ex) {
             lookupExceptions.add(ex);
           }
@@ -2313,8 +3901,8 @@ public class AsyncYBClient implements AutoCloseable {
     }
 
     // Must be called with tabletServers synchronized
-    void addTabletClient(String uuid, String host, int port, boolean isLeader)
-        throws UnknownHostException {
+    void addTabletClient(String uuid, String host, int port, boolean isLeader,
+                         Common.CloudInfoPB placement) throws UnknownHostException {
       String ip = getIP(host);
       if (ip == null) {
         throw new UnknownHostException("Failed to resolve the IP of `" + host + "'");
@@ -2326,7 +3914,7 @@ public class AsyncYBClient implements AutoCloseable {
       if (tablets == null) {
         // We raced with removeClientFromCache and lost. The client we got was just disconnected.
         // Reconnect.
-        addTabletClient(uuid, host, port, isLeader);
+        addTabletClient(uuid, host, port, isLeader, placement);
       } else {
         synchronized (tablets) {
           if (isLeader) {
@@ -2334,6 +3922,7 @@ public class AsyncYBClient implements AutoCloseable {
           } else {
             tabletServers.add(client);
           }
+          placements.put(client, placement);
           tablets.add(this);
         }
       }
@@ -2359,6 +3948,7 @@ public class AsyncYBClient implements AutoCloseable {
         }
 
         tabletServers.remove(index);
+        placements.remove(ts);
         if (leaderIndex == index && leaderIndex == tabletServers.size()) {
           leaderIndex = NO_LEADER_INDEX;
         } else if (leaderIndex > index) {
@@ -2395,6 +3985,71 @@ public class AsyncYBClient implements AutoCloseable {
       }
     }
 
+    /**
+     * Tells whether we know a leader for this tablet that isn't the passed TabletClient.
+     * @param ts A TabletClient serving this tablet.
+     * @return True if another replica is considered the leader, else false.
+     */
+    boolean hasLeaderOtherThan(TabletClient ts) {
+      synchronized (tabletServers) {
+        return leaderIndex != NO_LEADER_INDEX && tabletServers.get(leaderIndex) != ts;
+      }
+    }
+
+    /**
+     * Tells whether the passed TabletClient is currently considered this tablet's leader.
+     * @param ts A TabletClient serving this tablet.
+     * @return True if ts is the leader, else false.
+     */
+    boolean isLeader(TabletClient ts) {
+      synchronized (tabletServers) {
+        return leaderIndex != NO_LEADER_INDEX && tabletServers.get(leaderIndex) == ts;
+      }
+    }
+
+    // Must be called with tabletServers synchronized and a known leader.
+    TabletClient getClosestReplica(Common.CloudInfoPB clientPlacement) {
+      TabletClient leader = tabletServers.get(leaderIndex);
+      if (clientPlacement == null) {
+        return leader;
+      }
+      TabletClient closest = leader;
+      int closestProximity = getProximity(clientPlacement, placements.get(leader));
+      for (TabletClient ts : tabletServers) {
+        if (isEjected(ts)) {
+          continue;
+        }
+        int proximity = getProximity(clientPlacement, placements.get(ts));
+        if (isEjected(closest) || proximity > closestProximity ||
+            (proximity == closestProximity && closest != leader &&
+             isFaster(ts, closest))) {
+          closest = ts;
+          closestProximity = proximity;
+        }
+      }
+      return closest;
+    }
+
+    // Must be called with tabletServers synchronized and a known leader.
+    TabletClient getLowestLatencyReplica() {
+      TabletClient fastest = tabletServers.get(leaderIndex);
+      for (TabletClient ts : tabletServers) {
+        if (!isEjected(ts) && (isEjected(fastest) || isFaster(ts, fastest))) {
+          fastest = ts;
+        }
+      }
+      return fastest;
+    }
+
+    /**
+     * Compares the latency of two replicas, a replica without any latency sample is never faster.
+     */
+    private boolean isFaster(TabletClient ts, TabletClient other) {
+      long latency = ts.getLatencyEwmaNanos();
+      long otherLatency = other.getLatencyEwmaNanos();
+      return latency != 0 && (otherLatency == 0 || latency < otherLatency);
+    }
+
     public String getTableId() {
       return tableId;
     }
@@ -2455,6 +4110,25 @@ public class AsyncYBClient implements AutoCloseable {
     }
   }
 
+  /**
+   * Returns how close a replica is to the client: 3 when in the same zone, 2 when in the same
+   * region, 1 when in the same cloud and 0 otherwise.
+   */
+  @VisibleForTesting
+  static int getProximity(Common.CloudInfoPB clientPlacement, Common.CloudInfoPB placement) {
+    if (placement == null ||
+        !placement.getPlacementCloud().equals(clientPlacement.getPlacementCloud())) {
+      return 0;
+    }
+    if (!placement.getPlacementRegion().equals(clientPlacement.getPlacementRegion())) {
+      return 1;
+    }
+    if (!placement.getPlacementZone().equals(clientPlacement.getPlacementZone())) {
+      return 2;
+    }
+    return 3;
+  }
+
   /**
    * Builder class to use in order to connect to YB.
    * All the parameters beyond those in the constructors are optional.
@@ -2471,10 +4145,33 @@ public class AsyncYBClient implements AutoCloseable {
 
     private String certFile = null;
 
+    private Common.CloudInfoPB clientPlacement = null;
+    private int tabletLocationsPrefetchCount = 0;
+    private RetryPolicy retryPolicy = new DecorrelatedJitterRetryPolicy();
+    private double retryBudgetPerSecond = 0;
+    private int connectionsPerServer = 1;
+    private boolean directRequestBuffers = false;
+    private long writeCoalescingWindowMs = 0;
+    private int writeCoalescingMaxBytes = 0;
+    private int tableMetadataCacheSize = 0;
+    private int concurrencyLimitInitial = 0;
+    private int concurrencyLimitMax = 0;
+    private int concurrencyLimitMaxQueued = 0;
+    private long tableMetadataCacheTtlMs = 0;
+    private double masterHedgeQuantile = 0;
+    private long masterHedgeMinDelayMs = 0;
+    private int ejectionFailureThreshold = 0;
+    private long baseEjectionMs = 0;
+    private ConnectionSelectionPolicy connectionSelectionPolicy =
+        ConnectionSelectionPolicy.ROUND_ROBIN;
+    private int retryBudgetBurst = 0;
+
     private Executor bossExecutor;
     private Executor workerExecutor;
     private int bossCount = DEFAULT_BOSS_COUNT;
     private int workerCount = DEFAULT_WORKER_COUNT;
+    private ClientSocketChannelFactory channelFactory;
+    private HashedWheelTimer timer;
 
     /**
      * Creates a new builder for a client that will connect to the specified masters.
@@ -2563,6 +4260,216 @@ public class AsyncYBClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Sets the placement of the client, used by the RPCs that set
+     * {@link ReplicaSelectionPolicy#CLOSEST_REPLICA} through
+     * {@link YRpc#setReplicaSelectionPolicy}.
+     * Optional.
+     * If not provided, the closest replica is always the leader.
+     * @param cloud the cloud the client runs in
+     * @param region the region the client runs in
+     * @param zone the zone the client runs in
+     * @return this builder
+     */
+    public AsyncYBClientBuilder placement(String cloud, String region, String zone) {
+      this.clientPlacement = Common.CloudInfoPB.newBuilder()
+          .setPlacementCloud(cloud)
+          .setPlacementRegion(region)
+          .setPlacementZone(zone)
+          .build();
+      return this;
+    }
+
+    /**
+     * Sets how many tablet locations to fetch from the master when looking up a tablet. The
+     * tablets following the one we're looking for are cached as well.
+     * Optional.
+     * If not provided, the master's default is used.
+     * @param count a number of tablets, 0 to use the master's default
+     * @return this builder
+     */
+    public AsyncYBClientBuilder tabletLocationsPrefetchCount(int count) {
+      Preconditions.checkArgument(count >= 0, "count should not be negative");
+      this.tabletLocationsPrefetchCount = count;
+      return this;
+    }
+
+    /**
+     * Sets how many connections to open to each server. RPCs to a server are spread over its
+     * connections, so that their responses are decoded by several IO threads.
+     * Optional.
+     * If not provided, a single connection is opened to each server.
+     * @param count a number of connections
+     * @param policy how to pick the connection an RPC is sent on
+     * @return this builder
+     */
+    public AsyncYBClientBuilder connectionsPerServer(int count, ConnectionSelectionPolicy policy) {
+      Preconditions.checkArgument(count > 0, "count must be positive");
+      Preconditions.checkNotNull(policy, "policy should not be null");
+      this.connectionsPerServer = count;
+      this.connectionSelectionPolicy = policy;
+      return this;
+    }
+
+    /**
+     * Serializes requests into direct buffers carved out of preallocated chunks, which the socket
+     * can write without copying them first, instead of a new heap buffer per request. Requests
+     * are still encoded into a per-thread scratch array and copied into the direct buffer once.
+     * Optional.
+     * If not provided, requests are serialized into heap buffers.
+     * @param direct whether to use direct buffers
+     * @return this builder
+     */
+    public AsyncYBClientBuilder directRequestBuffers(boolean direct) {
+      this.directRequestBuffers = direct;
+      return this;
+    }
+
+    /**
+     * Gathers the RPCs sent to the same connection into batches that are written at once, which
+     * saves syscalls when a lot of small RPCs go to the same server. A batch is written once it
+     * reaches the byte threshold or when the window expires, whichever comes first.
+     * Optional.
+     * If not provided, every RPC is written on its own.
+     * @param windowMs how long to wait for more RPCs after the first one of a batch, 0 to only
+     *                 wait for the RPCs sent while the connection's IO thread is busy. The
+     *                 client's timer has a 20ms resolution.
+     * @param maxBatchBytes size of a batch after which it's written right away
+     * @return this builder
+     */
+    public AsyncYBClientBuilder writeCoalescing(long windowMs, int maxBatchBytes) {
+      Preconditions.checkArgument(windowMs >= 0, "windowMs should not be negative");
+      Preconditions.checkArgument(maxBatchBytes > 0, "maxBatchBytes must be positive");
+      this.writeCoalescingWindowMs = windowMs;
+      this.writeCoalescingMaxBytes = maxBatchBytes;
+      return this;
+    }
+
+    /**
+     * Limits how many RPCs can be in flight to each server. The limit adapts to the latency of
+     * the server: it grows while the latency stays close to the lowest latency seen and shrinks
+     * when it rises, so that a server that slows down gets less load instead of more. RPCs over
+     * the limit wait in a bounded queue, once it is full they fail right away with a
+     * {@link PleaseThrottleException}.
+     * Optional.
+     * If not provided, the RPCs in flight are not limited.
+     * @param initialLimit how many RPCs can be in flight to a server we know nothing about yet
+     * @param maxLimit the highest the limit can grow to
+     * @param maxQueued how many RPCs can wait for each server
+     * @return this builder
+     */
+    public AsyncYBClientBuilder adaptiveConcurrencyLimit(int initialLimit, int maxLimit,
+                                                         int maxQueued) {
+      Preconditions.checkArgument(initialLimit > 0, "initialLimit must be positive");
+      Preconditions.checkArgument(maxLimit >= initialLimit,
+                                  "maxLimit must be at least initialLimit");
+      Preconditions.checkArgument(maxQueued >= 0, "maxQueued should not be negative");
+      this.concurrencyLimitInitial = initialLimit;
+      this.concurrencyLimitMax = maxLimit;
+      this.concurrencyLimitMaxQueued = maxQueued;
+      return this;
+    }
+
+    /**
+     * Caches the schemas of the tables opened through this client, so that opening the same
+     * table again doesn't go to the master. Tables altered or deleted through this client are
+     * dropped from the cache, tables altered by others are picked up when their entry expires.
+     * Optional.
+     * If not provided, every open goes to the master.
+     * @param maxEntries how many table names and ids to cache, each table takes up to three
+     * @param ttlMs how long a cached schema is used before it's fetched again
+     * @return this builder
+     */
+    public AsyncYBClientBuilder tableMetadataCache(int maxEntries, long ttlMs) {
+      Preconditions.checkArgument(maxEntries > 0, "maxEntries must be positive");
+      Preconditions.checkArgument(ttlMs > 0, "ttlMs must be positive");
+      this.tableMetadataCacheSize = maxEntries;
+      this.tableMetadataCacheTtlMs = ttlMs;
+      return this;
+    }
+
+    /**
+     * Sends read-only master RPCs, like listing the tables or getting a table schema, a second
+     * time when they take longer than usual to answer, so that a stall of the master leader
+     * (GC pause, slow disk) doesn't stall the caller. The first answer is used, the other RPC is
+     * cancelled. The delay before sending the second RPC is the given quantile of the latencies
+     * seen for that RPC, but no less than minDelayMs, so roughly 1 - quantile of the RPCs are
+     * hedged.
+     * The master followers don't serve these reads, so the second RPC also goes to the leader, on
+     * the connection the connection selection policy picks: this needs
+     * {@link #connectionsPerServer} to be more than 1, as a hedge sent behind the stalled RPC on
+     * the same connection would stall with it. LEAST_INFLIGHT is the policy least likely to pick
+     * the connection of the stalled RPC.
+     * Optional.
+     * If not provided, master RPCs are never hedged.
+     * @param quantile the quantile of the latencies to wait for, e.g. 0.95
+     * @param minDelayMs the shortest delay, also used until enough latencies were seen
+     * @return this builder
+     */
+    public AsyncYBClientBuilder hedgeMasterReads(double quantile, long minDelayMs) {
+      Preconditions.checkArgument(quantile > 0 && quantile < 1,
+                                  "quantile must be between 0 and 1");
+      Preconditions.checkArgument(minDelayMs > 0, "minDelayMs must be positive");
+      this.masterHedgeQuantile = quantile;
+      this.masterHedgeMinDelayMs = minDelayMs;
+      return this;
+    }
+
+    /**
+     * Tracks whether each server answers the RPCs sent to it, and ejects the servers that stop
+     * answering: after the given number of consecutive failures (a connection reset or read
+     * timeout with RPCs in flight, counted once however many RPCs it dropped, or an answer more
+     * than ten times slower than the same method usually is on that server, long polls aside),
+     * RPCs that can pick their replica avoid the server and
+     * the tablets it leads look for another leader. Once the ejection time is over the server is
+     * pinged, and used again if it answers. If it doesn't, it's ejected for twice as long, up to
+     * 16 times ejectionMs.
+     * Optional.
+     * If not provided, servers are never ejected.
+     * @param failureThreshold how many consecutive failures eject a server
+     * @param ejectionMs how long a server is ejected the first time, also the timeout of pings
+     * @return this builder
+     */
+    public AsyncYBClientBuilder ejectUnhealthyServers(int failureThreshold, long ejectionMs) {
+      Preconditions.checkArgument(failureThreshold > 0, "failureThreshold must be positive");
+      Preconditions.checkArgument(ejectionMs > 0, "ejectionMs must be positive");
+      this.ejectionFailureThreshold = failureThreshold;
+      this.baseEjectionMs = ejectionMs;
+      return this;
+    }
+
+    /**
+     * Sets the policy deciding how long to wait before retrying an RPC.
+     * Optional.
+     * If not provided, defaults to a {@link DecorrelatedJitterRetryPolicy} with its default
+     * delays, between 20ms and 5s. Clients used to wait 500ms times the number of attempts,
+     * plus up to 50ms, and a policy doing so can be set here to keep the former delays.
+     * @param policy the retry policy
+     * @return this builder
+     */
+    public AsyncYBClientBuilder retryPolicy(RetryPolicy policy) {
+      Preconditions.checkNotNull(policy, "policy should not be null");
+      this.retryPolicy = policy;
+      return this;
+    }
+
+    /**
+     * Limits how many times the client retries RPCs, shared by all the RPCs of the client. Once
+     * the budget is exhausted, RPCs that would have been retried fail right away.
+     * Optional.
+     * If not provided, retries are only limited by the attempts and deadline of each RPC.
+     * @param retriesPerSecond how many retries per second are allowed in the long run
+     * @param burst how many retries can be done in a burst
+     * @return this builder
+     */
+    public AsyncYBClientBuilder retryBudget(double retriesPerSecond, int burst) {
+      Preconditions.checkArgument(retriesPerSecond > 0, "retriesPerSecond must be positive");
+      Preconditions.checkArgument(burst > 0, "burst must be positive");
+      this.retryBudgetPerSecond = retriesPerSecond;
+      this.retryBudgetBurst = burst;
+      return this;
+    }
+
     /**
      * Set the executors which will be used for the embedded Netty boss and workers.
      * Optional.
@@ -2600,6 +4507,33 @@ public class AsyncYBClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Set the Netty channel factory used to connect to the servers, to share its boss and worker
+     * threads between several clients. The client doesn't release it when it shuts down, the
+     * caller does once all the clients using it are closed.
+     * Optional.
+     * If not provided, the client creates its own, see {@link #nioExecutors}, {@link #bossCount}
+     * and {@link #workerCount}.
+     */
+    public AsyncYBClientBuilder channelFactory(ClientSocketChannelFactory channelFactory) {
+      Preconditions.checkNotNull(channelFactory, "channelFactory should not be null");
+      this.channelFactory = channelFactory;
+      return this;
+    }
+
+    /**
+     * Set the timer used for retries and read timeouts, to share its thread between several
+     * clients. The client doesn't stop it when it shuts down, the caller does once all the
+     * clients using it are closed.
+     * Optional.
+     * If not provided, the client creates its own with a 20ms tick.
+     */
+    public AsyncYBClientBuilder timer(HashedWheelTimer timer) {
+      Preconditions.checkNotNull(timer, "timer should not be null");
+      this.timer = timer;
+      return this;
+    }
+
     /**
      * Creates the channel factory for Netty. The user can specify the executors, but
      * if they don't, we'll use a simple thread pool.
@@ -2625,6 +4559,8 @@ public class AsyncYBClient implements AutoCloseable {
      * @return a new asynchronous YB client
      */
     public AsyncYBClient build() {
+      Preconditions.checkState(masterHedgeQuantile == 0 || connectionsPerServer > 1,
+                               "hedgeMasterReads needs more than one connection per server");
       return new AsyncYBClient(this);
     }
   }
@@ -0,0 +1,241 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableMap;
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * The metrics of an {@link AsyncYBClient}: RPC latencies, attempts and errors for every RPC
+ * method, retries, tablet and table caches, master lookups and the bytes exchanged with every
+ * server. Everything is recorded with atomic counters, nothing is locked on the RPC path.
+ * <p>
+ * This doesn't depend on any metrics library. To publish the metrics in a Dropwizard or
+ * Prometheus registry, implement a {@link Visitor} that maps each metric to the registry's own
+ * type, and call {@link #visit} whenever the registry is scraped or reported, e.g. from a
+ * Prometheus {@code Collector} or a Dropwizard {@code MetricSet}.
+ * @see AsyncYBClient#getMetrics()
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class ClientMetrics {
+
+  /**
+   * Receives the current value of every metric from {@link ClientMetrics#visit}. Names are
+   * lowercase with underscores and prefixed with {@code yb_client_}, labels tell apart the
+   * values of the same metric.
+   */
+  @InterfaceAudience.Public
+  @InterfaceStability.Evolving
+  public interface Visitor {
+    /**
+     * A value that only goes up, unless the client reconnects to the server it is about.
+     */
+    void counter(String name, Map<String, String> labels, long value);
+
+    /**
+     * A value that can go up and down.
+     */
+    void gauge(String name, Map<String, String> labels, double value);
+
+    /**
+     * A distribution of latencies in microseconds.
+     */
+    void histogram(String name, Map<String, String> labels, LatencyHistogram.Snapshot snapshot);
+  }
+
+  /**
+   * The metrics of one RPC method, over all servers.
+   */
+  static final class MethodMetrics {
+    final LatencyHistogram latency = new LatencyHistogram();
+    final AtomicLong numAttempts = new AtomicLong();
+    final AtomicLong numErrors = new AtomicLong();
+
+    void recordResponse(long latencyNanos, boolean error) {
+      latency.record(latencyNanos);
+      if (error) {
+        numErrors.incrementAndGet();
+      }
+    }
+  }
+
+  private final AsyncYBClient client;
+
+  // Service name to method name to metrics. The names come from constants in the RPCs, so there
+  // are only a handful of them.
+  private final ConcurrentMap<String, ConcurrentMap<String, MethodMetrics>> methods =
+      new ConcurrentHashMap<>();
+
+  private final AtomicLong numTabletCacheHits = new AtomicLong();
+  private final AtomicLong numTabletCacheMisses = new AtomicLong();
+
+  ClientMetrics(AsyncYBClient client) {
+    this.client = client;
+  }
+
+  /**
+   * @return the metrics of the given RPC method, created if needed
+   */
+  MethodMetrics forMethod(String service, String method) {
+    ConcurrentMap<String, MethodMetrics> serviceMethods = methods.get(service);
+    if (serviceMethods == null) {
+      serviceMethods = new ConcurrentHashMap<>();
+      ConcurrentMap<String, MethodMetrics> existing = methods.putIfAbsent(service, serviceMethods);
+      if (existing != null) {
+        serviceMethods = existing;
+      }
+    }
+    MethodMetrics metrics = serviceMethods.get(method);
+    if (metrics == null) {
+      metrics = new MethodMetrics();
+      MethodMetrics existing = serviceMethods.putIfAbsent(method, metrics);
+      if (existing != null) {
+        metrics = existing;
+      }
+    }
+    return metrics;
+  }
+
+  void recordTabletCacheLookup(boolean hit) {
+    if (hit) {
+      numTabletCacheHits.incrementAndGet();
+    } else {
+      numTabletCacheMisses.incrementAndGet();
+    }
+  }
+
+  /**
+   * Gets the latencies of an RPC method, from the time each attempt was sent until its response
+   * was received.
+   * @param service the RPC service, e.g. {@code yb.tserver.TabletServerService}
+   * @param method the RPC method, e.g. {@code Write}
+   * @return the latencies, null if the method was never called
+   */
+  public LatencyHistogram getLatencyHistogram(String service, String method) {
+    MethodMetrics metrics = getMethodMetrics(service, method);
+    return metrics == null ? null : metrics.latency;
+  }
+
+  /**
+   * Gets how many times an RPC method was sent, retries included.
+   * @return a number of attempts, 0 if the method was never called
+   */
+  public long getNumAttempts(String service, String method) {
+    MethodMetrics metrics = getMethodMetrics(service, method);
+    return metrics == null ? 0 : metrics.numAttempts.get();
+  }
+
+  /**
+   * Gets how many responses of an RPC method carried an error, retryable or not.
+   * @return a number of responses, 0 if the method was never called
+   */
+  public long getNumErrors(String service, String method) {
+    MethodMetrics metrics = getMethodMetrics(service, method);
+    return metrics == null ? 0 : metrics.numErrors.get();
+  }
+
+  /**
+   * @return the number of RPCs that found their tablet in the client's cache
+   */
+  public long getNumTabletCacheHits() {
+    return numTabletCacheHits.get();
+  }
+
+  /**
+   * @return the number of RPCs that had to locate their tablet first
+   */
+  public long getNumTabletCacheMisses() {
+    return numTabletCacheMisses.get();
+  }
+
+  /**
+   * @return the fraction of RPCs that found their tablet in the cache, 0 if none was sent
+   */
+  public double getTabletCacheHitRate() {
+    long hits = numTabletCacheHits.get();
+    long total = hits + numTabletCacheMisses.get();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  private MethodMetrics getMethodMetrics(String service, String method) {
+    ConcurrentMap<String, MethodMetrics> serviceMethods = methods.get(service);
+    return serviceMethods == null ? null : serviceMethods.get(method);
+  }
+
+  /**
+   * Hands the current value of every metric to the visitor, from the calling thread.
+   * @param visitor what to give the metrics to
+   */
+  public void visit(Visitor visitor) {
+    final Map<String, String> none = Collections.emptyMap();
+
+    for (Map.Entry<String, ConcurrentMap<String, MethodMetrics>> service : methods.entrySet()) {
+      for (Map.Entry<String, MethodMetrics> method : service.getValue().entrySet()) {
+        Map<String, String> labels = ImmutableMap.of("service", service.getKey(),
+                                                     "method", method.getKey());
+        MethodMetrics metrics = method.getValue();
+        visitor.histogram("yb_client_rpc_latency_micros", labels, metrics.latency.snapshot());
+        visitor.counter("yb_client_rpc_attempts", labels, metrics.numAttempts.get());
+        visitor.counter("yb_client_rpc_errors", labels, metrics.numErrors.get());
+      }
+    }
+
+    for (RetryReason reason : RetryReason.values()) {
+      visitor.counter("yb_client_rpc_retries",
+                      Collections.singletonMap("reason", reason.name().toLowerCase()),
+                      client.getNumRetries(reason));
+    }
+    visitor.counter("yb_client_rpc_retries_rejected_by_budget", none,
+                    client.getNumRetriesRejectedByBudget());
+    visitor.counter("yb_client_rpcs_rejected_by_concurrency_limit", none,
+                    client.getNumRpcsRejectedByConcurrencyLimit());
+
+    visitor.counter("yb_client_tablet_cache_hits", none, getNumTabletCacheHits());
+    visitor.counter("yb_client_tablet_cache_misses", none, getNumTabletCacheMisses());
+    visitor.counter("yb_client_table_metadata_cache_hits", none,
+                    client.getNumTableMetadataCacheHits());
+    visitor.counter("yb_client_table_metadata_cache_misses", none,
+                    client.getNumTableMetadataCacheMisses());
+    visitor.counter("yb_client_master_lookups", none, client.getNumMasterLookups());
+    visitor.counter("yb_client_coalesced_master_lookups", none,
+                    client.getNumCoalescedMasterLookups());
+    visitor.counter("yb_client_master_leader_refreshes", none,
+                    client.getNumMasterLeaderRefreshes());
+    visitor.counter("yb_client_hedgeable_master_reads", none,
+                    client.getNumHedgeableMasterReads());
+    visitor.counter("yb_client_master_hedges", none, client.getNumMasterHedges());
+    visitor.counter("yb_client_master_hedge_wins", none, client.getNumMasterHedgeWins());
+    visitor.counter("yb_client_server_ejections", none, client.getNumServerEjections());
+    visitor.gauge("yb_client_ejected_servers", none, client.getEjectedServers().size());
+
+    for (Map.Entry<String, TabletClient> server : client.getTabletClientsByAddress().entrySet()) {
+      Map<String, String> labels = Collections.singletonMap("server", server.getKey());
+      TabletClient connection = server.getValue();
+      visitor.counter("yb_client_bytes_sent", labels, connection.getNumBytesSent());
+      visitor.counter("yb_client_bytes_received", labels, connection.getNumBytesReceived());
+      int limit = connection.getConcurrencyLimit();
+      if (limit > 0) {
+        visitor.gauge("yb_client_concurrency_limit", labels, limit);
+      }
+    }
+  }
+}
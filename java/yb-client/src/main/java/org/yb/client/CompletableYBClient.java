@@ -0,0 +1,308 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import static org.yb.client.DeferredFutures.toCompletableFuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import com.google.common.net.HostAndPort;
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+import org.yb.master.Master;
+
+/**
+ * A {@link CompletableFuture} flavored view of an {@link AsyncYBClient}.
+ * <p>
+ * Every call sends the same RPC as the {@link AsyncYBClient} method of the same name and returns
+ * right away. Unlike {@link YBClient}, no thread waits for the response: the returned future is
+ * completed from the callbacks of the underlying {@link com.stumbleupon.async.Deferred}, so a
+ * handful of threads can drive thousands of concurrent admin calls.
+ * <p>
+ * The futures are completed on Netty I/O threads. Stages that block must be added with one of
+ * the {@code *Async} methods of {@link CompletionStage}.
+ * <p>
+ * Cancelling a future returned by a method that sends a single RPC to a server, like
+ * {@link #getChanges}, cancels that RPC: it's not retried anymore and its response is ignored.
+ * <p>
+ * This class is thread-safe. It doesn't own the {@link AsyncYBClient}, closing it is up to the
+ * caller.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class CompletableYBClient {
+
+  // Same as YBClient, the number of retries on retriable errors.
+  private static final int MAX_NUM_RETRIES = 25;
+
+  private final AsyncYBClient asyncClient;
+
+  public CompletableYBClient(AsyncYBClient asyncClient) {
+    this.asyncClient = asyncClient;
+  }
+
+  /**
+   * @return the underlying async client
+   */
+  public AsyncYBClient getAsyncClient() {
+    return asyncClient;
+  }
+
+  /**
+   * Get the list of running tablet servers.
+   * @return a future that yields a list of tablet servers
+   */
+  public CompletableFuture<ListTabletServersResponse> listTabletServers() {
+    return toCompletableFuture(asyncClient.listTabletServers());
+  }
+
+  /**
+   * Get the list of all the masters.
+   * @return a future that yields a list of masters
+   */
+  public CompletableFuture<ListMastersResponse> listMasters() {
+    return toCompletableFuture(asyncClient.listMasters());
+  }
+
+  /**
+   * Get the current cluster configuration.
+   * @return a future that yields the cluster configuration
+   */
+  public CompletableFuture<GetMasterClusterConfigResponse> getMasterClusterConfig() {
+    return toCompletableFuture(asyncClient.getMasterClusterConfig());
+  }
+
+  /**
+   * Change the current cluster configuration.
+   * @param config the new config to set on the cluster
+   * @return a future that yields the response to the config change
+   */
+  public CompletableFuture<ChangeMasterClusterConfigResponse> changeMasterClusterConfig(
+      Master.SysClusterConfigEntryPB config) {
+    return toCompletableFuture(asyncClient.changeMasterClusterConfig(config));
+  }
+
+  /**
+   * Change the load balancer state.
+   * @param isEnable if true, load balancer is enabled on master, else is disabled
+   * @return a future that yields the response of the operation
+   */
+  public CompletableFuture<ChangeLoadBalancerStateResponse> changeLoadBalancerState(
+      boolean isEnable) {
+    return toCompletableFuture(asyncClient.changeLoadBalancerState(isEnable));
+  }
+
+  /**
+   * Get the tablet load move completion percentage for blacklisted nodes, if any. Responses with
+   * a retriable error are retried like {@link YBClient#getLoadMoveCompletion()} does.
+   * @return a future that yields the move completion info
+   */
+  public CompletableFuture<GetLoadMovePercentResponse> getLoadMoveCompletion() {
+    return retryLoadMovePercent(false, 0);
+  }
+
+  /**
+   * Get the leader load move completion percentage for blacklisted nodes, if any. Responses with
+   * a retriable error are retried like {@link YBClient#getLeaderBlacklistCompletion()} does.
+   * @return a future that yields the move completion info
+   */
+  public CompletableFuture<GetLoadMovePercentResponse> getLeaderBlacklistCompletion() {
+    return retryLoadMovePercent(true, 0);
+  }
+
+  /**
+   * Check if the tablet load is balanced as per the master leader.
+   * @param numServers expected number of servers across which the load needs to balanced
+   * @return a future that yields if the load is balanced
+   */
+  public CompletableFuture<IsLoadBalancedResponse> getIsLoadBalanced(int numServers) {
+    return toCompletableFuture(asyncClient.getIsLoadBalanced(numServers));
+  }
+
+  /**
+   * Check if the load balancer is idle as per the master leader.
+   * @return a future that yields if the load balancer is idle
+   */
+  public CompletableFuture<IsLoadBalancerIdleResponse> getIsLoadBalancerIdle() {
+    return toCompletableFuture(asyncClient.getIsLoadBalancerIdle());
+  }
+
+  /**
+   * Check if the tablet leader load is balanced as per the master leader.
+   * @return a future that yields if the leader load is balanced
+   */
+  public CompletableFuture<AreLeadersOnPreferredOnlyResponse> getAreLeadersOnPreferredOnly() {
+    return toCompletableFuture(asyncClient.getAreLeadersOnPreferredOnly());
+  }
+
+  /**
+   * Check if initdb executed by the master is done running.
+   * @return a future that yields the initdb status
+   */
+  public CompletableFuture<IsInitDbDoneResponse> getIsInitDbDone() {
+    return toCompletableFuture(asyncClient.getIsInitDbDone());
+  }
+
+  /**
+   * Get the list of all the tables.
+   * @return a future that yields the list of tables
+   */
+  public CompletableFuture<ListTablesResponse> getTablesList() {
+    return toCompletableFuture(asyncClient.getTablesList());
+  }
+
+  /**
+   * Get the list of tables whose name contains the given filter.
+   * @param nameFilter a string to filter the table names with, or null to get all the tables
+   * @return a future that yields the list of tables
+   */
+  public CompletableFuture<ListTablesResponse> getTablesList(String nameFilter) {
+    return toCompletableFuture(asyncClient.getTablesList(nameFilter));
+  }
+
+  /**
+   * Get the schema of a table.
+   * @param keyspace the keyspace of the table
+   * @param name the name of the table
+   * @return a future that yields the table schema
+   */
+  public CompletableFuture<GetTableSchemaResponse> getTableSchema(String keyspace, String name) {
+    return toCompletableFuture(asyncClient.getTableSchema(keyspace, name));
+  }
+
+  /**
+   * Test if a table exists.
+   * @param keyspace the keyspace of the table
+   * @param name the name of the table
+   * @return a future that yields true if the table exists
+   */
+  public CompletableFuture<Boolean> tableExists(String keyspace, String name) {
+    return toCompletableFuture(asyncClient.tableExists(keyspace, name));
+  }
+
+  /**
+   * Open the table with the given name.
+   * @param keyspace the keyspace of the table
+   * @param name the name of the table
+   * @return a future that yields the table
+   */
+  public CompletableFuture<YBTable> openTable(String keyspace, String name) {
+    return toCompletableFuture(asyncClient.openTable(keyspace, name));
+  }
+
+  /**
+   * Open the table with the given UUID.
+   * @param tableUUID the UUID of the table
+   * @return a future that yields the table
+   */
+  public CompletableFuture<YBTable> openTableByUUID(String tableUUID) {
+    return toCompletableFuture(asyncClient.openTableByUUID(tableUUID));
+  }
+
+  /**
+   * Ping a server.
+   * @param hp the host and port of the server
+   * @return a future that yields the ping response
+   */
+  public CompletableFuture<PingResponse> ping(HostAndPort hp) {
+    return toCompletableFuture(asyncClient.ping(hp));
+  }
+
+  /**
+   * Get the changes of a tablet for a CDC stream, from the given position.
+   * @param hp the host and port of the server
+   * @param table the table to get changes for
+   * @param streamId the stream to get changes for
+   * @param tabletId the tablet to get changes for
+   * @param term the leader term to start getting changes for
+   * @param index the log index to start getting changes for
+   * @return a future that yields the changes, cancelling it cancels the RPC
+   */
+  public CompletableFuture<GetChangesResponse> getChanges(HostAndPort hp, YBTable table,
+                                                          String streamId, String tabletId,
+                                                          long term, long index) {
+    GetChangesRequest rpc = new GetChangesRequest(table, streamId, tabletId, term, index);
+    return toCompletableFuture(rpc, asyncClient.sendToServer(hp, rpc));
+  }
+
+  /**
+   * Get the changes of a tablet for a CDC stream from the tablet's leader, from the given position.
+   * @param table the table to get changes for
+   * @param streamId the stream to get changes for
+   * @param tabletId the tablet to get changes for
+   * @param partitionKey a partition key of the tablet, usually its start key
+   * @param term the leader term to start getting changes for
+   * @param index the log index to start getting changes for
+   * @return a future that yields the changes
+   */
+  public CompletableFuture<GetChangesResponse> getChanges(YBTable table, String streamId,
+                                                          String tabletId, byte[] partitionKey,
+                                                          long term, long index) {
+    return toCompletableFuture(
+        asyncClient.getChanges(table, streamId, tabletId, partitionKey, term, index));
+  }
+
+  /**
+   * Check if a server is ready to serve requests.
+   * @param hp the host and port of the server
+   * @param isTserver true if the server is a tablet server, false if it is a master
+   * @return a future that yields the readiness of the server
+   */
+  public CompletableFuture<IsServerReadyResponse> isServerReady(HostAndPort hp,
+                                                                boolean isTserver) {
+    return toCompletableFuture(asyncClient.isServerReady(hp, isTserver));
+  }
+
+  /**
+   * Set a gflag of a server.
+   * @param hp the host and port of the server
+   * @param flag the name of the flag
+   * @param value the new value of the flag
+   * @return a future that yields the response of the server
+   */
+  public CompletableFuture<SetFlagResponse> setFlag(HostAndPort hp, String flag, String value) {
+    return toCompletableFuture(asyncClient.setFlag(hp, flag, value));
+  }
+
+  /**
+   * Get the master addresses a server is configured with.
+   * @param hp the host and port of the server
+   * @return a future that yields the master addresses
+   */
+  public CompletableFuture<GetMasterAddressesResponse> getMasterAddresses(HostAndPort hp) {
+    return toCompletableFuture(asyncClient.getMasterAddresses(hp));
+  }
+
+  private CompletableFuture<GetLoadMovePercentResponse> retryLoadMovePercent(
+      final boolean leaders, final int numTries) {
+    CompletableFuture<GetLoadMovePercentResponse> future = toCompletableFuture(
+        leaders ? asyncClient.getLeaderBlacklistCompletion()
+                : asyncClient.getLoadMoveCompletion());
+    return future.thenCompose(
+        new Function<GetLoadMovePercentResponse,
+                     CompletionStage<GetLoadMovePercentResponse>>() {
+          @Override
+          public CompletionStage<GetLoadMovePercentResponse> apply(
+              GetLoadMovePercentResponse resp) {
+            if (resp.hasRetriableError() && numTries < MAX_NUM_RETRIES) {
+              return retryLoadMovePercent(leaders, numTries + 1);
+            }
+            return CompletableFuture.completedFuture(resp);
+          }
+        });
+  }
+}
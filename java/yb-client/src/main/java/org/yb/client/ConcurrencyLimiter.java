@@ -0,0 +1,205 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.base.Preconditions;
+import org.yb.annotations.InterfaceAudience;
+
+/**
+ * Limits how many RPCs are in flight to a server, adapting the limit to the latency the server
+ * answers with.
+ * <p>
+ * The limit follows an AIMD scheme driven by latency: it grows by one every time a full window
+ * of RPCs completes without the latency rising, and is cut by {@link #BACKOFF_RATIO} whenever an
+ * RPC takes more than {@link #LATENCY_TOLERANCE} times the no-load latency of its method, or
+ * fails without an answer. The no-load latency of a method is the lowest latency seen recently
+ * for it: it decays upwards slowly, so that it follows a server that got slower for good. It is
+ * kept per method since methods take very different times to serve, and a slow one compared to
+ * the baseline of a cheap one would keep the limit at its minimum. RPCs whose latency isn't a
+ * sample of the server's, such as long polls, don't adapt the limit.
+ * <p>
+ * RPCs over the limit wait in a bounded queue and are admitted as RPCs in flight complete. Once
+ * the queue is full, new RPCs are rejected right away.
+ * @param <T> the type of the queued RPCs
+ */
+@InterfaceAudience.Private
+final class ConcurrencyLimiter<T> {
+
+  /** What {@link #acquire} did with an RPC. */
+  enum Admission {
+    /** The RPC can be sent now. */
+    ACQUIRED,
+    /** The RPC waits in the queue, it'll be handed back by {@link #poll}. */
+    QUEUED,
+    /** The RPC must be failed, the queue is full. */
+    REJECTED
+  }
+
+  /** Latency above which, relatively to the no-load latency, the server is considered loaded. */
+  static final double LATENCY_TOLERANCE = 2.0;
+
+  /** Factor the limit is multiplied by when the server is loaded. */
+  static final double BACKOFF_RATIO = 0.9;
+
+  /** The no-load latency grows by 1 / (1 << NO_LOAD_DECAY_SHIFT) on every sample. */
+  private static final int NO_LOAD_DECAY_SHIFT = 8;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final int maxQueued;
+
+  @GuardedBy("this")
+  private double limit;
+  @GuardedBy("this")
+  private int inflight = 0;
+  // Keyed by method name.
+  @GuardedBy("this")
+  private final Map<String, long[]> noLoadLatencyNanos = new HashMap<>();
+  @GuardedBy("this")
+  private final ArrayDeque<T> queue = new ArrayDeque<T>();
+  @GuardedBy("this")
+  private long numRejected = 0;
+
+  /**
+   * @param initialLimit how many RPCs can be in flight before any latency was observed
+   * @param maxLimit the highest the limit can grow to
+   * @param maxQueued how many RPCs can wait for the limit, 0 to reject them right away
+   */
+  ConcurrencyLimiter(int initialLimit, int maxLimit, int maxQueued) {
+    Preconditions.checkArgument(initialLimit > 0, "initialLimit must be positive");
+    Preconditions.checkArgument(maxLimit >= initialLimit,
+                                "maxLimit must be at least initialLimit");
+    Preconditions.checkArgument(maxQueued >= 0, "maxQueued should not be negative");
+    this.minLimit = 1;
+    this.maxLimit = maxLimit;
+    this.maxQueued = maxQueued;
+    this.limit = initialLimit;
+  }
+
+  /**
+   * Takes a slot for an RPC, or queues it if there's none left.
+   * @param rpc the RPC to send
+   * @return whether the RPC can be sent, was queued or must be rejected
+   */
+  synchronized Admission acquire(T rpc) {
+    if (inflight < (int) limit && queue.isEmpty()) {
+      inflight++;
+      return Admission.ACQUIRED;
+    }
+    if (queue.size() < maxQueued) {
+      queue.addLast(rpc);
+      return Admission.QUEUED;
+    }
+    numRejected++;
+    return Admission.REJECTED;
+  }
+
+  /**
+   * Gives back the slot of an RPC that completed, and adapts the limit.
+   * @param method the name of the method of the RPC
+   * @param latencyNanos the latency of the RPC, or a negative value if it didn't get an answer
+   * @param dropped true if the RPC failed without an answer from the server, e.g. it timed out
+   */
+  synchronized void release(String method, long latencyNanos, boolean dropped) {
+    inflight--;
+    if (dropped) {
+      decrease();
+      return;
+    }
+    if (latencyNanos < 0) {
+      return;
+    }
+    long[] noLoad = noLoadLatencyNanos.get(method);
+    if (noLoad == null) {
+      noLoad = new long[] { Math.max(latencyNanos, 1) };
+      noLoadLatencyNanos.put(method, noLoad);
+    } else if (latencyNanos < noLoad[0]) {
+      noLoad[0] = Math.max(latencyNanos, 1);
+    } else {
+      noLoad[0] += Math.max(noLoad[0] >> NO_LOAD_DECAY_SHIFT, 1);
+    }
+    if (latencyNanos > LATENCY_TOLERANCE * noLoad[0]) {
+      decrease();
+    } else if (2 * (inflight + 1) >= limit) {
+      // Only grow if we're actually using the limit, or it'd grow forever under light load.
+      limit = Math.min(maxLimit, limit + 1.0 / limit);
+    }
+  }
+
+  /**
+   * Gives back the slot of an RPC that wasn't sent, without adapting the limit.
+   */
+  synchronized void cancel() {
+    inflight--;
+  }
+
+  /**
+   * Takes a slot for the oldest queued RPC, if there is a free one.
+   * @return the RPC to send now, or null if none
+   */
+  synchronized T poll() {
+    if (queue.isEmpty() || inflight >= (int) limit) {
+      return null;
+    }
+    inflight++;
+    return queue.pollFirst();
+  }
+
+  /**
+   * Takes an RPC out of the queue, e.g. when it's cancelled.
+   * @return true if the RPC was queued
+   */
+  synchronized boolean remove(T rpc) {
+    return queue.remove(rpc);
+  }
+
+  /**
+   * Empties the queue, e.g. when the connection to the server is lost.
+   * @return the RPCs that were queued
+   */
+  synchronized List<T> drain() {
+    List<T> rpcs = new ArrayList<T>(queue);
+    queue.clear();
+    return rpcs;
+  }
+
+  private void decrease() {
+    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+  }
+
+  synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  synchronized int getNumInflight() {
+    return inflight;
+  }
+
+  synchronized int getNumQueued() {
+    return queue.size();
+  }
+
+  synchronized long getNumRejected() {
+    return numRejected;
+  }
+}
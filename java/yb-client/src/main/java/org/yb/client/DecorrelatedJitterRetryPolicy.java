@@ -0,0 +1,72 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+package org.yb.client;
+
+import com.google.common.base.Preconditions;
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with decorrelated jitter: every delay is picked at random between the
+ * base delay and three times the previous delay, capped by a maximum delay.
+ * <p>
+ * The delays grow about as fast as with a plain exponential backoff, but RPCs that failed at the
+ * same time, e.g. during a leader election, don't retry in lockstep.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class DecorrelatedJitterRetryPolicy implements RetryPolicy {
+
+  public static final long DEFAULT_BASE_DELAY_MS = 20;
+  public static final long DEFAULT_MAX_DELAY_MS = 5000;
+
+  private final long baseDelayMs;
+  private final long maxDelayMs;
+
+  /**
+   * Creates a policy with a base delay of {@value #DEFAULT_BASE_DELAY_MS}ms and a maximum delay
+   * of {@value #DEFAULT_MAX_DELAY_MS}ms.
+   */
+  public DecorrelatedJitterRetryPolicy() {
+    this(DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+  }
+
+  /**
+   * Creates a policy with the given delays.
+   * @param baseDelayMs the smallest delay, used for the first retry
+   * @param maxDelayMs the largest delay
+   */
+  public DecorrelatedJitterRetryPolicy(long baseDelayMs, long maxDelayMs) {
+    Preconditions.checkArgument(baseDelayMs > 0, "baseDelayMs must be positive");
+    Preconditions.checkArgument(maxDelayMs >= baseDelayMs,
+                                "maxDelayMs must not be lower than baseDelayMs");
+    this.baseDelayMs = baseDelayMs;
+    this.maxDelayMs = maxDelayMs;
+  }
+
+  @Override
+  public long getRetryDelayMs(RetryReason reason, int attempt, long previousDelayMs) {
+    long upper = Math.min(maxDelayMs, Math.max(baseDelayMs, previousDelayMs) * 3);
+    if (upper <= baseDelayMs) {
+      return baseDelayMs;
+    }
+    return ThreadLocalRandom.current().nextLong(baseDelayMs, upper + 1);
+  }
+
+  @Override
+  public String toString() {
+    return "DecorrelatedJitterRetryPolicy(base=" + baseDelayMs + "ms, max=" + maxDelayMs + "ms)";
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * Bridges the {@link Deferred} results of {@link AsyncYBClient} to {@link CompletableFuture}.
+ * <p>
+ * The conversion only adds a callback to the {@link Deferred}, it never blocks. Waiting on the
+ * returned future parks the thread through {@link java.util.concurrent.locks.LockSupport}
+ * instead of the object monitor {@link Deferred#join} waits on, so the synchronous client can
+ * also be used from virtual threads without pinning their carrier.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class DeferredFutures {
+
+  private DeferredFutures() {
+  }
+
+  /**
+   * Returns a future completed with the result of the given {@link Deferred}, or completed
+   * exceptionally with the exception it yields.
+   * <p>
+   * The returned future is completed by the thread running the {@link Deferred} callbacks, which
+   * is usually a Netty I/O thread: dependent stages must not block, or must be added with one of
+   * the {@code *Async} methods.
+   * @param d the deferred to convert
+   * @return a future completed when the deferred is
+   */
+  public static <T> CompletableFuture<T> toCompletableFuture(Deferred<T> d) {
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+    // Both callbacks pass the result through, so the deferred can still be joined afterwards.
+    d.addCallbacks(new Callback<T, T>() {
+      @Override
+      public T call(T result) {
+        future.complete(result);
+        return result;
+      }
+
+      @Override
+      public String toString() {
+        return "complete future";
+      }
+    }, new Callback<Exception, Exception>() {
+      @Override
+      public Exception call(Exception e) {
+        future.completeExceptionally(e);
+        return e;
+      }
+
+      @Override
+      public String toString() {
+        return "complete future exceptionally";
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Same as {@link #toCompletableFuture(Deferred)}, except that cancelling the returned future
+   * cancels the RPC.
+   * @param rpc the RPC the deferred is for
+   * @param d the deferred of the RPC, as returned when it was sent
+   * @return a future completed when the deferred is
+   */
+  static <T> CompletableFuture<T> toCompletableFuture(final YRpc<?> rpc, Deferred<T> d) {
+    final CompletableFuture<T> future = toCompletableFuture(d);
+    future.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T result, Throwable t) {
+        if (t instanceof CancellationException) {
+          rpc.cancel();
+        }
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Waits for the result of a {@link Deferred}, like {@link Deferred#join(long)} does but without
+   * holding a monitor while waiting.
+   * @param d the deferred to wait on
+   * @param timeoutMs how long to wait, 0 or less to wait forever
+   * @return the result of the deferred
+   * @throws java.util.concurrent.TimeoutException if the deferred didn't complete in time
+   * @throws InterruptedException if the thread was interrupted while waiting
+   * @throws Exception the exception the deferred yielded
+   */
+  public static <T> T join(Deferred<T> d, long timeoutMs) throws Exception {
+    return join(toCompletableFuture(d), timeoutMs);
+  }
+
+  /**
+   * Waits for the result of a future, unwrapping the exception it completed with.
+   * @param future the future to wait on
+   * @param timeoutMs how long to wait, 0 or less to wait forever
+   * @return the result of the future
+   * @throws java.util.concurrent.TimeoutException if the future didn't complete in time
+   * @throws InterruptedException if the thread was interrupted while waiting
+   * @throws Exception the exception the future completed with
+   */
+  public static <T> T join(CompletableFuture<T> future, long timeoutMs) throws Exception {
+    try {
+      if (timeoutMs <= 0) {
+        return future.get();
+      }
+      return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @return a future already completed with the given exception
+   */
+  static <T> CompletableFuture<T> failedFuture(Throwable t) {
+    CompletableFuture<T> future = new CompletableFuture<T>();
+    future.completeExceptionally(t);
+    return future;
+  }
+}
@@ -22,18 +22,43 @@ import org.yb.util.Pair;
 import org.yb.cdc.CdcService.GetChangesRequestPB;
 import org.yb.cdc.CdcService.GetChangesResponsePB;
 
-public class GetChangesRequest extends YRpc<GetChangesResponse> {
+public class GetChangesRequest extends YRpc<GetChangesResponse> implements YRpc.HasKey {
   private final String streamId;
   private final String tabletId;
+  private final byte[] partitionKey;
   private final long term;
   private final long index;
+  private final int waitForChangesMs;
 
   public GetChangesRequest(YBTable table, String streamId, String tabletId, long term, long index) {
+    this(table, streamId, tabletId, null, term, index);
+  }
+
+  public GetChangesRequest(YBTable table, String streamId, String tabletId, byte[] partitionKey,
+                           long term, long index) {
+    this(table, streamId, tabletId, partitionKey, term, index, 0);
+  }
+
+  /**
+   * @param partitionKey a partition key of the tablet, used to find its leader in the tablet
+   *                     location cache when the request isn't sent to a given server
+   * @param waitForChangesMs how long the server may hold the request when there are no changes
+   *                         yet, zero to return right away
+   */
+  public GetChangesRequest(YBTable table, String streamId, String tabletId, byte[] partitionKey,
+                           long term, long index, int waitForChangesMs) {
     super(table);
     this.streamId = streamId;
     this.tabletId = tabletId;
+    this.partitionKey = partitionKey;
     this.term = term;
     this.index = index;
+    this.waitForChangesMs = waitForChangesMs;
+  }
+
+  @Override
+  public byte[] partitionKey() {
+    return partitionKey;
   }
 
   @Override
@@ -48,9 +73,20 @@ public class GetChangesRequest extends YRpc<GetChangesResponse> {
       checkpointBuilder.setOpId(Opid.OpIdPB.newBuilder().setIndex(this.index).setTerm(this.term));
       builder.setFromCheckpoint(checkpointBuilder);
     }
+    if (waitForChangesMs > 0) {
+      builder.setWaitForChangesMs(waitForChangesMs);
+    }
     return toChannelBuffer(header, builder.build());
   }
 
+  /**
+   * @return true if the server may hold the request while it waits for changes
+   */
+  @Override
+  boolean isLongPoll() {
+    return waitForChangesMs > 0;
+  }
+
   @Override
   String serviceName() { return CDC_SERVICE_NAME; }
 
@@ -48,6 +48,7 @@ class GetTableLocationsRequest extends YRpc<Master.GetTableLocationsResponsePB>
   private final byte[] startPartitionKey;
   private final byte[] endKey;
   private final String tableId;
+  private int maxReturnedLocations = 0;
 
   GetTableLocationsRequest(YBTable table, byte[] startPartitionKey,
                            byte[] endPartitionKey, String tableId) {
@@ -62,6 +63,13 @@ class GetTableLocationsRequest extends YRpc<Master.GetTableLocationsResponsePB>
     this.tableId = tableId;
   }
 
+  /**
+   * Sets the maximum number of tablets the master should return, 0 for the master's default.
+   */
+  void setMaxReturnedLocations(int maxReturnedLocations) {
+    this.maxReturnedLocations = maxReturnedLocations;
+  }
+
   @Override
   String serviceName() { return MASTER_SERVICE_NAME; }
 
@@ -94,6 +102,9 @@ class GetTableLocationsRequest extends YRpc<Master.GetTableLocationsResponsePB>
     if (endKey != null) {
       builder.setPartitionKeyEnd(UnsafeByteOperations.unsafeWrap(endKey));
     }
+    if (maxReturnedLocations > 0) {
+      builder.setMaxReturnedLocations(maxReturnedLocations);
+    }
     return toChannelBuffer(header, builder.build());
   }
 }
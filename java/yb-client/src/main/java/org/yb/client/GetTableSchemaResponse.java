@@ -45,11 +45,13 @@ public class GetTableSchemaResponse extends YRpcResponse {
   private final String tableName;
   private final String tableId;
   private final TableType tableType;
+  private final int schemaVersion;
 
   /**
    * @param ellapsedMillis Time in milliseconds since RPC creation to now
    * @param schema the table's schema
    * @param partitionSchema the table's partition schema
+   * @param schemaVersion the version of the table's schema
    */
   GetTableSchemaResponse(long ellapsedMillis,
                          String tsUUID,
@@ -59,7 +61,8 @@ public class GetTableSchemaResponse extends YRpcResponse {
                          String tableId,
                          PartitionSchema partitionSchema,
                          boolean createTableDone,
-                         TableType tableType) {
+                         TableType tableType,
+                         int schemaVersion) {
     super(ellapsedMillis, tsUUID);
     this.schema = schema;
     this.partitionSchema = partitionSchema;
@@ -68,6 +71,7 @@ public class GetTableSchemaResponse extends YRpcResponse {
     this.tableName = tableName;
     this.tableId = tableId;
     this.tableType = tableType;
+    this.schemaVersion = schemaVersion;
   }
 
   /**
@@ -125,4 +129,12 @@ public class GetTableSchemaResponse extends YRpcResponse {
   public TableType getTableType() {
     return tableType;
   }
+
+  /**
+   * Get the version of the table's schema, bumped by every alter table.
+   * @return the table's schema version
+   */
+  public int getSchemaVersion() {
+    return schemaVersion;
+  }
 }
@@ -0,0 +1,208 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * A histogram of latencies in microseconds, recorded without locking so it can sit on the RPC
+ * path. Like an HdrHistogram, the buckets are laid out in powers of two each split in
+ * {@link #SUB_BUCKETS} linear sub-buckets, which keeps the relative error of every value under
+ * 1 / {@link #SUB_BUCKETS} for a fixed, small footprint. Latencies above about 19 hours are
+ * counted in the last bucket.
+ * <p>
+ * Reading the histogram takes a {@link Snapshot}. Values recorded while the snapshot is taken may
+ * or may not be in it.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+
+  /** The number of linear sub-buckets in every power of two.  */
+  public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // Values up to 2^MAX_MAGNITUDE microseconds get their own bucket.
+  private static final int MAX_MAGNITUDE = 36;
+
+  private static final int NUM_BUCKETS =
+      ((MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + SUB_BUCKETS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sumMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  /**
+   * Records a latency.
+   * @param latencyNanos the latency in nanoseconds, negative values are ignored
+   */
+  public void record(long latencyNanos) {
+    if (latencyNanos < 0) {
+      return;
+    }
+    final long micros = latencyNanos / 1000;
+    buckets.incrementAndGet(bucketIndex(micros));
+    count.incrementAndGet();
+    sumMicros.addAndGet(micros);
+    long max = maxMicros.get();
+    while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+      max = maxMicros.get();
+    }
+  }
+
+  /**
+   * @return the number of latencies recorded so far
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Copies the current state of this histogram.
+   * @return a snapshot that isn't affected by later recordings
+   */
+  public Snapshot snapshot() {
+    final long[] counts = new long[NUM_BUCKETS];
+    long total = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    return new Snapshot(counts, total, sumMicros.get(), maxMicros.get());
+  }
+
+  static int bucketIndex(long micros) {
+    final int magnitude = 63 - Long.numberOfLeadingZeros(micros | 1);
+    final int shift = Math.max(0, magnitude - SUB_BUCKET_BITS);
+    final int index = (shift << SUB_BUCKET_BITS) + (int) (micros >>> shift);
+    return Math.min(index, NUM_BUCKETS - 1);
+  }
+
+  /**
+   * @return the smallest value counted in the given bucket
+   */
+  static long bucketLowerBound(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = (index >> SUB_BUCKET_BITS) - 1;
+    return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+  }
+
+  /**
+   * @return the largest value counted in the given bucket
+   */
+  static long bucketUpperBound(int index) {
+    if (index == NUM_BUCKETS - 1) {
+      return Long.MAX_VALUE;
+    }
+    return bucketLowerBound(index + 1) - 1;
+  }
+
+  /**
+   * A point in time copy of a {@link LatencyHistogram}. All values are in microseconds.
+   */
+  @InterfaceAudience.Public
+  @InterfaceStability.Evolving
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sumMicros;
+    private final long maxMicros;
+
+    private Snapshot(long[] counts, long count, long sumMicros, long maxMicros) {
+      this.counts = counts;
+      this.count = count;
+      this.sumMicros = sumMicros;
+      this.maxMicros = maxMicros;
+    }
+
+    /**
+     * @return the number of latencies in this snapshot
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * @return the sum of all the latencies, in microseconds
+     */
+    public long getSumMicros() {
+      return sumMicros;
+    }
+
+    /**
+     * @return the largest latency recorded, in microseconds
+     */
+    public long getMaxMicros() {
+      return maxMicros;
+    }
+
+    /**
+     * @return the average latency in microseconds, 0 if nothing was recorded
+     */
+    public double getMeanMicros() {
+      return count == 0 ? 0 : (double) sumMicros / count;
+    }
+
+    /**
+     * Gets the latency under which the given fraction of the latencies fall. The result is the
+     * upper bound of the bucket holding that latency, capped by the largest latency recorded.
+     * @param quantile a number between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return a latency in microseconds, 0 if nothing was recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+      Preconditions.checkArgument(quantile >= 0 && quantile <= 1,
+          "Quantile must be between 0 and 1: %s", quantile);
+      if (count == 0) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(bucketUpperBound(i), maxMicros);
+        }
+      }
+      return maxMicros;
+    }
+
+    /**
+     * Gets the number of latencies at or under a value, which is what cumulative histograms like
+     * Prometheus' expect for each of their buckets. Latencies sharing a bucket with the value are
+     * counted as long as that bucket starts at or under it.
+     * @param micros a latency in microseconds
+     * @return a number of latencies
+     */
+    public long getCountAtOrBelow(long micros) {
+      if (micros < 0) {
+        return 0;
+      }
+      final int last = bucketIndex(micros);
+      long seen = 0;
+      for (int i = 0; i <= last; i++) {
+        seen += counts[i];
+      }
+      return seen;
+    }
+  }
+}
@@ -63,6 +63,17 @@ public class PartitionSchema {
   private final List<HashBucketSchema> hashBucketSchemas;
   private final boolean isSimple;
   private final HashSchema hashSchema;
+  private final boolean isHashPartitioned;
+
+  /**
+   * Size of an encoded hash code in the partition key of a hash partitioned table.
+   */
+  static final int HASH_PARTITION_KEY_SIZE = 2;
+
+  /**
+   * Number of distinct hash codes of a hash partitioned table.
+   */
+  static final int HASH_PARTITION_KEY_SPACE = 1 << (8 * HASH_PARTITION_KEY_SIZE);
 
   /**
    * Creates a new partition schema from the range and hash bucket schemas.
@@ -76,9 +87,27 @@ public class PartitionSchema {
                   List<HashBucketSchema> hashBucketSchemas,
                   Schema schema,
                   HashSchema hashSchema) {
+    this(rangeSchema, hashBucketSchemas, schema, hashSchema, hashSchema != null);
+  }
+
+  /**
+   * Creates a new partition schema from the range and hash bucket schemas.
+   *
+   * @param rangeSchema the range schema
+   * @param hashBucketSchemas the hash bucket schemas
+   * @param schema the table schema
+   * @param hashSchema the hash schema
+   * @param isHashPartitioned whether the partition keys of the table are hash codes
+   */
+  PartitionSchema(RangeSchema rangeSchema,
+                  List<HashBucketSchema> hashBucketSchemas,
+                  Schema schema,
+                  HashSchema hashSchema,
+                  boolean isHashPartitioned) {
     this.rangeSchema = rangeSchema;
     this.hashBucketSchemas = hashBucketSchemas;
     this.hashSchema = hashSchema;
+    this.isHashPartitioned = isHashPartitioned;
 
     boolean isSimple = hashBucketSchemas.isEmpty()
         && rangeSchema.columns.size() == schema.getPrimaryKeyColumnCount();
@@ -112,6 +141,26 @@ public class PartitionSchema {
 
   public HashSchema getHashSchema() { return hashSchema; }
 
+  /**
+   * Returns true if the table is hash partitioned, in which case its partition keys are
+   * {@link #HASH_PARTITION_KEY_SIZE}-byte big-endian hash codes.
+   *
+   * @return whether the table is hash partitioned
+   */
+  public boolean isHashPartitioned() {
+    return isHashPartitioned;
+  }
+
+  /**
+   * Encodes a hash code into the partition key of a hash partitioned table.
+   *
+   * @param hashCode a hash code, lower than {@link #HASH_PARTITION_KEY_SPACE}
+   * @return the encoded partition key
+   */
+  static byte[] encodeHashPartitionKey(int hashCode) {
+    return new byte[] { (byte) (hashCode >>> 8), (byte) hashCode };
+  }
+
   /**
    * Returns true if the partition schema if the partition schema does not include any hash
    * components, and the range columns match the table's primary key columns.
@@ -0,0 +1,38 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * Thrown when an RPC was rejected by the client without being sent, because too many RPCs are
+ * already in flight or waiting for the same server. It's worth retrying the RPC once the server
+ * caught up.
+ * @see AsyncYBClient.AsyncYBClientBuilder#adaptiveConcurrencyLimit(int, int, int)
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+@SuppressWarnings("serial")
+public final class PleaseThrottleException extends RecoverableException {
+
+  /**
+   * Constructor.
+   * @param msg A message detailing why this exception happened.
+   */
+  PleaseThrottleException(final String msg) {
+    super(msg);
+  }
+}
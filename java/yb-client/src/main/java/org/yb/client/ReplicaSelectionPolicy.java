@@ -0,0 +1,45 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * Policy used by {@link AsyncYBClient} to pick which replica of a tablet an RPC is sent to.
+ * <p>
+ * RPCs go to the leader unless they set another policy through
+ * {@link YRpc#setReplicaSelectionPolicy}, which only RPCs that can be served by a follower should
+ * do. RPCs going to the master are always sent to the master leader.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public enum ReplicaSelectionPolicy {
+  /**
+   * Always send the RPC to the tablet leader.
+   */
+  LEADER_ONLY,
+
+  /**
+   * Send the RPC to the replica whose placement (cloud, region, zone) is the closest to the
+   * placement configured on the client. Ties are broken in favor of the leader.
+   */
+  CLOSEST_REPLICA,
+
+  /**
+   * Send the RPC to the replica with the lowest observed RPC latency. Replicas we haven't talked
+   * to yet are not considered until we have a latency sample for them.
+   */
+  LOWEST_LATENCY
+}
@@ -0,0 +1,57 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+package org.yb.client;
+
+import org.yb.annotations.InterfaceAudience;
+
+/**
+ * A token bucket limiting how many retries a client does. Every retry takes a token, tokens are
+ * refilled at a fixed rate up to a maximum. When a server is unhealthy, RPCs fail fast once the
+ * bucket is empty instead of piling more retries on top of the regular traffic.
+ */
+@InterfaceAudience.Private
+final class RetryBudget {
+
+  private final double tokensPerNano;
+  private final double maxTokens;
+
+  // Guarded by this.
+  private double tokens;
+  private long lastRefillNanos;
+
+  /**
+   * @param retriesPerSecond how many retries per second are allowed in the long run
+   * @param maxRetries how many retries can be done in a burst
+   */
+  RetryBudget(double retriesPerSecond, int maxRetries) {
+    this.tokensPerNano = retriesPerSecond / 1e9;
+    this.maxTokens = maxRetries;
+    this.tokens = maxRetries;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  /**
+   * Takes a token if one is available.
+   * @return true if the retry is allowed, false if the budget is exhausted
+   */
+  synchronized boolean tryAcquire() {
+    long now = System.nanoTime();
+    tokens = Math.min(maxTokens, tokens + (now - lastRefillNanos) * tokensPerNano);
+    lastRefillNanos = now;
+    if (tokens < 1) {
+      return false;
+    }
+    tokens--;
+    return true;
+  }
+}
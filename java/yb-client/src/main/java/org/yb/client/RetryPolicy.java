@@ -0,0 +1,37 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+package org.yb.client;
+
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * Decides how long {@link AsyncYBClient} waits before retrying an RPC that failed with a
+ * retryable error. The number of attempts and the deadline of the RPC are still enforced by the
+ * client, a policy only picks the delays.
+ * <p>
+ * Implementations are shared by all the RPCs of a client and must be thread safe.
+ * @see AsyncYBClient.AsyncYBClientBuilder#retryPolicy(RetryPolicy)
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface RetryPolicy {
+  /**
+   * Computes the delay before the next attempt of an RPC.
+   * @param reason why the RPC is being retried
+   * @param attempt how many attempts of the RPC were made so far, at least 1
+   * @param previousDelayMs the delay used before the previous attempt, 0 for the first retry
+   * @return the delay in milliseconds, 0 to retry right away
+   */
+  long getRetryDelayMs(RetryReason reason, int attempt, long previousDelayMs);
+}
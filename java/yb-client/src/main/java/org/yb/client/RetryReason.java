@@ -0,0 +1,59 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+package org.yb.client;
+
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * Why {@link AsyncYBClient} retried an RPC.
+ * @see RetryPolicy
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public enum RetryReason {
+  /**
+   * The server we sent the RPC to isn't the leader of the tablet.
+   */
+  NOT_THE_LEADER,
+
+  /**
+   * We couldn't find which master is the leader.
+   */
+  NO_LEADER_MASTER,
+
+  /**
+   * The server we sent the RPC to doesn't host the tablet.
+   */
+  TABLET_NOT_FOUND,
+
+  /**
+   * The connection to the server was lost before we got a response.
+   */
+  CONNECTION_LOST,
+
+  /**
+   * The server rejected the RPC because its queue was full.
+   */
+  SERVER_TOO_BUSY,
+
+  /**
+   * The server, or the leader of the tablet, isn't ready to serve the RPC yet.
+   */
+  SERVICE_UNAVAILABLE,
+
+  /**
+   * The table was just created and its tablets aren't being served yet.
+   */
+  TABLE_NOT_SERVED
+}
@@ -0,0 +1,189 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.base.Preconditions;
+import com.google.common.net.HostAndPort;
+import org.yb.annotations.InterfaceAudience;
+
+/**
+ * A circuit breaker tracking whether a server answers the RPCs we send it.
+ * <p>
+ * The circuit opens after a number of consecutive failures, which ejects the server from the
+ * replicas RPCs can pick. Once the ejection time is over, a single probe is allowed through
+ * (half-open): if it succeeds the circuit closes and the server is used again, if it fails the
+ * circuit opens again for twice as long, up to a maximum.
+ * <p>
+ * It also keeps the usual latency of every method the server serves, which callers judge slow
+ * answers against: methods can take very different times to serve, so each one is only compared
+ * to itself.
+ * <p>
+ * This class is thread-safe. Times are passed in by the caller, in milliseconds.
+ */
+@InterfaceAudience.Private
+final class ServerHealth {
+
+  enum State {
+    /** The server is healthy. */
+    CLOSED,
+    /** The server is ejected until the ejection time is over. */
+    OPEN,
+    /** The server is ejected and a probe was sent to it. */
+    HALF_OPEN
+  }
+
+  /** The weight of a new latency sample is 1 / (1 << LATENCY_EWMA_SHIFT). */
+  private static final int LATENCY_EWMA_SHIFT = 3;
+
+  private final int failureThreshold;
+  private final long baseEjectionMs;
+  private final long maxEjectionMs;
+
+  @GuardedBy("this")
+  private State state = State.CLOSED;
+  @GuardedBy("this")
+  private int consecutiveFailures = 0;
+  @GuardedBy("this")
+  private long ejectionMs;
+  @GuardedBy("this")
+  private long ejectedUntilMs = 0;
+  @GuardedBy("this")
+  private long numEjections = 0;
+  // The moving average of the latency of every method, keyed by method name.
+  @GuardedBy("this")
+  private final Map<String, long[]> latencyEwmaNanos = new HashMap<>();
+
+  // Where to send the probes, the last address we connected to the server on.
+  private volatile HostAndPort address;
+
+  /**
+   * @param failureThreshold how many consecutive failures open the circuit
+   * @param baseEjectionMs how long the server is ejected the first time
+   * @param maxEjectionMs the longest the server can be ejected
+   */
+  ServerHealth(int failureThreshold, long baseEjectionMs, long maxEjectionMs) {
+    Preconditions.checkArgument(failureThreshold > 0, "failureThreshold must be positive");
+    Preconditions.checkArgument(baseEjectionMs > 0, "baseEjectionMs must be positive");
+    Preconditions.checkArgument(maxEjectionMs >= baseEjectionMs,
+                                "maxEjectionMs must be at least baseEjectionMs");
+    this.failureThreshold = failureThreshold;
+    this.baseEjectionMs = baseEjectionMs;
+    this.maxEjectionMs = maxEjectionMs;
+    this.ejectionMs = baseEjectionMs;
+  }
+
+  /**
+   * Records an RPC the server answered in time. Closes the circuit if it was half-open.
+   */
+  synchronized void recordSuccess() {
+    consecutiveFailures = 0;
+    if (state == State.HALF_OPEN) {
+      state = State.CLOSED;
+      ejectionMs = baseEjectionMs;
+    }
+  }
+
+  /**
+   * Records an RPC the server didn't answer, or answered way too late.
+   * @param nowMs the current time
+   * @return true if this opened the circuit
+   */
+  synchronized boolean recordFailure(long nowMs) {
+    consecutiveFailures++;
+    switch (state) {
+      case CLOSED:
+        if (consecutiveFailures < failureThreshold) {
+          return false;
+        }
+        break;
+      case HALF_OPEN:
+        // The probe failed, back off.
+        ejectionMs = Math.min(2 * ejectionMs, maxEjectionMs);
+        break;
+      default:
+        // Already open, RPCs sent before the ejection are still failing.
+        return false;
+    }
+    state = State.OPEN;
+    ejectedUntilMs = nowMs + ejectionMs;
+    numEjections++;
+    return true;
+  }
+
+  /**
+   * Folds the latency of an answer into the moving average of its method.
+   * @param method the name of the method the server answered
+   * @param latencyNanos how long the server took to answer
+   * @return the moving average of the method before this answer, 0 if it is its first one
+   */
+  synchronized long recordLatency(String method, long latencyNanos) {
+    final long[] ewma = latencyEwmaNanos.get(method);
+    if (ewma == null) {
+      latencyEwmaNanos.put(method, new long[] { Math.max(latencyNanos, 1) });
+      return 0;
+    }
+    final long current = ewma[0];
+    ewma[0] = Math.max(current + ((latencyNanos - current) >> LATENCY_EWMA_SHIFT), 1);
+    return current;
+  }
+
+  /**
+   * Moves the circuit to half-open once the ejection time is over, the caller is then expected
+   * to probe the server.
+   * @param nowMs the current time
+   * @return true if the caller should send a probe
+   */
+  synchronized boolean tryStartProbe(long nowMs) {
+    if (state != State.OPEN || nowMs < ejectedUntilMs) {
+      return false;
+    }
+    state = State.HALF_OPEN;
+    return true;
+  }
+
+  /**
+   * @return true if RPCs should avoid the server
+   */
+  synchronized boolean isEjected() {
+    return state != State.CLOSED;
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return how long the server is ejected for, since the circuit last opened
+   */
+  synchronized long getEjectionMs() {
+    return ejectionMs;
+  }
+
+  synchronized long getNumEjections() {
+    return numEjections;
+  }
+
+  HostAndPort getAddress() {
+    return address;
+  }
+
+  void setAddress(HostAndPort address) {
+    this.address = address;
+  }
+}
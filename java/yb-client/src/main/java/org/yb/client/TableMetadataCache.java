@@ -0,0 +1,203 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import org.yb.annotations.InterfaceAudience;
+
+/**
+ * A bounded LRU cache of the table schemas returned by the master, so that opening the same
+ * table again doesn't cost a round trip to the master leader.
+ * <p>
+ * A table is cached both under its id and under the name it was looked up with. Entries expire
+ * after a while, since the table may be altered by another client. Within this client, alter
+ * table, delete table and schema mismatch errors drop the entries of the table, and a response
+ * carrying a new schema version replaces the cached one.
+ */
+@InterfaceAudience.Private
+final class TableMetadataCache {
+
+  private static final class NameKey {
+    private final String keyspace;
+    private final String name;
+
+    NameKey(String keyspace, String name) {
+      this.keyspace = keyspace == null ? "" : keyspace;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      NameKey that = (NameKey) o;
+      return keyspace.equals(that.keyspace) && name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * keyspace.hashCode() + name.hashCode();
+    }
+  }
+
+  private static final class Entry {
+    private final GetTableSchemaResponse response;
+    private final long expirationNanos;
+
+    Entry(GetTableSchemaResponse response, long expirationNanos) {
+      this.response = response;
+      this.expirationNanos = expirationNanos;
+    }
+  }
+
+  private final int maxEntries;
+  private final long ttlNanos;
+
+  // Keys are either a NameKey or a table id.
+  @GuardedBy("this")
+  private final LinkedHashMap<Object, Entry> entries;
+
+  private final AtomicLong numHits = new AtomicLong();
+  private final AtomicLong numMisses = new AtomicLong();
+
+  /**
+   * @param maxEntries how many names and ids to keep, each table takes up to three
+   * @param ttlMs how long a schema is used before it is fetched again
+   */
+  TableMetadataCache(final int maxEntries, long ttlMs) {
+    this.maxEntries = maxEntries;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    this.entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * @return the cached schema of the table with the given name, or null
+   */
+  GetTableSchemaResponse getByName(String keyspace, String name) {
+    return get(new NameKey(keyspace, name));
+  }
+
+  /**
+   * @return the cached schema of the table with the given id, or null
+   */
+  GetTableSchemaResponse getById(String tableId) {
+    return get(tableId);
+  }
+
+  /**
+   * Caches the schema of a table, unless the table is still being created or a newer schema
+   * version is already cached.
+   * @param keyspace the keyspace the table was looked up with, if looked up by name
+   * @param name the name the table was looked up with, or null if looked up by id
+   * @param response the schema returned by the master
+   */
+  void put(String keyspace, String name, GetTableSchemaResponse response) {
+    if (!response.isCreateTableDone()) {
+      return;
+    }
+    long expirationNanos = System.nanoTime() + ttlNanos;
+    Entry entry = new Entry(response, expirationNanos);
+    synchronized (this) {
+      Entry current = entries.get(response.getTableId());
+      if (current != null) {
+        if (current.response.getSchemaVersion() > response.getSchemaVersion()) {
+          // An older response raced with a newer one, keep the newer one.
+          return;
+        }
+        if (current.response.getSchemaVersion() != response.getSchemaVersion()) {
+          // The schema changed, drop the names that may still point to the old one.
+          removeTableLocked(response.getTableId());
+        }
+      }
+      entries.put(response.getTableId(), entry);
+      entries.put(new NameKey(response.getNamespace(), response.getTableName()), entry);
+      if (name != null) {
+        entries.put(new NameKey(keyspace, name), entry);
+      }
+    }
+  }
+
+  /**
+   * Drops the table with the given name.
+   */
+  void invalidateByName(String keyspace, String name) {
+    synchronized (this) {
+      Entry entry = entries.remove(new NameKey(keyspace, name));
+      if (entry != null) {
+        removeTableLocked(entry.response.getTableId());
+      }
+    }
+  }
+
+  /**
+   * Drops the table with the given id.
+   */
+  void invalidateById(String tableId) {
+    synchronized (this) {
+      removeTableLocked(tableId);
+    }
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  long getNumHits() {
+    return numHits.get();
+  }
+
+  long getNumMisses() {
+    return numMisses.get();
+  }
+
+  private GetTableSchemaResponse get(Object key) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry != null && System.nanoTime() - entry.expirationNanos >= 0) {
+        entries.remove(key);
+        entry = null;
+      }
+    }
+    if (entry == null) {
+      numMisses.incrementAndGet();
+      return null;
+    }
+    numHits.incrementAndGet();
+    return entry.response;
+  }
+
+  @GuardedBy("this")
+  private void removeTableLocked(String tableId) {
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().response.getTableId().equals(tableId)) {
+        it.remove();
+      }
+    }
+  }
+}
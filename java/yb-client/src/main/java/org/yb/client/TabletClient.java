@@ -47,6 +47,7 @@ import org.jboss.netty.channel.ConnectTimeoutException;
 import org.jboss.netty.handler.timeout.ReadTimeoutException;
 import org.yb.WireProtocol;
 import org.yb.annotations.InterfaceAudience;
+import org.yb.cdc.CdcService;
 import org.yb.master.Master;
 import org.yb.rpc.RpcHeader;
 import org.yb.tserver.Tserver;
@@ -62,8 +63,7 @@ import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.ExceptionEvent;
-import org.jboss.netty.handler.codec.replay.ReplayingDecoder;
-import org.jboss.netty.handler.codec.replay.VoidEnum;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -72,9 +72,12 @@ import javax.security.sasl.SaslException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Stateful handler that manages a connection to a specific TabletServer.
@@ -96,7 +99,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  * channel isn't connected.
  */
 @InterfaceAudience.Private
-public class TabletClient extends ReplayingDecoder<VoidEnum> {
+public class TabletClient extends FrameDecoder {
 
   public static final Logger LOG = LoggerFactory.getLogger(TabletClient.class);
 
@@ -106,6 +109,29 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
   private static final byte[] RPC_HEADER = new byte[] { 'Y', 'B', 1 };
   public static final int CONNECTION_CTX_CALL_ID = -3;
 
+  /**
+   * The remote method part of the request header, which never changes for a given service and
+   * method, keyed by service then method name so that looking it up doesn't allocate.
+   */
+  private static final ConcurrentHashMap<String,
+      ConcurrentHashMap<String, RpcHeader.RemoteMethodPB>> REMOTE_METHODS =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Request header builder reused by every RPC encoded on the same thread, so that only the
+   * built header itself is allocated per call.
+   */
+  private static final ThreadLocal<RpcHeader.RequestHeader.Builder> HEADER_BUILDER =
+      new ThreadLocal<RpcHeader.RequestHeader.Builder>() {
+        @Override
+        protected RpcHeader.RequestHeader.Builder initialValue() {
+          return RpcHeader.RequestHeader.newBuilder();
+        }
+      };
+
+  /** Size of the length prefix of every RPC message.  */
+  private static final int RPC_LENGTH_PREFIX_SIZE = 4;
+
   /**
    * A monotonically increasing counter for RPC IDs.
    * RPCs can be sent out from any thread, so we need an atomic integer.
@@ -125,6 +151,12 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
    */
   private volatile Channel chan;
 
+  /**
+   * Gathers the RPCs we send into batches when write coalescing is enabled, else null.
+   * Set before {@link #chan} once we're connected.
+   */
+  private volatile WriteCoalescer coalescer;
+
   /**
    * Set to {@code true} once we've disconnected from the server.
    * This way, if any thread is still trying to use this client after it's
@@ -142,19 +174,103 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
   private final ConcurrentHashMap<Integer, YRpc<?>> rpcs_inflight =
       new ConcurrentHashMap<Integer, YRpc<?>>();
 
+  /**
+   * The number of RPCs in 'pending_rpcs' and 'rpcs_inflight', read without taking the monitor
+   * when picking the least loaded connection.
+   */
+  private final AtomicInteger numInflightRpcs = new AtomicInteger();
+
+  /**
+   * IDs of the RPCs that were cancelled while in flight, whose responses are skipped.
+   */
+  private final Set<Integer> cancelledRpcIds = ConcurrentHashMap.newKeySet();
+
   private final AsyncYBClient ybClient;
 
   private final String uuid;
 
   private final long socketReadTimeoutMs;
 
+  /**
+   * The connection the tablet caches know this server by, when this is one of several striped
+   * connections to the same server, or null if this is that connection.
+   */
+  private final TabletClient primary;
+
+  /**
+   * Exponentially weighted moving average of the RPC latency observed on this connection, in
+   * nanoseconds, or 0 if we haven't received any response yet. Only updated from decode(). With
+   * striped connections, the samples of every stripe go to the primary connection and updates
+   * from different IO threads may race, losing a sample doesn't matter for a moving average.
+   */
+  private volatile long latencyEwmaNanos = 0;
+
+  /** The weight of a new latency sample is 1 / (1 << LATENCY_EWMA_SHIFT).  */
+  private static final int LATENCY_EWMA_SHIFT = 3;
+
+  /**
+   * Limits the RPCs in flight to this server, null if unlimited. Striped connections share the
+   * limiter of their primary connection.
+   */
+  private final ConcurrencyLimiter<YRpc<?>> limiter;
+
+  /**
+   * Bytes written to and read from this server, including the length prefixes. Striped
+   * connections count theirs in the primary connection.
+   */
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong bytesReceived = new AtomicLong();
+
   public TabletClient(AsyncYBClient client, String uuid) {
+    this(client, uuid, null);
+  }
+
+  /**
+   * Creates a client for one of several striped connections to the same server.
+   * @param primary the connection the tablet caches know this server by, null if this is it
+   */
+  TabletClient(AsyncYBClient client, String uuid, TabletClient primary) {
     this.ybClient = client;
     this.uuid = uuid;
+    this.primary = primary;
     this.socketReadTimeoutMs = client.getDefaultSocketReadTimeoutMs();
+    if (primary != null) {
+      this.limiter = primary.limiter;
+    } else if (client.getConcurrencyLimitMax() > 0) {
+      this.limiter = new ConcurrencyLimiter<YRpc<?>>(client.getConcurrencyLimitInitial(),
+                                                     client.getConcurrencyLimitMax(),
+                                                     client.getConcurrencyLimitMaxQueued());
+    } else {
+      this.limiter = null;
+    }
   }
 
   <R> void sendRpc(YRpc<R> rpc) {
+    if (rpc.isCancelled()) {
+      releaseSlot(rpc, -1, false);
+      return;
+    }
+    rpc.connection = this;
+    // RPCs queued before we got connected, or admitted from the limiter's queue, already hold a
+    // slot.
+    if (limiter != null && rpc.concurrencyLimiter == null) {
+      switch (limiter.acquire(rpc)) {
+        case QUEUED:
+          // Sent by sendAdmittedRpcs() once other RPCs complete, unless the server went away
+          // while we were queuing it.
+          if (getPrimary().isDead()) {
+            failOrRetryRpcs(limiter.drain(), new ConnectionResetException(null));
+          }
+          return;
+        case REJECTED:
+          ybClient.recordConcurrencyLimitRejection();
+          rpc.errback(new PleaseThrottleException(getPeerUuidLoggingString() +
+              "Too many RPCs in flight or waiting (limit " + limiter.getLimit() + "), " + rpc));
+          return;
+        default:
+          rpc.concurrencyLimiter = limiter;
+      }
+    }
     if (!rpc.deadlineTracker.hasDeadline()) {
       LOG.warn(getPeerUuidLoggingString() + " sending an rpc without a timeout " + rpc);
     }
@@ -166,7 +282,16 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
 
       final Channel chan = this.chan;  // Volatile read.
       if (chan != null) {  // Double check if we disconnected during encode().
-        Channels.write(chan, serialized);
+        getPrimary().bytesSent.addAndGet(serialized.readableBytes());
+        final WriteCoalescer coalescer = this.coalescer;
+        if (coalescer != null) {
+          if (!coalescer.write(serialized)) {
+            // The connection was closed after we checked, cleanup() may have missed the RPC.
+            failOrRetryUnsentRpc(rpc);
+          }
+        } else {
+          Channels.write(chan, serialized);
+        }
         return;
       }
     }
@@ -182,9 +307,11 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
           pending_rpcs = new ArrayList<YRpc<?>>();
         }
         pending_rpcs.add(rpc);
+        numInflightRpcs.incrementAndGet();
       }
     }
     if (copyOfDead) {
+      releaseSlot(rpc, -1, false);
       failOrRetryRpc(rpc, new ConnectionResetException(null));
       return;
     } else if (tryagain) {
@@ -199,15 +326,20 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
   }
 
   private <R> ChannelBuffer encode(final YRpc<R> rpc) {
+    if (rpc.deadlineTracker.timedOut()) {
+      // There's no time left for the server to do anything, don't make it try.
+      releaseSlot(rpc, -1, false);
+      AsyncYBClient.tooManyAttemptsOrTimeout(rpc, null);
+      return null;
+    }
     final int rpcid = this.rpcid.incrementAndGet();
     ChannelBuffer payload;
     final String service = rpc.serviceName();
     final String method = rpc.method();
     try {
-      final RpcHeader.RequestHeader.Builder headerBuilder = RpcHeader.RequestHeader.newBuilder()
+      final RpcHeader.RequestHeader.Builder headerBuilder = HEADER_BUILDER.get().clear()
           .setCallId(rpcid)
-          .setRemoteMethod(
-              RpcHeader.RemoteMethodPB.newBuilder().setServiceName(service).setMethodName(method));
+          .setRemoteMethod(getRemoteMethod(service, method));
 
       // If any timeout is set, find the lowest non-zero one, since this will be the deadline that
       // the server must respect.
@@ -225,14 +357,20 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
         headerBuilder.setTimeoutMillis((int) Math.min(millisBeforeDeadline, localRpcTimeoutMs));
       }
 
+      rpc.bufferFactory = ybClient.getRequestBufferFactory();
       payload = rpc.serialize(headerBuilder.build());
     } catch (Exception e) {
         LOG.error("Uncaught exception while serializing RPC: " + rpc, e);
+        releaseSlot(rpc, -1, false);
         rpc.errback(e);  // Make the RPC fail with the exception.
         return null;
     }
+    rpc.sendTimeNanos = System.nanoTime();
+    ybClient.getMetrics().forMethod(service, method).numAttempts.incrementAndGet();
     final YRpc<?> oldrpc = rpcs_inflight.put(rpcid, rpc);
-    if (oldrpc != null) {
+    if (oldrpc == null) {
+      numInflightRpcs.incrementAndGet();
+    } else {
       final String wtf = getPeerUuidLoggingString() +
           "WTF?  There was already an RPC in flight with"
           + " rpcid=" + rpcid + ": " + oldrpc
@@ -250,13 +388,48 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     return payload;
   }
 
+  private static RpcHeader.RemoteMethodPB getRemoteMethod(String service, String method) {
+    ConcurrentHashMap<String, RpcHeader.RemoteMethodPB> methods = REMOTE_METHODS.get(service);
+    if (methods == null) {
+      methods = new ConcurrentHashMap<>();
+      ConcurrentHashMap<String, RpcHeader.RemoteMethodPB> existing =
+          REMOTE_METHODS.putIfAbsent(service, methods);
+      if (existing != null) {
+        methods = existing;
+      }
+    }
+    RpcHeader.RemoteMethodPB remoteMethod = methods.get(method);
+    if (remoteMethod == null) {
+      remoteMethod = RpcHeader.RemoteMethodPB.newBuilder()
+          .setServiceName(service)
+          .setMethodName(method)
+          .build();
+      methods.put(method, remoteMethod);
+    }
+    return remoteMethod;
+  }
+
+  /**
+   * Closes the connection without failing the RPCs in flight, they're retried on another
+   * connection like after a connection reset. If we aren't connected yet, this is the same as
+   * {@link #shutdown()}.
+   */
+  void disconnect() {
+    final Channel chancopy = chan;
+    if (chancopy == null) {
+      shutdown();
+      return;
+    }
+    Channels.close(chancopy);
+  }
+
   public Deferred<Void> shutdown() {
     // First, check whether we have RPCs in flight and cancel them.
-    for (Iterator<YRpc<?>> ite = rpcs_inflight.values().iterator(); ite
-        .hasNext();) {
-      YRpc<?> rpc = ite.next();
-      rpc.errback(new ConnectionResetException(null));
-      ite.remove();
+    for (Map.Entry<Integer, YRpc<?>> entry : rpcs_inflight.entrySet()) {
+      YRpc<?> rpc = entry.getValue();
+      if (removeInflightRpc(entry.getKey(), rpc)) {
+        rpc.errback(new ConnectionResetException(null));
+      }
     }
 
     // Same for the pending RPCs.
@@ -265,6 +438,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
         for (Iterator<YRpc<?>> ite = pending_rpcs.iterator(); ite.hasNext();) {
           ite.next().errback(new ConnectionResetException(null));
           ite.remove();
+          numInflightRpcs.decrementAndGet();
         }
       }
     }
@@ -319,17 +493,28 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
    */
   @Override
   @SuppressWarnings("unchecked")
-  protected Object decode(ChannelHandlerContext ctx, Channel chan, ChannelBuffer buf,
-                              VoidEnum voidEnum) {
-    final long start = System.nanoTime();
-    final int rdx = buf.readerIndex();
-    LOG.debug("------------------>> ENTERING DECODE >>------------------");
-
+  protected Object decode(ChannelHandlerContext ctx, Channel chan, ChannelBuffer buf) {
     if (buf == null) {
       return null;
     }
 
-    CallResponse response = new CallResponse(buf);
+    // Wait until we've accumulated a whole response, the length prefix doesn't count itself.
+    if (buf.readableBytes() < RPC_LENGTH_PREFIX_SIZE) {
+      return null;
+    }
+    final int responseSize = buf.getInt(buf.readerIndex());
+    YRpc.checkArrayLength(buf, responseSize);
+    if (buf.readableBytes() < RPC_LENGTH_PREFIX_SIZE + responseSize) {
+      return null;
+    }
+
+    final long start = System.nanoTime();
+    LOG.debug("------------------>> ENTERING DECODE >>------------------");
+
+    // The response is parsed straight from the accumulated bytes, without copying them.
+    final ChannelBuffer frame = buf.readSlice(RPC_LENGTH_PREFIX_SIZE + responseSize);
+    getPrimary().bytesReceived.addAndGet(frame.capacity());
+    CallResponse response = new CallResponse(frame);
     if (response.isEmpty()) {
       // Skip empty messages which we are using as heartbeats.
       return null;
@@ -339,7 +524,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     if (!header.hasCallId()) {
       final int size = response.getTotalResponseSize();
       final String msg = getPeerUuidLoggingString() + "RPC response (size: " + size + ") doesn't"
-          + " have a call ID: " + header + ", buf=" + Bytes.pretty(buf);
+          + " have a call ID: " + header + ", buf=" + Bytes.pretty(frame);
       LOG.error(msg);
       throw new NonRecoverableException(msg);
     }
@@ -349,8 +534,12 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     final YRpc rpc = rpcs_inflight.get(rpcid);
 
     if (rpc == null) {
+      if (cancelledRpcIds.remove(rpcid)) {
+        LOG.debug(getPeerUuidLoggingString() + "Ignoring the response to cancelled rpcid=" + rpcid);
+        return null;
+      }
       final String msg = getPeerUuidLoggingString() + "Invalid rpcid: " + rpcid + " found in "
-          + buf + '=' + Bytes.pretty(buf);
+          + frame + '=' + Bytes.pretty(frame);
       LOG.error(msg);
       // The problem here is that we don't know which Deferred corresponds to
       // this RPC, since we don't have a valid ID.  So we're hopeless, we'll
@@ -361,6 +550,14 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
       // all RPCs in flight to be failed.
       throw new NonRecoverableException(msg);
     }
+    final long latencyNanos = System.nanoTime() - rpc.sendTimeNanos;
+    // The server held a long poll for as long as it wanted, its latency isn't a sample of the
+    // server's: it doesn't feed the moving average, outlier detection nor the limiter.
+    final long sampleNanos = rpc.isLongPoll() ? -1 : latencyNanos;
+    ybClient.recordServerResponse(getPrimary(), rpc.method(), sampleNanos);
+    if (sampleNanos >= 0) {
+      getPrimary().recordLatency(sampleNanos);
+    }
 
     Pair<Object, Object> decoded = null;
     Exception exception = null;
@@ -388,22 +585,36 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     }
     if (LOG.isDebugEnabled()) {
       LOG.debug(getPeerUuidLoggingString() + "rpcid=" + rpcid
-          + ", response size=" + (buf.readerIndex() - rdx) + " bytes"
-          + ", " + actualReadableBytes() + " readable bytes left"
+          + ", response size=" + frame.capacity() + " bytes"
+          + ", " + buf.readableBytes() + " readable bytes left"
           + ", rpc=" + rpc);
     }
 
     {
       final YRpc<?> removed = rpcs_inflight.remove(rpcid);
+      if (removed != null) {
+        numInflightRpcs.decrementAndGet();
+      }
+      if (removed == null && cancelledRpcIds.remove(rpcid)) {
+        // Cancelled while we were decoding it.
+        return null;
+      }
       if (removed == null) {
         // The RPC we were decoding was cleaned up already, give up.
         throw new NonRecoverableException("RPC not found");
       }
     }
+    ybClient.getMetrics().forMethod(rpc.serviceName(), rpc.method()).recordResponse(
+        latencyNanos, exception != null || retryableHeaderException != null ||
+                      (decoded != null && decoded.getSecond() != null));
+    // Before the callbacks, which may well send the RPC again. A server too busy to serve us
+    // counts as a dropped RPC.
+    releaseSlot(rpc, sampleNanos, retryableHeaderException != null);
 
     // This check is specifically for the ERROR_SERVER_TOO_BUSY case above.
     if (retryableHeaderException != null) {
-      ybClient.handleRetryableError(rpc, retryableHeaderException, this);
+      ybClient.handleRetryableError(rpc, RetryReason.SERVER_TOO_BUSY, retryableHeaderException,
+                                    this);
       return null;
     }
 
@@ -431,6 +642,13 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
         } else {
           decoded = null;
         }
+
+      } else if (decoded.getSecond() instanceof CdcService.CDCErrorPB && rpc.getTablet() != null) {
+        // Only RPCs that were routed through the tablet location cache can be retried elsewhere,
+        // the other CDC errors are left in the response for the caller to look at.
+        if (dispatchCDCError(rpc, (CdcService.CDCErrorPB) decoded.getSecond())) {
+          return null;
+        }
       }
     }
 
@@ -474,7 +692,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
                  Tserver.TabletServerErrorPB.Code.LEADER_NOT_READY_TO_STEP_DOWN ||
                error.getCode() ==
                  Tserver.TabletServerErrorPB.Code.LEADER_NOT_READY_TO_SERVE) {
-      ybClient.handleRetryableError(rpc, ex, this);
+      ybClient.handleRetryableError(rpc, RetryReason.SERVICE_UNAVAILABLE, ex, this);
       // The following error codes are an indication that the tablet isn't a leader, or, in case
       // of LEADER_HAS_NO_LEASE, might no longer be the leader due to failing to replicate a leader
       // lease, so we retry looking up the leader anyway.
@@ -484,11 +702,39 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
                error.getCode() == Tserver.TabletServerErrorPB.Code.NOT_THE_LEADER) {
       ybClient.handleNotLeader(rpc, ex, this);
     } else {
+      if (error.getCode() == Tserver.TabletServerErrorPB.Code.MISMATCHED_SCHEMA) {
+        // Whatever schema we have for this table is outdated.
+        ybClient.invalidateTableMetadata(rpc.getTable());
+      }
       return ex;
     }
     return null;
   }
 
+  /**
+   * Takes care of the CDC errors telling us that the tablet moved or that its leader changed.
+   * @param rpc The original RPC call that triggered the error.
+   * @param error The error the TS sent.
+   * @return true if the RPC is being retried, false if the caller should get the response.
+   */
+  private boolean dispatchCDCError(YRpc rpc, CdcService.CDCErrorPB error) {
+    CDCErrorException ex = new CDCErrorException(uuid, error);
+    switch (error.getCode()) {
+      case TABLET_NOT_FOUND:
+        ybClient.handleTabletNotFound(rpc, ex, this);
+        return true;
+      case NOT_LEADER:
+        ybClient.handleNotLeader(rpc, ex, this);
+        return true;
+      case LEADER_NOT_READY:
+      case TABLET_NOT_RUNNING:
+        ybClient.handleRetryableError(rpc, RetryReason.SERVICE_UNAVAILABLE, ex, this);
+        return true;
+      default:
+        return false;
+    }
+  }
+
   /**
    * Provides different handling for various kinds of master errors: re-uses the
    * mechanisms already in place for handling tablet server errors as much as possible.
@@ -504,12 +750,12 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
       ybClient.handleNotLeader(rpc, ex, this);
     } else if (error.getCode() == Master.MasterErrorPB.Code.CATALOG_MANAGER_NOT_INITIALIZED ||
                error.getCode() == Master.MasterErrorPB.Code.CAN_RETRY_LOAD_BALANCE_CHECK) {
-      ybClient.handleRetryableError(rpc, ex, this);
+      ybClient.handleRetryableError(rpc, RetryReason.SERVICE_UNAVAILABLE, ex, this);
     } else if (code == WireProtocol.AppStatusPB.ErrorCode.SERVICE_UNAVAILABLE &&
         (!(rpc instanceof GetMasterRegistrationRequest))) {
       // TODO: This is a crutch until we either don't have to retry RPCs going to the
       // same server or use retry policies.
-      ybClient.handleRetryableError(rpc, ex, this);
+      ybClient.handleRetryableError(rpc, RetryReason.SERVICE_UNAVAILABLE, ex, this);
     } else {
       return ex;
     }
@@ -530,8 +776,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
   @Override
   protected Object decodeLast(final ChannelHandlerContext ctx,
                               final Channel chan,
-                              final ChannelBuffer buf,
-                              final VoidEnum unused) {
+                              final ChannelBuffer buf) {
     // When we disconnect, decodeLast is called instead of decode.
     // We simply check whether there's any data left in the buffer, in which
     // case we attempt to process it.  But if there's no data left, then we
@@ -539,7 +784,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     // doesn't contain enough data, which unnecessarily pollutes the logs.
     if (buf.readable()) {
       try {
-        return decode(ctx, chan, buf, unused);
+        return decode(ctx, chan, buf);
       } finally {
         if (buf.readable()) {
           LOG.error(getPeerUuidLoggingString() + "After decoding the last message on " + chan
@@ -577,9 +822,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
 
   /**
    * Ensures that at least a {@code nbytes} are readable from the given buffer.
-   * If there aren't enough bytes in the buffer this will raise an exception
-   * and cause the {@link ReplayingDecoder} to undo whatever we did thus far
-   * so we can wait until we read more from the socket.
+   * If there aren't enough bytes in the buffer this will raise an exception.
    * @param buf Buffer to check.
    * @param nbytes Number of bytes desired.
    */
@@ -612,7 +855,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
   public void channelDisconnected(final ChannelHandlerContext ctx,
                                   final ChannelStateEvent e) throws Exception {
     chan = null;
-    super.channelDisconnected(ctx, e);  // Let the ReplayingDecoder cleanup.
+    super.channelDisconnected(ctx, e);  // Let the FrameDecoder cleanup.
     cleanup(e.getChannel());
   }
 
@@ -623,7 +866,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     // No need to call super.channelClosed() because we already called
     // super.channelDisconnected().  If we get here without getting a
     // DISCONNECTED event, then we were never connected in the first place so
-    // the ReplayingDecoder has nothing to cleanup.
+    // the FrameDecoder has nothing to cleanup.
     cleanup(e.getChannel());
   }
 
@@ -636,11 +879,30 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
   private void cleanup(final Channel chan) {
     final ConnectionResetException exception =
         new ConnectionResetException(getPeerUuidLoggingString() + "Connection reset on " + chan);
-    for (Iterator<YRpc<?>> ite = rpcs_inflight.values().iterator(); ite
-        .hasNext();) {
-      YRpc<?> rpc = ite.next();
+    cancelledRpcIds.clear();
+    // The RPCs of the batch being coalesced are in flight, they're failed or retried below.
+    final WriteCoalescer coalescer = this.coalescer;
+    if (coalescer != null) {
+      final int discarded = coalescer.close();
+      if (discarded > 0) {
+        LOG.debug(getPeerUuidLoggingString() + "Discarded " + discarded +
+                  " coalesced RPCs that were not written yet");
+      }
+    }
+    boolean hadRpcsInFlight = false;
+    for (Map.Entry<Integer, YRpc<?>> entry : rpcs_inflight.entrySet()) {
+      YRpc<?> rpc = entry.getValue();
+      if (!removeInflightRpc(entry.getKey(), rpc)) {
+        // Its response just came back.
+        continue;
+      }
+      hadRpcsInFlight = true;
+      releaseSlot(rpc, -1, true, false);
       failOrRetryRpc(rpc, exception);
-      ite.remove();
+    }
+    // A reset or a read timeout is one failure of the server, however many RPCs it dropped.
+    if (hadRpcsInFlight) {
+      ybClient.recordServerFailure(getPrimary());
     }
 
     final ArrayList<YRpc<?>> rpcs;
@@ -648,10 +910,118 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
       dead = true;
       rpcs = pending_rpcs;
       pending_rpcs = null;
+      if (rpcs != null) {
+        numInflightRpcs.addAndGet(-rpcs.size());
+      }
     }
     if (rpcs != null) {
+      for (YRpc<?> rpc : rpcs) {
+        releaseSlot(rpc, -1, false, false);
+      }
       failOrRetryRpcs(rpcs, exception);
     }
+    if (limiter != null) {
+      if (isStripe()) {
+        // The RPCs waiting for a slot can still go through the other connections.
+        getPrimary().sendAdmittedRpcs(limiter);
+      } else {
+        // The server is gone, the RPCs waiting for it have to go elsewhere.
+        failOrRetryRpcs(limiter.drain(), exception);
+      }
+    }
+  }
+
+  /**
+   * Gives back the limiter slot held by an RPC, if any, and sends the RPCs it lets through.
+   * @param latencyNanos the latency of the RPC, negative if it didn't get an answer or its
+   *                     latency isn't a sample of the server's
+   * @param dropped true if the RPC was sent but failed without an answer
+   */
+  private void releaseSlot(YRpc<?> rpc, long latencyNanos, boolean dropped) {
+    releaseSlot(rpc, latencyNanos, dropped, true);
+  }
+
+  /**
+   * @param sendAdmitted false to leave the RPCs let through in the queue, when we are the ones
+   *                     shutting down
+   */
+  private void releaseSlot(YRpc<?> rpc, long latencyNanos, boolean dropped,
+                           boolean sendAdmitted) {
+    final ConcurrencyLimiter<YRpc<?>> slotLimiter = rpc.concurrencyLimiter;
+    if (slotLimiter == null) {
+      return;
+    }
+    rpc.concurrencyLimiter = null;
+    if (latencyNanos < 0 && !dropped) {
+      slotLimiter.cancel();
+    } else {
+      slotLimiter.release(rpc.method(), latencyNanos, dropped);
+    }
+    if (sendAdmitted) {
+      sendAdmittedRpcs(slotLimiter);
+    }
+  }
+
+  private void sendAdmittedRpcs(ConcurrencyLimiter<YRpc<?>> slotLimiter) {
+    YRpc<?> rpc;
+    while ((rpc = slotLimiter.poll()) != null) {
+      if (rpc.isCancelled()) {
+        slotLimiter.cancel();
+        continue;
+      }
+      if (rpc.deadlineTracker.timedOut()) {
+        // It waited too long already.
+        slotLimiter.cancel();
+        AsyncYBClient.tooManyAttemptsOrTimeout(rpc, null);
+        continue;
+      }
+      rpc.concurrencyLimiter = slotLimiter;
+      sendRpc(rpc);
+    }
+  }
+
+  /**
+   * Forgets an RPC its caller gave up on, whether it waits for a slot, for the connection or for
+   * its response. The response of an RPC already sent is skipped when it comes back.
+   * @param rpc the cancelled RPC
+   */
+  void cancelRpc(YRpc<?> rpc) {
+    if (limiter != null && limiter.remove(rpc)) {
+      return;
+    }
+    final boolean wasPending;
+    synchronized (this) {
+      wasPending = pending_rpcs != null && pending_rpcs.remove(rpc);
+      if (wasPending) {
+        numInflightRpcs.decrementAndGet();
+      }
+    }
+    if (wasPending) {
+      releaseSlot(rpc, -1, false);
+      return;
+    }
+    for (Map.Entry<Integer, YRpc<?>> entry : rpcs_inflight.entrySet()) {
+      if (entry.getValue() == rpc && removeInflightRpc(entry.getKey(), rpc)) {
+        cancelledRpcIds.add(entry.getKey());
+        releaseSlot(rpc, -1, false);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Fails or retries an RPC that was encoded but couldn't be written because the connection got
+   * closed in the meantime, unless {@link #cleanup} already took care of it.
+   */
+  private void failOrRetryUnsentRpc(YRpc<?> rpc) {
+    for (Map.Entry<Integer, YRpc<?>> entry : rpcs_inflight.entrySet()) {
+      if (entry.getValue() == rpc && removeInflightRpc(entry.getKey(), rpc)) {
+        releaseSlot(rpc, -1, true, false);
+        failOrRetryRpc(rpc, new ConnectionResetException(
+            getPeerUuidLoggingString() + "Connection closed before sending " + rpc));
+        return;
+      }
+    }
   }
 
   /**
@@ -694,7 +1064,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     } else if (e instanceof ReadTimeoutException) {
       LOG.debug(getPeerUuidLoggingString() + "Encountered a read timeout");
       // Doing the cleanup here since we want to invalidate all the RPCs right _now_, and not let
-      // the ReplayingDecoder continue decoding through Channels.close() below.
+      // the FrameDecoder continue decoding through Channels.close() below.
       cleanup(c);
     } else {
       LOG.debug(getPeerUuidLoggingString() + "Unexpected exception " + e.getMessage() +
@@ -713,6 +1083,10 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
   }
 
   public void becomeReady(Channel chan) {
+    if (ybClient.getWriteCoalescingMaxBytes() > 0) {
+      this.coalescer = new WriteCoalescer(ybClient, chan, ybClient.getWriteCoalescingWindowMs(),
+                                          ybClient.getWriteCoalescingMaxBytes());
+    }
     this.chan = chan;
     sendQueuedRpcs();
   }
@@ -727,6 +1101,10 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     synchronized (this) {
       rpcs = pending_rpcs;
       pending_rpcs = null;
+      if (rpcs != null) {
+        // Counted again as they're sent.
+        numInflightRpcs.addAndGet(-rpcs.size());
+      }
     }
     if (rpcs != null) {
       for (final YRpc<?> rpc : rpcs) {
@@ -736,6 +1114,91 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     }
   }
 
+  private void recordLatency(long latencyNanos) {
+    final long current = latencyEwmaNanos;
+    if (current == 0) {
+      latencyEwmaNanos = Math.max(latencyNanos, 1);
+    } else {
+      latencyEwmaNanos = Math.max(current + ((latencyNanos - current) >> LATENCY_EWMA_SHIFT), 1);
+    }
+  }
+
+  /**
+   * Returns the moving average of the RPC latency observed on this connection.
+   * @return the latency in nanoseconds, or 0 if no RPC completed on this connection yet
+   */
+  long getLatencyEwmaNanos() {
+    return latencyEwmaNanos;
+  }
+
+  /**
+   * Returns the connection the tablet caches know this server by. Errors received on a striped
+   * connection are handled as if they came from that connection.
+   * @return the primary connection to this server, this client if it is the primary one
+   */
+  TabletClient getPrimary() {
+    return primary == null ? this : primary;
+  }
+
+  /**
+   * @return true if this is one of the extra striped connections to a server
+   */
+  boolean isStripe() {
+    return primary != null;
+  }
+
+  /**
+   * @return the number of RPCs sent on this connection that haven't completed yet, including the
+   *         ones waiting for it to connect
+   */
+  int getNumInflightRpcs() {
+    return numInflightRpcs.get();
+  }
+
+  /**
+   * Removes an RPC from 'rpcs_inflight', unless another thread beat us to it.
+   * @return true if we removed it
+   */
+  private boolean removeInflightRpc(int rpcid, YRpc<?> rpc) {
+    if (rpcs_inflight.remove(rpcid, rpc)) {
+      numInflightRpcs.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  private synchronized boolean isDead() {
+    return dead;
+  }
+
+  /**
+   * @return how many RPCs can currently be in flight to this server, -1 if unlimited
+   */
+  int getConcurrencyLimit() {
+    return limiter == null ? -1 : limiter.getLimit();
+  }
+
+  /**
+   * @return the number of bytes sent to this server, over all its striped connections
+   */
+  long getNumBytesSent() {
+    return bytesSent.get();
+  }
+
+  /**
+   * @return the number of bytes received from this server, over all its striped connections
+   */
+  long getNumBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  /**
+   * @return the number of RPCs waiting for the concurrency limit of this server
+   */
+  int getNumQueuedRpcs() {
+    return limiter == null ? 0 : limiter.getNumQueued();
+  }
+
   private String getPeerUuidLoggingString() {
     return "[Peer " + uuid + "] ";
   }
@@ -0,0 +1,164 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import org.yb.annotations.InterfaceAudience;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the known tablets of a table, sorted by partition start key.
+ * <p>
+ * Lookups do a binary search over the partition start keys and don't allocate. Updates never
+ * modify a snapshot, they build a new one with {@link #withTablets(List, List)} that the caller then
+ * publishes atomically, so readers always see a consistent set of non-overlapping tablets.
+ */
+@InterfaceAudience.Private
+final class TabletLocationIndex {
+
+  static final TabletLocationIndex EMPTY =
+      new TabletLocationIndex(new AsyncYBClient.RemoteTablet[0]);
+
+  private static final Comparator<AsyncYBClient.RemoteTablet> START_KEY_ORDER =
+      new Comparator<AsyncYBClient.RemoteTablet>() {
+        @Override
+        public int compare(AsyncYBClient.RemoteTablet a, AsyncYBClient.RemoteTablet b) {
+          return Bytes.memcmp(a.getPartition().getPartitionKeyStart(),
+                              b.getPartition().getPartitionKeyStart());
+        }
+      };
+
+  private final byte[][] startKeys;
+  private final byte[][] endKeys;
+  private final AsyncYBClient.RemoteTablet[] tablets;
+
+  // 'tablets' must be sorted by partition start key and must not overlap.
+  private TabletLocationIndex(AsyncYBClient.RemoteTablet[] tablets) {
+    this.tablets = tablets;
+    this.startKeys = new byte[tablets.length][];
+    this.endKeys = new byte[tablets.length][];
+    for (int i = 0; i < tablets.length; i++) {
+      startKeys[i] = tablets[i].getPartition().getPartitionKeyStart();
+      endKeys[i] = tablets[i].getPartition().getPartitionKeyEnd();
+    }
+  }
+
+  int size() {
+    return tablets.length;
+  }
+
+  boolean isEmpty() {
+    return tablets.length == 0;
+  }
+
+  /**
+   * @return the tablet with the lowest partition start key, or null if there is none
+   */
+  AsyncYBClient.RemoteTablet first() {
+    return tablets.length == 0 ? null : tablets[0];
+  }
+
+  /**
+   * Finds the tablet serving the given partition key.
+   * @param partitionKey the partition key to look up, null is the same as the empty key
+   * @return the tablet whose partition contains the key, or null if we don't know it
+   */
+  AsyncYBClient.RemoteTablet lookup(byte[] partitionKey) {
+    if (partitionKey == null) {
+      partitionKey = AsyncYBClient.EMPTY_ARRAY;
+    }
+    int index = floorIndex(partitionKey);
+    if (index < 0) {
+      return null;
+    }
+    // If the partition is not the end partition, but it doesn't include the key
+    // we are looking for, then we have not yet found the correct tablet.
+    byte[] end = endKeys[index];
+    if (end.length != 0 && Bytes.memcmp(partitionKey, end) >= 0) {
+      return null;
+    }
+    return tablets[index];
+  }
+
+  /**
+   * @return the tablets of this snapshot, sorted by partition start key
+   */
+  List<AsyncYBClient.RemoteTablet> getTablets() {
+    return Collections.unmodifiableList(Arrays.asList(tablets));
+  }
+
+  /**
+   * Builds a new snapshot containing the given tablets. Tablets of this snapshot overlapping any
+   * of the new tablets are dropped, e.g. after a tablet split or when a table was recreated.
+   * @param newTablets non-overlapping tablets to add
+   * @param dropped if not null, receives the tablets of this snapshot that were dropped
+   * @return the new snapshot
+   */
+  TabletLocationIndex withTablets(List<AsyncYBClient.RemoteTablet> newTablets,
+                                  List<AsyncYBClient.RemoteTablet> dropped) {
+    if (newTablets.isEmpty()) {
+      return this;
+    }
+    boolean[] overlapped = new boolean[tablets.length];
+    for (AsyncYBClient.RemoteTablet tablet : newTablets) {
+      byte[] start = tablet.getPartition().getPartitionKeyStart();
+      byte[] end = tablet.getPartition().getPartitionKeyEnd();
+      int index = Math.max(floorIndex(start), 0);
+      for (; index < tablets.length; index++) {
+        if (end.length != 0 && Bytes.memcmp(startKeys[index], end) >= 0) {
+          break;
+        }
+        if (endKeys[index].length == 0 || Bytes.memcmp(endKeys[index], start) > 0) {
+          overlapped[index] = true;
+        }
+      }
+    }
+    List<AsyncYBClient.RemoteTablet> merged =
+        new ArrayList<AsyncYBClient.RemoteTablet>(tablets.length + newTablets.size());
+    for (int i = 0; i < tablets.length; i++) {
+      if (!overlapped[i]) {
+        merged.add(tablets[i]);
+      } else if (dropped != null) {
+        dropped.add(tablets[i]);
+      }
+    }
+    merged.addAll(newTablets);
+    Collections.sort(merged, START_KEY_ORDER);
+    return new TabletLocationIndex(merged.toArray(new AsyncYBClient.RemoteTablet[merged.size()]));
+  }
+
+  /**
+   * @return the index of the tablet with the greatest start key lower or equal to the key, or -1
+   */
+  private int floorIndex(byte[] key) {
+    int low = 0;
+    int high = startKeys.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = Bytes.memcmp(startKeys[mid], key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return high;
+  }
+}
@@ -0,0 +1,153 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+package org.yb.client;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.yb.annotations.InterfaceAudience;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gathers the RPCs a {@link TabletClient} sends within a short window into a single composite
+ * buffer, written to the channel at once instead of one write, and one syscall, per RPC.
+ * <p>
+ * A batch is flushed once it reaches the byte threshold, or when the window expires. With a
+ * window of 0, the batch is flushed by a task queued on the IO thread of the channel, which
+ * gathers all the RPCs sent while that thread was busy.
+ * <p>
+ * The RPCs of a batch are already in flight on the {@link TabletClient}, so when the connection
+ * goes away the batch is discarded and the client fails or retries them like any other RPC in
+ * flight. Writes that come after that are refused, and the caller has to do the same.
+ */
+@InterfaceAudience.Private
+final class WriteCoalescer {
+
+  private final AsyncYBClient ybClient;
+  private final Channel chan;
+  private final long windowMs;
+  private final int maxBatchBytes;
+
+  // All guarded by this.
+  private ArrayList<ChannelBuffer> batch = new ArrayList<ChannelBuffer>();
+  private int batchBytes;
+  private long batchStartNanos;
+  private boolean closed;
+
+  WriteCoalescer(AsyncYBClient ybClient, Channel chan, long windowMs, int maxBatchBytes) {
+    this.ybClient = ybClient;
+    this.chan = chan;
+    this.windowMs = windowMs;
+    this.maxBatchBytes = maxBatchBytes;
+  }
+
+  /**
+   * Adds an encoded RPC to the current batch, flushing it if it's full.
+   * @return false if the coalescer was closed, in which case the RPC wasn't sent
+   */
+  boolean write(ChannelBuffer buf) {
+    List<ChannelBuffer> full = null;
+    long startNanos;
+    boolean scheduleFlush = false;
+    synchronized (this) {
+      if (closed) {
+        return false;
+      }
+      if (batch.isEmpty()) {
+        batchStartNanos = System.nanoTime();
+        scheduleFlush = true;
+      }
+      batch.add(buf);
+      batchBytes += buf.readableBytes();
+      startNanos = batchStartNanos;
+      if (batchBytes >= maxBatchBytes) {
+        full = takeBatch();
+        // A flush that was already scheduled will find an empty batch, or a newer one.
+        scheduleFlush = false;
+      }
+    }
+    if (full != null) {
+      write(full, startNanos);
+    } else if (scheduleFlush) {
+      scheduleFlush();
+    }
+    return true;
+  }
+
+  /**
+   * Discards the current batch and refuses any further write, once the channel is closed.
+   * @return how many RPCs were discarded
+   */
+  synchronized int close() {
+    closed = true;
+    final int discarded = batch.size();
+    batch = new ArrayList<ChannelBuffer>();
+    batchBytes = 0;
+    return discarded;
+  }
+
+  /**
+   * Writes the current batch, if any.
+   */
+  void flush() {
+    List<ChannelBuffer> toWrite;
+    long startNanos;
+    synchronized (this) {
+      if (batch.isEmpty()) {
+        return;
+      }
+      startNanos = batchStartNanos;
+      toWrite = takeBatch();
+    }
+    write(toWrite, startNanos);
+  }
+
+  // Must be called with this synchronized.
+  private List<ChannelBuffer> takeBatch() {
+    List<ChannelBuffer> taken = batch;
+    batch = new ArrayList<ChannelBuffer>(taken.size());
+    batchBytes = 0;
+    return taken;
+  }
+
+  private void write(List<ChannelBuffer> buffers, long startNanos) {
+    final ChannelBuffer payload = buffers.size() == 1 ?
+        buffers.get(0) : ChannelBuffers.wrappedBuffer(buffers.toArray(new ChannelBuffer[0]));
+    // Counted first, so that the batch is counted by the time its responses come back.
+    ybClient.recordWriteBatch(buffers.size(), System.nanoTime() - startNanos);
+    Channels.write(chan, payload);
+  }
+
+  private void scheduleFlush() {
+    if (windowMs > 0) {
+      ybClient.newTimeout(new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+          flush();
+        }
+      }, windowMs);
+    } else {
+      chan.getPipeline().execute(new Runnable() {
+        @Override
+        public void run() {
+          flush();
+        }
+      });
+    }
+  }
+}
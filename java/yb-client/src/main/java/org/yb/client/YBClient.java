@@ -38,6 +38,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 
+import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yb.ColumnSchema;
@@ -47,7 +50,6 @@ import org.yb.Schema;
 import org.yb.Type;
 import org.yb.annotations.InterfaceAudience;
 import org.yb.annotations.InterfaceStability;
-import org.yb.consensus.Metadata;
 import org.yb.master.Master;
 import org.yb.tserver.Tserver;
 
@@ -61,6 +63,9 @@ import org.yb.util.Pair;
  * This class acts as a wrapper around {@link AsyncYBClient}. The {@link Deferred} objects are
  * joined against using the default admin operation timeout
  * (see {@link org.yb.client.YBClient.YBClientBuilder#defaultAdminOperationTimeoutMs(long)} (long)}).
+ * The joins wait on a {@link java.util.concurrent.CompletableFuture} rather than on the
+ * {@link Deferred} monitor, so calls made from virtual threads don't pin their carrier thread.
+ * Callers that don't want to block a thread per call can use {@link #getCompletableClient()}.
  */
 @InterfaceAudience.Public
 @InterfaceStability.Evolving
@@ -70,6 +75,8 @@ public class YBClient implements AutoCloseable {
 
   private final AsyncYBClient asyncClient;
 
+  private final CompletableYBClient completableClient;
+
   // Number of retries on retriable errors, could make it time based as needed.
   private static final int MAX_NUM_RETRIES = 25;
 
@@ -97,6 +104,7 @@ public class YBClient implements AutoCloseable {
 
   public YBClient(AsyncYBClient asyncClient) {
     this.asyncClient = asyncClient;
+    this.completableClient = new CompletableYBClient(asyncClient);
   }
 
   /**
@@ -177,7 +185,7 @@ public class YBClient implements AutoCloseable {
                              CreateTableOptions builder)
       throws Exception {
     Deferred<YBTable> d = asyncClient.createTable(keyspace, name, schema, builder);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /*
@@ -187,7 +195,7 @@ public class YBClient implements AutoCloseable {
   public CreateKeyspaceResponse createKeyspace(String keyspace)
       throws Exception {
     Deferred<CreateKeyspaceResponse> d = asyncClient.createKeyspace(keyspace);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /*
@@ -197,7 +205,7 @@ public class YBClient implements AutoCloseable {
   public CreateKeyspaceResponse createKeyspace(String keyspace, YQLDatabase databaseType)
       throws Exception {
     Deferred<CreateKeyspaceResponse> d = asyncClient.createKeyspace(keyspace, databaseType);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -209,7 +217,7 @@ public class YBClient implements AutoCloseable {
   public DeleteTableResponse deleteTable(final String keyspace, final String name)
       throws Exception {
     Deferred<DeleteTableResponse> d = asyncClient.deleteTable(keyspace, name);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -225,7 +233,7 @@ public class YBClient implements AutoCloseable {
   public AlterTableResponse alterTable(String keyspace, String name, AlterTableOptions ato)
       throws Exception {
     Deferred<AlterTableResponse> d = asyncClient.alterTable(keyspace, name, ato);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -243,7 +251,7 @@ public class YBClient implements AutoCloseable {
       Deferred<IsAlterTableDoneResponse> d = asyncClient.isAlterTableDone(keyspace, name);
       IsAlterTableDoneResponse response;
       try {
-        response = d.join(AsyncYBClient.SLEEP_TIME);
+        response = join(d, AsyncYBClient.SLEEP_TIME);
       } catch (Exception ex) {
         throw ex;
       }
@@ -277,7 +285,7 @@ public class YBClient implements AutoCloseable {
    */
   public ListTabletServersResponse listTabletServers() throws Exception {
     Deferred<ListTabletServersResponse> d = asyncClient.listTabletServers();
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -286,7 +294,7 @@ public class YBClient implements AutoCloseable {
    */
   public ListMastersResponse listMasters() throws Exception {
     Deferred<ListMastersResponse> d = asyncClient.listMasters();
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -295,7 +303,7 @@ public class YBClient implements AutoCloseable {
    */
   public GetMasterClusterConfigResponse getMasterClusterConfig() throws Exception {
     Deferred<GetMasterClusterConfigResponse> d = asyncClient.getMasterClusterConfig();
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -306,7 +314,7 @@ public class YBClient implements AutoCloseable {
   public ChangeMasterClusterConfigResponse changeMasterClusterConfig(
       Master.SysClusterConfigEntryPB config) throws Exception {
     Deferred<ChangeMasterClusterConfigResponse> d = asyncClient.changeMasterClusterConfig(config);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -317,7 +325,7 @@ public class YBClient implements AutoCloseable {
   public ChangeLoadBalancerStateResponse changeLoadBalancerState(
       boolean isEnable) throws Exception {
     Deferred<ChangeLoadBalancerStateResponse> d = asyncClient.changeLoadBalancerState(isEnable);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -331,7 +339,7 @@ public class YBClient implements AutoCloseable {
     int numTries = 0;
     do {
       d = asyncClient.getLoadMoveCompletion();
-      resp = d.join(getDefaultAdminOperationTimeoutMs());
+      resp = join(d, getDefaultAdminOperationTimeoutMs());
     } while (resp.hasRetriableError() && numTries++ < MAX_NUM_RETRIES);
     return resp;
   }
@@ -347,7 +355,7 @@ public class YBClient implements AutoCloseable {
     int numTries = 0;
     do {
       d = asyncClient.getLeaderBlacklistCompletion();
-      resp = d.join(getDefaultAdminOperationTimeoutMs());
+      resp = join(d, getDefaultAdminOperationTimeoutMs());
     } while (resp.hasRetriableError() && numTries++ < MAX_NUM_RETRIES);
     return resp;
   }
@@ -361,7 +369,7 @@ public class YBClient implements AutoCloseable {
    */
   public IsLoadBalancedResponse getIsLoadBalanced(int numServers) throws Exception {
     Deferred<IsLoadBalancedResponse> d = asyncClient.getIsLoadBalanced(numServers);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -370,7 +378,7 @@ public class YBClient implements AutoCloseable {
    */
   public IsLoadBalancerIdleResponse getIsLoadBalancerIdle() throws Exception {
     Deferred<IsLoadBalancerIdleResponse> d = asyncClient.getIsLoadBalancerIdle();
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -379,7 +387,7 @@ public class YBClient implements AutoCloseable {
    */
   public AreLeadersOnPreferredOnlyResponse getAreLeadersOnPreferredOnly() throws Exception {
     Deferred<AreLeadersOnPreferredOnlyResponse> d = asyncClient.getAreLeadersOnPreferredOnly();
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -387,7 +395,7 @@ public class YBClient implements AutoCloseable {
    */
   public IsInitDbDoneResponse getIsInitDbDone() throws Exception {
     Deferred<IsInitDbDoneResponse> d = asyncClient.getIsInitDbDone();
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -425,7 +433,7 @@ public class YBClient implements AutoCloseable {
     } else {
       d = asyncClient.getMasterRegistration(clientForHostAndPort);
       try {
-        GetMasterRegistrationResponse resp = d.join(getDefaultAdminOperationTimeoutMs());
+        GetMasterRegistrationResponse resp = join(d, getDefaultAdminOperationTimeoutMs());
         return resp.getInstanceId().getPermanentUuid().toStringUtf8();
       } catch (Exception e) {
         LOG.warn("Couldn't get registration info for master {} due to error '{}'.",
@@ -437,58 +445,36 @@ public class YBClient implements AutoCloseable {
   }
 
   /**
-   * Find the uuid of the leader master.
+   * Find the uuid of the leader master. The leader is cached by the client, this only asks the
+   * masters when the leader is not known.
    * @return The uuid of the leader master, or null if no leader found.
    */
   public String getLeaderMasterUUID() {
-    for (HostAndPort hostAndPort : asyncClient.getMasterAddresses()) {
-      Deferred<GetMasterRegistrationResponse> d;
-      TabletClient clientForHostAndPort = asyncClient.newMasterClient(hostAndPort);
-      if (clientForHostAndPort == null) {
-        String message = "Couldn't resolve this master's address " + hostAndPort.toString();
-        LOG.warn(message);
-      } else {
-        d = asyncClient.getMasterRegistration(clientForHostAndPort);
-        try {
-          GetMasterRegistrationResponse resp = d.join(getDefaultAdminOperationTimeoutMs());
-          if (resp.getRole() == Metadata.RaftPeerPB.Role.LEADER) {
-            return resp.getInstanceId().getPermanentUuid().toStringUtf8();
-          }
-        } catch (Exception e) {
-          LOG.warn("Couldn't get registration info for master {} due to error '{}'.",
-                   hostAndPort.toString(), e.getMessage());
-        }
-      }
-    }
-
-    return null;
+    AsyncYBClient.MasterLeader leader = getMasterLeader(false);
+    return leader == null ? null : leader.getUuid();
   }
 
   /**
-   * Find the host/port of the leader master.
+   * Find the host/port of the leader master. The leader is cached by the client, this only asks
+   * the masters when the leader is not known.
    * @return The host and port of the leader master, or null if no leader found.
    */
   public HostAndPort getLeaderMasterHostAndPort() {
-    for (HostAndPort hostAndPort : asyncClient.getMasterAddresses()) {
-      Deferred<GetMasterRegistrationResponse> d;
-      TabletClient clientForHostAndPort = asyncClient.newMasterClient(hostAndPort);
-      if (clientForHostAndPort == null) {
-        String message = "Couldn't resolve this master's host/port " + hostAndPort.toString();
-        LOG.warn(message);
-      } else {
-        d = asyncClient.getMasterRegistration(clientForHostAndPort);
-        try {
-          GetMasterRegistrationResponse resp = d.join(getDefaultAdminOperationTimeoutMs());
-          if (resp.getRole() == Metadata.RaftPeerPB.Role.LEADER) {
-            return hostAndPort;
-          }
-        } catch (Exception e) {
-          LOG.warn("Couldn't get registration info for master " + hostAndPort.toString());
-        }
-      }
-    }
+    AsyncYBClient.MasterLeader leader = getMasterLeader(false);
+    return leader == null ? null : leader.getHostAndPort();
+  }
 
-    return null;
+  /**
+   * @param refresh if true, ask the masters even if the leader is cached
+   * @return the leader master, or null if no leader found
+   */
+  private AsyncYBClient.MasterLeader getMasterLeader(boolean refresh) {
+    try {
+      return join(asyncClient.getMasterLeader(refresh), getDefaultAdminOperationTimeoutMs());
+    } catch (Exception e) {
+      LOG.warn("Couldn't find the leader master due to error '{}'.", e.getMessage());
+      return null;
+    }
   }
 
   /**
@@ -501,9 +487,11 @@ public class YBClient implements AutoCloseable {
   private String waitAndGetLeaderMasterUUID(long timeoutMs) throws Exception {
     long start = System.currentTimeMillis();
 
-    // Retry till we get a valid UUID (or timeout) for the new leader.
+    // Retry till we get a valid UUID (or timeout) for the new leader. We are waiting for the
+    // leader to change, so don't trust the cached one.
     do {
-      String leaderUuid = getLeaderMasterUUID();
+      AsyncYBClient.MasterLeader leader = getMasterLeader(true);
+      String leaderUuid = leader == null ? null : leader.getUuid();
 
       // Done if we got a valid one.
       if (leaderUuid != null) {
@@ -536,7 +524,7 @@ public class YBClient implements AutoCloseable {
       do {
         Deferred<LeaderStepDownResponse> d = asyncClient.masterLeaderStepDown(leaderUuid,
                                                                               tabletId);
-        LeaderStepDownResponse resp = d.join(getDefaultAdminOperationTimeoutMs());
+        LeaderStepDownResponse resp = join(d, getDefaultAdminOperationTimeoutMs());
         if (resp.hasError()) {
           errorMsg = "Master leader step down hit error " + resp.errorMessage();
           break;
@@ -626,7 +614,7 @@ public class YBClient implements AutoCloseable {
       try {
         Deferred<ChangeConfigResponse> d =
             asyncClient.changeMasterConfig(host, port, masterUuid, isAdd, useHost);
-        resp = d.join(timeout);
+        resp = join(d, timeout);
         if (!resp.hasError()) {
           asyncClient.updateMasterAdresses(host, port, isAdd);
         }
@@ -687,8 +675,8 @@ public class YBClient implements AutoCloseable {
   public boolean enableEncryptionAtRestInMemory(final String versionId) throws Exception {
     Deferred<ChangeEncryptionInfoInMemoryResponse> d;
     d = asyncClient.enableEncryptionAtRestInMemory(versionId);
-    d.join(getDefaultAdminOperationTimeoutMs());
-    return d.join(getDefaultAdminOperationTimeoutMs()).hasError();
+    join(d, getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs()).hasError();
   }
 
   /**
@@ -697,7 +685,7 @@ public class YBClient implements AutoCloseable {
   public boolean disableEncryptionAtRestInMemory() throws Exception {
     Deferred<ChangeEncryptionInfoInMemoryResponse> d;
     d = asyncClient.disableEncryptionAtRestInMemory();
-    return !d.join(getDefaultAdminOperationTimeoutMs()).hasError();
+    return !join(d, getDefaultAdminOperationTimeoutMs()).hasError();
   }
 
   /**
@@ -706,7 +694,7 @@ public class YBClient implements AutoCloseable {
   public boolean enableEncryptionAtRest(final String file) throws Exception {
     Deferred<ChangeEncryptionInfoResponse> d;
     d = asyncClient.enableEncryptionAtRest(file);
-    return !d.join(getDefaultAdminOperationTimeoutMs()).hasError();
+    return !join(d, getDefaultAdminOperationTimeoutMs()).hasError();
   }
 
   /**
@@ -715,12 +703,12 @@ public class YBClient implements AutoCloseable {
   public boolean disableEncryptionAtRest() throws Exception {
     Deferred<ChangeEncryptionInfoResponse> d;
     d = asyncClient.disableEncryptionAtRest();
-    return !d.join(getDefaultAdminOperationTimeoutMs()).hasError();
+    return !join(d, getDefaultAdminOperationTimeoutMs()).hasError();
   }
 
   public Pair<Boolean, String> isEncryptionEnabled() throws Exception {
     Deferred<IsEncryptionEnabledResponse> d = asyncClient.isEncryptionEnabled();
-    IsEncryptionEnabledResponse resp = d.join(getDefaultAdminOperationTimeoutMs());
+    IsEncryptionEnabledResponse resp = join(d, getDefaultAdminOperationTimeoutMs());
     if (resp.getServerError() != null) {
       throw new RuntimeException("Could not check isEnabledEncryption with error: " +
                                  resp.getServerError().getStatus().getMessage());
@@ -733,7 +721,7 @@ public class YBClient implements AutoCloseable {
   */
   public void addUniverseKeys(Map<String, byte[]> universeKeys, HostAndPort hp) throws Exception {
     Deferred<AddUniverseKeysResponse> d = asyncClient.addUniverseKeys(universeKeys, hp);
-    AddUniverseKeysResponse resp = d.join();
+    AddUniverseKeysResponse resp = join(d, 0);
     if (resp.getServerError() != null) {
       throw new RuntimeException("Could not add universe keys to " + hp.toString() +
                                  " with error: " + resp.getServerError().getStatus().getMessage());
@@ -746,7 +734,7 @@ public class YBClient implements AutoCloseable {
   public boolean hasUniverseKeyInMemory(String universeKeyId, HostAndPort hp) throws Exception {
     Deferred<HasUniverseKeyInMemoryResponse> d =
             asyncClient.hasUniverseKeyInMemory(universeKeyId, hp);
-    HasUniverseKeyInMemoryResponse resp = d.join();
+    HasUniverseKeyInMemoryResponse resp = join(d, 0);
     if (resp.getServerError() != null) {
       throw new RuntimeException("Could not add universe keys to " + hp.toString() +
                                  " with error: " + resp.getServerError().getStatus().getMessage());
@@ -762,7 +750,7 @@ public class YBClient implements AutoCloseable {
   */
   public boolean ping(final String host, int port) throws Exception {
     Deferred<PingResponse> d = asyncClient.ping(HostAndPort.fromParts(host, port));
-    d.join(getDefaultAdminOperationTimeoutMs());
+    join(d, getDefaultAdminOperationTimeoutMs());
     return true;
   }
 
@@ -792,7 +780,7 @@ public class YBClient implements AutoCloseable {
       return false;
     }
     Deferred<SetFlagResponse> d = asyncClient.setFlag(hp, flag, value, force);
-    return !d.join(getDefaultAdminOperationTimeoutMs()).hasError();
+    return !join(d, getDefaultAdminOperationTimeoutMs()).hasError();
   }
 
   /**
@@ -802,7 +790,7 @@ public class YBClient implements AutoCloseable {
    */
   public String getMasterAddresses(HostAndPort hp) throws Exception {
     Deferred<GetMasterAddressesResponse> d = asyncClient.getMasterAddresses(hp);
-    return d.join(getDefaultAdminOperationTimeoutMs()).getMasterAddresses();
+    return join(d, getDefaultAdminOperationTimeoutMs()).getMasterAddresses();
   }
 
   /**
@@ -814,7 +802,7 @@ public class YBClient implements AutoCloseable {
   public IsServerReadyResponse isServerReady(HostAndPort hp, boolean isTserver)
      throws Exception {
     Deferred<IsServerReadyResponse> d = asyncClient.isServerReady(hp, isTserver);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   public interface Condition {
@@ -1048,7 +1036,7 @@ public class YBClient implements AutoCloseable {
     String leader_uuid = getLeaderMasterUUID();
     String tablet_id = getMasterTabletId();
     Deferred<LeaderStepDownResponse> d = asyncClient.masterLeaderStepDown(leader_uuid, tablet_id);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -1092,7 +1080,7 @@ public class YBClient implements AutoCloseable {
   throws Exception {
     Deferred<ListTablesResponse> d = asyncClient.getTablesList(
         nameFilter, excludeSystemTables, namespace);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -1104,7 +1092,7 @@ public class YBClient implements AutoCloseable {
   public CreateCDCStreamResponse createCDCStream(
           final HostAndPort hp, String tableId) throws Exception{
     Deferred<CreateCDCStreamResponse> d = asyncClient.createCDCStream(hp, tableId);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -1116,7 +1104,7 @@ public class YBClient implements AutoCloseable {
   public boolean tableExists(String keyspace, String name) throws Exception {
     Deferred<Boolean> d = asyncClient.tableExists(keyspace, name);
     try {
-      return d.join(getDefaultAdminOperationTimeoutMs());
+      return join(d, getDefaultAdminOperationTimeoutMs());
     } catch (MasterErrorException e) {
       return false;
     }
@@ -1130,7 +1118,7 @@ public class YBClient implements AutoCloseable {
   public boolean tableExistsByUUID(String tableUUID) throws Exception {
     Deferred<Boolean> d = asyncClient.tableExistsByUUID(tableUUID);
     try {
-      return d.join(getDefaultAdminOperationTimeoutMs());
+      return join(d, getDefaultAdminOperationTimeoutMs());
     } catch (MasterErrorException e) {
       return false;
     }
@@ -1145,7 +1133,7 @@ public class YBClient implements AutoCloseable {
   public GetTableSchemaResponse getTableSchema(final String keyspace, final String name)
       throws Exception {
     Deferred<GetTableSchemaResponse> d = asyncClient.getTableSchema(keyspace, name);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -1156,7 +1144,7 @@ public class YBClient implements AutoCloseable {
   public GetTableSchemaResponse getTableSchemaByUUID(final String tableUUID)
       throws Exception {
     Deferred<GetTableSchemaResponse> d = asyncClient.getTableSchemaByUUID(tableUUID);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -1168,7 +1156,7 @@ public class YBClient implements AutoCloseable {
    */
   public YBTable openTable(final String keyspace, final String name) throws Exception {
     Deferred<YBTable> d = asyncClient.openTable(keyspace, name);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
   }
 
   /**
@@ -1202,7 +1190,32 @@ public class YBClient implements AutoCloseable {
    */
   public YBTable openTableByUUID(final String tableUUID) throws Exception {
     Deferred<YBTable> d = asyncClient.openTableByUUID(tableUUID);
-    return d.join(getDefaultAdminOperationTimeoutMs());
+    return join(d, getDefaultAdminOperationTimeoutMs());
+  }
+
+  /**
+   * Get the non-blocking view of this client. It shares the connections and caches of this
+   * client, and is closed with it.
+   * @return a client whose calls return futures instead of waiting for the responses
+   */
+  public CompletableYBClient getCompletableClient() {
+    return completableClient;
+  }
+
+  /**
+   * Get the metrics of this client, which can be exported to a metrics registry.
+   * @return the metrics of the underlying {@link AsyncYBClient}
+   */
+  public ClientMetrics getMetrics() {
+    return asyncClient.getMetrics();
+  }
+
+  /**
+   * Waits for the result of a {@link Deferred} without holding a monitor.
+   * @param timeoutMs how long to wait, 0 to wait forever
+   */
+  private static <R> R join(Deferred<R> d, long timeoutMs) throws Exception {
+    return DeferredFutures.join(d, timeoutMs);
   }
 
   /**
@@ -1360,6 +1373,61 @@ public class YBClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Set the Netty channel factory used to connect to the servers, to share its boss and worker
+     * threads between several clients. The client doesn't release it when it shuts down.
+     * Optional.
+     * If not provided, the client creates its own.
+     */
+    public YBClientBuilder channelFactory(ClientSocketChannelFactory channelFactory) {
+      clientBuilder.channelFactory(channelFactory);
+      return this;
+    }
+
+    /**
+     * Set the timer used for retries and read timeouts, to share its thread between several
+     * clients. The client doesn't stop it when it shuts down.
+     * Optional.
+     * If not provided, the client creates its own.
+     */
+    public YBClientBuilder timer(HashedWheelTimer timer) {
+      clientBuilder.timer(timer);
+      return this;
+    }
+
+    /**
+     * Cache the schemas of the tables opened through this client.
+     * Optional.
+     * If not provided, every open goes to the master.
+     * @see AsyncYBClient.AsyncYBClientBuilder#tableMetadataCache(int, long)
+     */
+    public YBClientBuilder tableMetadataCache(int maxEntries, long ttlMs) {
+      clientBuilder.tableMetadataCache(maxEntries, ttlMs);
+      return this;
+    }
+
+    /**
+     * Send read-only master RPCs a second time when they are slow to answer.
+     * Optional.
+     * If not provided, master RPCs are never hedged.
+     * @see AsyncYBClient.AsyncYBClientBuilder#hedgeMasterReads(double, long)
+     */
+    public YBClientBuilder hedgeMasterReads(double quantile, long minDelayMs) {
+      clientBuilder.hedgeMasterReads(quantile, minDelayMs);
+      return this;
+    }
+
+    /**
+     * Stop sending RPCs to the servers that stop answering them, for a while.
+     * Optional.
+     * If not provided, servers are never ejected.
+     * @see AsyncYBClient.AsyncYBClientBuilder#ejectUnhealthyServers(int, long)
+     */
+    public YBClientBuilder ejectUnhealthyServers(int failureThreshold, long ejectionMs) {
+      clientBuilder.ejectUnhealthyServers(failureThreshold, ejectionMs);
+      return this;
+    }
+
     /**
      * Creates a new client that connects to the masters.
      * Doesn't block and won't throw an exception if the masters don't exist.
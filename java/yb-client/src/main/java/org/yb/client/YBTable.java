@@ -68,6 +68,7 @@ public class YBTable {
   private final String keyspace;
   private final String tableId;
   private final TableType tableType;
+  private final int schemaVersion;
 
   private static final String OBSERVER = "OBSERVER";
   private static final String PRE_OBSERVER = "PRE_OBSERVER";
@@ -80,6 +81,15 @@ public class YBTable {
    */
   YBTable(AsyncYBClient client, String name, String tableId, Schema schema,
           PartitionSchema partitionSchema, TableType tableType, String keyspace) {
+    this(client, name, tableId, schema, partitionSchema, tableType, keyspace, 0);
+  }
+
+  /**
+   * @param schemaVersion the version of this table's schema
+   */
+  YBTable(AsyncYBClient client, String name, String tableId, Schema schema,
+          PartitionSchema partitionSchema, TableType tableType, String keyspace,
+          int schemaVersion) {
     this.schema = schema;
     this.partitionSchema = partitionSchema;
     this.client = client;
@@ -87,6 +97,7 @@ public class YBTable {
     this.tableId = tableId;
     this.tableType = tableType;
     this.keyspace = keyspace;
+    this.schemaVersion = schemaVersion;
   }
 
   YBTable(AsyncYBClient client, String name, String tableId,
@@ -103,6 +114,15 @@ public class YBTable {
     return this.schema;
   }
 
+  /**
+   * Get the version of this table's schema, as of the moment this instance was created. Every
+   * alter table bumps it.
+   * @return this table's schema version, 0 if unknown
+   */
+  public int getSchemaVersion() {
+    return this.schemaVersion;
+  }
+
   /**
    * Get this table's type.
    */
@@ -212,6 +232,39 @@ public class YBTable {
     return client.locateTable(tableId, startKey, endKey, deadline);
   }
 
+  /**
+   * Get all the tablets for this table, splitting its hash space into ranges that are located
+   * in parallel. This is faster than {@link #getTabletsLocations(long)} for tables with a lot of
+   * tablets. Tables that aren't hash partitioned are located sequentially.
+   * This method blocks until it gets all the tablets.
+   * @param numRanges how many ranges to split the hash space into
+   * @param maxConcurrency how many ranges can be located at the same time
+   * @param deadline deadline in milliseconds for this method to finish
+   * @return a list containing the metadata and locations for each of the tablets in the
+   *         table, sorted by partition start key
+   * @throws Exception
+   */
+  public List<LocatedTablet> getTabletsLocationsInParallel(
+      int numRanges, int maxConcurrency, long deadline) throws Exception {
+    return asyncGetTabletsLocationsInParallel(numRanges, maxConcurrency, deadline).join();
+  }
+
+  /**
+   * Asynchronously get all the tablets for this table, splitting its hash space into ranges that
+   * are located in parallel.
+   * @param numRanges how many ranges to split the hash space into
+   * @param maxConcurrency how many ranges can be located at the same time
+   * @param deadline max time spent in milliseconds for the deferred result of this method to
+   *         get called back, if deadline is reached, the deferred result will get erred back
+   * @return a {@link Deferred} object that yields a list containing the metadata and locations
+   *           for each of the tablets in the table, sorted by partition start key
+   */
+  public Deferred<List<LocatedTablet>> asyncGetTabletsLocationsInParallel(
+      int numRanges, int maxConcurrency, long deadline) {
+    return client.locateTableInParallel(tableId, partitionSchema, numRanges, maxConcurrency,
+                                        deadline);
+  }
+
   /**
    * Loop through all replicas in the table and store a mapping from tserver placement uuid to
    * a list of lists, containing the live replica count per ts, followed by the read
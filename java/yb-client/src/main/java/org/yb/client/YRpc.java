@@ -48,9 +48,12 @@ import org.yb.annotations.InterfaceAudience;
 import org.yb.util.Pair;
 import org.yb.util.Slice;
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
+import org.jboss.netty.util.Timeout;
 
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
 
 /**
  * Abstract base class for all RPC requests going out to YB.
@@ -120,6 +123,30 @@ public abstract class YRpc<R> {
   // tablet.
   private volatile boolean retrySameServer;
 
+  // Which replica of the tablet this RPC should be sent to, null means the leader.
+  private volatile ReplicaSelectionPolicy replicaSelectionPolicy;
+
+  // When this RPC was last written to the wire, used to track per-server latencies.
+  long sendTimeNanos;  // package-private for TabletClient only.
+
+  // The limiter this RPC holds a slot of while it's sent to a server, null when it holds none.
+  ConcurrencyLimiter<YRpc<?>> concurrencyLimiter;  // package-private for TabletClient only.
+
+  // Delay used before the last retry of this RPC, fed back to the client's RetryPolicy.
+  long retryDelayMs;  // package-private for AsyncYBClient only.
+
+  // Allocates the buffer this RPC is serialized into, set by TabletClient before serializing.
+  ChannelBufferFactory bufferFactory = HeapChannelBufferFactory.getInstance();
+
+  // The connection this RPC was last handed to, where cancel() looks for it.
+  volatile TabletClient connection;  // package-private for TabletClient only.
+
+  // The timer that will send this RPC again, null if no retry is scheduled.
+  private volatile Timeout retryTimer;
+
+  // Set once by cancel(), a cancelled RPC is never sent again.
+  private volatile boolean cancelled;
+
   YRpc(YBTable table) {
     this.table = table;
     this.deadlineTracker = new DeadlineTracker();
@@ -170,13 +197,23 @@ public abstract class YRpc<R> {
   }
 
   private void handleCallback(final Object result) {
-    final Deferred<R> d = deferred;
-    if (d == null) {
-      return;
+    final Deferred<R> d;
+    // A cancellation can race with the response, only one of them completes the Deferred.
+    synchronized (this) {
+      d = deferred;
+      if (d == null) {
+        return;
+      }
+      deferred = null;
     }
-    deferred = null;
     attempt = 0;
+    retryDelayMs = 0;
     deadlineTracker.reset();
+    final Timeout timer = retryTimer;
+    if (timer != null) {
+      retryTimer = null;
+      timer.cancel();
+    }
     d.callback(result);
   }
 
@@ -200,8 +237,49 @@ public abstract class YRpc<R> {
     handleCallback(e);
   }
 
+  /**
+   * Gives up on this RPC: it's failed with a {@link CancellationException}, removed from the
+   * connection it waits on or was sent on, and never retried. The server may still process an
+   * RPC that was already sent, but no longer than the timeout it was sent with, and its response
+   * is ignored.
+   * @return true if the RPC was cancelled, false if it already completed or was cancelled
+   */
+  public boolean cancel() {
+    synchronized (this) {
+      if (deferred == null || cancelled) {
+        return false;
+      }
+      cancelled = true;
+    }
+    final Timeout timer = retryTimer;
+    if (timer != null) {
+      timer.cancel();
+    }
+    final TabletClient client = connection;
+    if (client != null) {
+      client.cancelRpc(this);
+    }
+    errback(new CancellationException("RPC cancelled: " + this));
+    return true;
+  }
+
+  /**
+   * @return true if {@link #cancel} was called on this RPC
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Remembers the timer that will retry this RPC, so it's cancelled with the RPC.
+   * @param timer the timer's handle, null if it couldn't be scheduled
+   */
+  void setRetryTimer(Timeout timer) {
+    retryTimer = timer;
+  }
+
   /** Package private way of accessing / creating the Deferred of this RPC.  */
-  final Deferred<R> getDeferred() {
+  final synchronized Deferred<R> getDeferred() {
     if (deferred == null) {
       deferred = new Deferred<R>();
     }
@@ -228,6 +306,29 @@ public abstract class YRpc<R> {
     this.retrySameServer = retrySameServer;
   }
 
+  ReplicaSelectionPolicy getReplicaSelectionPolicy() {
+    return this.replicaSelectionPolicy;
+  }
+
+  /**
+   * Tells whether the server may hold this RPC until it has something to return. The latency of
+   * such an RPC says nothing about the load or the health of the server, so it isn't recorded.
+   * @return false by default, long polls override it
+   */
+  boolean isLongPoll() {
+    return false;
+  }
+
+  /**
+   * Sets the policy used to pick the replica this RPC is sent to. This is the only way to send
+   * an RPC to a follower, RPCs go to the leader otherwise. Only set a policy other than
+   * {@link ReplicaSelectionPolicy#LEADER_ONLY} for RPCs that can be served by a follower.
+   * @param replicaSelectionPolicy the policy to use, null to send the RPC to the leader
+   */
+  public void setReplicaSelectionPolicy(ReplicaSelectionPolicy replicaSelectionPolicy) {
+    this.replicaSelectionPolicy = replicaSelectionPolicy;
+  }
+
   void setTimeoutMillis(long timeout) {
     deadlineTracker.setDeadline(timeout);
   }
@@ -271,13 +372,49 @@ public abstract class YRpc<R> {
     }
   }
 
-  static ChannelBuffer toChannelBuffer(Message header, Message pb) {
+  ChannelBuffer toChannelBuffer(Message header, Message pb) {
+    return toChannelBuffer(header, pb, bufferFactory);
+  }
+
+  /** Requests up to this size are serialized into a reused array before going to direct memory. */
+  private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>();
+
+  private static byte[] scratchArray(int size) {
+    if (size > MAX_SCRATCH_SIZE) {
+      return new byte[size];
+    }
+    byte[] scratch = SCRATCH.get();
+    if (scratch == null || scratch.length < size) {
+      scratch = new byte[Math.max(size, 1024)];
+      SCRATCH.set(scratch);
+    }
+    return scratch;
+  }
+
+  /**
+   * Serializes the length prefix, the delimited header and the delimited body of a request
+   * into a buffer allocated from the given factory. Heap buffers are encoded in place; direct
+   * buffers are encoded into a per-thread scratch array and then copied over once, since the
+   * protobuf version we ship can't safely encode into direct memory.
+   */
+  static ChannelBuffer toChannelBuffer(Message header, Message pb, ChannelBufferFactory factory) {
     int totalSize = IPCUtil.getTotalSizeWhenWrittenDelimited(header, pb);
-    byte[] buf = new byte[totalSize+4];
-    ChannelBuffer chanBuf = ChannelBuffers.wrappedBuffer(buf);
-    chanBuf.clear();
+    ChannelBuffer chanBuf = factory.getBuffer(totalSize + 4);
     chanBuf.writeInt(totalSize);
-    final CodedOutputStream out = CodedOutputStream.newInstance(buf, 4, totalSize);
+    // Protobuf's encoder for direct ByteBuffers relies on Unsafe in ways that crash recent
+    // JVMs, so direct buffers are filled from a per-thread scratch array and copied instead.
+    final byte[] array;
+    final int offset;
+    if (chanBuf.hasArray()) {
+      array = chanBuf.array();
+      offset = chanBuf.arrayOffset() + 4;
+    } else {
+      array = scratchArray(totalSize);
+      offset = 0;
+    }
+    final CodedOutputStream out = CodedOutputStream.newInstance(array, offset, totalSize);
     try {
       out.writeRawVarint32(header.getSerializedSize());
       header.writeTo(out);
@@ -288,7 +425,11 @@ public abstract class YRpc<R> {
     } catch (IOException e) {
       throw new NonRecoverableException("Cannot serialize the following message " + pb, e);
     }
-    chanBuf.writerIndex(buf.length);
+    if (chanBuf.hasArray()) {
+      chanBuf.writerIndex(totalSize + 4);
+    } else {
+      chanBuf.writeBytes(array, 0, totalSize);
+    }
     return chanBuf;
   }
 
@@ -0,0 +1,310 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.net.HostAndPort;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Message;
+import org.yb.Common;
+import org.yb.WireProtocol;
+import org.yb.consensus.Metadata;
+import org.yb.master.Master;
+import org.yb.rpc.RpcHeader;
+
+/**
+ * A server speaking just enough of the RPC protocol for a client to talk to it, so that the
+ * client can be tested without a cluster. RPCs are answered by a {@link Handler}, which can also
+ * hold them back and answer them later, or not at all.
+ */
+class FakeServer implements Closeable {
+
+  interface Handler {
+    /**
+     * @return the response to the call, or null to answer it later through {@link Call#respond}
+     */
+    Message handle(Call call) throws Exception;
+  }
+
+  /**
+   * An RPC received by the server.
+   */
+  final class Call {
+    private final Connection connection;
+    private final RpcHeader.RequestHeader header;
+    private final byte[] body;
+
+    private Call(Connection connection, RpcHeader.RequestHeader header, byte[] body) {
+      this.connection = connection;
+      this.header = header;
+      this.body = body;
+    }
+
+    String getMethod() {
+      return header.getRemoteMethod().getMethodName();
+    }
+
+    /**
+     * @return the index of the connection the call came from, in the order they were accepted
+     */
+    int getConnectionIndex() {
+      return connection.index;
+    }
+
+    /**
+     * Parses the request into the given builder.
+     */
+    <B extends Message.Builder> B parse(B builder) throws IOException {
+      builder.mergeFrom(body);
+      return builder;
+    }
+
+    void respond(Message response) {
+      connection.send(header.getCallId(), response);
+    }
+
+    /**
+     * Resets the connection the call came from.
+     */
+    void resetConnection() {
+      connection.close();
+    }
+  }
+
+  private final String uuid;
+  private final Handler handler;
+  private final ServerSocket socket;
+  private final Thread acceptor;
+  private final List<Connection> connections = new CopyOnWriteArrayList<>();
+  private final ConcurrentHashMap<String, AtomicInteger> numCalls = new ConcurrentHashMap<>();
+  private final AtomicInteger numConnections = new AtomicInteger();
+  private volatile boolean closed = false;
+
+  FakeServer(String uuid, Handler handler) throws IOException {
+    this.uuid = uuid;
+    this.handler = handler;
+    this.socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    this.acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    }, "fake-server-" + uuid);
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  String getUuid() {
+    return uuid;
+  }
+
+  HostAndPort getHostAndPort() {
+    return HostAndPort.fromParts("127.0.0.1", socket.getLocalPort());
+  }
+
+  /**
+   * @return how many calls of the given method the server received
+   */
+  int getNumCalls(String method) {
+    AtomicInteger count = numCalls.get(method);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * @return how many connections the server accepted so far
+   */
+  int getNumConnections() {
+    return numConnections.get();
+  }
+
+  /**
+   * Resets every connection to the server, the calls in flight on them are never answered.
+   */
+  void resetConnections() {
+    for (Connection connection : connections) {
+      connection.close();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    socket.close();
+    resetConnections();
+  }
+
+  private void accept() {
+    while (!closed) {
+      try {
+        final Connection connection =
+            new Connection(socket.accept(), numConnections.getAndIncrement());
+        connections.add(connection);
+        Thread reader = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            connection.read();
+          }
+        }, "fake-server-" + uuid + "-connection");
+        reader.setDaemon(true);
+        reader.start();
+      } catch (IOException e) {
+        // Closed.
+      }
+    }
+  }
+
+  private final class Connection {
+    private final Socket socket;
+    private final int index;
+    private final DataOutputStream out;
+
+    Connection(Socket socket, int index) throws IOException {
+      this.socket = socket;
+      this.index = index;
+      this.out = new DataOutputStream(socket.getOutputStream());
+    }
+
+    void read() {
+      try {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] preamble = new byte[3];
+        in.readFully(preamble);
+        while (true) {
+          byte[] frame = new byte[in.readInt()];
+          in.readFully(frame);
+          CodedInputStream input = CodedInputStream.newInstance(frame);
+          RpcHeader.RequestHeader header =
+              RpcHeader.RequestHeader.parseFrom(input.readBytes());
+          byte[] body = input.readBytes().toByteArray();
+          Call call = new Call(this, header, body);
+          AtomicInteger count = numCalls.get(call.getMethod());
+          if (count == null) {
+            numCalls.putIfAbsent(call.getMethod(), new AtomicInteger());
+            count = numCalls.get(call.getMethod());
+          }
+          count.incrementAndGet();
+          Message response = handler.handle(call);
+          if (response != null) {
+            call.respond(response);
+          }
+        }
+      } catch (Exception e) {
+        // The connection went away, or the handler gave up on it.
+        close();
+      }
+    }
+
+    void send(int callId, Message response) {
+      RpcHeader.ResponseHeader header =
+          RpcHeader.ResponseHeader.newBuilder().setCallId(callId).build();
+      int size = CodedOutputStream.computeUInt32SizeNoTag(header.getSerializedSize()) +
+          header.getSerializedSize() +
+          CodedOutputStream.computeUInt32SizeNoTag(response.getSerializedSize()) +
+          response.getSerializedSize();
+      try {
+        synchronized (this) {
+          out.writeInt(size);
+          header.writeDelimitedTo(out);
+          response.writeDelimitedTo(out);
+          out.flush();
+        }
+      } catch (IOException e) {
+        close();
+      }
+    }
+
+    void close() {
+      connections.remove(this);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Nothing to do.
+      }
+    }
+  }
+
+  /**
+   * Starts a master leader serving the locations of the given tablets. A lookup gets the tablets
+   * from the one holding its start key on.
+   */
+  static FakeServer newMaster(final Master.TabletLocationsPB... tablets) throws IOException {
+    final FakeServer[] master = new FakeServer[1];
+    master[0] = new FakeServer("master", new Handler() {
+      @Override
+      public Message handle(Call call) throws Exception {
+        if (call.getMethod().equals("GetMasterRegistration")) {
+          return master[0].masterLeaderRegistration();
+        }
+        byte[] start = call.parse(Master.GetTableLocationsRequestPB.newBuilder())
+            .getPartitionKeyStart().toByteArray();
+        Master.GetTableLocationsResponsePB.Builder resp =
+            Master.GetTableLocationsResponsePB.newBuilder();
+        for (Master.TabletLocationsPB tablet : tablets) {
+          byte[] end = tablet.getPartition().getPartitionKeyEnd().toByteArray();
+          if (end.length == 0 || Bytes.memcmp(start, end) < 0) {
+            resp.addTabletLocations(tablet);
+          }
+        }
+        return resp.build();
+      }
+    });
+    return master[0];
+  }
+
+  /**
+   * @return the answer of a master leader to GetMasterRegistration
+   */
+  Master.GetMasterRegistrationResponsePB masterLeaderRegistration() {
+    return Master.GetMasterRegistrationResponsePB.newBuilder()
+        .setInstanceId(WireProtocol.NodeInstancePB.newBuilder()
+            .setPermanentUuid(ByteString.copyFromUtf8(uuid))
+            .setInstanceSeqno(0))
+        .setRole(Metadata.RaftPeerPB.Role.LEADER)
+        .build();
+  }
+
+  /**
+   * @return the locations of a tablet whose only replica, its leader, is the given server
+   */
+  static Master.TabletLocationsPB tabletLocations(String tabletId, byte[] start, byte[] end,
+                                                  FakeServer leader) {
+    return Master.TabletLocationsPB.newBuilder()
+        .setTabletId(ByteString.copyFromUtf8(tabletId))
+        .setStale(false)
+        .setPartition(Common.PartitionPB.newBuilder()
+            .setPartitionKeyStart(ByteString.copyFrom(start))
+            .setPartitionKeyEnd(ByteString.copyFrom(end)))
+        .addReplicas(Master.TabletLocationsPB.ReplicaPB.newBuilder()
+            .setRole(Metadata.RaftPeerPB.Role.LEADER)
+            .setTsInfo(Master.TSInfoPB.newBuilder()
+                .setPermanentUuid(ByteString.copyFromUtf8(leader.getUuid()))
+                .addPrivateRpcAddresses(Common.HostPortPB.newBuilder()
+                    .setHost("127.0.0.1").setPort(leader.getHostAndPort().getPort()))))
+        .build();
+  }
+}
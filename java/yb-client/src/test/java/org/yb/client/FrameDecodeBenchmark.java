@@ -0,0 +1,138 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+package org.yb.client;
+
+import com.google.protobuf.ByteString;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.yb.Common.QLValuePB;
+import org.yb.cdc.CdcService;
+import org.yb.rpc.RpcHeader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how fast large GetChanges responses are framed and parsed the way
+ * {@link TabletClient#decode} does it: the response bytes arrive in socket-sized chunks, which
+ * the {@link FrameDecoder} accumulates until the whole response is there, then the response is
+ * parsed from a slice of the accumulated bytes. Next to it, the same with the response copied out
+ * of the accumulated bytes before parsing it.
+ * <p>
+ * It lives with the tests so that it isn't shipped with the client. Usage, with the test
+ * classpath: {@code FrameDecodeBenchmark [records per response] [bytes per chunk]
+ * [seconds per run]}.
+ */
+public class FrameDecodeBenchmark {
+
+  public static void main(String[] args) {
+    int numRecords = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : 64 * 1024;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    CdcService.GetChangesResponsePB.Builder body = CdcService.GetChangesResponsePB.newBuilder();
+    Random random = new Random(0);
+    for (int i = 0; i < numRecords; i++) {
+      byte[] payload = new byte[64];
+      random.nextBytes(payload);
+      body.addRecords(CdcService.CDCRecordPB.newBuilder()
+          .setTime(System.currentTimeMillis() * 1000 << 12)
+          .setOperation(CdcService.CDCRecordPB.OperationType.WRITE)
+          .addKey(pair("id", QLValuePB.newBuilder().setInt64Value(i)))
+          .addChanges(pair("name", QLValuePB.newBuilder().setStringValue("name-" + i)))
+          .addChanges(pair("count", QLValuePB.newBuilder().setInt32Value(random.nextInt())))
+          .addChanges(pair("payload",
+                           QLValuePB.newBuilder().setBinaryValue(ByteString.copyFrom(payload)))));
+    }
+    RpcHeader.ResponseHeader header = RpcHeader.ResponseHeader.newBuilder().setCallId(1).build();
+    ChannelBuffer response = YRpc.toChannelBuffer(header, body.build(),
+                                                  HeapChannelBufferFactory.getInstance());
+    final List<ChannelBuffer> chunks = new ArrayList<>();
+    for (int i = 0; i < response.readableBytes(); i += chunkSize) {
+      chunks.add(response.slice(i, Math.min(chunkSize, response.readableBytes() - i)));
+    }
+    System.out.println(String.format("%d records per response, %d bytes in %d chunks",
+                                     numRecords, response.readableBytes(), chunks.size()));
+
+    // Twice each, the first run warming up.
+    for (int run = 0; run < 2; run++) {
+      report("sliced frames", response.readableBytes(), seconds, chunks, false);
+      report("copied frames", response.readableBytes(), seconds, chunks, true);
+    }
+  }
+
+  private static CdcService.KeyValuePairPB pair(String column, QLValuePB.Builder value) {
+    return CdcService.KeyValuePairPB.newBuilder()
+        .setKey(ByteString.copyFromUtf8(column)).setValue(value).build();
+  }
+
+  /**
+   * Frames responses like {@link TabletClient#decode}, and parses them as GetChanges responses.
+   */
+  private static final class ResponseDecoder extends FrameDecoder {
+    private final boolean copy;
+
+    ResponseDecoder(boolean copy) {
+      this.copy = copy;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel chan, ChannelBuffer buf) {
+      if (buf.readableBytes() < 4) {
+        return null;
+      }
+      final int responseSize = buf.getInt(buf.readerIndex());
+      if (buf.readableBytes() < 4 + responseSize) {
+        return null;
+      }
+      ChannelBuffer frame = buf.readSlice(4 + responseSize);
+      if (copy) {
+        frame = ChannelBuffers.copiedBuffer(frame);
+      }
+      CallResponse response = new CallResponse(frame);
+      CdcService.GetChangesResponsePB.Builder builder =
+          CdcService.GetChangesResponsePB.newBuilder();
+      YRpc.readProtobuf(response.getPBMessage(), builder);
+      return builder.build();
+    }
+  }
+
+  private static void report(String name, int responseSize, int seconds,
+                             List<ChannelBuffer> chunks, boolean copy) {
+    DecoderEmbedder<CdcService.GetChangesResponsePB> decoder =
+        new DecoderEmbedder<>(new ResponseDecoder(copy));
+    long deadline = System.nanoTime() + seconds * 1000000000L;
+    long responses = 0;
+    long start = System.nanoTime();
+    while (System.nanoTime() < deadline) {
+      for (ChannelBuffer chunk : chunks) {
+        decoder.offer(chunk.duplicate());
+      }
+      if (decoder.poll() == null) {
+        throw new IllegalStateException("The response wasn't decoded");
+      }
+      responses++;
+    }
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    decoder.finish();
+    System.out.println(String.format("%-15s %10.0f responses/s %10.1f MB/s", name,
+                                     responses / elapsed,
+                                     responses * responseSize / elapsed / 1e6));
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+package org.yb.client;
+
+import org.yb.util.Slice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Measures how fast {@link TabletLocationIndex} finds the tablet of a partition key, next to the
+ * per-table skip list of tablets keyed by start key it replaced. The table is hash partitioned
+ * into tablets of the same width, and the keys looked up are random hash partition keys.
+ * <p>
+ * It lives with the tests so that it isn't shipped with the client. Usage, with the test
+ * classpath: {@code TabletLocationIndexBenchmark [tablets] [seconds per run]}.
+ */
+public class TabletLocationIndexBenchmark {
+  private static final int NUM_KEYS = 1 << 16;
+
+  public static void main(String[] args) throws Exception {
+    int numTablets = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    AsyncYBClient client = new AsyncYBClient.AsyncYBClientBuilder("127.0.0.1").build();
+    try {
+      List<AsyncYBClient.RemoteTablet> tablets = new ArrayList<>();
+      for (int i = 0; i < numTablets; i++) {
+        Partition partition = new Partition(partitionKey(i, numTablets),
+                                            partitionKey(i + 1, numTablets),
+                                            Collections.<Integer>emptyList());
+        tablets.add(client.new RemoteTablet("table", new Slice(("tablet-" + i).getBytes()),
+                                            partition));
+      }
+      final TabletLocationIndex index = TabletLocationIndex.EMPTY.withTablets(tablets, null);
+      final ConcurrentSkipListMap<byte[], AsyncYBClient.RemoteTablet> skipList =
+          new ConcurrentSkipListMap<>(Bytes.MEMCMP);
+      for (AsyncYBClient.RemoteTablet tablet : tablets) {
+        skipList.put(tablet.getPartition().getPartitionKeyStart(), tablet);
+      }
+
+      final byte[][] keys = new byte[NUM_KEYS][];
+      Random random = new Random(0);
+      for (int i = 0; i < NUM_KEYS; i++) {
+        keys[i] = PartitionSchema.encodeHashPartitionKey(
+            random.nextInt(PartitionSchema.HASH_PARTITION_KEY_SPACE));
+      }
+      System.out.println(String.format("%d tablets, %d keys", numTablets, NUM_KEYS));
+
+      // Twice each, the first run warming up.
+      for (int run = 0; run < 2; run++) {
+        report("location index", seconds, new Runnable() {
+          @Override
+          public void run() {
+            int found = 0;
+            for (byte[] key : keys) {
+              if (index.lookup(key) != null) {
+                found++;
+              }
+            }
+            sink = found;
+          }
+        });
+        report("skip list", seconds, new Runnable() {
+          @Override
+          public void run() {
+            int found = 0;
+            for (byte[] key : keys) {
+              if (lookup(skipList, key) != null) {
+                found++;
+              }
+            }
+            sink = found;
+          }
+        });
+      }
+    } finally {
+      client.close();
+    }
+  }
+
+  private static byte[] partitionKey(int tablet, int numTablets) {
+    if (tablet == 0 || tablet == numTablets) {
+      return AsyncYBClient.EMPTY_ARRAY;
+    }
+    return PartitionSchema.encodeHashPartitionKey(
+        (int) ((long) PartitionSchema.HASH_PARTITION_KEY_SPACE * tablet / numTablets));
+  }
+
+  /**
+   * Finds the tablet of a key the way the client did before {@link TabletLocationIndex}.
+   */
+  private static AsyncYBClient.RemoteTablet lookup(
+      ConcurrentSkipListMap<byte[], AsyncYBClient.RemoteTablet> tablets, byte[] partitionKey) {
+    Map.Entry<byte[], AsyncYBClient.RemoteTablet> entry = tablets.floorEntry(partitionKey);
+    if (entry == null) {
+      return null;
+    }
+    byte[] end = entry.getValue().getPartition().getPartitionKeyEnd();
+    if (end.length != 0 && Bytes.memcmp(partitionKey, end) >= 0) {
+      return null;
+    }
+    return entry.getValue();
+  }
+
+  // Keeps the results alive, so that the JIT doesn't optimize the work away.
+  private static volatile int sink;
+
+  private static void report(String name, int seconds, Runnable lookUpKeys) {
+    long deadline = System.nanoTime() + seconds * 1000000000L;
+    long runs = 0;
+    long start = System.nanoTime();
+    while (System.nanoTime() < deadline) {
+      lookUpKeys.run();
+      runs++;
+    }
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    System.out.println(String.format("%-15s %12.0f lookups/s", name, runs * NUM_KEYS / elapsed));
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.rpc.RpcHeader;
+import org.yb.util.Slice;
+
+@RunWith(value=YBTestRunner.class)
+public class TestCallResponse {
+
+  private static ChannelBuffer newResponse(int callId, String message) {
+    RpcHeader.ResponseHeader header = RpcHeader.ResponseHeader.newBuilder()
+        .setCallId(callId)
+        .build();
+    RpcHeader.ErrorStatusPB body = RpcHeader.ErrorStatusPB.newBuilder()
+        .setMessage(message)
+        .setCode(RpcHeader.ErrorStatusPB.RpcErrorCodePB.ERROR_SERVER_TOO_BUSY)
+        .build();
+    return YRpc.toChannelBuffer(header, body, HeapChannelBufferFactory.getInstance());
+  }
+
+  private static void checkResponse(CallResponse response, int callId, String message) {
+    assertFalse(response.isEmpty());
+    assertEquals(callId, response.getHeader().getCallId());
+    RpcHeader.ErrorStatusPB.Builder builder = RpcHeader.ErrorStatusPB.newBuilder();
+    YRpc.readProtobuf(response.getPBMessage(), builder);
+    assertEquals(message, builder.getMessage());
+  }
+
+  @Test
+  public void testParsesWithoutCopy() {
+    ChannelBuffer buf = ChannelBuffers.wrappedBuffer(newResponse(1, "first"),
+                                                     newResponse(2, "second"));
+    // Responses are parsed from slices of the accumulated bytes, one frame at a time.
+    buf = ChannelBuffers.copiedBuffer(buf);
+    ChannelBuffer frame = buf.readSlice(buf.getInt(0) + 4);
+    CallResponse response = new CallResponse(frame);
+    checkResponse(response, 1, "first");
+    Slice message = response.getPBMessage();
+    assertSame(buf.array(), message.getRawArray());
+    assertFalse(frame.readable());
+
+    response = new CallResponse(buf.readSlice(buf.getInt(buf.readerIndex()) + 4));
+    checkResponse(response, 2, "second");
+    assertFalse(buf.readable());
+  }
+
+  @Test
+  public void testParsesDirectBuffer() {
+    ChannelBuffer heap = newResponse(3, "direct");
+    ChannelBuffer buf = ChannelBuffers.directBuffer(heap.readableBytes());
+    buf.writeBytes(heap);
+    CallResponse response = new CallResponse(buf);
+    checkResponse(response, 3, "direct");
+    assertFalse(buf.readable());
+  }
+
+  @Test
+  public void testSerializesIntoDirectBuffer() {
+    RpcHeader.ResponseHeader header = RpcHeader.ResponseHeader.newBuilder().setCallId(4).build();
+    RpcHeader.ErrorStatusPB body = RpcHeader.ErrorStatusPB.newBuilder()
+        .setMessage("serialized")
+        .setCode(RpcHeader.ErrorStatusPB.RpcErrorCodePB.ERROR_SERVER_TOO_BUSY)
+        .build();
+    ChannelBuffer buf = YRpc.toChannelBuffer(header, body, new DirectChannelBufferFactory());
+    assertTrue(buf.isDirect());
+    assertEquals(buf.getInt(0) + 4, buf.readableBytes());
+    checkResponse(new CallResponse(buf), 4, "serialized");
+  }
+
+  @Test
+  public void testEmptyResponse() {
+    ChannelBuffer buf = ChannelBuffers.buffer(4);
+    buf.writeInt(0);
+    assertTrue(new CallResponse(buf).isEmpty());
+  }
+}
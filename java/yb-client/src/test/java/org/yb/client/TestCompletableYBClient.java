@@ -0,0 +1,117 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yb.YBTestRunner;
+
+/**
+ * Compares many concurrent admin calls made through the blocking {@link YBClient}, one thread
+ * per call in flight, with the same calls made through {@link CompletableYBClient}.
+ */
+@RunWith(value=YBTestRunner.class)
+public class TestCompletableYBClient extends BaseYBClientTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TestCompletableYBClient.class);
+
+  // Number of rounds, each round issues a listTabletServers and a getLoadMoveCompletion.
+  private static final int NUM_ROUNDS = 1000;
+
+  // Size of the thread pool of the blocking run, the platform's TaskPool default.
+  private static final int NUM_BLOCKING_THREADS = 200;
+
+  @Test
+  public void testAdminCalls() throws Exception {
+    CompletableYBClient completableClient = syncClient.getCompletableClient();
+    ListTabletServersResponse tservers = completableClient.listTabletServers().get();
+    assertEquals(syncClient.listTabletServers().getTabletServersCount(),
+                 tservers.getTabletServersCount());
+    assertFalse(completableClient.getLoadMoveCompletion().get().hasError());
+    assertFalse(completableClient.tableExists(DEFAULT_KEYSPACE_NAME, "no_such_table").get());
+  }
+
+  @Test
+  public void testConcurrentAdminCalls() throws Exception {
+    // Warm up the connections and the master leader.
+    syncClient.listTabletServers();
+
+    int threadsBefore = Thread.activeCount();
+    ExecutorService pool = Executors.newFixedThreadPool(NUM_BLOCKING_THREADS);
+    long start = System.nanoTime();
+    int blockingPeakThreads = 0;
+    try {
+      List<Future<Object>> results = new ArrayList<>();
+      for (int i = 0; i < NUM_ROUNDS; i++) {
+        results.add(pool.submit(new Callable<Object>() {
+          @Override
+          public Object call() throws Exception {
+            return syncClient.listTabletServers();
+          }
+        }));
+        results.add(pool.submit(new Callable<Object>() {
+          @Override
+          public Object call() throws Exception {
+            return syncClient.getLoadMoveCompletion();
+          }
+        }));
+        blockingPeakThreads = Math.max(blockingPeakThreads, Thread.activeCount());
+      }
+      for (Future<Object> result : results) {
+        assertNotNull(result.get());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    long blockingNanos = System.nanoTime() - start;
+    // Don't count the blocking pool's threads against the completable client.
+    assertTrue(pool.awaitTermination(DEFAULT_SLEEP, TimeUnit.MILLISECONDS));
+    int blockingExtraThreads = blockingPeakThreads - threadsBefore;
+
+    threadsBefore = Thread.activeCount();
+    CompletableYBClient completableClient = syncClient.getCompletableClient();
+    start = System.nanoTime();
+    int completablePeakThreads = 0;
+    List<CompletableFuture<?>> futures = new ArrayList<>();
+    for (int i = 0; i < NUM_ROUNDS; i++) {
+      futures.add(completableClient.listTabletServers());
+      futures.add(completableClient.getLoadMoveCompletion());
+      completablePeakThreads = Math.max(completablePeakThreads, Thread.activeCount());
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get();
+    long completableNanos = System.nanoTime() - start;
+
+    LOG.info("{} admin calls: blocking client took {} ms with {} extra threads, " +
+             "completable client took {} ms with {} extra threads",
+             2 * NUM_ROUNDS,
+             blockingNanos / 1000000, blockingExtraThreads,
+             completableNanos / 1000000, completablePeakThreads - threadsBefore);
+    // The completable client doesn't need a thread per call in flight.
+    assertLessThan(completablePeakThreads - threadsBefore, NUM_BLOCKING_THREADS / 2);
+  }
+}
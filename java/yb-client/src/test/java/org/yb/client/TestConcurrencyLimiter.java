@@ -0,0 +1,104 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestConcurrencyLimiter {
+
+  private static final long MS = 1000000;
+
+  @Test
+  public void testQueueAndReject() {
+    ConcurrencyLimiter<String> limiter = new ConcurrencyLimiter<>(2, 10, 2);
+    assertEquals(ConcurrencyLimiter.Admission.ACQUIRED, limiter.acquire("a"));
+    assertEquals(ConcurrencyLimiter.Admission.ACQUIRED, limiter.acquire("b"));
+    assertEquals(ConcurrencyLimiter.Admission.QUEUED, limiter.acquire("c"));
+    assertEquals(ConcurrencyLimiter.Admission.QUEUED, limiter.acquire("d"));
+    assertEquals(ConcurrencyLimiter.Admission.REJECTED, limiter.acquire("e"));
+    assertEquals(1, limiter.getNumRejected());
+    assertEquals(2, limiter.getNumQueued());
+    assertNull(limiter.poll());
+
+    limiter.release("Write", 1 * MS, false);
+    assertEquals("c", limiter.poll());
+    assertNull(limiter.poll());
+    assertEquals(2, limiter.getNumInflight());
+
+    limiter.cancel();
+    assertEquals(Arrays.asList("d"), limiter.drain());
+    assertEquals(0, limiter.getNumQueued());
+    assertNull(limiter.poll());
+  }
+
+  @Test
+  public void testLimitAdapts() {
+    ConcurrencyLimiter<String> limiter = new ConcurrencyLimiter<>(4, 8, 0);
+    // Keep the server busy at a steady latency, the limit grows up to its max.
+    for (int i = 0; i < 100; i++) {
+      while (limiter.acquire("rpc") == ConcurrencyLimiter.Admission.ACQUIRED) {
+      }
+      limiter.release("Write", 1 * MS, false);
+    }
+    assertEquals(8, limiter.getLimit());
+
+    // The latency shoots up, the limit goes down.
+    limiter.release("Write", 10 * MS, false);
+    assertEquals(7, limiter.getLimit());
+    for (int i = 0; i < 6; i++) {
+      limiter.release("Write", -1, true);
+    }
+    assertTrue(limiter.getLimit() < 7);
+
+    // It never goes below one.
+    for (int i = 0; i < 100; i++) {
+      limiter.release("Write", -1, true);
+    }
+    assertEquals(1, limiter.getLimit());
+  }
+
+  @Test
+  public void testIdleServerDoesNotGrowTheLimit() {
+    ConcurrencyLimiter<String> limiter = new ConcurrencyLimiter<>(10, 100, 0);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(ConcurrencyLimiter.Admission.ACQUIRED, limiter.acquire("rpc"));
+      limiter.release("Write", 1 * MS, false);
+    }
+    assertEquals(10, limiter.getLimit());
+  }
+
+  @Test
+  public void testMethodsHaveTheirOwnBaseline() {
+    ConcurrencyLimiter<String> limiter = new ConcurrencyLimiter<>(4, 8, 0);
+    // A busy server answering cheap and slow methods alike, each at its steady latency.
+    for (int i = 0; i < 200; i++) {
+      while (limiter.acquire("rpc") == ConcurrencyLimiter.Admission.ACQUIRED) {
+      }
+      limiter.release(i % 2 == 0 ? "Ping" : "GetChanges", i % 2 == 0 ? 1 * MS : 50 * MS, false);
+    }
+    assertEquals(8, limiter.getLimit());
+
+    // The slow method getting slower still cuts the limit.
+    limiter.release("GetChanges", 500 * MS, false);
+    assertEquals(7, limiter.getLimit());
+  }
+}
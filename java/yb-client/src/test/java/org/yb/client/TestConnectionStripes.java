@@ -0,0 +1,233 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.Message;
+import com.stumbleupon.async.Deferred;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.cdc.CdcService;
+
+@RunWith(value=YBTestRunner.class)
+public class TestConnectionStripes {
+
+  private static final long TIMEOUT_MS = 10000;
+  private static final int NUM_CONNECTIONS = 3;
+
+  private FakeServer tserver;
+  private FakeServer master;
+  private AsyncYBClient client;
+  private YBTable table;
+
+  // GetChanges calls waiting for an answer, guarded by itself.
+  private final List<FakeServer.Call> heldCalls = new ArrayList<>();
+  private volatile boolean holdCalls = true;
+
+  @Before
+  public void setUp() throws Exception {
+    tserver = new FakeServer("ts", new FakeServer.Handler() {
+      @Override
+      public Message handle(FakeServer.Call call) {
+        synchronized (heldCalls) {
+          if (holdCalls) {
+            heldCalls.add(call);
+            return null;
+          }
+        }
+        return CdcService.GetChangesResponsePB.getDefaultInstance();
+      }
+    });
+    master = FakeServer.newMaster(FakeServer.tabletLocations(
+        "tablet", AsyncYBClient.EMPTY_ARRAY, AsyncYBClient.EMPTY_ARRAY, tserver));
+  }
+
+  private void startClient(ConnectionSelectionPolicy policy) {
+    client = new AsyncYBClient.AsyncYBClientBuilder(master.getHostAndPort().toString())
+        .defaultAdminOperationTimeoutMs(TIMEOUT_MS)
+        .defaultOperationTimeoutMs(TIMEOUT_MS)
+        .connectionsPerServer(NUM_CONNECTIONS, policy)
+        .build();
+    table = new YBTable(client, "table", "table-id", null, null);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (client != null) {
+      client.close();
+    }
+    master.close();
+    tserver.close();
+  }
+
+  private Deferred<GetChangesResponse> getChanges() {
+    return client.getChanges(table, "stream", "tablet", null, 0, 0);
+  }
+
+  private void waitForHeldCalls(int count) throws Exception {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (true) {
+      synchronized (heldCalls) {
+        if (heldCalls.size() >= count) {
+          return;
+        }
+      }
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * @return how many of the held calls came on each connection to the tablet server
+   */
+  private int[] heldCallsPerConnection(int numConnections) {
+    int[] counts = new int[numConnections];
+    synchronized (heldCalls) {
+      for (FakeServer.Call call : heldCalls) {
+        counts[call.getConnectionIndex()]++;
+      }
+    }
+    return counts;
+  }
+
+  private void answerHeldCalls() {
+    List<FakeServer.Call> calls;
+    synchronized (heldCalls) {
+      holdCalls = false;
+      calls = new ArrayList<>(heldCalls);
+      heldCalls.clear();
+    }
+    for (FakeServer.Call call : calls) {
+      call.respond(CdcService.GetChangesResponsePB.getDefaultInstance());
+    }
+  }
+
+  private void sendAndCheckSpread(ConnectionSelectionPolicy policy) throws Exception {
+    startClient(policy);
+    // Locate the tablet first, so that RPCs don't wait for the master.
+    List<Deferred<GetChangesResponse>> calls = new ArrayList<>();
+    calls.add(getChanges());
+    waitForHeldCalls(1);
+    for (int i = 1; i < 2 * NUM_CONNECTIONS; i++) {
+      calls.add(getChanges());
+    }
+    waitForHeldCalls(2 * NUM_CONNECTIONS);
+    assertEquals(NUM_CONNECTIONS, tserver.getNumConnections());
+    for (int count : heldCallsPerConnection(NUM_CONNECTIONS)) {
+      assertEquals(2, count);
+    }
+    assertEquals(2 * NUM_CONNECTIONS, getNumInflightRpcs());
+    answerHeldCalls();
+    for (Deferred<GetChangesResponse> call : calls) {
+      call.join(TIMEOUT_MS);
+    }
+    assertEquals(0, getNumInflightRpcs());
+  }
+
+  private int getNumInflightRpcs() {
+    int inflight = 0;
+    for (TabletClient connection : client.getTableClients()) {
+      inflight += connection.getNumInflightRpcs();
+    }
+    return inflight;
+  }
+
+  @Test
+  public void testRoundRobin() throws Exception {
+    sendAndCheckSpread(ConnectionSelectionPolicy.ROUND_ROBIN);
+  }
+
+  @Test
+  public void testLeastInflight() throws Exception {
+    sendAndCheckSpread(ConnectionSelectionPolicy.LEAST_INFLIGHT);
+  }
+
+  @Test
+  public void testLeastInflightAvoidsBusyConnections() throws Exception {
+    startClient(ConnectionSelectionPolicy.LEAST_INFLIGHT);
+    getChanges();
+    waitForHeldCalls(1);
+    for (int i = 1; i < NUM_CONNECTIONS; i++) {
+      getChanges();
+    }
+    waitForHeldCalls(NUM_CONNECTIONS);
+    // Answer the call of the second connection only.
+    FakeServer.Call answered = null;
+    synchronized (heldCalls) {
+      for (FakeServer.Call call : heldCalls) {
+        if (call.getConnectionIndex() == 1) {
+          answered = call;
+        }
+      }
+      heldCalls.remove(answered);
+    }
+    answered.respond(CdcService.GetChangesResponsePB.getDefaultInstance());
+    // The answer is decoded on an I/O thread, until then the RPCs go to any connection.
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    int numHeld = NUM_CONNECTIONS - 1;
+    while (heldCallsPerConnection(NUM_CONNECTIONS)[1] == 0) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      getChanges();
+      waitForHeldCalls(++numHeld);
+    }
+    answerHeldCalls();
+  }
+
+  @Test
+  public void testStripeDroppedWithRpcsInFlight() throws Exception {
+    startClient(ConnectionSelectionPolicy.ROUND_ROBIN);
+    List<Deferred<GetChangesResponse>> calls = new ArrayList<>();
+    calls.add(getChanges());
+    waitForHeldCalls(1);
+    for (int i = 1; i < 2 * NUM_CONNECTIONS; i++) {
+      calls.add(getChanges());
+    }
+    waitForHeldCalls(2 * NUM_CONNECTIONS);
+    assertEquals(NUM_CONNECTIONS, tserver.getNumConnections());
+
+    // Drop one of the extra connections, its RPCs in flight are never answered.
+    synchronized (heldCalls) {
+      List<FakeServer.Call> dropped = new ArrayList<>();
+      for (FakeServer.Call call : heldCalls) {
+        if (call.getConnectionIndex() == 1) {
+          dropped.add(call);
+        }
+      }
+      assertEquals(2, dropped.size());
+      heldCalls.removeAll(dropped);
+      dropped.get(0).resetConnection();
+      holdCalls = false;
+    }
+    answerHeldCalls();
+    // Every RPC succeeds, the ones of the dropped connection after a retry.
+    for (Deferred<GetChangesResponse> call : calls) {
+      assertFalse(call.join(TIMEOUT_MS).getResp().hasError());
+    }
+    assertEquals(2 * NUM_CONNECTIONS + 2, tserver.getNumCalls("GetChanges"));
+
+    // The dropped connection was replaced, and the primary one is still in use.
+    for (int i = 0; i < NUM_CONNECTIONS; i++) {
+      getChanges().join(TIMEOUT_MS);
+    }
+    assertEquals(NUM_CONNECTIONS + 1, tserver.getNumConnections());
+  }
+}
@@ -0,0 +1,110 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import com.stumbleupon.async.Deferred;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestDeferredFutures {
+
+  @Test
+  public void testResult() throws Exception {
+    Deferred<String> d = new Deferred<String>();
+    CompletableFuture<String> future = DeferredFutures.toCompletableFuture(d);
+    assertFalse(future.isDone());
+    d.callback("foo");
+    assertEquals("foo", future.getNow(null));
+    // The deferred still yields its result.
+    assertEquals("foo", DeferredFutures.join(d, 1000));
+    assertEquals("foo", d.join(1000));
+  }
+
+  @Test
+  public void testError() throws Exception {
+    Deferred<String> d = new Deferred<String>();
+    CompletableFuture<String> future = DeferredFutures.toCompletableFuture(d);
+    IllegalStateException error = new IllegalStateException("bar");
+    d.callback(error);
+    assertTrue(future.isCompletedExceptionally());
+    try {
+      DeferredFutures.join(future, 0);
+      fail("Expected the error of the deferred");
+    } catch (IllegalStateException e) {
+      assertSame(error, e);
+    }
+    try {
+      DeferredFutures.join(d, 1000);
+      fail("Expected the error of the deferred");
+    } catch (IllegalStateException e) {
+      assertSame(error, e);
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    Deferred<String> d = new Deferred<String>();
+    try {
+      DeferredFutures.join(d, 10);
+      fail("Expected a timeout");
+    } catch (TimeoutException e) {
+      // Expected.
+    }
+    d.callback("late");
+    assertEquals("late", DeferredFutures.join(d, 0));
+  }
+
+  @Test
+  public void testCancelFutureCancelsRpc() throws Exception {
+    PingRequest rpc = new PingRequest();
+    CompletableFuture<PingResponse> future =
+        DeferredFutures.toCompletableFuture(rpc, rpc.getDeferred());
+    assertTrue(future.cancel(true));
+    assertTrue(rpc.isCancelled());
+    // Already cancelled.
+    assertFalse(rpc.cancel());
+    assertTrue(AsyncYBClient.cannotRetryRequest(rpc));
+  }
+
+  @Test
+  public void testCancelRpc() throws Exception {
+    PingRequest rpc = new PingRequest();
+    Deferred<PingResponse> d = rpc.getDeferred();
+    CompletableFuture<PingResponse> future = DeferredFutures.toCompletableFuture(rpc, d);
+    assertTrue(rpc.cancel());
+    assertTrue(future.isCancelled());
+    try {
+      DeferredFutures.join(d, 1000);
+      fail("Expected the RPC to be cancelled");
+    } catch (CancellationException e) {
+      // Expected.
+    }
+
+    // An RPC that completed can't be cancelled anymore.
+    PingRequest completed = new PingRequest();
+    completed.getDeferred();
+    completed.errback(new NonRecoverableException("failed"));
+    assertFalse(completed.cancel());
+    assertFalse(completed.isCancelled());
+  }
+}
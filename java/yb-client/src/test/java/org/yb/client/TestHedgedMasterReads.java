@@ -0,0 +1,196 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.net.HostAndPort;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import com.stumbleupon.async.Deferred;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.master.Master;
+
+@RunWith(value=YBTestRunner.class)
+public class TestHedgedMasterReads {
+
+  private static final long TIMEOUT_MS = 10000;
+  private static final long HEDGE_DELAY_MS = 100;
+
+  private FakeServer master;
+  private AsyncYBClient client;
+
+  // ListTables calls waiting for an answer, guarded by itself.
+  private final List<FakeServer.Call> heldCalls = new ArrayList<>();
+  private volatile boolean holdCalls = false;
+
+  // The RPCs built for the hedged read, the primary first.
+  private final List<YRpc<ListTablesResponse>> sentRpcs =
+      Collections.synchronizedList(new ArrayList<YRpc<ListTablesResponse>>());
+
+  @Before
+  public void setUp() throws Exception {
+    final FakeServer[] server = new FakeServer[1];
+    server[0] = new FakeServer("master", new FakeServer.Handler() {
+      @Override
+      public Message handle(FakeServer.Call call) {
+        if (call.getMethod().equals("GetMasterRegistration")) {
+          return server[0].masterLeaderRegistration();
+        }
+        synchronized (heldCalls) {
+          if (holdCalls) {
+            heldCalls.add(call);
+            return null;
+          }
+        }
+        return listTablesResponse("warmup");
+      }
+    });
+    master = server[0];
+    client = new AsyncYBClient.AsyncYBClientBuilder(master.getHostAndPort().toString())
+        .defaultAdminOperationTimeoutMs(TIMEOUT_MS)
+        .defaultOperationTimeoutMs(TIMEOUT_MS)
+        .hedgeMasterReads(0.5, HEDGE_DELAY_MS)
+        .connectionsPerServer(2, ConnectionSelectionPolicy.LEAST_INFLIGHT)
+        .build();
+    // Connect to the master leader, so that the primary RPC goes out as soon as it's sent.
+    client.getTablesList().join(TIMEOUT_MS);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    master.close();
+  }
+
+  /**
+   * @return a ListTables answer with a single table, named after whoever answers
+   */
+  private static Master.ListTablesResponsePB listTablesResponse(String name) {
+    return Master.ListTablesResponsePB.newBuilder()
+        .addTables(Master.ListTablesResponsePB.TableInfo.newBuilder()
+            .setId(ByteString.copyFromUtf8(name))
+            .setName(name))
+        .build();
+  }
+
+  private Deferred<ListTablesResponse> sendHedgedRead() {
+    return client.sendMasterRead(new AsyncYBClient.MasterRead<ListTablesResponse>() {
+      @Override
+      YRpc<ListTablesResponse> newRpc() {
+        YRpc<ListTablesResponse> rpc =
+            new ListTablesRequest(client.masterTable, null, false, null);
+        sentRpcs.add(rpc);
+        return rpc;
+      }
+    });
+  }
+
+  private List<FakeServer.Call> waitForHeldCalls(int count) throws Exception {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (true) {
+      synchronized (heldCalls) {
+        if (heldCalls.size() >= count) {
+          return new ArrayList<>(heldCalls);
+        }
+      }
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * Stalls the master, waits for the read to be hedged and answers one of the two RPCs.
+   * @param winner 0 to answer the primary RPC, 1 to answer the hedge
+   */
+  private void checkFirstAnswerWins(int winner) throws Exception {
+    final long hedgesBefore = client.getNumMasterHedges();
+    final long winsBefore = client.getNumMasterHedgeWins();
+    holdCalls = true;
+    Deferred<ListTablesResponse> result = sendHedgedRead();
+
+    // The master doesn't answer the primary RPC, so it's sent again after the hedge delay.
+    List<FakeServer.Call> calls = waitForHeldCalls(2);
+    assertEquals(2, sentRpcs.size());
+    assertEquals(hedgesBefore + 1, client.getNumMasterHedges());
+
+    calls.get(winner).respond(listTablesResponse("winner"));
+    assertEquals(Collections.singletonList("winner"),
+                 result.join(TIMEOUT_MS).getTablesList());
+    assertEquals(winsBefore + winner, client.getNumMasterHedgeWins());
+    // The other RPC is cancelled, its late answer is skipped.
+    assertTrue(sentRpcs.get(1 - winner).isCancelled());
+    assertFalse(sentRpcs.get(winner).isCancelled());
+    calls.get(1 - winner).respond(listTablesResponse("loser"));
+
+    // The client is still usable once the loser's answer came back.
+    holdCalls = false;
+    assertEquals(Collections.singletonList("warmup"),
+                 client.getTablesList().join(TIMEOUT_MS).getTablesList());
+  }
+
+  @Test
+  public void testHedgeWins() throws Exception {
+    checkFirstAnswerWins(1);
+  }
+
+  @Test
+  public void testPrimaryWinsAfterHedging() throws Exception {
+    checkFirstAnswerWins(0);
+  }
+
+  @Test
+  public void testNoHedgeWhenAnsweredInTime() throws Exception {
+    final long hedgesBefore = client.getNumMasterHedges();
+    final long readsBefore = client.getNumHedgeableMasterReads();
+    for (int i = 0; i < 5; i++) {
+      sendHedgedRead().join(TIMEOUT_MS);
+    }
+    // Let the hedge timers of the reads expire.
+    Thread.sleep(2 * HEDGE_DELAY_MS);
+    assertEquals(readsBefore + 5, client.getNumHedgeableMasterReads());
+    assertEquals(hedgesBefore, client.getNumMasterHedges());
+    assertEquals(5, sentRpcs.size());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testHedgingNeedsSeveralConnections() {
+    new AsyncYBClient.AsyncYBClientBuilder(master.getHostAndPort().toString())
+        .hedgeMasterReads(0.5, HEDGE_DELAY_MS)
+        .build();
+  }
+
+  @Test
+  public void testMasterLeaderAddress() throws Exception {
+    InetSocketAddress remote =
+        new InetSocketAddress(InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 }), 7100);
+    assertTrue(AsyncYBClient.isAddressOf(remote, HostAndPort.fromParts("10.0.0.1", 7100)));
+    // Another master on the same port.
+    assertFalse(AsyncYBClient.isAddressOf(remote, HostAndPort.fromParts("10.0.0.2", 7100)));
+    assertFalse(AsyncYBClient.isAddressOf(remote, HostAndPort.fromParts("10.0.0.1", 7101)));
+    InetSocketAddress named = new InetSocketAddress(
+        InetAddress.getByAddress("master-1", new byte[] { 10, 0, 0, 1 }), 7100);
+    assertTrue(AsyncYBClient.isAddressOf(named, HostAndPort.fromParts("master-1", 7100)));
+    assertTrue(AsyncYBClient.isAddressOf(named, HostAndPort.fromParts("10.0.0.1", 7100)));
+  }
+}
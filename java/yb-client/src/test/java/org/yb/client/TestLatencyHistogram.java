@@ -0,0 +1,99 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestLatencyHistogram {
+
+  private static final long US = 1000;
+
+  @Test
+  public void testBuckets() {
+    // Every value lands in a bucket whose bounds contain it, and the buckets are contiguous.
+    long previousUpperBound = -1;
+    for (int i = 0; i < 500; i++) {
+      long lower = LatencyHistogram.bucketLowerBound(i);
+      long upper = LatencyHistogram.bucketUpperBound(i);
+      assertEquals(previousUpperBound + 1, lower);
+      assertTrue(upper >= lower);
+      assertEquals(i, LatencyHistogram.bucketIndex(lower));
+      assertEquals(i, LatencyHistogram.bucketIndex(upper));
+      // The relative error stays under 1 / SUB_BUCKETS.
+      assertTrue((upper - lower) * LatencyHistogram.SUB_BUCKETS <= Math.max(lower, 1));
+      previousUpperBound = upper;
+    }
+    // Huge values go to the last bucket.
+    assertEquals(LatencyHistogram.bucketIndex(Long.MAX_VALUE),
+                 LatencyHistogram.bucketIndex(Long.MAX_VALUE / 2));
+  }
+
+  @Test
+  public void testQuantiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.snapshot().getValueAtQuantile(0.5));
+    for (long i = 1; i <= 1000; i++) {
+      histogram.record(i * US);
+    }
+    histogram.record(-1);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(1000, snapshot.getCount());
+    assertEquals(1000, snapshot.getMaxMicros());
+    assertEquals(500.5, snapshot.getMeanMicros(), 0.001);
+    assertEquals(1, snapshot.getValueAtQuantile(0));
+    assertEquals(1000, snapshot.getValueAtQuantile(1));
+    long median = snapshot.getValueAtQuantile(0.5);
+    assertTrue(median >= 500 && median <= 500 + 500 / LatencyHistogram.SUB_BUCKETS);
+    long p99 = snapshot.getValueAtQuantile(0.99);
+    assertTrue(p99 >= 990 && p99 <= 990 + 990 / LatencyHistogram.SUB_BUCKETS);
+    assertEquals(10, snapshot.getCountAtOrBelow(10));
+    assertEquals(1000, snapshot.getCountAtOrBelow(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    final int numThreads = 8;
+    final int numValues = 100000;
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < numValues; i++) {
+            histogram.record(i * US);
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(numThreads * numValues, snapshot.getCount());
+    assertEquals(numValues - 1, snapshot.getMaxMicros());
+    assertEquals(numThreads * numValues, snapshot.getCountAtOrBelow(numValues));
+  }
+}
@@ -0,0 +1,204 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.ColumnSchema;
+import org.yb.Common;
+import org.yb.Schema;
+import org.yb.QLType;
+import org.yb.YBTestRunner;
+import org.yb.master.Master;
+
+@RunWith(value=YBTestRunner.class)
+public class TestLocateTableInParallel {
+
+  private static final long TIMEOUT_MS = 10000;
+  private static final int NUM_TABLETS = 8;
+  // How many tablets the master returns at most per lookup.
+  private static final int MAX_RETURNED_LOCATIONS = 3;
+
+  private FakeServer tserver;
+  private FakeServer master;
+  private AsyncYBClient client;
+  private PartitionSchema hashPartitionSchema;
+  private volatile boolean tableServed = true;
+
+  @Before
+  public void setUp() throws Exception {
+    tserver = new FakeServer("ts", new FakeServer.Handler() {
+      @Override
+      public Message handle(FakeServer.Call call) {
+        return null;
+      }
+    });
+    master = new FakeServer("master", new FakeServer.Handler() {
+      @Override
+      public Message handle(FakeServer.Call call) throws Exception {
+        if (call.getMethod().equals("GetMasterRegistration")) {
+          return master.masterLeaderRegistration();
+        }
+        return locations(call.parse(Master.GetTableLocationsRequestPB.newBuilder()));
+      }
+    });
+    client = new AsyncYBClient.AsyncYBClientBuilder(master.getHostAndPort().toString())
+        .defaultAdminOperationTimeoutMs(TIMEOUT_MS)
+        .build();
+    Schema schema = new Schema(Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("key", QLType.INT32).hashKey(true).build()));
+    hashPartitionSchema = new PartitionSchema(
+        new PartitionSchema.RangeSchema(Collections.<Integer>emptyList()),
+        Collections.<PartitionSchema.HashBucketSchema>emptyList(), schema, null, true);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    master.close();
+    tserver.close();
+  }
+
+  private static byte[] tabletStart(int i) {
+    return i == 0 ? AsyncYBClient.EMPTY_ARRAY : PartitionSchema.encodeHashPartitionKey(
+        PartitionSchema.HASH_PARTITION_KEY_SPACE / NUM_TABLETS * i);
+  }
+
+  private static byte[] tabletEnd(int i) {
+    return i == NUM_TABLETS - 1 ? AsyncYBClient.EMPTY_ARRAY : tabletStart(i + 1);
+  }
+
+  /**
+   * Answers like the master: the tablets overlapping the inclusive range of the request.
+   */
+  private Master.GetTableLocationsResponsePB locations(
+      Master.GetTableLocationsRequestPB.Builder req) {
+    Master.GetTableLocationsResponsePB.Builder resp =
+        Master.GetTableLocationsResponsePB.newBuilder();
+    if (!tableServed) {
+      return resp.build();
+    }
+    byte[] start = req.getPartitionKeyStart().toByteArray();
+    byte[] end = req.hasPartitionKeyEnd() ? req.getPartitionKeyEnd().toByteArray() : null;
+    for (int i = 0; i < NUM_TABLETS && resp.getTabletLocationsCount() < MAX_RETURNED_LOCATIONS;
+         i++) {
+      boolean endsAfterStart =
+          tabletEnd(i).length == 0 || Bytes.memcmp(tabletEnd(i), start) > 0;
+      boolean startsBeforeEnd = end == null || Bytes.memcmp(tabletStart(i), end) <= 0;
+      if (endsAfterStart && startsBeforeEnd) {
+        resp.addTabletLocations(
+            FakeServer.tabletLocations("tablet-" + i, tabletStart(i), tabletEnd(i), tserver));
+      }
+    }
+    return resp.build();
+  }
+
+  private static LocatedTablet tablet(String id, String start, String end) {
+    return new LocatedTablet(Master.TabletLocationsPB.newBuilder()
+        .setTabletId(ByteString.copyFromUtf8(id))
+        .setStale(false)
+        .setPartition(Common.PartitionPB.newBuilder()
+            .setPartitionKeyStart(ByteString.copyFromUtf8(start))
+            .setPartitionKeyEnd(ByteString.copyFromUtf8(end)))
+        .build());
+  }
+
+  @Test
+  public void testHashRangeBoundaries() {
+    int space = PartitionSchema.HASH_PARTITION_KEY_SPACE;
+    assertTrue(Arrays.equals(new int[] { 0, space / 4, space / 2, space * 3 / 4, space },
+                             AsyncYBClient.hashRangeBoundaries(4)));
+    int[] boundaries = AsyncYBClient.hashRangeBoundaries(3);
+    assertEquals(4, boundaries.length);
+    assertEquals(0, boundaries[0]);
+    assertEquals(space, boundaries[3]);
+    for (int i = 0; i < 3; i++) {
+      // No empty range, and no range more than one hash code bigger than another.
+      int size = boundaries[i + 1] - boundaries[i];
+      assertTrue(size == space / 3 || size == space / 3 + 1);
+    }
+    assertTrue(Arrays.equals(new int[] { 0, space }, AsyncYBClient.hashRangeBoundaries(1)));
+  }
+
+  @Test
+  public void testMergeLocatedRanges() {
+    LocatedTablet t1 = tablet("t1", "", "c");
+    LocatedTablet t2 = tablet("t2", "c", "f");
+    LocatedTablet t3 = tablet("t3", "f", "");
+    // t2 spans both ranges, so both return it.
+    List<LocatedTablet> merged = AsyncYBClient.mergeLocatedRanges(Arrays.asList(
+        Arrays.asList(t3, tablet("t2", "c", "f")), Arrays.asList(t1, t2)));
+    assertEquals(3, merged.size());
+    assertEquals("t1", new String(merged.get(0).getTabletId()));
+    assertEquals("t2", new String(merged.get(1).getTabletId()));
+    assertEquals("t3", new String(merged.get(2).getTabletId()));
+
+    assertTrue(AsyncYBClient.mergeLocatedRanges(
+        Collections.<List<LocatedTablet>>singletonList(new ArrayList<LocatedTablet>())).isEmpty());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMergeLocatedRangesWithHole() {
+    AsyncYBClient.mergeLocatedRanges(Arrays.asList(
+        Arrays.asList(tablet("t1", "", "c")), Arrays.asList(tablet("t3", "f", ""))));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMergeLocatedRangesWithOverlap() {
+    AsyncYBClient.mergeLocatedRanges(Arrays.asList(
+        Arrays.asList(tablet("t1", "", "d"), tablet("t2", "c", ""))));
+  }
+
+  private void assertAllTablets(List<LocatedTablet> tablets) {
+    assertEquals(NUM_TABLETS, tablets.size());
+    for (int i = 0; i < NUM_TABLETS; i++) {
+      assertEquals("tablet-" + i, new String(tablets.get(i).getTabletId()));
+    }
+  }
+
+  @Test
+  public void testLocateTableInParallel() throws Exception {
+    List<LocatedTablet> tablets = client.locateTableInParallel(
+        "table-id", hashPartitionSchema, 4, 2, TIMEOUT_MS).join(TIMEOUT_MS);
+    assertAllTablets(tablets);
+    // Every range was looked up on its own.
+    assertTrue(master.getNumCalls("GetTableLocations") >= 4);
+  }
+
+  @Test
+  public void testMoreRangesThanTablets() throws Exception {
+    assertAllTablets(client.locateTableInParallel(
+        "table-id", hashPartitionSchema, 32, 8, TIMEOUT_MS).join(TIMEOUT_MS));
+  }
+
+  @Test
+  public void testLocateTableThatIsNotServed() throws Exception {
+    tableServed = false;
+    assertTrue(client.locateTableInParallel(
+        "table-id", hashPartitionSchema, 4, 2, TIMEOUT_MS).join(TIMEOUT_MS).isEmpty());
+    assertTrue(client.locateTable("table-id", null, null, TIMEOUT_MS).join(TIMEOUT_MS).isEmpty());
+  }
+}
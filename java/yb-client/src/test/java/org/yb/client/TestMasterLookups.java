@@ -0,0 +1,232 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.Message;
+import com.stumbleupon.async.Deferred;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.master.Master;
+
+@RunWith(value=YBTestRunner.class)
+public class TestMasterLookups {
+
+  private static final long TIMEOUT_MS = 10000;
+
+  // The table has 16 tablets of the same width, the first byte of their keys being 0x00, 0x10...
+  private static final int NUM_TABLETS = 16;
+  // How many tablets the client asks the master for.
+  private static final int PREFETCH_COUNT = 4;
+
+  private FakeServer tserver;
+  private FakeServer master;
+  private AsyncYBClient client;
+  private YBTable table;
+  // The lookups of the master leader, made before the test starts.
+  private long initialMasterLookups;
+
+  // How many tablets a lookup returns.
+  private volatile int tabletsPerLookup = PREFETCH_COUNT;
+  // GetTableLocations calls waiting for an answer, guarded by itself.
+  private final List<FakeServer.Call> heldLookups = new ArrayList<>();
+  private volatile boolean holdLookups = true;
+
+  @Before
+  public void setUp() throws Exception {
+    tserver = new FakeServer("ts", new FakeServer.Handler() {
+      @Override
+      public Message handle(FakeServer.Call call) {
+        return null;
+      }
+    });
+    master = new FakeServer("master", new FakeServer.Handler() {
+      @Override
+      public Message handle(FakeServer.Call call) throws Exception {
+        if (call.getMethod().equals("GetMasterRegistration")) {
+          return master.masterLeaderRegistration();
+        }
+        synchronized (heldLookups) {
+          if (holdLookups) {
+            heldLookups.add(call);
+            return null;
+          }
+        }
+        return locations(call);
+      }
+    });
+    client = new AsyncYBClient.AsyncYBClientBuilder(master.getHostAndPort().toString())
+        .defaultAdminOperationTimeoutMs(TIMEOUT_MS)
+        .tabletLocationsPrefetchCount(PREFETCH_COUNT)
+        .build();
+    table = new YBTable(client, "table", "table-id", null, null);
+    client.locateTablet(client.masterTable, null).join(TIMEOUT_MS);
+    // Learn the first tablets of the table, and so how wide they are.
+    holdLookups = false;
+    client.locateTablet(table, key(0)).join(TIMEOUT_MS);
+    holdLookups = true;
+    initialMasterLookups = client.getNumMasterLookups();
+  }
+
+  private static byte[] split(int tablet) {
+    return tablet == 0 || tablet == NUM_TABLETS ? new byte[0] : new byte[] { (byte) (tablet << 4) };
+  }
+
+  // A key inside the given tablet.
+  private static byte[] key(int tablet) {
+    return new byte[] { (byte) ((tablet << 4) + 1) };
+  }
+
+  private long getNumMasterLookups() {
+    return client.getNumMasterLookups() - initialMasterLookups;
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    master.close();
+    tserver.close();
+  }
+
+  /**
+   * Answers a lookup with the tablets from the one holding its start key on.
+   */
+  private Master.GetTableLocationsResponsePB locations(FakeServer.Call call) throws Exception {
+    byte[] start = call.parse(Master.GetTableLocationsRequestPB.newBuilder())
+        .getPartitionKeyStart().toByteArray();
+    Master.GetTableLocationsResponsePB.Builder resp =
+        Master.GetTableLocationsResponsePB.newBuilder();
+    for (int i = 0; i < NUM_TABLETS && resp.getTabletLocationsCount() < tabletsPerLookup; i++) {
+      byte[] end = split(i + 1);
+      if (end.length == 0 || Bytes.memcmp(start, end) < 0) {
+        resp.addTabletLocations(
+            FakeServer.tabletLocations("tablet-" + i, split(i), end, tserver));
+      }
+    }
+    return resp.build();
+  }
+
+  private void answerHeldLookups() throws Exception {
+    List<FakeServer.Call> calls;
+    synchronized (heldLookups) {
+      holdLookups = false;
+      calls = new ArrayList<>(heldLookups);
+      heldLookups.clear();
+    }
+    for (FakeServer.Call call : calls) {
+      call.respond(locations(call));
+    }
+  }
+
+  private void waitForLookups(int count) throws Exception {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (getNumMasterLookups() < count) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private List<Deferred<Master.GetTableLocationsResponsePB>> locate(int... tablets) {
+    List<Deferred<Master.GetTableLocationsResponsePB>> lookups = new ArrayList<>();
+    for (int tablet : tablets) {
+      lookups.add(client.locateTablet(table, key(tablet)));
+    }
+    return lookups;
+  }
+
+  private void join(List<Deferred<Master.GetTableLocationsResponsePB>> lookups) throws Exception {
+    for (Deferred<Master.GetTableLocationsResponsePB> lookup : lookups) {
+      lookup.join(TIMEOUT_MS);
+    }
+  }
+
+  private void assertLocated(int... tablets) {
+    for (int tablet : tablets) {
+      assertNotNull(client.getTablet(table.getTableId(), key(tablet)));
+    }
+  }
+
+  @Test
+  public void testConcurrentLookupsInTheSameRangeAreCoalesced() throws Exception {
+    int[] tablets = { 4, 4, 5, 7 };
+    List<Deferred<Master.GetTableLocationsResponsePB>> lookups = locate(tablets);
+    waitForLookups(1);
+    answerHeldLookups();
+    join(lookups);
+    assertEquals(1, getNumMasterLookups());
+    assertEquals(tablets.length - 1, client.getNumCoalescedMasterLookups());
+    assertLocated(tablets);
+    assertEquals(0, client.getNumTablesLookedUp());
+  }
+
+  @Test
+  public void testKeysOutOfReachDoNotWait() throws Exception {
+    // Tablet 8 is past the 4 tablets a lookup from tablet 4 is expected to return.
+    List<Deferred<Master.GetTableLocationsResponsePB>> lookups = locate(4, 8);
+    // Both lookups are sent before either is answered.
+    waitForLookups(2);
+    answerHeldLookups();
+    join(lookups);
+    assertEquals(0, client.getNumCoalescedMasterLookups());
+    assertLocated(4, 8);
+    assertEquals(0, client.getNumTablesLookedUp());
+  }
+
+  @Test
+  public void testKeysPastTheCoalescedLookupAreLookedUpAgain() throws Exception {
+    // The lookup from tablet 4 only returns tablets 4 and 5.
+    tabletsPerLookup = 2;
+    List<Deferred<Master.GetTableLocationsResponsePB>> lookups = locate(4, 5, 7);
+    waitForLookups(1);
+    answerHeldLookups();
+    join(lookups);
+    // 7 waited for the first lookup, then looked its key up, so only 5 was served by it.
+    assertEquals(2, getNumMasterLookups());
+    assertEquals(1, client.getNumCoalescedMasterLookups());
+    assertLocated(4, 5, 7);
+    assertEquals(0, client.getNumTablesLookedUp());
+  }
+
+  @Test
+  public void testLookupsBeforeTheInflightOneAreNotCoalesced() throws Exception {
+    List<Deferred<Master.GetTableLocationsResponsePB>> lookups = locate(6, 4);
+    waitForLookups(2);
+    answerHeldLookups();
+    join(lookups);
+    assertEquals(2, getNumMasterLookups());
+    assertEquals(0, client.getNumCoalescedMasterLookups());
+    assertLocated(4, 6);
+  }
+
+  @Test
+  public void testLookupsOfAnUnknownTableAreNotCoalescedByRange() throws Exception {
+    client.emptyTabletsCacheForTable(table.getTableId());
+    // Without known tablets, there's no telling how far a lookup goes.
+    List<Deferred<Master.GetTableLocationsResponsePB>> lookups = locate(4, 4, 5);
+    waitForLookups(2);
+    answerHeldLookups();
+    join(lookups);
+    assertEquals(2, getNumMasterLookups());
+    assertEquals(1, client.getNumCoalescedMasterLookups());
+    assertLocated(4, 5);
+  }
+}
@@ -0,0 +1,166 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.Common;
+import org.yb.YBTestRunner;
+import org.yb.consensus.Metadata;
+import org.yb.master.Master;
+import org.yb.util.Pair;
+import org.yb.util.Slice;
+
+@RunWith(value=YBTestRunner.class)
+public class TestReplicaSelection {
+
+  private AsyncYBClient client;
+  // Stand-ins for the tablet servers, so that the client can connect to them.
+  private final List<ServerSocket> servers = new ArrayList<>();
+
+  @Before
+  public void setUp() throws Exception {
+    client = new AsyncYBClient.AsyncYBClientBuilder("127.0.0.1")
+        .placement("cloud", "region", "zone-b")
+        .build();
+    for (int i = 0; i < 3; i++) {
+      servers.add(new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1")));
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    for (ServerSocket server : servers) {
+      server.close();
+    }
+  }
+
+  private static Common.CloudInfoPB placement(String cloud, String region, String zone) {
+    return Common.CloudInfoPB.newBuilder()
+        .setPlacementCloud(cloud).setPlacementRegion(region).setPlacementZone(zone).build();
+  }
+
+  /**
+   * A tablet with its leader in zone-a, and followers in zone-b and in another region.
+   */
+  private AsyncYBClient.RemoteTablet tablet() throws Exception {
+    Partition partition = new Partition("".getBytes(), "".getBytes(),
+                                        Collections.<Integer>emptyList());
+    AsyncYBClient.RemoteTablet tablet =
+        client.new RemoteTablet("table", new Slice("tablet".getBytes()), partition);
+    Master.TabletLocationsPB.Builder locations = Master.TabletLocationsPB.newBuilder()
+        .setTabletId(ByteString.copyFromUtf8("tablet"))
+        .setStale(false);
+    String[] zones = { "zone-a", "zone-b", "zone-c" };
+    String[] regions = { "region", "region", "other-region" };
+    for (int i = 0; i < servers.size(); i++) {
+      locations.addReplicas(Master.TabletLocationsPB.ReplicaPB.newBuilder()
+          .setRole(i == 0 ? Metadata.RaftPeerPB.Role.LEADER : Metadata.RaftPeerPB.Role.FOLLOWER)
+          .setTsInfo(Master.TSInfoPB.newBuilder()
+              .setPermanentUuid(ByteString.copyFromUtf8("ts-" + i))
+              .addPrivateRpcAddresses(Common.HostPortPB.newBuilder()
+                  .setHost("127.0.0.1").setPort(servers.get(i).getLocalPort()))
+              .setCloudInfo(placement("cloud", regions[i], zones[i]))));
+    }
+    tablet.refreshServers(locations.build());
+    return tablet;
+  }
+
+  private YBTable table() {
+    return new YBTable(client, "table", "table-id", null, null);
+  }
+
+  @Test
+  public void testProximity() {
+    Common.CloudInfoPB client = placement("cloud", "region", "zone");
+    assertEquals(3, AsyncYBClient.getProximity(client, placement("cloud", "region", "zone")));
+    assertEquals(2, AsyncYBClient.getProximity(client, placement("cloud", "region", "zone2")));
+    assertEquals(1, AsyncYBClient.getProximity(client, placement("cloud", "region2", "zone")));
+    assertEquals(0, AsyncYBClient.getProximity(client, placement("cloud2", "region", "zone")));
+    assertEquals(0, AsyncYBClient.getProximity(client, null));
+  }
+
+  @Test
+  public void testRpcsGoToTheLeaderUnlessTheyAskOtherwise() {
+    TestRpc rpc = new TestRpc(table());
+    assertEquals(ReplicaSelectionPolicy.LEADER_ONLY, client.replicaSelectionPolicyFor(rpc));
+    rpc.setReplicaSelectionPolicy(ReplicaSelectionPolicy.CLOSEST_REPLICA);
+    assertEquals(ReplicaSelectionPolicy.CLOSEST_REPLICA, client.replicaSelectionPolicyFor(rpc));
+    rpc.setReplicaSelectionPolicy(null);
+    assertEquals(ReplicaSelectionPolicy.LEADER_ONLY, client.replicaSelectionPolicyFor(rpc));
+  }
+
+  @Test
+  public void testMasterRpcsGoToTheLeader() {
+    TestRpc read = new TestRpc(client.masterTable);
+    read.setReplicaSelectionPolicy(ReplicaSelectionPolicy.CLOSEST_REPLICA);
+    assertEquals(ReplicaSelectionPolicy.LEADER_ONLY, client.replicaSelectionPolicyFor(read));
+  }
+
+  @Test
+  public void testReplicaSelection() throws Exception {
+    AsyncYBClient.RemoteTablet tablet = tablet();
+    assertEquals("ts-0",
+                 client.clientFor(tablet, ReplicaSelectionPolicy.LEADER_ONLY).getUuid());
+    assertEquals("ts-1",
+                 client.clientFor(tablet, ReplicaSelectionPolicy.CLOSEST_REPLICA).getUuid());
+    // Without latency samples, nothing is faster than the leader.
+    assertEquals("ts-0",
+                 client.clientFor(tablet, ReplicaSelectionPolicy.LOWEST_LATENCY).getUuid());
+  }
+
+  /**
+   * An RPC that is never sent, only used to pick a replica for.
+   */
+  private static class TestRpc extends YRpc<Void> {
+    TestRpc(YBTable table) {
+      super(table);
+    }
+
+    @Override
+    ChannelBuffer serialize(Message header) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    String serviceName() {
+      return TABLET_SERVER_SERVICE_NAME;
+    }
+
+    @Override
+    String method() {
+      return "Test";
+    }
+
+    @Override
+    Pair<Void, Object> deserialize(CallResponse callResponse, String tsUUID) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
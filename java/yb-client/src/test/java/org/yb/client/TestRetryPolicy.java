@@ -0,0 +1,90 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import com.google.protobuf.Message;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.master.Master;
+
+@RunWith(value=YBTestRunner.class)
+public class TestRetryPolicy {
+
+  @Test
+  public void testDecorrelatedJitterBounds() {
+    RetryPolicy policy = new DecorrelatedJitterRetryPolicy(10, 1000);
+    long delay = 0;
+    for (int attempt = 1; attempt <= 50; attempt++) {
+      long next = policy.getRetryDelayMs(RetryReason.NOT_THE_LEADER, attempt, delay);
+      assertTrue(next >= 10);
+      assertTrue(next <= 1000);
+      assertTrue(next <= Math.max(10, delay) * 3);
+      delay = next;
+    }
+    // The first retry waits between the base delay and three times the base delay.
+    long first = policy.getRetryDelayMs(RetryReason.SERVER_TOO_BUSY, 1, 0);
+    assertTrue(first >= 10 && first <= 30);
+  }
+
+  @Test
+  public void testRetryBudget() throws Exception {
+    RetryBudget budget = new RetryBudget(100, 3);
+    assertTrue(budget.tryAcquire());
+    assertTrue(budget.tryAcquire());
+    assertTrue(budget.tryAcquire());
+    assertFalse(budget.tryAcquire());
+    // 100 tokens per second, one token is back after 10ms.
+    Thread.sleep(50);
+    assertTrue(budget.tryAcquire());
+  }
+
+  @Test
+  public void testTableNotServedRetriesUseTheBudget() throws Exception {
+    final FakeServer[] master = new FakeServer[1];
+    master[0] = new FakeServer("master", new FakeServer.Handler() {
+      @Override
+      public Message handle(FakeServer.Call call) {
+        switch (call.getMethod()) {
+          case "GetMasterRegistration":
+            return master[0].masterLeaderRegistration();
+          case "IsCreateTableDone":
+            return Master.IsCreateTableDoneResponsePB.newBuilder().setDone(false).build();
+          default:
+            // The table has no tablet yet.
+            return Master.GetTableLocationsResponsePB.getDefaultInstance();
+        }
+      }
+    });
+    AsyncYBClient client = new AsyncYBClient.AsyncYBClientBuilder(
+        master[0].getHostAndPort().toString())
+        .retryBudget(0.01, 1)
+        .build();
+    try {
+      YBTable table = new YBTable(client, "table", "table-id", null, null);
+      try {
+        client.getChanges(table, "stream", "tablet", null, 0, 0).join(10000);
+        fail("The table isn't served");
+      } catch (NonRecoverableException e) {
+        assertTrue(e.getMessage().startsWith("Retry budget exhausted"));
+      }
+      assertEquals(1, client.getNumRetries(RetryReason.TABLE_NOT_SERVED));
+      assertEquals(1, client.getNumRetriesRejectedByBudget());
+    } finally {
+      client.close();
+      master[0].close();
+    }
+  }
+}
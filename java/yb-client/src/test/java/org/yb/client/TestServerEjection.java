@@ -0,0 +1,161 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.protobuf.Message;
+import com.stumbleupon.async.Deferred;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.cdc.CdcService;
+
+@RunWith(value=YBTestRunner.class)
+public class TestServerEjection {
+
+  private static final long TIMEOUT_MS = 10000;
+  private static final int FAILURE_THRESHOLD = 2;
+  private static final int NUM_RPCS = 5;
+
+  private FakeServer tserver;
+  private FakeServer master;
+  private AsyncYBClient client;
+  private YBTable table;
+
+  // GetChanges calls waiting for an answer, guarded by itself.
+  private final List<FakeServer.Call> heldCalls = new ArrayList<>();
+  private volatile boolean holdCalls = false;
+
+  @Before
+  public void setUp() throws Exception {
+    tserver = new FakeServer("ts", new FakeServer.Handler() {
+      @Override
+      public Message handle(FakeServer.Call call) {
+        synchronized (heldCalls) {
+          if (holdCalls) {
+            heldCalls.add(call);
+            return null;
+          }
+        }
+        return CdcService.GetChangesResponsePB.getDefaultInstance();
+      }
+    });
+    master = FakeServer.newMaster(FakeServer.tabletLocations(
+        "tablet", AsyncYBClient.EMPTY_ARRAY, AsyncYBClient.EMPTY_ARRAY, tserver));
+    client = new AsyncYBClient.AsyncYBClientBuilder(master.getHostAndPort().toString())
+        .defaultAdminOperationTimeoutMs(TIMEOUT_MS)
+        .defaultOperationTimeoutMs(TIMEOUT_MS)
+        // Long enough for the server not to be probed during the test.
+        .ejectUnhealthyServers(FAILURE_THRESHOLD, 3600 * 1000)
+        .build();
+    table = new YBTable(client, "table", "table-id", null, null);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    master.close();
+    tserver.close();
+  }
+
+  private void getChanges() {
+    client.getChanges(table, "stream", "tablet", null, 0, 0);
+  }
+
+  private void waitForHeldCalls(int count) throws Exception {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (true) {
+      synchronized (heldCalls) {
+        if (heldCalls.size() >= count) {
+          heldCalls.clear();
+          return;
+        }
+      }
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testLongPollsAreNotOutliers() throws Exception {
+    // A single outlier is enough to eject the server.
+    AsyncYBClient strictClient =
+        new AsyncYBClient.AsyncYBClientBuilder(master.getHostAndPort().toString())
+            .defaultAdminOperationTimeoutMs(TIMEOUT_MS)
+            .defaultOperationTimeoutMs(TIMEOUT_MS)
+            .ejectUnhealthyServers(1, 3600 * 1000)
+            .build();
+    try {
+      YBTable strictTable = new YBTable(strictClient, "table", "table-id", null, null);
+      // Quick answers set the usual latency of the server.
+      for (int i = 0; i < 10; i++) {
+        strictClient.getChanges(strictTable, "stream", "tablet", null, 0, 0).join(TIMEOUT_MS);
+      }
+
+      // A long poll held way longer than that.
+      holdCalls = true;
+      Deferred<GetChangesResponse> poll =
+          strictClient.getChanges(strictTable, "stream", "tablet", null, 0, 0, 5000);
+      FakeServer.Call call = null;
+      long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+      while (call == null) {
+        synchronized (heldCalls) {
+          if (!heldCalls.isEmpty()) {
+            call = heldCalls.remove(0);
+          }
+        }
+        assertTrue(System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+      Thread.sleep(800);
+      call.respond(CdcService.GetChangesResponsePB.getDefaultInstance());
+      poll.join(TIMEOUT_MS);
+      assertEquals(0, strictClient.getNumServerEjections());
+      assertTrue(strictClient.getEjectedServers().isEmpty());
+    } finally {
+      strictClient.close();
+    }
+  }
+
+  @Test
+  public void testOneFailurePerReset() throws Exception {
+    holdCalls = true;
+    for (int i = 0; i < NUM_RPCS; i++) {
+      getChanges();
+    }
+    waitForHeldCalls(NUM_RPCS);
+
+    // However many RPCs were in flight, a reset is a single failure, below the threshold.
+    tserver.resetConnections();
+    waitForHeldCalls(NUM_RPCS);
+    assertEquals(0, client.getNumServerEjections());
+    assertTrue(client.getEjectedServers().isEmpty());
+
+    // The RPCs were retried on a new connection, losing it too ejects the server.
+    tserver.resetConnections();
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (client.getNumServerEjections() == 0) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    assertEquals(1, client.getNumServerEjections());
+    assertEquals(Collections.singleton(tserver.getUuid()), client.getEjectedServers());
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestServerHealth {
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() {
+    ServerHealth health = new ServerHealth(3, 100, 400);
+    assertFalse(health.recordFailure(0));
+    assertFalse(health.recordFailure(0));
+    // A success resets the count.
+    health.recordSuccess();
+    assertFalse(health.recordFailure(0));
+    assertFalse(health.recordFailure(0));
+    assertFalse(health.isEjected());
+    assertTrue(health.recordFailure(0));
+    assertTrue(health.isEjected());
+    assertEquals(ServerHealth.State.OPEN, health.getState());
+    assertEquals(1, health.getNumEjections());
+    // More failures of RPCs sent before the ejection don't open it again.
+    assertFalse(health.recordFailure(10));
+    assertEquals(1, health.getNumEjections());
+  }
+
+  @Test
+  public void testProbe() {
+    ServerHealth health = new ServerHealth(1, 100, 400);
+    assertTrue(health.recordFailure(0));
+    // Too early.
+    assertFalse(health.tryStartProbe(99));
+    assertTrue(health.tryStartProbe(100));
+    assertEquals(ServerHealth.State.HALF_OPEN, health.getState());
+    // Only one probe at a time.
+    assertFalse(health.tryStartProbe(100));
+    assertTrue(health.isEjected());
+
+    // A failed probe ejects the server for twice as long, up to the maximum.
+    assertTrue(health.recordFailure(100));
+    assertEquals(200, health.getEjectionMs());
+    assertFalse(health.tryStartProbe(299));
+    assertTrue(health.tryStartProbe(300));
+    assertTrue(health.recordFailure(300));
+    assertEquals(400, health.getEjectionMs());
+    assertTrue(health.tryStartProbe(700));
+    assertTrue(health.recordFailure(700));
+    assertEquals(400, health.getEjectionMs());
+
+    // A successful probe reinstates the server.
+    assertTrue(health.tryStartProbe(1100));
+    health.recordSuccess();
+    assertFalse(health.isEjected());
+    assertEquals(ServerHealth.State.CLOSED, health.getState());
+    assertEquals(100, health.getEjectionMs());
+    assertEquals(4, health.getNumEjections());
+  }
+
+  @Test
+  public void testLatencyPerMethod() {
+    ServerHealth health = new ServerHealth(1, 100, 400);
+    assertEquals(0, health.recordLatency("Ping", 1000));
+    assertEquals(0, health.recordLatency("GetChanges", 800000));
+    // Each method is only averaged with itself.
+    assertEquals(1000, health.recordLatency("Ping", 1000));
+    assertEquals(800000, health.recordLatency("GetChanges", 800000));
+    // A new sample weighs an eighth.
+    assertEquals(1000, health.recordLatency("Ping", 9000));
+    assertEquals(2000, health.recordLatency("Ping", 2000));
+  }
+}
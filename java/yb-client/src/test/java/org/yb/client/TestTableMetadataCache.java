@@ -0,0 +1,92 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.Common.TableType;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestTableMetadataCache {
+
+  private static GetTableSchemaResponse schema(String id, String name, int version) {
+    return new GetTableSchemaResponse(0, "master", null, "ks", name, id, null,
+                                      true /* createTableDone */,
+                                      TableType.YQL_TABLE_TYPE, version);
+  }
+
+  @Test
+  public void testLookups() {
+    TableMetadataCache cache = new TableMetadataCache(100, 60000);
+    assertNull(cache.getByName("ks", "t"));
+    GetTableSchemaResponse t = schema("id1", "t", 0);
+    cache.put("ks", "t", t);
+    assertSame(t, cache.getByName("ks", "t"));
+    assertSame(t, cache.getById("id1"));
+    assertEquals(2, cache.getNumHits());
+    assertEquals(1, cache.getNumMisses());
+
+    // Tables still being created are not cached.
+    cache.put(null, null, new GetTableSchemaResponse(0, "master", null, "ks", "new", "id2", null,
+                                                     false, TableType.YQL_TABLE_TYPE, 0));
+    assertNull(cache.getById("id2"));
+  }
+
+  @Test
+  public void testSchemaVersion() {
+    TableMetadataCache cache = new TableMetadataCache(100, 60000);
+    GetTableSchemaResponse v1 = schema("id1", "t", 1);
+    cache.put("ks", "t", v1);
+    GetTableSchemaResponse v2 = schema("id1", "t", 2);
+    cache.put(null, null, v2);
+    assertSame(v2, cache.getById("id1"));
+    assertSame(v2, cache.getByName("ks", "t"));
+    // A late response with the old version doesn't replace the new one.
+    cache.put("ks", "t", v1);
+    assertSame(v2, cache.getByName("ks", "t"));
+  }
+
+  @Test
+  public void testInvalidate() {
+    TableMetadataCache cache = new TableMetadataCache(100, 60000);
+    cache.put("ks", "t", schema("id1", "t", 0));
+    cache.put("ks", "u", schema("id2", "u", 0));
+    cache.invalidateByName("ks", "t");
+    assertNull(cache.getById("id1"));
+    assertNull(cache.getByName("ks", "t"));
+    cache.invalidateById("id2");
+    assertNull(cache.getByName("ks", "u"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testBoundAndExpiration() throws Exception {
+    TableMetadataCache cache = new TableMetadataCache(4, 60000);
+    for (int i = 0; i < 10; i++) {
+      cache.put("ks", "t" + i, schema("id" + i, "t" + i, 0));
+    }
+    assertEquals(4, cache.size());
+    assertNotNull(cache.getById("id9"));
+    assertNull(cache.getById("id0"));
+
+    cache = new TableMetadataCache(4, 1);
+    cache.put("ks", "t", schema("id1", "t", 0));
+    Thread.sleep(10);
+    assertNull(cache.getById("id1"));
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.util.Slice;
+
+@RunWith(value=YBTestRunner.class)
+public class TestTabletLocationIndex {
+
+  private static AsyncYBClient client;
+
+  @BeforeClass
+  public static void setUpBeforeClass() {
+    client = new AsyncYBClient.AsyncYBClientBuilder("127.0.0.1").build();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    client.close();
+  }
+
+  private static AsyncYBClient.RemoteTablet tablet(String id, String start, String end) {
+    Partition partition = new Partition(start.getBytes(), end.getBytes(),
+                                        Collections.<Integer>emptyList());
+    return client.new RemoteTablet("table", new Slice(id.getBytes()), partition);
+  }
+
+  @Test
+  public void testLookup() {
+    TabletLocationIndex index = TabletLocationIndex.EMPTY;
+    assertNull(index.lookup("a".getBytes()));
+    assertNull(index.first());
+
+    AsyncYBClient.RemoteTablet t1 = tablet("t1", "", "c");
+    AsyncYBClient.RemoteTablet t3 = tablet("t3", "f", "");
+    index = index.withTablets(Arrays.asList(t3, t1), null);
+    assertEquals(2, index.size());
+    assertSame(t1, index.first());
+    assertSame(t1, index.lookup(null));
+    assertSame(t1, index.lookup("".getBytes()));
+    assertSame(t1, index.lookup("bzz".getBytes()));
+    // Hole between "c" and "f", we don't know that tablet yet.
+    assertNull(index.lookup("c".getBytes()));
+    assertNull(index.lookup("e".getBytes()));
+    assertSame(t3, index.lookup("f".getBytes()));
+    assertSame(t3, index.lookup("zzz".getBytes()));
+
+    AsyncYBClient.RemoteTablet t2 = tablet("t2", "c", "f");
+    TabletLocationIndex newIndex = index.withTablets(Arrays.asList(t2), null);
+    assertSame(t2, newIndex.lookup("d".getBytes()));
+    // The old snapshot is unchanged.
+    assertNull(index.lookup("d".getBytes()));
+  }
+
+  @Test
+  public void testOverlappingTabletsAreDropped() {
+    AsyncYBClient.RemoteTablet t1 = tablet("t1", "", "c");
+    AsyncYBClient.RemoteTablet t2 = tablet("t2", "c", "f");
+    AsyncYBClient.RemoteTablet t3 = tablet("t3", "f", "");
+    TabletLocationIndex index =
+        TabletLocationIndex.EMPTY.withTablets(Arrays.asList(t1, t2, t3), null);
+
+    // t2 was split in two.
+    AsyncYBClient.RemoteTablet t2a = tablet("t2a", "c", "d");
+    AsyncYBClient.RemoteTablet t2b = tablet("t2b", "d", "f");
+    List<AsyncYBClient.RemoteTablet> dropped = new ArrayList<>();
+    index = index.withTablets(Arrays.asList(t2a, t2b), dropped);
+    assertEquals(Arrays.asList(t2), dropped);
+    assertEquals(Arrays.asList(t1, t2a, t2b, t3), index.getTablets());
+    assertSame(t2a, index.lookup("cc".getBytes()));
+    assertSame(t2b, index.lookup("d".getBytes()));
+
+    // A single tablet covering the whole table replaces everything.
+    AsyncYBClient.RemoteTablet all = tablet("all", "", "");
+    dropped.clear();
+    index = index.withTablets(Arrays.asList(all), dropped);
+    assertEquals(4, dropped.size());
+    assertEquals(1, index.size());
+    assertSame(all, index.lookup("zzz".getBytes()));
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.Message;
+import com.stumbleupon.async.Deferred;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.cdc.CdcService;
+
+@RunWith(value=YBTestRunner.class)
+public class TestWriteCoalescer {
+
+  private static final long TIMEOUT_MS = 10000;
+  private static final long HOUR_MS = 3600 * 1000;
+
+  private FakeServer tserver;
+  private FakeServer master;
+  private AsyncYBClient client;
+  private YBTable table;
+
+  @Before
+  public void setUp() throws Exception {
+    tserver = new FakeServer("ts", new FakeServer.Handler() {
+      @Override
+      public Message handle(FakeServer.Call call) {
+        return CdcService.GetChangesResponsePB.getDefaultInstance();
+      }
+    });
+    master = FakeServer.newMaster(FakeServer.tabletLocations(
+        "tablet", AsyncYBClient.EMPTY_ARRAY, AsyncYBClient.EMPTY_ARRAY, tserver));
+  }
+
+  private void startClient(long windowMs, int maxBatchBytes) {
+    client = new AsyncYBClient.AsyncYBClientBuilder(master.getHostAndPort().toString())
+        .defaultAdminOperationTimeoutMs(TIMEOUT_MS)
+        .defaultOperationTimeoutMs(TIMEOUT_MS)
+        .writeCoalescing(windowMs, maxBatchBytes)
+        .build();
+    table = new YBTable(client, "table", "table-id", null, null);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (client != null) {
+      client.close();
+    }
+    master.close();
+    tserver.close();
+  }
+
+  private Deferred<GetChangesResponse> getChanges() {
+    return client.getChanges(table, "stream", "tablet", null, 0, 0);
+  }
+
+  @Test
+  public void testFlushOnWindowTimer() throws Exception {
+    final long windowMs = 500;
+    startClient(windowMs, Integer.MAX_VALUE);
+    // Locate the tablet and connect to the tablet server first.
+    getChanges().join(TIMEOUT_MS);
+    final long batchesBefore = client.getNumWriteBatches();
+    final long writesBefore = client.getNumCoalescedWrites();
+
+    final long start = System.nanoTime();
+    final int numRpcs = 5;
+    List<Deferred<GetChangesResponse>> calls = new ArrayList<>();
+    for (int i = 0; i < numRpcs; i++) {
+      calls.add(getChanges());
+    }
+    for (Deferred<GetChangesResponse> call : calls) {
+      call.join(TIMEOUT_MS);
+    }
+    final long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+    // Nothing fills the batch, so it only goes out when the window expires, all at once.
+    assertTrue("answered after " + elapsedMs + "ms", elapsedMs >= windowMs);
+    assertEquals(batchesBefore + 1, client.getNumWriteBatches());
+    assertEquals(writesBefore + numRpcs, client.getNumCoalescedWrites());
+  }
+
+  @Test
+  public void testFlushAtMaxBatchBytes() throws Exception {
+    // The window never expires during the test, every RPC fills a batch by itself.
+    startClient(HOUR_MS, 1);
+    getChanges().join(TIMEOUT_MS);
+    final long batchesBefore = client.getNumWriteBatches();
+    final long writesBefore = client.getNumCoalescedWrites();
+
+    final int numRpcs = 5;
+    for (int i = 0; i < numRpcs; i++) {
+      getChanges().join(TIMEOUT_MS);
+    }
+
+    assertEquals(batchesBefore + numRpcs, client.getNumWriteBatches());
+    assertEquals(writesBefore + numRpcs, client.getNumCoalescedWrites());
+  }
+
+  @Test
+  public void testPendingWritesRetriedOnDisconnect() throws Exception {
+    startClient(1000, Integer.MAX_VALUE);
+    getChanges().join(TIMEOUT_MS);
+    final int callsBefore = tserver.getNumCalls("GetChanges");
+    final int lookupsBefore = master.getNumCalls("GetTableLocations");
+    final long writesBefore = client.getNumCoalescedWrites();
+
+    // The tablet is located and the connection ready, so the RPC is in the batch by now.
+    Deferred<GetChangesResponse> call = getChanges();
+    tserver.resetConnections();
+
+    // The discarded batch is never written, the RPC goes out once on a new connection, after
+    // looking the tablet up again.
+    call.join(TIMEOUT_MS);
+    assertEquals(callsBefore + 1, tserver.getNumCalls("GetChanges"));
+    final int lookups = master.getNumCalls("GetTableLocations") - lookupsBefore;
+    assertEquals(writesBefore + 1 + lookups, client.getNumCoalescedWrites());
+    assertEquals(2, tserver.getNumConnections());
+  }
+
+  @Test
+  public void testWritesRefusedAfterClose() throws Exception {
+    startClient(HOUR_MS, Integer.MAX_VALUE);
+    // The channel is only used to flush, which never happens here.
+    WriteCoalescer coalescer = new WriteCoalescer(client, null, HOUR_MS,
+                                                  Integer.MAX_VALUE);
+    assertTrue(coalescer.write(ChannelBuffers.wrappedBuffer(new byte[10])));
+    assertTrue(coalescer.write(ChannelBuffers.wrappedBuffer(new byte[10])));
+    assertEquals(2, coalescer.close());
+    assertFalse(coalescer.write(ChannelBuffers.wrappedBuffer(new byte[10])));
+    assertEquals(0, coalescer.close());
+  }
+}
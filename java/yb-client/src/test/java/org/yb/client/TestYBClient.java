@@ -330,6 +330,72 @@ public class TestYBClient extends BaseYBClientTest {
     assertNotEquals(newLeaderUuid, leaderUuid);
   }
 
+  /**
+   * Test that the leader master is only looked up when it is not known.
+   * @throws Exception
+   */
+  @Test(timeout = 100000)
+  public void testLeaderMasterIsCached() throws Exception {
+    String leaderUuid = syncClient.getLeaderMasterUUID();
+    assertNotNull(leaderUuid);
+    HostAndPort leaderHostAndPort = syncClient.getLeaderMasterHostAndPort();
+    assertNotNull(leaderHostAndPort);
+
+    long numRefreshes = client.getNumMasterLeaderRefreshes();
+    for (int i = 0; i < 10; i++) {
+      assertEquals(leaderUuid, syncClient.getLeaderMasterUUID());
+      assertEquals(leaderHostAndPort, syncClient.getLeaderMasterHostAndPort());
+    }
+    assertEquals(numRefreshes, client.getNumMasterLeaderRefreshes());
+
+    // A step down forgets the leader, the next call asks the masters again.
+    assertFalse(syncClient.masterLeaderStepDown().hasError());
+    TestUtils.waitFor(
+        () -> {
+          return syncClient.getLeaderMasterUUID() != null;
+        }, 20000);
+    assertTrue(client.getNumMasterLeaderRefreshes() > numRefreshes);
+  }
+
+  /**
+   * Test that RPCs show up in the client metrics.
+   */
+  @Test(timeout = 100000)
+  public void testClientMetrics() throws Exception {
+    ClientMetrics metrics = syncClient.getMetrics();
+    long numAttempts = metrics.getNumAttempts("yb.master.MasterService", "ListTables");
+    for (int i = 0; i < 5; i++) {
+      syncClient.getTablesList();
+    }
+    assertTrue(metrics.getNumAttempts("yb.master.MasterService", "ListTables") >=
+               numAttempts + 5);
+    LatencyHistogram.Snapshot latencies =
+        metrics.getLatencyHistogram("yb.master.MasterService", "ListTables").snapshot();
+    assertTrue(latencies.getCount() >= 5);
+    assertTrue(latencies.getValueAtQuantile(0.99) <= latencies.getMaxMicros());
+
+    final Map<String, Long> counters = new HashMap<>();
+    metrics.visit(new ClientMetrics.Visitor() {
+      @Override
+      public void counter(String name, Map<String, String> labels, long value) {
+        Long total = counters.get(name);
+        counters.put(name, (total == null ? 0 : total) + value);
+      }
+
+      @Override
+      public void gauge(String name, Map<String, String> labels, double value) {
+      }
+
+      @Override
+      public void histogram(String name, Map<String, String> labels,
+                            LatencyHistogram.Snapshot snapshot) {
+      }
+    });
+    assertTrue(counters.get("yb_client_rpc_attempts") >= 5);
+    assertTrue(counters.get("yb_client_bytes_sent") > 0);
+    assertTrue(counters.get("yb_client_bytes_received") > 0);
+  }
+
   /**
    * Test for changing the universe config.
    * @throws Exception
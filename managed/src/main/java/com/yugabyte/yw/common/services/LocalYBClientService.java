@@ -2,41 +2,307 @@
 
 package com.yugabyte.yw.common.services;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
 import org.yb.client.YBClient;
+import play.inject.ApplicationLifecycle;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out YBClients from a pool keyed by master addresses and certificate, so that the tasks
+ * talking to the same universe share a client, its connections and its caches instead of
+ * building a new one every time.
+ *
+ * Clients are reference counted: {@link #closeClient} releases the client and it is only closed
+ * once nobody used it for {@link #DEFAULT_IDLE_TIMEOUT_MS}, which a background thread checks
+ * every {@link #EVICTION_INTERVAL_MS} at most. All the clients share the same Netty threads and
+ * timer, they are released by {@link #close} when the application stops.
+ */
 @Singleton
 public class LocalYBClientService implements YBClientService {
   public static final Logger LOG = LoggerFactory.getLogger(LocalYBClientService.class);
 
+  // How long a client stays in the pool once nobody uses it.
+  static final long DEFAULT_IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+  // How often idle clients are looked for, or the idle timeout if it's shorter.
+  static final long EVICTION_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+  private static final long MIN_EVICTION_INTERVAL_MS = 10;
+
+  // Metric names
+  static final String POOL_HITS_METRIC_NAME = "yw_ybclient_pool_hit_count";
+  static final String POOL_MISSES_METRIC_NAME = "yw_ybclient_pool_miss_count";
+  static final String POOL_EVICTIONS_METRIC_NAME = "yw_ybclient_pool_eviction_count";
+  static final String POOL_SIZE_METRIC_NAME = "yw_ybclient_pool_size";
+
+  private static final class ClientKey {
+    final String masterHostPorts;
+    final String certFile;
+
+    ClientKey(String masterHostPorts, String certFile) {
+      this.masterHostPorts = masterHostPorts;
+      this.certFile = certFile;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ClientKey)) {
+        return false;
+      }
+      ClientKey other = (ClientKey) o;
+      return masterHostPorts.equals(other.masterHostPorts)
+          && Objects.equals(certFile, other.certFile);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(masterHostPorts, certFile);
+    }
+  }
+
+  private static final class PooledClient {
+    final ClientKey key;
+    final YBClient client;
+    int refCount = 0;
+    long idleSinceMs = 0;
+
+    PooledClient(ClientKey key, YBClient client) {
+      this.key = key;
+      this.client = client;
+    }
+  }
+
+  private final long idleTimeoutMs;
+
+  // All guarded by this.
+  private final Map<ClientKey, PooledClient> pool = new HashMap<>();
+  private final Map<YBClient, PooledClient> pooledClients = new IdentityHashMap<>();
+  private boolean closed = false;
+
+  private final NioClientSocketChannelFactory channelFactory;
+  private final HashedWheelTimer timer;
+  private final ScheduledExecutorService evictor;
+
+  private Counter hits;
+  private Counter misses;
+  private Counter evictions;
+  private Gauge size;
+
+  @Inject
+  public LocalYBClientService(ApplicationLifecycle lifecycle) {
+    this(DEFAULT_IDLE_TIMEOUT_MS, CollectorRegistry.defaultRegistry);
+    lifecycle.addStopHook(() -> {
+      close();
+      return CompletableFuture.completedFuture(null);
+    });
+  }
+
+  @VisibleForTesting
+  LocalYBClientService(long idleTimeoutMs, CollectorRegistry promRegistry) {
+    this.idleTimeoutMs = idleTimeoutMs;
+    ThreadFactory threadFactory = new ThreadFactoryBuilder()
+        .setNameFormat("yb-client-pool-%d")
+        .setDaemon(true)
+        .build();
+    this.channelFactory = new NioClientSocketChannelFactory(
+        Executors.newCachedThreadPool(threadFactory),
+        Executors.newCachedThreadPool(threadFactory),
+        1, 2 * Runtime.getRuntime().availableProcessors());
+    this.timer = new HashedWheelTimer(threadFactory, 20, TimeUnit.MILLISECONDS);
+    // Not on the timer: closing an idle client blocks until its connections are gone.
+    this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("yb-client-pool-evictor")
+        .setDaemon(true)
+        .build());
+    long evictionIntervalMs = Math.max(MIN_EVICTION_INTERVAL_MS,
+        Math.min(idleTimeoutMs, EVICTION_INTERVAL_MS));
+    evictor.scheduleWithFixedDelay(this::evictIdleClients, evictionIntervalMs,
+        evictionIntervalMs, TimeUnit.MILLISECONDS);
+
+    try {
+      hits = Counter.build(POOL_HITS_METRIC_NAME, "Number of YBClients reused from the pool")
+        .register(promRegistry);
+      misses = Counter.build(POOL_MISSES_METRIC_NAME, "Number of YBClients added to the pool")
+        .register(promRegistry);
+      evictions = Counter.build(POOL_EVICTIONS_METRIC_NAME,
+        "Number of idle YBClients closed and removed from the pool")
+        .register(promRegistry);
+      size = Gauge.build(POOL_SIZE_METRIC_NAME, "Number of YBClients in the pool")
+        .register(promRegistry);
+    } catch (IllegalArgumentException e) {
+      LOG.warn("Failed to build prometheus metrics for the YBClient pool: " + e.getMessage());
+    }
+  }
+
   @Override
-  public synchronized YBClient getClient(String masterHostPorts) {
+  public YBClient getClient(String masterHostPorts) {
     return getClient(masterHostPorts, null);
   }
 
   @Override
-  public synchronized YBClient getClient(String masterHostPorts, String certFile) {
-    if (masterHostPorts != null) {
-      return getNewClient(masterHostPorts, certFile);
+  public YBClient getClient(String masterHostPorts, String certFile) {
+    if (masterHostPorts == null) {
+      return null;
     }
-    return null;
+    ClientKey key = new ClientKey(masterHostPorts, certFile);
+    PooledClient pooled;
+    List<PooledClient> evicted;
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("The YBClient pool is closed");
+      }
+      evicted = removeIdleClients();
+      pooled = pool.get(key);
+      if (pooled != null) {
+        inc(hits);
+      } else {
+        inc(misses);
+        pooled = new PooledClient(key, getNewClient(masterHostPorts, certFile));
+        pool.put(key, pooled);
+        pooledClients.put(pooled.client, pooled);
+      }
+      pooled.refCount++;
+      updateSize();
+    }
+    closeClients(evicted);
+    return pooled.client;
   }
 
   @Override
-  public synchronized void closeClient(YBClient client, String masterHostPorts) {
-    if (client != null) {
-      LOG.debug("Closing client masters={}.", masterHostPorts);
-      try {
-        client.close();
-      } catch (Exception e) {
-        LOG.warn("Closing client with masters={} hit error {}", masterHostPorts, e.getMessage());
-      }
-    } else {
+  public void closeClient(YBClient client, String masterHostPorts) {
+    if (client == null) {
       LOG.warn("Client for masters {} was null, cannot close", masterHostPorts);
+      return;
+    }
+    List<PooledClient> evicted;
+    synchronized (this) {
+      PooledClient pooled = pooledClients.get(client);
+      if (pooled == null) {
+        // Not one of ours, or it was already evicted.
+        evicted = null;
+      } else {
+        if (pooled.refCount > 0 && --pooled.refCount == 0) {
+          pooled.idleSinceMs = System.currentTimeMillis();
+        }
+        evicted = removeIdleClients();
+      }
+    }
+    if (evicted == null) {
+      closeClient(client, masterHostPorts, "unpooled");
+      return;
+    }
+    closeClients(evicted);
+  }
+
+  /**
+   * Closes all the pooled clients, used or not, and releases the threads and the timer they
+   * share. The pool can't hand out clients anymore.
+   */
+  public void close() {
+    List<PooledClient> clients;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      clients = new ArrayList<>(pool.values());
+      pool.clear();
+      pooledClients.clear();
+      updateSize();
+    }
+    evictor.shutdownNow();
+    for (PooledClient pooled : clients) {
+      closeClient(pooled.client, pooled.key.masterHostPorts, "pooled");
+    }
+    timer.stop();
+    channelFactory.releaseExternalResources();
+  }
+
+  /**
+   * @return the number of clients in the pool, used or not
+   */
+  @VisibleForTesting
+  synchronized int getPoolSize() {
+    return pool.size();
+  }
+
+  // Must be called with this synchronized.
+  private List<PooledClient> removeIdleClients() {
+    List<PooledClient> evicted = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    Iterator<PooledClient> iter = pool.values().iterator();
+    while (iter.hasNext()) {
+      PooledClient pooled = iter.next();
+      if (pooled.refCount == 0 && now - pooled.idleSinceMs >= idleTimeoutMs) {
+        iter.remove();
+        pooledClients.remove(pooled.client);
+        evicted.add(pooled);
+        inc(evictions);
+      }
+    }
+    updateSize();
+    return evicted;
+  }
+
+  private void evictIdleClients() {
+    List<PooledClient> evicted;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      evicted = removeIdleClients();
+    }
+    closeClients(evicted);
+  }
+
+  // Closing a client waits for its connections to go away, don't do it while holding the lock.
+  private void closeClients(List<PooledClient> evicted) {
+    for (PooledClient pooled : evicted) {
+      closeClient(pooled.client, pooled.key.masterHostPorts, "idle");
+    }
+  }
+
+  private void closeClient(YBClient client, String masterHostPorts, String reason) {
+    LOG.debug("Closing {} client masters={}.", reason, masterHostPorts);
+    try {
+      client.close();
+    } catch (Exception e) {
+      LOG.warn("Closing client with masters={} hit error {}", masterHostPorts, e.getMessage());
+    }
+  }
+
+  private void updateSize() {
+    if (size != null) {
+      size.set(pool.size());
+    }
+  }
+
+  private static void inc(Counter counter) {
+    if (counter != null) {
+      counter.inc();
     }
   }
 
@@ -44,6 +310,8 @@ public class LocalYBClientService implements YBClientService {
     return new YBClient.YBClientBuilder(masterHPs)
                        .defaultAdminOperationTimeoutMs(120000)
                        .sslCertFile(certFile)
+                       .channelFactory(channelFactory)
+                       .timer(timer)
                        .build();
   }
 }
@@ -0,0 +1,109 @@
+// Copyright (c) YugaByte, Inc.
+
+package com.yugabyte.yw.common.services;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.yb.client.YBClient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class LocalYBClientServiceTest {
+
+  private static final String MASTERS = "127.0.0.1:7100";
+
+  private final List<LocalYBClientService> services = new ArrayList<>();
+
+  private LocalYBClientService newService(long idleTimeoutMs, CollectorRegistry registry) {
+    LocalYBClientService service = new LocalYBClientService(idleTimeoutMs, registry);
+    services.add(service);
+    return service;
+  }
+
+  @After
+  public void tearDown() {
+    for (LocalYBClientService service : services) {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testClientIsShared() {
+    CollectorRegistry registry = new CollectorRegistry();
+    LocalYBClientService service = newService(60000, registry);
+    YBClient client = service.getClient(MASTERS);
+    assertSame(client, service.getClient(MASTERS));
+    assertNotSame(client, service.getClient(MASTERS, "/path/to/cert"));
+    assertEquals(2, service.getPoolSize());
+    assertEquals(1.0,
+        registry.getSampleValue(LocalYBClientService.POOL_HITS_METRIC_NAME), 0);
+    assertEquals(2.0,
+        registry.getSampleValue(LocalYBClientService.POOL_MISSES_METRIC_NAME), 0);
+
+    // Still used, releasing it doesn't close it.
+    service.closeClient(client, MASTERS);
+    service.closeClient(client, MASTERS);
+    assertEquals(2, service.getPoolSize());
+    assertSame(client, service.getClient(MASTERS));
+  }
+
+  @Test
+  public void testIdleClientIsEvicted() {
+    CollectorRegistry registry = new CollectorRegistry();
+    LocalYBClientService service = newService(0, registry);
+    YBClient client = service.getClient(MASTERS);
+    assertEquals(1, service.getPoolSize());
+    service.closeClient(client, MASTERS);
+    assertEquals(0, service.getPoolSize());
+    assertEquals(1.0,
+        registry.getSampleValue(LocalYBClientService.POOL_EVICTIONS_METRIC_NAME), 0);
+    assertNotSame(client, service.getClient(MASTERS));
+  }
+
+  @Test
+  public void testIdleClientIsEvictedInTheBackground() throws Exception {
+    CollectorRegistry registry = new CollectorRegistry();
+    LocalYBClientService service = newService(50, registry);
+    YBClient client = service.getClient(MASTERS);
+    service.closeClient(client, MASTERS);
+    // Nobody asks the pool for a client anymore, the idle one still goes away.
+    long deadline = System.currentTimeMillis() + 10000;
+    while (service.getPoolSize() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, service.getPoolSize());
+    assertEquals(1.0,
+        registry.getSampleValue(LocalYBClientService.POOL_EVICTIONS_METRIC_NAME), 0);
+  }
+
+  @Test
+  public void testClose() {
+    LocalYBClientService service = newService(60000, new CollectorRegistry());
+    service.getClient(MASTERS);
+    service.getClient(MASTERS, "/path/to/cert");
+    service.close();
+    assertEquals(0, service.getPoolSize());
+    // Closing twice is fine.
+    service.close();
+    try {
+      service.getClient(MASTERS);
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testNullMasters() {
+    LocalYBClientService service = newService(0, new CollectorRegistry());
+    assertNull(service.getClient(null));
+  }
+}